@@ -46,6 +46,11 @@ android {
 
     testOptions {
         unitTests.isReturnDefaultValues = true
+        // 基准测试默认跳过，-Pbenchmark=true时运行，结果写到build/reports/benchmarks
+        unitTests.all {
+            it.systemProperty("benchmark", project.findProperty("benchmark")?.toString() ?: "false")
+            it.systemProperty("benchmark.dir", layout.buildDirectory.dir("reports/benchmarks").get().asFile.path)
+        }
     }
 
     buildTypes {
@@ -74,6 +79,7 @@ dependencies {
     api(libs.appcompat)
     implementation(files("${rootProject.projectDir}\\libs\\xstream-1.4.9.jar"))
     implementation(libs.localbroadcastmanager)
+    implementation(libs.androidx.webkit)
     implementation(libs.okhttp)
     // room
     implementation(libs.androidx.room.runtime)
@@ -101,6 +107,7 @@ dependencies {
     api(libs.androidutils)
 
     testImplementation(libs.junit4)
+    testImplementation(libs.sqlite.jdbc)
     androidTestImplementation(libs.androidx.test.ext.junit)
     androidTestImplementation(libs.espresso.core)
     implementation(libs.apache.compress)
@@ -0,0 +1,212 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.common
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_LIST_CACHE_MAX_DIRS
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_LIST_CACHE_MAX_SNAPSHOTS
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_LIST_CACHE_TTL_MILLIS
+import java.io.File
+import java.io.IOException
+import java.nio.file.DirectoryIteratorException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * getFileList的目录列举缓存。
+ * 每个目录缓存一次列举得到的文件属性，按(过滤条件, 排序规则)缓存排好序的快照，翻页时直接从快照取，不再重复列举和排序。
+ * 目录修改时间变化或超过[FILE_LIST_CACHE_TTL_MILLIS]后重新列举；目录修改时间只反映子项增删和重命名，TTL用于兜底文件大小的变化。
+ * 快照有编号，带游标翻页时即使目录已变化也从同一个快照继续，保证各页之间不重复不遗漏。
+ * 快照记录所属目录和列举条件，游标只能用于生成它的目录和条件。
+ */
+class DirectoryListingCache(private val clock: () -> Long = System::currentTimeMillis) {
+
+    companion object {
+        const val FILE_TYPE_ALL = 0
+        const val FILE_TYPE_FILE = 1
+        const val FILE_TYPE_DIRECTORY = 2
+        const val SORT_TYPE_SIZE = "sizeSort"
+        const val SORT_TYPE_TIME = "timeSort"
+        const val SORT_ORDER_DESC = 1
+        const val SORT_ORDER_ASC = 2
+        const val FOLDER_POSITION_AFTER = 1
+        const val FOLDER_POSITION_BEFORE = 2
+        // 部分文件系统的目录修改时间精度为秒，刚修改过的目录不复用列举结果
+        private const val DIR_MODIFIED_TOLERANCE_MILLIS = 2000L
+        private const val MAX_VIEWS_PER_DIR = 8
+
+        val instance: DirectoryListingCache by lazy {
+            DirectoryListingCache()
+        }
+    }
+
+    class FileStat(
+        val path: String,
+        val name: String,
+        val size: Long,
+        val lastModified: Long,
+        val isDirectory: Boolean
+    )
+
+    /**
+     * 列举条件，与getFileList的参数一一对应
+     */
+    data class Query(
+        val fileType: Int,
+        val suffixes: List<String>,
+        val sortType: String,
+        val sortOrder: Int,
+        val folderPosition: Int
+    )
+
+    class Snapshot(val id: Long, val folderPath: String, val query: Query, val files: List<FileStat>) {
+        fun matches(folderPath: String, query: Query): Boolean {
+            return this.folderPath == folderPath && this.query == query
+        }
+    }
+
+    private class DirEntry(val dirModified: Long, val loadTime: Long, val reusable: Boolean, val stats: List<FileStat>) {
+        val views = LinkedHashMap<Query, Snapshot>(MAX_VIEWS_PER_DIR, 0.75f, true)
+    }
+
+    private val dirs = object : LinkedHashMap<String, DirEntry>(FILE_LIST_CACHE_MAX_DIRS, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, DirEntry>?): Boolean {
+            return size > FILE_LIST_CACHE_MAX_DIRS
+        }
+    }
+    private val snapshots = object : LinkedHashMap<Long, Snapshot>(FILE_LIST_CACHE_MAX_SNAPSHOTS, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Snapshot>?): Boolean {
+            return size > FILE_LIST_CACHE_MAX_SNAPSHOTS
+        }
+    }
+    private val nextSnapshotId = AtomicLong(1)
+
+    /**
+     * 取目录在指定条件下排好序的快照，目录不存在或不可读时返回空快照
+     */
+    fun getSnapshot(folderPath: String, query: Query): Snapshot {
+        val dir = File(folderPath)
+        val dirModified = dir.lastModified()
+        val entry = synchronized(this) {
+            dirs[folderPath]?.takeIf { it.reusable && it.dirModified == dirModified && clock() - it.loadTime < FILE_LIST_CACHE_TTL_MILLIS }
+        } ?: load(folderPath, dirModified)
+        synchronized(this) {
+            entry.views[query]?.let {
+                snapshots[it.id] = it
+                return it
+            }
+        }
+        // 过滤和排序在锁外进行，并发请求同一视图时各自计算，结果相同
+        val files = entry.stats.filter { accept(it, query) }.sortedWith(comparator(query))
+        val snapshot = Snapshot(nextSnapshotId.getAndIncrement(), folderPath, query, files)
+        synchronized(this) {
+            if (entry.views.size >= MAX_VIEWS_PER_DIR) {
+                entry.views.remove(entry.views.keys.first())
+            }
+            entry.views[query] = snapshot
+            snapshots[snapshot.id] = snapshot
+        }
+        return snapshot
+    }
+
+    /**
+     * 按编号取之前返回过的快照，已被淘汰时返回null。调用方需用[Snapshot.matches]确认快照属于本次请求的目录和条件
+     */
+    fun getSnapshot(id: Long): Snapshot? {
+        return synchronized(this) { snapshots[id] }
+    }
+
+    fun invalidate(folderPath: String) {
+        synchronized(this) { dirs.remove(folderPath) }
+    }
+
+    private fun load(folderPath: String, dirModified: Long): DirEntry {
+        val loadTime = clock()
+        val stats = list(Paths.get(folderPath))
+        val entry = DirEntry(dirModified, loadTime, dirModified > 0 && loadTime - dirModified > DIR_MODIFIED_TOLERANCE_MILLIS, stats)
+        synchronized(this) { dirs[folderPath] = entry }
+        return entry
+    }
+
+    /**
+     * 流式列举目录，每个子项只读取一次属性；读取失败的子项(如失效的符号链接)按大小和时间为0的文件处理，与File.length()等一致
+     */
+    private fun list(dir: Path): List<FileStat> {
+        val stats = ArrayList<FileStat>()
+        try {
+            Files.newDirectoryStream(dir).use { stream ->
+                for (child in stream) {
+                    val name = child.fileName.toString()
+                    val path = child.toFile().absolutePath
+                    val stat = try {
+                        val attrs = Files.readAttributes(child, BasicFileAttributes::class.java)
+                        FileStat(path, name, attrs.size(), attrs.lastModifiedTime().toMillis(), attrs.isDirectory)
+                    } catch (e: IOException) {
+                        FileStat(path, name, 0L, 0L, false)
+                    }
+                    stats.add(stat)
+                }
+            }
+        } catch (e: IOException) {
+            return emptyList()
+        } catch (e: DirectoryIteratorException) {
+            return emptyList()
+        } catch (e: SecurityException) {
+            return emptyList()
+        }
+        return stats
+    }
+
+    private fun accept(stat: FileStat, query: Query): Boolean {
+        val fileTypeAccepted = when (query.fileType) {
+            FILE_TYPE_ALL -> true
+            FILE_TYPE_FILE -> !stat.isDirectory
+            FILE_TYPE_DIRECTORY -> stat.isDirectory
+            else -> false
+        }
+        // 后缀只过滤文件
+        return fileTypeAccepted && (stat.isDirectory || query.suffixes.isEmpty() || query.suffixes.any { stat.name.endsWith(it) })
+    }
+
+    /**
+     * 文件夹位置优先，其次按大小或时间，最后按名称，保证同一快照的顺序确定。
+     * 用compareValues比较Long，不会像相减后转Int那样溢出
+     */
+    private fun comparator(query: Query): Comparator<FileStat> {
+        val folder: Comparator<FileStat> = when (query.folderPosition) {
+            FOLDER_POSITION_AFTER -> compareBy { it.isDirectory }
+            FOLDER_POSITION_BEFORE -> compareBy { !it.isDirectory }
+            else -> Comparator { _, _ -> 0 }
+        }
+        val key: Comparator<FileStat> = when (query.sortType) {
+            SORT_TYPE_SIZE -> when (query.sortOrder) {
+                SORT_ORDER_DESC -> compareByDescending { it.size }
+                SORT_ORDER_ASC -> compareBy { it.size }
+                else -> Comparator { _, _ -> 0 }
+            }
+            SORT_TYPE_TIME -> when (query.sortOrder) {
+                SORT_ORDER_DESC -> compareByDescending { it.lastModified }
+                SORT_ORDER_ASC -> compareBy { it.lastModified }
+                else -> Comparator { _, _ -> 0 }
+            }
+            else -> Comparator { _, _ -> 0 }
+        }
+        return folder.then(key).thenBy { it.name }
+    }
+}
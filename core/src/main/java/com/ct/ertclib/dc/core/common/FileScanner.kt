@@ -10,35 +10,132 @@ import androidx.documentfile.provider.DocumentFile
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import java.io.File
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.atomic.AtomicInteger
+import com.ct.ertclib.dc.core.constants.CommonConstants
+import com.ct.ertclib.dc.core.data.model.FileDirEntity
 import com.ct.ertclib.dc.core.data.model.FileEntity
 
 class FileScanner(private val context: Context) {
 
-    // 主扫描方法
-    fun scanAllFiles(): List<FileEntity> {
-        val results = mutableListOf<FileEntity>()
+    companion object {
+        // 部分文件系统的目录修改时间精度为秒，刚修改过的目录下次仍需列举
+        private const val DIR_MODIFIED_TOLERANCE_MILLIS = 2000L
+        private val SKIP_DIR_NAMES = listOf(".", "lost+found", "cache", "temp")
+    }
+
+    /**
+     * 扫描得到的变化，由FileManager分批写入数据库
+     */
+    class ScanResult {
+        val upsertFiles = ConcurrentLinkedQueue<FileEntity>()
+        val deletedFiles = ConcurrentLinkedQueue<String>()
+        val upsertDirs = ConcurrentLinkedQueue<FileDirEntity>()
+        val deletedDirs = ConcurrentLinkedQueue<String>()
+        val listedDirCount = AtomicInteger()
+        val visitedDirCount = AtomicInteger()
+    }
 
-        // 1. 扫描常规存储目录
-        scanNormalDirectories(results)
+    /**
+     * 增量扫描。
+     * 目录的修改时间只在其直接子项增删、重命名时变化，与快照一致的目录不再列举，只检查快照中记录的子目录；
+     * 变化的目录与数据库中该目录下的文件比对。首次扫描没有快照，等同于全量扫描。
+     * 目录之间由ForkJoinPool并行处理，空闲线程会窃取其他线程未处理的子目录。
+     *
+     * @param dirSnapshot 上次扫描的目录快照
+     * @param filesInDir 查询数据库中某目录下的文件，在扫描线程中调用
+     */
+    fun scan(dirSnapshot: List<FileDirEntity>, filesInDir: (String) -> List<FileEntity>): ScanResult {
+        val result = ScanResult()
+        val snapshot = HashMap<String, FileDirEntity>(dirSnapshot.size)
+        val children = HashMap<String, MutableList<String>>()
+        dirSnapshot.forEach {
+            snapshot[it.path] = it
+            children.getOrPut(it.parent) { ArrayList() }.add(it.path)
+        }
+        val parallelism = Runtime.getRuntime().availableProcessors().coerceIn(1, CommonConstants.FILE_INDEX_MAX_SCAN_THREADS)
+        val pool = ForkJoinPool(parallelism)
+        try {
+            // 1. 扫描常规存储目录
+            val tasks = getStorageDirectories()
+                .filter { it.exists() && it.canRead() }
+                .map { DirTask(it, snapshot, children, filesInDir, result) }
+            pool.invoke(object : RecursiveAction() {
+                override fun compute() {
+                    invokeAll(tasks)
+                }
+            })
+        } finally {
+            pool.shutdown()
+        }
 
         // 2. 扫描Android/data和Android/obb目录
-        scanRestrictedDirectories(results)
+        scanRestrictedDirectories()
 
-        return results
+        return result
     }
 
-    // 扫描普通目录
-    private fun scanNormalDirectories(results: MutableList<FileEntity>) {
-        val storageDirs = getStorageDirectories()
-        storageDirs.forEach { dir ->
-            if (dir.exists() && dir.canRead()) {
-                scanDirectoryRecursive(dir, results)
+    private inner class DirTask(
+        private val dir: File,
+        private val snapshot: Map<String, FileDirEntity>,
+        private val children: Map<String, List<String>>,
+        private val filesInDir: (String) -> List<FileEntity>,
+        private val result: ScanResult
+    ) : RecursiveAction() {
+
+        override fun compute() {
+            result.visitedDirCount.incrementAndGet()
+            val path = dir.absolutePath
+            val lastModified = dir.lastModified()
+            val old = snapshot[path]
+            if (old != null && old.lastModified == lastModified && lastModified != 0L) {
+                // 目录没有变化，子目录也没有增删
+                val subTasks = children[path]?.map { DirTask(File(it), snapshot, children, filesInDir, result) }
+                if (!subTasks.isNullOrEmpty()) {
+                    invokeAll(subTasks)
+                }
+                return
+            }
+            val entries = dir.listFiles()
+            if (entries == null) {
+                if (old != null) {
+                    result.deletedDirs.add(path)
+                }
+                return
+            }
+            result.listedDirCount.incrementAndGet()
+            val subDirs = ArrayList<File>()
+            val existFiles = filesInDir(path).associateByTo(HashMap()) { it.path }
+            entries.forEach { file ->
+                if (file.isDirectory) {
+                    if (!shouldSkipDirectory(file)) {
+                        subDirs.add(file)
+                    }
+                } else {
+                    val exist = existFiles.remove(file.absolutePath)
+                    val fileLastModified = file.lastModified()
+                    if (exist == null || exist.lastModified != fileLastModified) {
+                        result.upsertFiles.add(createFileItem(file, path, fileLastModified))
+                    }
+                }
+            }
+            result.deletedFiles.addAll(existFiles.keys)
+            children[path]?.let { oldSubDirs ->
+                val subDirPaths = subDirs.mapTo(HashSet()) { it.absolutePath }
+                oldSubDirs.filterTo(result.deletedDirs) { it !in subDirPaths }
+            }
+            val snapshotLastModified = if (System.currentTimeMillis() - lastModified < DIR_MODIFIED_TOLERANCE_MILLIS) 0L else lastModified
+            result.upsertDirs.add(FileDirEntity(path, dir.parent ?: "", snapshotLastModified))
+            if (subDirs.isNotEmpty()) {
+                invokeAll(subDirs.map { DirTask(it, snapshot, children, filesInDir, result) })
             }
         }
     }
 
     // 扫描受限目录(Android/data, Android/obb),暂时不实现
-    private fun scanRestrictedDirectories(results: MutableList<FileEntity>) {
+    private fun scanRestrictedDirectories() {
 //        val dataDir = File(Environment.getExternalStorageDirectory(), "Android/data")
 //        val obbDir = File(Environment.getExternalStorageDirectory(), "Android/obb")
 
@@ -47,19 +144,6 @@ class FileScanner(private val context: Context) {
 
     }
 
-    // 递归扫描普通目录
-    private fun scanDirectoryRecursive(dir: File, results: MutableList<FileEntity>) {
-        dir.listFiles()?.forEach { file ->
-            if (file.isDirectory) {
-                if (!shouldSkipDirectory(file)) {
-                    scanDirectoryRecursive(file, results)
-                }
-            } else {
-                results.add(createFileItem(file))
-            }
-        }
-    }
-
     // 通过Storage Access Framework扫描受限目录
 //    private suspend fun scanViaSaf(directory: File, results: MutableList<FileEntity>) {
 //        val uri = getSafUriForDirectory(directory) ?: return
@@ -152,10 +236,12 @@ class FileScanner(private val context: Context) {
     }
 
     // 创建文件项
-    private fun createFileItem(file: File): FileEntity {
+    private fun createFileItem(file: File, parent: String, lastModified: Long): FileEntity {
         return FileEntity(
             name = file.name,
-            path = file.absolutePath
+            path = file.absolutePath,
+            lastModified = lastModified,
+            parent = parent
         )
     }
 
@@ -173,17 +259,13 @@ class FileScanner(private val context: Context) {
                 volume.directory?.let { dirs.add(it) }
             }
         }
-        return dirs
+        // storageVolumes包含主存储，避免重复扫描
+        return dirs.distinctBy { it.absolutePath }
     }
 
-    // 应跳过的目录
+    // 应跳过的目录，逐级检查目录名，与检查整个路径的效果相同
     private fun shouldSkipDirectory(dir: File): Boolean {
-        val skipList = listOf(
-            ".",
-            "lost+found",
-            "cache",
-            "temp"
-        )
-        return skipList.any { dir.absolutePath.contains(it) }
+        val name = dir.name
+        return SKIP_DIR_NAMES.any { name.contains(it) }
     }
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.common
+
+/**
+ * 消息增删改时增量维护conversations的count、unreadCount和read，不再重新统计整个会话的消息。
+ */
+object MessageCounterTriggers {
+
+    const val LEGACY_INSERT_TRIGGER = "message_update_conversation_on_insert"
+
+    private const val ADD_NEW =
+        " UPDATE conversations SET count = count + 1, unreadCount = unreadCount + (new.read = 0)," +
+                " read = CASE WHEN unreadCount + (new.read = 0) = 0 THEN 1 ELSE 0 END" +
+                " WHERE _id = new.conversationId;"
+
+    private const val REMOVE_OLD =
+        " UPDATE conversations SET count = count - 1, unreadCount = unreadCount - (old.read = 0)," +
+                " read = CASE WHEN unreadCount - (old.read = 0) = 0 THEN 1 ELSE 0 END" +
+                " WHERE _id = old.conversationId;"
+
+    private const val ON_INSERT =
+        "CREATE TRIGGER IF NOT EXISTS conversation_counter_on_message_insert AFTER INSERT ON messages " +
+                "BEGIN" +
+                " UPDATE conversations SET date=(strftime('%s','now') * 1000), snippet = new.text, type = new.type" +
+                " WHERE _id = new.conversationId;" +
+                ADD_NEW +
+                " END;"
+
+    private const val ON_DELETE =
+        "CREATE TRIGGER IF NOT EXISTS conversation_counter_on_message_delete AFTER DELETE ON messages " +
+                "BEGIN" +
+                REMOVE_OLD +
+                " END;"
+
+    private const val ON_UPDATE =
+        "CREATE TRIGGER IF NOT EXISTS conversation_counter_on_message_update AFTER UPDATE OF read, conversationId ON messages " +
+                "WHEN old.read != new.read OR old.conversationId != new.conversationId " +
+                "BEGIN" +
+                REMOVE_OLD +
+                ADD_NEW +
+                " END;"
+
+    /**
+     * 重新统计全部会话，只在迁移时执行一次
+     */
+    const val RECOUNT_ALL =
+        "UPDATE conversations SET" +
+                " count = (SELECT COUNT(*) FROM messages WHERE conversationId = conversations._id)," +
+                " unreadCount = (SELECT COUNT(*) FROM messages WHERE conversationId = conversations._id AND read = 0)"
+
+    const val RECOUNT_READ = "UPDATE conversations SET read = CASE WHEN unreadCount = 0 THEN 1 ELSE 0 END"
+
+    val CREATE_TRIGGERS = listOf(ON_INSERT, ON_DELETE, ON_UPDATE)
+}
@@ -32,8 +32,13 @@ import com.ct.ertclib.dc.core.port.dao.MiniAppInfoDao
 import com.ct.ertclib.dc.core.data.model.ContactEntity
 import com.ct.ertclib.dc.core.data.model.ConversationEntity
 import com.ct.ertclib.dc.core.data.model.DataChannelPropertyEntity
+import com.ct.ertclib.dc.core.data.model.FileChecksumEntity
+import com.ct.ertclib.dc.core.data.model.FileDirEntity
 import com.ct.ertclib.dc.core.data.model.FileEntity
+import com.ct.ertclib.dc.core.data.model.FileFtsEntity
 import com.ct.ertclib.dc.core.data.model.MessageEntity
+import com.ct.ertclib.dc.core.data.model.MessageFtsEntity
+import com.ct.ertclib.dc.core.data.model.MiniAppIndexEntity
 import com.ct.ertclib.dc.core.data.model.MiniAppInfo
 import com.ct.ertclib.dc.core.data.model.ModelEntity
 import com.ct.ertclib.dc.core.data.model.PermissionModel
@@ -41,10 +46,11 @@ import com.ct.ertclib.dc.core.data.model.PermissionUsageEntity
 import com.ct.ertclib.dc.core.port.dao.FileDao
 import com.ct.ertclib.dc.core.port.dao.ModelDao
 import com.ct.ertclib.dc.core.port.dao.PermissionDao
+import com.ct.ertclib.dc.core.utils.common.SearchGrams
 
 @Database(
-    entities = [MiniAppInfo::class, MessageEntity::class, ContactEntity::class, ConversationEntity::class, DataChannelPropertyEntity::class, PermissionModel::class, FileEntity::class, ModelEntity::class, PermissionUsageEntity::class],
-    version = 13,
+    entities = [MiniAppInfo::class, MessageEntity::class, ContactEntity::class, ConversationEntity::class, DataChannelPropertyEntity::class, PermissionModel::class, FileEntity::class, FileFtsEntity::class, FileDirEntity::class, FileChecksumEntity::class, MessageFtsEntity::class, ModelEntity::class, PermissionUsageEntity::class, MiniAppIndexEntity::class],
+    version = 18,
     exportSchema = false
 )
 abstract class NewCallDatabase : RoomDatabase() {
@@ -249,11 +255,140 @@ abstract class NewCallDatabase : RoomDatabase() {
                         )
                     }
                 })
+                .addMigrations(object : Migration(13, 14) {
+                    override fun migrate(database: SupportSQLiteDatabase) {
+                        LogUtils.i("NewCallDatabase update 13-14")
+                        database.execSQL("ALTER TABLE files ADD COLUMN `lastModified` INTEGER NOT NULL DEFAULT 0")
+                        database.execSQL("ALTER TABLE files ADD COLUMN `nameGrams` TEXT NOT NULL DEFAULT ''")
+                        // 旧数据没有nameGrams，清空后下次搜索或InCallService绑定时重新扫描
+                        database.execSQL("DELETE FROM files")
+                        database.execSQL(
+                            "CREATE VIRTUAL TABLE IF NOT EXISTS `files_fts` USING FTS4(" +
+                                    "`nameGrams` TEXT NOT NULL, content=`files`)"
+                        )
+                        // 与Room为contentEntity生成的同步触发器一致
+                        database.execSQL(
+                            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_files_fts_BEFORE_UPDATE BEFORE UPDATE ON `files` " +
+                                    "BEGIN DELETE FROM `files_fts` WHERE `docid`=OLD.`rowid`; END"
+                        )
+                        database.execSQL(
+                            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_files_fts_BEFORE_DELETE BEFORE DELETE ON `files` " +
+                                    "BEGIN DELETE FROM `files_fts` WHERE `docid`=OLD.`rowid`; END"
+                        )
+                        database.execSQL(
+                            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_files_fts_AFTER_UPDATE AFTER UPDATE ON `files` " +
+                                    "BEGIN INSERT INTO `files_fts`(`docid`, `nameGrams`) VALUES (NEW.`rowid`, NEW.`nameGrams`); END"
+                        )
+                        database.execSQL(
+                            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_files_fts_AFTER_INSERT AFTER INSERT ON `files` " +
+                                    "BEGIN INSERT INTO `files_fts`(`docid`, `nameGrams`) VALUES (NEW.`rowid`, NEW.`nameGrams`); END"
+                        )
+                    }
+                })
+                .addMigrations(object : Migration(14, 15) {
+                    override fun migrate(database: SupportSQLiteDatabase) {
+                        LogUtils.i("NewCallDatabase update 14-15")
+                        database.execSQL("ALTER TABLE files ADD COLUMN `parent` TEXT NOT NULL DEFAULT ''")
+                        // rtrim去掉最后一个'/'之后的文件名，再去掉末尾的'/'
+                        database.execSQL("UPDATE files SET parent = rtrim(path, replace(path, '/', ''))")
+                        database.execSQL("UPDATE files SET parent = substr(parent, 1, length(parent) - 1) WHERE parent != ''")
+                        database.execSQL("CREATE INDEX IF NOT EXISTS `index_files_parent` ON `files` (`parent`)")
+                        database.execSQL(
+                            "CREATE TABLE IF NOT EXISTS `file_dirs` (" +
+                                    "`path` TEXT NOT NULL," +
+                                    "`parent` TEXT NOT NULL," +
+                                    "`lastModified` INTEGER NOT NULL," +
+                                    "PRIMARY KEY(`path`))"
+                        )
+                        database.execSQL("CREATE INDEX IF NOT EXISTS `index_file_dirs_parent` ON `file_dirs` (`parent`)")
+                    }
+                })
+                .addMigrations(object : Migration(15, 16) {
+                    override fun migrate(database: SupportSQLiteDatabase) {
+                        LogUtils.i("NewCallDatabase update 15-16")
+                        // 会话计数改为增量维护
+                        database.execSQL("DROP TRIGGER IF EXISTS ${MessageCounterTriggers.LEGACY_INSERT_TRIGGER}")
+                        database.execSQL("ALTER TABLE conversations ADD COLUMN `unreadCount` INTEGER NOT NULL DEFAULT 0")
+                        database.execSQL(MessageCounterTriggers.RECOUNT_ALL)
+                        database.execSQL(MessageCounterTriggers.RECOUNT_READ)
+                        MessageCounterTriggers.CREATE_TRIGGERS.forEach { database.execSQL(it) }
+
+                        database.execSQL(
+                            "CREATE INDEX IF NOT EXISTS `index_messages_conversationId_receiveTime__id` " +
+                                    "ON `messages` (`conversationId`, `receiveTime`, `_id`)"
+                        )
+
+                        // 先生成二元组再建全文索引，最后一次性rebuild
+                        database.execSQL("ALTER TABLE messages ADD COLUMN `searchGrams` TEXT NOT NULL DEFAULT ''")
+                        database.query("SELECT _id, message FROM messages").use { cursor ->
+                            while (cursor.moveToNext()) {
+                                database.execSQL(
+                                    "UPDATE messages SET searchGrams = ? WHERE _id = ?",
+                                    arrayOf<Any>(SearchGrams.toGrams(cursor.getString(1) ?: ""), cursor.getInt(0))
+                                )
+                            }
+                        }
+                        database.execSQL(
+                            "CREATE VIRTUAL TABLE IF NOT EXISTS `messages_fts` USING FTS4(" +
+                                    "`searchGrams` TEXT NOT NULL, content=`messages`)"
+                        )
+                        database.execSQL("INSERT INTO `messages_fts`(`messages_fts`) VALUES ('rebuild')")
+                        // 与Room为contentEntity生成的同步触发器一致
+                        database.execSQL(
+                            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_BEFORE_UPDATE BEFORE UPDATE ON `messages` " +
+                                    "BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END"
+                        )
+                        database.execSQL(
+                            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_BEFORE_DELETE BEFORE DELETE ON `messages` " +
+                                    "BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END"
+                        )
+                        database.execSQL(
+                            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_AFTER_UPDATE AFTER UPDATE ON `messages` " +
+                                    "BEGIN INSERT INTO `messages_fts`(`docid`, `searchGrams`) VALUES (NEW.`rowid`, NEW.`searchGrams`); END"
+                        )
+                        database.execSQL(
+                            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_AFTER_INSERT AFTER INSERT ON `messages` " +
+                                    "BEGIN INSERT INTO `messages_fts`(`docid`, `searchGrams`) VALUES (NEW.`rowid`, NEW.`searchGrams`); END"
+                        )
+                    }
+                })
+                .addMigrations(object : Migration(16, 17) {
+                    override fun migrate(database: SupportSQLiteDatabase) {
+                        LogUtils.i("NewCallDatabase update 16-17")
+                        database.execSQL(
+                            "CREATE TABLE IF NOT EXISTS `file_checksums` (" +
+                                    "`path` TEXT NOT NULL," +
+                                    "`algorithm` TEXT NOT NULL," +
+                                    "`size` INTEGER NOT NULL," +
+                                    "`lastModified` INTEGER NOT NULL," +
+                                    "`inode` INTEGER NOT NULL," +
+                                    "`checksum` TEXT NOT NULL," +
+                                    "PRIMARY KEY(`path`, `algorithm`))"
+                        )
+                    }
+                })
+                .addMigrations(object : Migration(17, 18) {
+                    override fun migrate(database: SupportSQLiteDatabase) {
+                        LogUtils.i("NewCallDatabase update 17-18")
+                        // 已安装的小程序在首次查询时扫描目录补建索引
+                        database.execSQL(
+                            "CREATE TABLE IF NOT EXISTS `mini_app_index` (" +
+                                    "`appId` TEXT NOT NULL," +
+                                    "`version` TEXT NOT NULL," +
+                                    "`path` TEXT NOT NULL," +
+                                    "`dirModified` INTEGER NOT NULL," +
+                                    "`propertiesModified` INTEGER NOT NULL," +
+                                    "`properties` TEXT NOT NULL," +
+                                    "`updateTime` INTEGER NOT NULL," +
+                                    "PRIMARY KEY(`appId`))"
+                        )
+                    }
+                })
                 .addCallback(object : Callback() {
                     override fun onCreate(db: SupportSQLiteDatabase) {
                         super.onCreate(db)
                         LogUtils.i("NewCallDatabase onCreate create trigger")
-                        db.execSQL(updateConversationByMessages)
+                        MessageCounterTriggers.CREATE_TRIGGERS.forEach { db.execSQL(it) }
                     }
                 })
                 .build()
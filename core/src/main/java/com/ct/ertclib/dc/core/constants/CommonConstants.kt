@@ -23,6 +23,7 @@ object CommonConstants {
     const val BOOTSTRAP_FILE_NAME = "index.html"
     const val MINI_APP_ROOT_PATH = "mini_app/"
     const val INDEX_FILE_NAME = "index.html"
+    const val PROPERTIES_FILE_NAME = "properties.json"
     const val URI_FILE_PREFIX = "file://"
 
     const val TRANSFER_FILE_ROOT_PATH = "trans/"
@@ -53,11 +54,66 @@ object CommonConstants {
     const val MINI_APP_SP_KEYS_KEY = "miniAppSpKeysKey"
     const val MINI_APP_SP_EXPIRY_ITEM_SPLIT_KEY = "miniAppSpExpiryItemSplitKeysKey"
     const val MINI_APP_SP_EXPIRY_SPLIT_KEY = "miniAppSpExpirySplitKeysKey"
+    const val MINI_APP_KV_ROOT_PATH = "mini_app_kv/" //小程序键值存储目录，每个小程序一个文件
+    const val MINI_APP_KV_EVICT_INTERVAL_MILLIS = 60_000L //小程序键值存储两次定时淘汰过期键的最小间隔
 
     const val PERCENT_CONSTANTS = 100
 
     const val MINI_APP_LIST_PAGE_SIZE = 100
 
+    const val BDC_MAX_IN_FLIGHT_REQUESTS = 1 //引导通道每个stream上同时等待响应的请求数，大于1时流水线发送
+
+    const val ADC_MAX_IN_FLIGHT_CREATES = 1 //同时等待芯片响应的ADC创建批次数
+    const val ADC_CREATE_TIMEOUT_MILLIS = 10_000L //ADC创建批次等待响应、等待connecting结束的超时时间
+    const val ADC_CONNECTING_RECHECK_MILLIS = 100L //有ADC处于connecting状态时的重新检查间隔
+
+    const val OWN_ADC_SEND_QUEUE_CAPACITY = 10000 //自有ADC发送队列容量
+    const val OWN_ADC_SEND_WINDOW = 16 //自有ADC同时等待发送结果的帧数
+    const val OWN_ADC_BUFFERED_HIGH_WATER = 256 * 1024L //自有ADC底层缓冲超过该值时暂停发送
+    const val OWN_ADC_SEND_RECHECK_MILLIS = 10L //自有ADC底层缓冲已满时的重新检查间隔
+
+    const val DC_MESSAGE_BATCH_MAX_SIZE = 64 //同一dcLabel合并投递给小程序的最大消息数
+    const val DC_MESSAGE_BATCH_MAX_LATENCY_MILLIS = 16L //合并投递给小程序的最大等待时间
+
+    const val FILE_INDEX_BATCH_SIZE = 500 //文件索引每个事务写入的行数
+    const val FILE_INDEX_MAX_SCAN_THREADS = 4 //扫描文件目录的最大线程数
+    const val FILE_INDEX_MEDIA_GENERATION_KEY = "fileIndexMediaGeneration" //上次扫描时MediaStore的版本和generation
+    const val FILE_CHECKSUM_PARALLEL_THRESHOLD = 64L * 1024 * 1024 //超过该大小的文件预读或分段并行计算校验值
+    const val FILE_CHECKSUM_MAX_THREADS = 4 //CRC32分段并行计算的段数
+    const val FILE_CHECKSUM_CACHE_MAX_ROWS = 2000 //校验值缓存表的最大行数，超出时删除最早写入的
+    const val FILE_CHECKSUM_PRUNE_INTERVAL = 64 //每写入该数量的校验值清理一次缓存表
+    const val FILE_HANDLE_MAX_OPEN = 64 //单个小程序同时打开的文件句柄上限
+    const val FILE_HANDLE_MAX_CHUNK = 16 * 1024 * 1024 //文件句柄单次读写的最大字节数
+    const val FILE_LIST_CACHE_MAX_DIRS = 8 //getFileList缓存列举结果的目录数
+    const val FILE_LIST_CACHE_MAX_SNAPSHOTS = 16 //getFileList保留的排序快照数，供游标翻页
+    const val FILE_LIST_CACHE_TTL_MILLIS = 10_000L //目录修改时间未变时列举结果的最长复用时间
+    const val ARCHIVE_BUFFER_SIZE = 256 * 1024 //解压时每个线程的缓冲区大小
+    const val ARCHIVE_MAX_THREADS = 4 //并行解压zip的最大线程数
+    const val ARCHIVE_MAX_TOTAL_BYTES = 4L * 1024 * 1024 * 1024 //压缩包解出的总字节数上限
+    const val ARCHIVE_MAX_ENTRIES = 100_000 //压缩包条目数上限
+    const val ARCHIVE_MAX_COMPRESSION_RATIO = 1000 //单个条目解压后与压缩后大小之比的上限
+    const val MINI_APP_ASSET_SITE = "https://appassets.androidplatform.net" //小程序页面的origin，向页面发送WebMessagePort时只发给该origin
+    const val MINI_APP_ASSET_ORIGIN = "$MINI_APP_ASSET_SITE/miniapp/" //小程序资源的虚拟https源，该域名不会解析到真实站点
+    const val ASSET_CACHE_MAX_BYTES = 16L * 1024 * 1024 //小程序资源内存缓存的总字节数
+    const val ASSET_CACHE_MAX_FILE_BYTES = 1024 * 1024 //超过该大小的资源不缓存，直接读文件
+    const val ASSET_PRELOAD_MAX_COUNT = 32 //启动时预加载的资源数上限
+    const val ASSET_PRELOAD_FILE_NAME = ".asset_preload" //小程序目录下的预加载清单
+    const val MINI_APP_WARM_POOL_MAX = 2 //预热的小程序进程数上限
+    const val MINI_APP_WARM_MIN_AVAIL_BYTES = 1024L * 1024 * 1024 //可用内存低于该值时不预热小程序进程
+    const val MINI_APP_WARM_TWO_AVAIL_BYTES = 2L * 1024 * 1024 * 1024 //可用内存高于该值时可预热两个小程序进程
+    const val MINI_APP_WARM_LARGE_MEMORY_CLASS = 256 //单进程内存上限(MB)达到该值时可预热两个小程序进程
+    const val MINI_APP_SLOT_START_GRACE_MILLIS = 5_000L //小程序进程拉起的宽限期，期间进程未运行也不回收槽位
+    const val MINI_APP_EVICT_START_DELAY_MILLIS = 500L //淘汰小程序后等待其进程退出再启动新小程序的时间
+    const val MINI_APP_WARM_REFILL_DELAY_MILLIS = 3_000L //小程序启动后延迟补充预热进程的时间
+    const val MINI_APP_HEALTH_PROBE_INTERVAL_MILLIS = 60_000L //小程序健康探测间隔，只用于发现进程存活但无响应，为0时不探测
+    const val MINI_APP_HEALTH_PROBE_MAX_MISSES = 3 //连续无响应的探测次数达到该值时结束小程序进程
+    const val MINI_APP_MESSAGE_CHANNEL_BYTES = 256 * 1024 //小程序到MiniAppService共享内存消息通道的数据区大小
+    const val MINI_APP_MESSAGE_CHANNEL_KEY = "messageChannel" //openMessageChannel返回的Bundle中SharedMemory的key
+
+    const val PERMISSION_USAGE_FLUSH_INTERVAL_MILLIS = 5_000L //权限使用记录缓冲写入数据库的间隔
+    const val PERMISSION_USAGE_FLUSH_THRESHOLD = 32 //权限使用记录缓冲达到该条数时立即写入
+    const val PERMISSION_USAGE_BUFFER_CAPACITY = 256 //权限使用记录缓冲的最大条数，超出时丢弃新记录
+
 
     //AppService Event Constants
     const val CALL_APP_EVENT = "callAppEvent"
@@ -33,6 +33,7 @@ object MiniAppConstants {
     const val FUNCTION_SEND_DATA = "sendData"
     const val FUNCTION_IS_PEER_SUPPORT_DC = "isPeerSupportDC"
     const val FUNCTION_GET_BUFFER_AMOUNT = "getBufferedAmount"
+    const val FUNCTION_OPEN_BINARY_CHANNEL = "openBinaryChannel"
 
     //function for ec
     const val FUNCTION_EC_QUERY = "expandingCapacityQuery"
@@ -68,6 +69,11 @@ object MiniAppConstants {
     const val FUNCTION_QUICK_SEARCH_FILE = "quickSearchFile"
     const val FUNCTION_QUICK_SEARCH_KEY_WORDS = "quickSearchFileWithKeyWords"
     const val FUNCTION_FILE_DOWNLOAD = "fileDownload"
+    const val FUNCTION_OPEN_FILE_HANDLE = "openFileHandle"
+    const val FUNCTION_READ_FILE_HANDLE = "readFileHandle"
+    const val FUNCTION_WRITE_FILE_HANDLE = "writeFileHandle"
+    const val FUNCTION_CLOSE_FILE_HANDLE = "closeFileHandle"
+    const val FUNCTION_OPEN_FILE_BINARY_CHANNEL = "openFileBinaryChannel"
 
     //function for miniapp
     const val FUNCTION_GET_MINI_APP_INFO = "getMiniAppInfo"
@@ -109,6 +115,7 @@ object MiniAppConstants {
     //function for notify
     const val FUNCTION_NOTIFY_DATA_CHANNEL = "dataChannelNotify"
     const val FUNCTION_NOTIFY_MESSAGE = "messageNotify"
+    const val FUNCTION_NOTIFY_MESSAGE_BATCH = "messageBatchNotify"
     const val FUNCTION_CALL_STATE_NOTIFY = "callStateNotify"
     const val FUNCTION_MINI_APP_NOTIFY = "miniAppStateNotify"
     const val FUNCTION_DRAWING_INO_NOTIFY = "drawingInfoNotify"
@@ -175,6 +182,11 @@ object MiniAppConstants {
     const val PARAMS_MODEL = "model"
     const val PARAMS_FILE = "file"
     const val PARAMS_EXTRA_INFO = "extraInfo"
+    const val PARAMS_ALGORITHM = "algorithm"
+    const val PARAMS_PROGRESS = "progress"
+    const val PARAMS_HANDLE = "handle"
+    const val PARAMS_MODE = "mode"
+    const val PARAMS_POSITION = "position"
 
     const val LICENSE = "license"
     const val API = "api"
@@ -24,6 +24,7 @@ data class ConversationData(
     var type: String?,
     var recipientId: Int,
     var count: Int = 0,
+    var unreadCount: Int = 0,
     var phoneNumber:String,
     var avatarUri:String?
 )
\ No newline at end of file
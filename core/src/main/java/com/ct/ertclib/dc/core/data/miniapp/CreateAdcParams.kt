@@ -21,8 +21,9 @@ data class CreateAdcParams(
     val callId: String,
     val remoteNumber: String?,
     val labels: Array<String>,
-    val description: String
-
+    val description: String,
+    // description解析后的模型，由description决定，不参与equals和hashCode
+    val dataChannelAppInfo: DataChannelAppInfo? = null
 ) {
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
@@ -22,4 +22,6 @@ data class MiniAppDownloadResult(
     val appVersion: String? = null,
     val isSuccessful: Boolean = false,
     val errorMessage: String? = null,
+    val packagePath: String? = null,
+    val isDelta: Boolean = false,
 )
@@ -29,6 +29,7 @@ data class MiniAppProperties(
     val shouldCreateControlADC: Boolean?,// 用户点击启动后，是否允许SDK创建控制ADC
     val shouldStartRemoteApp: Boolean?,// 用户点击启动后，是否请求对端也启动小程序，shouldCreateControlADC为true时有效
     val canStartedByOthers: Boolean?,// 是否允许被本地其他小程序启动
+    val useAssetOrigin: Boolean? = null,// 是否从虚拟https源加载小程序页面，默认沿用file://
 ) : Parcelable {
     constructor(parcel: Parcel) : this(
         parcel.readString(),
@@ -39,6 +40,7 @@ data class MiniAppProperties(
         parcel.readParcelable(WindowStyle::class.java.classLoader),
         parcel.readByte() != 0.toByte(),
         parcel.readByte() != 0.toByte(),
+        parcel.readByte() != 0.toByte(),
         parcel.readByte() != 0.toByte()
     )
 
@@ -52,6 +54,7 @@ data class MiniAppProperties(
         parcel.writeByte(if (shouldCreateControlADC == true) 1 else 0)
         parcel.writeByte(if (shouldStartRemoteApp == true) 1 else 0)
         parcel.writeByte(if (canStartedByOthers == true) 1 else 0)
+        parcel.writeByte(if (useAssetOrigin == true) 1 else 0)
     }
 
     override fun describeContents(): Int {
@@ -31,5 +31,7 @@ data class ConversationEntity(
     @ColumnInfo(defaultValue = "0")
     var recipientId: Int,
     @ColumnInfo(defaultValue = "0")
-    var count: Int = 0
+    var count: Int = 0,
+    @ColumnInfo(defaultValue = "0")
+    var unreadCount: Int = 0
 )
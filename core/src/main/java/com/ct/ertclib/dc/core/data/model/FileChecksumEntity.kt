@@ -0,0 +1,33 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.data.model
+
+import androidx.room.Entity
+
+/**
+ * 文件校验值缓存，大小、修改时间和inode都不变时直接使用。
+ * 三者都由打开后的文件描述符fstat取得，content uri也是如此；path为文件路径或content uri字符串
+ */
+@Entity(tableName = "file_checksums", primaryKeys = ["path", "algorithm"])
+data class FileChecksumEntity(
+    var path: String,
+    var algorithm: String,
+    var size: Long,
+    var lastModified: Long,
+    var inode: Long,
+    var checksum: String,
+)
@@ -0,0 +1,32 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.data.model
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * 已扫描目录的快照，目录修改时间不变时不再列举其中的文件
+ */
+@Entity(tableName = "file_dirs", indices = [Index("parent")])
+data class FileDirEntity(
+    @PrimaryKey
+    var path: String,
+    var parent: String,
+    var lastModified: Long,
+)
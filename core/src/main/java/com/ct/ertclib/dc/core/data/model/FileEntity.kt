@@ -16,12 +16,23 @@
 
 package com.ct.ertclib.dc.core.data.model
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
+import com.ct.ertclib.dc.core.utils.common.SearchGrams
 
-@Entity(tableName = "files")
+@Entity(tableName = "files", indices = [Index("parent")])
 data class FileEntity(
     @PrimaryKey
     var path: String,
     var name: String,// 有些path中的文件名是处理后的数字，所以需要保存原文件名
+    @ColumnInfo(defaultValue = "0")
+    var lastModified: Long = 0,
+    // 所在目录，增量扫描时按目录比对
+    @ColumnInfo(defaultValue = "''")
+    var parent: String = "",
+    // 文件名二元组，由files_fts建全文索引，见SearchGrams
+    @ColumnInfo(defaultValue = "''")
+    var nameGrams: String = SearchGrams.toGrams(name),
 )
\ No newline at end of file
@@ -0,0 +1,29 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.data.model
+
+import androidx.room.Entity
+import androidx.room.Fts4
+
+/**
+ * files表的全文索引，内容来自files表，由Room生成的触发器同步
+ */
+@Fts4(contentEntity = FileEntity::class)
+@Entity(tableName = "files_fts")
+data class FileFtsEntity(
+    var nameGrams: String,
+)
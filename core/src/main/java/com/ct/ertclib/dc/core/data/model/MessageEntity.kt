@@ -20,11 +20,14 @@ import android.os.Parcel
 import android.os.Parcelable
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import com.ct.ertclib.dc.core.common.MessageStatus
+import com.ct.ertclib.dc.core.utils.common.SearchGrams
 
 @Entity(
-    tableName = "messages"
+    tableName = "messages",
+    indices = [Index("conversationId", "receiveTime", "_id")]
 )
 data class MessageEntity(
     @PrimaryKey(autoGenerate = true) var _id: Int = 0,
@@ -43,7 +46,10 @@ data class MessageEntity(
     @ColumnInfo(defaultValue = "0")
     var direction: Int = 0, // 0, send 1, receive
     var messageId: String,
-    var thumbnailUri: String? = null
+    var thumbnailUri: String? = null,
+    // message的二元组，由messages_fts建全文索引，MessageDao写入前会重新生成
+    @ColumnInfo(defaultValue = "''")
+    var searchGrams: String = SearchGrams.toGrams(message)
 ) : Parcelable {
 
     constructor(parcel: Parcel) : this(
@@ -0,0 +1,36 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.data.model
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * 已安装小程序的索引，每个小程序一行，记录当前版本目录和安装时读取的properties.json，
+ * 目录和properties.json的修改时间用于校验索引是否与文件系统一致
+ */
+@Entity(tableName = "mini_app_index")
+data class MiniAppIndexEntity(
+    @PrimaryKey
+    var appId: String,
+    var version: String,
+    var path: String,
+    var dirModified: Long,
+    var propertiesModified: Long,
+    var properties: String,
+    var updateTime: Long,
+)
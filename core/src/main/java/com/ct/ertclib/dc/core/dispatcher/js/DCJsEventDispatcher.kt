@@ -21,6 +21,7 @@ import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_CLOSE_DATA_CHA
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_CREATE_DATA_CHANNEL
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_GET_BUFFER_AMOUNT
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_IS_PEER_SUPPORT_DC
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_OPEN_BINARY_CHANNEL
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_SEND_DATA
 import com.ct.ertclib.dc.core.data.bridge.JSRequest
 import com.ct.ertclib.dc.core.port.dispatcher.IJsEventDispatcher
@@ -39,6 +40,7 @@ class DCJsEventDispatcher : IJsEventDispatcher, KoinComponent {
             FUNCTION_CLOSE_DATA_CHANNEL -> { dcEventUseCase.closeAppDataChannel(context, request.params, handler) }
             FUNCTION_SEND_DATA -> { dcEventUseCase.sendData(context, request.params, handler) }
             FUNCTION_IS_PEER_SUPPORT_DC -> { dcEventUseCase.isPeerSupportDC(context, request.params, handler) }
+            FUNCTION_OPEN_BINARY_CHANNEL -> { dcEventUseCase.openBinaryChannel(context, request.params, handler) }
         }
     }
 
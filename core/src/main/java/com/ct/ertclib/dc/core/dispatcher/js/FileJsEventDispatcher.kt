@@ -18,6 +18,7 @@ package com.ct.ertclib.dc.core.dispatcher.js
 
 import android.content.Context
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_CHECK_FILE_EXISTS
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_CLOSE_FILE_HANDLE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_DECOMPRESS_FILE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_DELETE_FILE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_DELETE_KEY_VALUE
@@ -28,8 +29,11 @@ import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_GET_FILE_LIST
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_GET_KEY_VALUE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_GET_LOCATION
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_GET_PRIVATE_FOLDER
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_OPEN_FILE_BINARY_CHANNEL
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_OPEN_FILE_HANDLE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_PLAY_VOICE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_READ_FILE
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_READ_FILE_HANDLE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_SAVE_FILE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_SAVE_UPDATE_KEY_VALUE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_SAVE_UPDATE_KEY_VALUE_WITH_EXPIRY
@@ -41,6 +45,7 @@ import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_START_SAVE_FIL
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_STOP_PLAY_VOICE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_STOP_READ_FILE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_STOP_SAVE_FILE
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_WRITE_FILE_HANDLE
 import com.ct.ertclib.dc.core.data.bridge.JSRequest
 import com.ct.ertclib.dc.core.port.dispatcher.IJsEventDispatcher
 import com.ct.ertclib.dc.core.port.usecase.mini.IFileMiniEventUseCase
@@ -63,6 +68,9 @@ class FileJsEventDispatcher : IJsEventDispatcher, KoinComponent {
             FUNCTION_QUICK_SEARCH_FILE -> { fileEventUseCase.quickSearchFile(context,request.params,  handler) }
             FUNCTION_QUICK_SEARCH_KEY_WORDS -> { fileEventUseCase.quickSearchFileWithKeyWords(context, request.params, handler) }
             FUNCTION_FILE_DOWNLOAD -> { fileEventUseCase.fileDownload(context, request.params, handler) }
+            FUNCTION_READ_FILE_HANDLE -> { fileEventUseCase.readFileHandle(context, request.params, handler) }
+            FUNCTION_WRITE_FILE_HANDLE -> { fileEventUseCase.writeFileHandle(context, request.params, handler) }
+            FUNCTION_OPEN_FILE_BINARY_CHANNEL -> { fileEventUseCase.openFileBinaryChannel(context, request.params, handler) }
         }
     }
 
@@ -75,6 +83,8 @@ class FileJsEventDispatcher : IJsEventDispatcher, KoinComponent {
             FUNCTION_DELETE_FILE -> { return fileEventUseCase.deleteFile(context, request.params) }
             FUNCTION_START_READ_FILE -> { return fileEventUseCase.startReadFile(context, request.params) }
             FUNCTION_STOP_READ_FILE -> { return fileEventUseCase.stopReadFile(context) }
+            FUNCTION_OPEN_FILE_HANDLE -> { return fileEventUseCase.openFileHandle(context, request.params) }
+            FUNCTION_CLOSE_FILE_HANDLE -> { return fileEventUseCase.closeFileHandle(context, request.params) }
             FUNCTION_CHECK_FILE_EXISTS -> { return fileEventUseCase.checkFileOrFolderExists(context, request.params) }
             FUNCTION_GET_FILE_INFO -> { return fileEventUseCase.getFileInfo(context, request.params) }
             FUNCTION_SAVE_UPDATE_KEY_VALUE -> { return fileEventUseCase.saveUpdateKeyValue(context, request.params) }
@@ -27,9 +27,11 @@ import android.telecom.Call
 import com.blankj.utilcode.util.Utils
 import com.ct.ertclib.dc.core.utils.common.FlavorUtils
 import com.ct.ertclib.dc.core.common.NewCallAppSdkInterface
+import com.ct.ertclib.dc.core.common.PathManager
 import com.ct.ertclib.dc.core.common.sdkpermission.SDKPermissionUtils
 import com.ct.ertclib.dc.core.utils.httpstack.HttpStackResponse
 import com.ct.ertclib.dc.core.utils.httpstack.HttpStackHelper
+import com.ct.ertclib.dc.core.utils.httpstack.HttpResponseAssembler
 import com.ct.ertclib.dc.core.utils.logger.Logger
 import com.ct.ertclib.dc.core.utils.common.JsonUtil
 import com.ct.ertclib.dc.core.data.call.CallInfo
@@ -49,6 +51,7 @@ import com.ct.ertclib.dc.core.data.miniapp.MiniAppDownloadResult
 import com.ct.ertclib.dc.core.data.miniapp.MiniAppList
 import com.ct.ertclib.dc.core.manager.common.StateFlowManager
 import com.ct.ertclib.dc.core.miniapp.MiniAppManager
+import com.ct.ertclib.dc.core.miniapp.MiniAppPackageStore
 import com.ct.ertclib.dc.core.port.call.ICallInfoUpdateListener
 import com.ct.ertclib.dc.core.port.dc.IDcCreateListener
 import com.ct.ertclib.dc.core.utils.common.UsageStateUtils
@@ -65,7 +68,12 @@ import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import okhttp3.Request
+import okhttp3.ResponseBody
+import okio.buffer
+import okio.sink
 import org.koin.core.component.KoinComponent
+import java.io.File
+import java.io.IOException
 import java.util.concurrent.LinkedBlockingDeque
 
 
@@ -77,6 +85,11 @@ class BDCManager(
 
     companion object {
         private const val TAG = "BDCManager"
+        private const val STREAM_ID_0 = "0"
+        private const val STREAM_ID_100 = "100"
+        private const val MAX_RETRY_COUNT = 3
+        private const val RETRY_DELAY_MILLIS = 100L
+        private const val MINI_APP_DOWNLOAD_DIR = "miniapp_download"
     }
 
     private val sLogger: Logger = Logger.getLogger(TAG)
@@ -108,7 +121,14 @@ class BDCManager(
     }
 
     private val mDcMessageHandler = DcMessageHandler(mHandlerThread.looper)
-    private val mRequestMessageQueue = LinkedBlockingDeque<RequestMessage>()
+    // stream 0和stream 100各自排队，一个通道上的慢下载不会阻塞另一个
+    private val mRequestChannels = mapOf(
+        STREAM_ID_0 to RequestChannel(STREAM_ID_0),
+        STREAM_ID_100 to RequestChannel(STREAM_ID_100)
+    )
+
+    // 每个通道上同时等待响应的最大请求数，默认为1，只有确认服务端总是带Content-Length时才调大
+    var maxInFlightRequests = CommonConstants.BDC_MAX_IN_FLIGHT_REQUESTS
 
     private val CONST_DC_CREATE: Int = 0
     private val CONST_DC_STATE_CHANGE: Int = 1
@@ -138,10 +158,11 @@ class BDCManager(
                 }
 
                 CONST_DC_STATE_CHANGE -> handleDataChannelStateChanged()
-                CONST_SEND_REQUEST -> handleSendRequest()
-                CONST_REQUEST_RESULT -> handleSendDataResult(msg.arg1)
+                CONST_SEND_REQUEST -> handleSendRequest(msg.obj as RequestChannel)
+                CONST_REQUEST_RESULT -> handleSendDataResult(msg.obj as RequestMessage, msg.arg1)
                 CONST_RECEIVE_MESSAGE -> handleReceiveMsg(
                     msg.data.getString("telecomCallId")!!,
+                    msg.data.getString("streamId"),
                     msg.obj as ByteArray
                 )
 
@@ -170,36 +191,61 @@ class BDCManager(
         }
     }
 
-    private fun handleReceiveMsg(telecomCallId: String, data: ByteArray) {
-        if (mRequestMessageQueue.isEmpty()) {
-            sLogger.info("$mTag handleReceiveMsg-request is null, data:${data}")
+    private fun handleReceiveMsg(telecomCallId: String, streamId: String?, data: ByteArray) {
+        val requestChannel = mRequestChannels[streamId]
+        if (requestChannel == null || requestChannel.inFlightQueue.isEmpty()) {
+            sLogger.info("$mTag handleReceiveMsg-request is null, streamId:$streamId, data length:${data.size}")
             return
         }
 
-        val requestMessage = mRequestMessageQueue.first
-        val requestData = requestMessage.data
-        if (requestData == null) {
-            requestMessage.data = data
-        } else {
-            requestMessage.data = requestData.plus(data)
-        }
-        requestMessage.data?.let {
-            val responseResult = HttpStackHelper.verify(it)
-            if (!responseResult.isComplete) {
-                val progressInt = (responseResult.downloadProgress * PERCENT_CONSTANTS).toInt()
-                requestMessage?.appId?.let { appId ->
-                    notifyDownloadProgress(appId, progressInt)
-                }
-                return
+        // 同一通道上的响应按请求发出的顺序返回
+        val requestMessage = requestChannel.inFlightQueue.first
+        val assembler = requestMessage.response ?: createResponseAssembler(requestMessage).also {
+            requestMessage.response = it
+        }
+        val responseResult = assembler.append(data)
+        if (assembler.isHeaderParsed && !assembler.isLengthFramed && !requestChannel.isSerial) {
+            // chunked或没有分帧的响应无法切分出下一个响应，之后该通道改为逐个发送
+            sLogger.warn("$mTag handleReceiveMsg response without Content-Length, streamId:$streamId switch to serial")
+            requestChannel.isSerial = true
+        }
+        if (!responseResult.isComplete) {
+            val progressInt = (responseResult.downloadProgress * PERCENT_CONSTANTS).toInt()
+            requestMessage.appId?.let { appId ->
+                notifyDownloadProgress(appId, progressInt)
             }
+            return
         }
 
-        sendNextRequest()
-        val decodeHttpResponse = HttpStackHelper.decode(requestMessage.request, requestMessage.data!!)
+        requestChannel.inFlightQueue.remove(requestMessage)
+        sendRequest(requestChannel)
+        handleResponse(telecomCallId, requestMessage, assembler)
+        assembler.takeOverflow()?.let {
+            handleReceiveMsg(telecomCallId, streamId, it)
+        }
+    }
+
+    private fun createResponseAssembler(requestMessage: RequestMessage): HttpResponseAssembler {
+        // 小程序包边收边写入缓存文件，不在内存中保留整包
+        val bodyFile = if (MessageType.TYPE_GET_MINI_APP == requestMessage.messageType) {
+            PathManager().createCacheFile(Utils.getApp(), MINI_APP_DOWNLOAD_DIR, "${requestMessage.appId}.zip")
+        } else {
+            null
+        }
+        return HttpResponseAssembler(bodyFile)
+    }
+
+    private fun handleResponse(
+        telecomCallId: String,
+        requestMessage: RequestMessage,
+        assembler: HttpResponseAssembler
+    ) {
+        val decodeHttpResponse = HttpStackHelper.decode(requestMessage.request, assembler)
         if (decodeHttpResponse == null) {
             if (sLogger.isDebugActivated) {
                 sLogger.debug("${mTag}handleReceiveMsg decodeHttpResp is null")
             }
+            assembler.abort()
             if (MessageType.TYPE_GET_MINI_APP != requestMessage.messageType) {
                 return
             }
@@ -208,6 +254,7 @@ class BDCManager(
             if (sLogger.isDebugActivated) {
                 sLogger.debug("${mTag}handleReceiveMsg decodeHttpResp code: ${decodeHttpResponse.code()}")
             }
+            assembler.abort()
             if (MessageType.TYPE_GET_MINI_APP != requestMessage.messageType) {
                 return
             }
@@ -216,7 +263,7 @@ class BDCManager(
             if (MessageType.TYPE_GET_MINI_APP_LIST == requestMessage.messageType) {
                 receiveMiniAppList(telecomCallId, decodeHttpResponse)
             } else {
-                receiveMiniApp(telecomCallId, requestMessage.appId!!, decodeHttpResponse)
+                receiveMiniApp(telecomCallId, requestMessage.appId!!, decodeHttpResponse, assembler)
             }
         }
     }
@@ -225,13 +272,14 @@ class BDCManager(
 
         val miniAppDownloadResult =
             MiniAppDownloadResult(appId = appId, isSuccessful = false, errorMessage = errorMsg)
-        miniAppManager.onMiniAppDownloaded(miniAppDownloadResult, null)
+        miniAppManager.onMiniAppDownloaded(miniAppDownloadResult)
     }
 
     private fun receiveMiniApp(
         telecomCallId: String?,
         appId: String,
-        decodeHttpResponse: HttpStackResponse
+        decodeHttpResponse: HttpStackResponse,
+        assembler: HttpResponseAssembler
     ) {
         if (sLogger.isDebugActivated) {
             sLogger.debug("$mTag receiveMiniApp appId:$appId, httpResponse:$decodeHttpResponse")
@@ -239,22 +287,51 @@ class BDCManager(
         val eTag = decodeHttpResponse.header("etag")
         if (eTag.isNullOrEmpty()) {
             sLogger.debug("$mTag receiveMiniApp - appVersion is null")
+            assembler.abort()
             notifyDownloadFailed(appId, null)
             return
         }
 
-        val body = decodeHttpResponse.body()
-        if (body == null) {
-            sLogger.debug("$mTag receiveMiniApp - body is null")
-            return
+        var packageFile = assembler.streamedBodyFile
+        if (packageFile == null) {
+            // chunked等未直接落盘的响应，从内存缓冲区写入缓存文件
+            val body = decodeHttpResponse.body()
+            if (body == null) {
+                sLogger.debug("$mTag receiveMiniApp - body is null")
+                return
+            }
+            packageFile = writeBodyToCacheFile(appId, body)
+            if (packageFile == null) {
+                notifyDownloadFailed(appId, null)
+                return
+            }
         }
 
-        val bytes = body.bytes()
+        // 226 IM Used表示服务端只返回了相对本地版本变化的文件
+        val isDelta = decodeHttpResponse.code() == MiniAppPackageStore.HTTP_IM_USED
+                && decodeHttpResponse.header("IM")?.contains(MiniAppPackageStore.DELTA_ENCODING) == true
         val downloadAppResult = MiniAppDownloadResult(
             telecomCallId = telecomCallId, appId = appId,
-            appVersion = eTag, isSuccessful = true
+            appVersion = eTag, isSuccessful = true,
+            packagePath = packageFile.absolutePath,
+            isDelta = isDelta
         )
-        miniAppManager.onMiniAppDownloaded(downloadAppResult, bytes)
+        miniAppManager.onMiniAppDownloaded(downloadAppResult)
+    }
+
+    private fun writeBodyToCacheFile(appId: String, body: ResponseBody): File? {
+        val cacheFile = PathManager().createCacheFile(Utils.getApp(), MINI_APP_DOWNLOAD_DIR, "$appId.zip")
+            ?: return null
+        return try {
+            cacheFile.sink().buffer().use { sink ->
+                sink.writeAll(body.source())
+            }
+            cacheFile
+        } catch (e: IOException) {
+            sLogger.error("$mTag writeBodyToCacheFile appId:$appId", e)
+            cacheFile.delete()
+            null
+        }
     }
 
     private fun receiveMiniAppList(
@@ -297,76 +374,94 @@ class BDCManager(
         }
     }
 
-    private fun handleSendDataResult(state: Int) {
-        sLogger.info("${mTag}handleSendDataResult - state: $state")
-        if (state == 20000) {
+    private fun handleSendDataResult(requestMessage: RequestMessage, state: Int) {
+        sLogger.info("${mTag}handleSendDataResult - streamId: ${requestMessage.streamId}, state: $state")
+        val requestChannel = mRequestChannels[requestMessage.streamId] ?: return
+        if (requestChannel.sendingRequest === requestMessage) {
+            requestChannel.sendingRequest = null
+        }
+        if (state == CommonConstants.DC_SEND_DATA_OK) {
+            if (requestMessage.status == RequestMessageStatus.SENDING) {
+                requestMessage.status = RequestMessageStatus.WAITING_RESPONSE
+            }
+            sendRequest(requestChannel)
             return
         }
+        requestChannel.inFlightQueue.remove(requestMessage)
         if (!isSendFailState(state)) {
-            sendNextRequest()
+            sendRequest(requestChannel)
             return
         }
 
-        val firstRequestMessage = mRequestMessageQueue.first
-        firstRequestMessage.retryCount += 1
-        if (firstRequestMessage.retryCount > 3) {
+        requestMessage.retryCount += 1
+        if (requestMessage.retryCount > MAX_RETRY_COUNT) {
             if (sLogger.isDebugActivated) {
-                sLogger.debug("$mTag requestMessage ${firstRequestMessage.messageType} retry too many")
+                sLogger.debug("$mTag requestMessage ${requestMessage.messageType} retry too many")
             }
-            sendNextRequest()
+            sendRequest(requestChannel)
             return
         }
-        firstRequestMessage.status = RequestMessageStatus.RETRY
+        requestMessage.status = RequestMessageStatus.RETRY
+        requestChannel.pendingQueue.addFirst(requestMessage)
         if (mHandlerThreadQuited) {
             sLogger.info("handleSendDataResult DcMessageHandler has been quitted.")
             return
         }
         mDcMessageHandler.sendMessageDelayed(
-            mDcMessageHandler.obtainMessage(CONST_SEND_REQUEST),
-            100L
+            mDcMessageHandler.obtainMessage(CONST_SEND_REQUEST, requestChannel),
+            RETRY_DELAY_MILLIS
         )
     }
 
-    private fun sendNextRequest() {
-        sLogger.info("$mTag sendNextRequest...size:${mRequestMessageQueue.size}")
-        if (mRequestMessageQueue.isEmpty()) {
-            return
-        }
-        mRequestMessageQueue.removeFirst()
-        sendRequest()
-    }
-
     private fun isSendFailState(state: Int): Boolean {
-        return 20001 == state || 20004 == state
+        return CommonConstants.DC_SEND_DATA_CACHE_FULL == state || CommonConstants.DC_SEND_DATA_ERR_UNKNOWN == state
     }
 
-    private fun handleSendRequest() {
-        sLogger.info("handleSendRequest...")
-        if (mRequestMessageQueue.isEmpty()) {
+    private fun handleSendRequest(requestChannel: RequestChannel) {
+        sLogger.info("handleSendRequest...$requestChannel")
+        if (requestChannel.pendingQueue.isEmpty()) {
             if (sLogger.isDebugActivated) {
                 sLogger.debug("$mTag handleSendRequest-request queue is empty")
             }
             return
         }
-
-        val first = mRequestMessageQueue.first()
-        if (first.status == RequestMessageStatus.SENDING) {
+        // 一次只等待一个发送回调，保证请求字节按顺序写入通道
+        if (requestChannel.sendingRequest != null) {
             if (sLogger.isDebugActivated) {
-                sLogger.debug("$mTag handlerSendRequest-previous request not completed")
+                sLogger.debug("$mTag handlerSendRequest-previous send not completed")
             }
             return
         }
+        if (requestChannel.inFlightQueue.size >= requestChannel.maxInFlight(maxInFlightRequests)) {
+            if (sLogger.isDebugActivated) {
+                sLogger.debug("$mTag handlerSendRequest-too many requests waiting for response")
+            }
+            return
+        }
+
+        val first = requestChannel.pendingQueue.removeFirst()
+        val dc = first.dc
+        if (dc == null) {
+            sLogger.debug("handleSendRequest - send data dc is null")
+            sendRequest(requestChannel)
+            return
+        }
         if (sLogger.isDebugActivated) {
             sLogger.debug("handleSendRequest-send $first")
         }
+        first.status = RequestMessageStatus.SENDING
+        first.response?.abort()
+        first.response = null
+        requestChannel.sendingRequest = first
+        requestChannel.inFlightQueue.add(first)
         val sendData = HttpStackHelper.getRequestData(first.request!!)
-        sLogger.debug("handleSendRequest sendData:${String(sendData)}")
+        sLogger.debug { "handleSendRequest sendData:${String(sendData)}" }
         try {
-            sLogger.info("$mTag, handleSendRequest telecomCallId:${first.dc?.telecomCallId},streamId:${first.dc?.streamId}")
-            first.dc?.send(sendData, sendData.size, IDCSendDataCallBackImpl())
-                ?: sLogger.debug("handleSendRequest - send data dc is null")
+            sLogger.info("$mTag, handleSendRequest telecomCallId:${dc.telecomCallId},streamId:${dc.streamId}")
+            dc.send(sendData, sendData.size, IDCSendDataCallBackImpl(first))
         } catch (e: Exception) {
             sLogger.error("send data failed", e)
+            handleSendDataResult(first, CommonConstants.DC_SEND_DATA_ERR_UNKNOWN)
         }
     }
 
@@ -417,6 +512,7 @@ class BDCManager(
                 val receiveMessage = mDcMessageHandler.obtainMessage(CONST_RECEIVE_MESSAGE)
                 val bundle = Bundle()
                 bundle.putString("telecomCallId", telecomCallId)
+                bundle.putString("streamId", streamId)
                 receiveMessage.data = bundle
                 receiveMessage.obj = data
                 receiveMessage.sendToTarget()
@@ -425,7 +521,7 @@ class BDCManager(
 
     }
 
-    inner class IDCSendDataCallBackImpl : IDCSendDataCallback.Stub() {
+    inner class IDCSendDataCallBackImpl(private val requestMessage: RequestMessage) : IDCSendDataCallback.Stub() {
         override fun onSendDataResult(state: Int) {
             if (mHandlerThreadQuited) {
                 sLogger.info("onSendDataResult DcMessageHandler has been quitted.")
@@ -433,6 +529,7 @@ class BDCManager(
             }
             val resultMessage = mDcMessageHandler.obtainMessage(CONST_REQUEST_RESULT)
             resultMessage.arg1 = state
+            resultMessage.obj = requestMessage
             resultMessage.sendToTarget()
         }
     }
@@ -445,20 +542,58 @@ class BDCManager(
     enum class RequestMessageStatus {
         IDLE,
         SENDING,
+        WAITING_RESPONSE,
         RETRY
     }
 
+    /**
+     * 单个引导通道上的请求队列。
+     * 请求按顺序发出，最多[maxInFlightRequests]个同时等待响应，响应按发出顺序匹配。
+     * 流水线依赖响应带Content-Length分帧，才能把粘连在同一分片里的下一个响应切分出来，
+     * 收到chunked或没有分帧的响应后该通道改为逐个发送，切换前已发出的请求仍可能收不到完整响应。
+     */
+    class RequestChannel(val streamId: String) {
+        // 待发送的请求
+        val pendingQueue = LinkedBlockingDeque<RequestMessage>()
+
+        // 已发出、等待响应的请求
+        val inFlightQueue = LinkedBlockingDeque<RequestMessage>()
+
+        // 正在等待发送结果回调的请求
+        var sendingRequest: RequestMessage? = null
+
+        // 收到过不按Content-Length分帧的响应，不再流水线发送
+        var isSerial = false
+
+        fun maxInFlight(limit: Int): Int {
+            return if (isSerial) 1 else limit
+        }
+
+        fun clear() {
+            pendingQueue.clear()
+            inFlightQueue.forEach { it.response?.abort() }
+            inFlightQueue.clear()
+            sendingRequest = null
+            isSerial = false
+        }
+
+        override fun toString(): String {
+            return "RequestChannel(streamId=$streamId, pending=${pendingQueue.size}, inFlight=${inFlightQueue.size}, sending=${sendingRequest != null})"
+        }
+    }
+
     inner class RequestMessage {
         var dc: IImsDataChannel? = null
+        var streamId: String = STREAM_ID_0
         var messageType: MessageType? = null
         var appId: String? = null
         var request: Request? = null
-        var data: ByteArray? = null
+        var response: HttpResponseAssembler? = null
         var retryCount: Int = 0
         var status: RequestMessageStatus = RequestMessageStatus.IDLE
 
         override fun toString(): String {
-            return "RequestMessage(dc=$dc, messageTye=$messageType, appId=$appId, request='$request', data=${data?.contentToString()}, retryCount=$retryCount, status=$status)"
+            return "RequestMessage(dc=$dc, streamId=$streamId, messageTye=$messageType, appId=$appId, request='$request', response=$response, retryCount=$retryCount, status=$status)"
         }
 
     }
@@ -532,7 +667,7 @@ class BDCManager(
         miniAppManager.onImsBDCClose()
         miniAppManager.unregisterMiniAppListLoadedCallback()
         updateMiniAppEntryHolder()
-        mRequestMessageQueue.clear()
+        mRequestChannels.values.forEach { it.clear() }
         if (!mHandlerThreadQuited){
             mHandlerThreadQuited = mHandlerThread.quit()
         }
@@ -549,6 +684,7 @@ class BDCManager(
 
         val requestMessage = RequestMessage()
         requestMessage.dc = mDc
+        requestMessage.streamId = STREAM_ID_0
         requestMessage.messageType = MessageType.TYPE_GET_MINI_APP_LIST
         requestMessage.request = request
         sLogger.info("$mTag, getMiniAppList telecomCallId:${mDc?.telecomCallId}")
@@ -557,16 +693,17 @@ class BDCManager(
 
     private fun addRequestMessageToSend(requestMessage: RequestMessage) {
         sLogger.info("$mTag, addRequestMessageToSend $requestMessage")
-        mRequestMessageQueue.add(requestMessage)
-        sendRequest()
+        val requestChannel = mRequestChannels[requestMessage.streamId] ?: return
+        requestChannel.pendingQueue.add(requestMessage)
+        sendRequest(requestChannel)
     }
 
-    private fun sendRequest() {
+    private fun sendRequest(requestChannel: RequestChannel) {
         if (mHandlerThreadQuited) {
             sLogger.info("sendRequest DcMessageHandler has been quitted.")
             return
         }
-        mDcMessageHandler.obtainMessage(CONST_SEND_REQUEST).sendToTarget()
+        mDcMessageHandler.obtainMessage(CONST_SEND_REQUEST, requestChannel).sendToTarget()
     }
 
 
@@ -607,6 +744,7 @@ class BDCManager(
         val cacheAppVersion = miniAppManager.getCacheAppVersion(miniAppInfo)
         if (!cacheAppVersion.isNullOrEmpty()) {
             builer.header("If-None-Match", cacheAppVersion)
+            builer.header("A-IM", MiniAppPackageStore.DELTA_ENCODING)
         }
 
         val request = builer.build()
@@ -614,9 +752,11 @@ class BDCManager(
         val requestMessage = RequestMessage()
         if (miniAppInfo.isFromBDC100){
             requestMessage.dc = mDc100
+            requestMessage.streamId = STREAM_ID_100
             sLogger.info("$mTag downloadMiniApp bdc 100")
         } else {
             requestMessage.dc = mDc
+            requestMessage.streamId = STREAM_ID_0
             sLogger.info("$mTag downloadMiniApp bdc 0")
         }
         requestMessage.messageType = MessageType.TYPE_GET_MINI_APP
@@ -17,6 +17,7 @@
 package com.ct.ertclib.dc.core.manager.call
 
 import android.content.Context
+import android.os.SystemClock
 import com.newcalllib.datachannel.V1_0.IImsDataChannel
 import com.newcalllib.datachannel.V1_0.IImsDataChannelCallback
 import com.ct.ertclib.dc.core.utils.logger.Logger
@@ -28,7 +29,6 @@ import com.ct.ertclib.dc.core.port.dc.IControlDcCreateListener
 import com.ct.ertclib.dc.core.port.dc.ImsDcServiceConnectionCallback
 import com.ct.ertclib.dc.core.data.event.CloseAdcEvent
 import com.ct.ertclib.dc.core.data.miniapp.CreateAdcParams
-import com.ct.ertclib.dc.core.data.miniapp.DataChannel
 import com.ct.ertclib.dc.core.data.miniapp.DataChannelApp
 import com.ct.ertclib.dc.core.data.miniapp.DataChannelAppInfo
 import com.ct.ertclib.dc.core.manager.common.DialerEntryManager
@@ -36,16 +36,18 @@ import com.ct.ertclib.dc.core.manager.common.ExpandingCapacityManager
 import com.ct.ertclib.dc.core.manager.common.StateFlowManager
 import com.ct.ertclib.dc.core.port.dc.IAdverseDcCreateListener
 import com.ct.ertclib.dc.core.utils.common.DCUtils
-import com.ct.ertclib.dc.core.utils.common.XmlUtils
+import com.ct.ertclib.dc.core.utils.common.DataChannelAppInfoCodec
 import com.newcalllib.datachannel.V1_0.ImsDCStatus
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
 import java.lang.Class
 import java.util.concurrent.ArrayBlockingQueue
 import java.util.concurrent.ConcurrentHashMap
@@ -77,8 +79,22 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
 
     // 请求芯片创建ADC时，先排队
     private var createAdcQueue: ArrayBlockingQueue<CreateAdcParams> = ArrayBlockingQueue(100)
-    // 没有调用OEM的创建接口、最后一次调用创建接口且该次创建的ADC全部为open状态
-    private var canCreateADC = true
+    // 入队、收到ADC响应、ADC关闭时唤醒排队调度
+    private val createAdcSignal = Channel<Unit>(Channel.CONFLATED)
+    // 已调用OEM创建接口、还在等待响应的批次
+    private val mAdcCreateBatches = ArrayList<AdcCreateBatch>()
+    // 处于connecting状态的ADC等待结束的截止时间
+    private val mAdcConnectingDeadlineMap = ConcurrentHashMap<String, Long>()
+    var maxInFlightAdcCreates = CommonConstants.ADC_MAX_IN_FLIGHT_CREATES
+
+    /**
+     * 一次createImsDataChannel调用中还未收到响应的ADC
+     */
+    private class AdcCreateBatch(val adcKeys: MutableSet<String>, val deadline: Long) {
+        override fun toString(): String {
+            return "AdcCreateBatch(adcKeys=$adcKeys, deadline=$deadline)"
+        }
+    }
 
     fun registerBDCCallback(
         telecomCallId: String,
@@ -125,6 +141,7 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
                     val adcKey = getAdcKey(event.iImsDataChannel.telecomCallId, event.iImsDataChannel.dcLabel)
                     mAdcMap.remove(adcKey)
                     sLogger.debug("CloseAdcEvent onEvent remove $adcKey")
+                    notifyCreateAdcQueue()
                 }
             }
         }
@@ -167,8 +184,12 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
         sLogger.debug("onServiceDisconnected")
         mIsDataChannelServiceConnected = false
         mIsNetworkManagerInit = false
-        canCreateADC = true
         createAdcQueue.clear()
+        synchronized(mAdcCreateBatches) {
+            mAdcCreateBatches.clear()
+        }
+        mAdcConnectingDeadlineMap.clear()
+        notifyCreateAdcQueue()
     }
 
     override fun onServiceConnected() {
@@ -215,12 +236,12 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
         }
 
         override fun onApplicationDataChannelResponse(dc: IImsDataChannel?) {
-            canCreateADC = true
             sLogger.info("onApplicationDataChannelResponse")
             if (dc == null) {
                 if (sLogger.isDebugActivated) {
                     sLogger.debug("onApplicationDataChannelResponse adc is null")
                 }
+                onAdcCreateResponse(null)
                 return
             }
             val callId = dc.telecomCallId
@@ -230,6 +251,7 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
                 sLogger.debug("onApplicationDataChannelResponse telecomCallId:$callId, DcStatus:$state, appIdFromDcLabel:$appIdFromDcLabel, dcLabel:${dc.dcLabel},streamId:${dc.streamId}")
             }
             mAdcMap[getAdcKey(callId, dc.dcLabel)] = dc
+            onAdcCreateResponse(dc)
             val adcListenerKey = getAdcListenerKey(callId, appIdFromDcLabel)
 
             // 有些ADC不用回调给小程序
@@ -330,14 +352,19 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
         callId: String,
         remoteNumber: String?,
         labels: Array<String>,
-        description: String
+        description: String,
+        dataChannelAppInfo: DataChannelAppInfo? = null
     ): Int {
         if (sLogger.isDebugActivated) {
             sLogger.debug("createApplicationDataChannels slotId$slotId, callId:$callId, remoteNumber:$remoteNumber, lables:$labels, des:$description")
         }
 
         if (mIsDataChannelServiceConnected) {
-            createAdcQueue.add(CreateAdcParams(slotId, callId, remoteNumber,labels, description))
+            if (!createAdcQueue.offer(CreateAdcParams(slotId, callId, remoteNumber, labels, description, dataChannelAppInfo))) {
+                sLogger.warn("createApplicationDataChannels queue is full")
+                return 1
+            }
+            notifyCreateAdcQueue()
             return 0
         }
         return 1
@@ -396,38 +423,147 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
     }
 
     private fun startCreateADCQueue(){
+        job2?.cancel()
         job2 = scope.launch {
             while (isActive && mIsDataChannelServiceConnected) {
-                if (!canCreateADC){
-                    delay(1000)
-                    continue
+                val waitMillis = dispatchCreateAdc()
+                if (waitMillis > 0L) {
+                    withTimeoutOrNull(waitMillis) { createAdcSignal.receive() }
+                } else {
+                    createAdcSignal.receive()
                 }
+            }
+        }
+    }
 
-                var isConnecting = false
-                mAdcMap.forEach{(_, dc) ->
-                    if (dc.state == ImsDCStatus.DC_STATE_CONNECTING){
-                        isConnecting = true
-                    }
-                }
-                if (isConnecting){
-                    delay(1000)
-                    continue
+    private fun notifyCreateAdcQueue() {
+        createAdcSignal.trySend(Unit)
+    }
+
+    /**
+     * 派发所有当前可以创建的请求，返回需要重新检查的等待时间，0表示只等待新事件
+     */
+    private fun dispatchCreateAdc(): Long {
+        while (createAdcQueue.isNotEmpty()) {
+            val now = SystemClock.elapsedRealtime()
+            val batchDeadline = getAdcCreateBatchDeadline(now)
+            if (batchDeadline > 0L) {
+                return batchDeadline - now
+            }
+            // 芯片对connecting中的ADC处理完之前不再下发新的创建
+            val connectingDeadline = getConnectingAdcDeadline(now)
+            if (connectingDeadline > 0L) {
+                return minOf(CommonConstants.ADC_CONNECTING_RECHECK_MILLIS, connectingDeadline - now)
+            }
+            val params = takeCreateAdcParams() ?: continue
+            createADC(params.slotId, params.callId, params.remoteNumber, params.labels, params.description, params.dataChannelAppInfo)
+        }
+        return 0L
+    }
+
+    /**
+     * 等待响应的批次已达上限时返回最早的超时时间，否则返回0
+     */
+    private fun getAdcCreateBatchDeadline(now: Long): Long {
+        synchronized(mAdcCreateBatches) {
+            val iterator = mAdcCreateBatches.iterator()
+            while (iterator.hasNext()) {
+                val batch = iterator.next()
+                if (batch.deadline <= now) {
+                    sLogger.warn("createApplicationDataChannels response timeout $batch")
+                    iterator.remove()
                 }
+            }
+            if (mAdcCreateBatches.size < maxInFlightAdcCreates) {
+                return 0L
+            }
+            return mAdcCreateBatches.minOf { it.deadline }
+        }
+    }
+
+    /**
+     * 有ADC处于connecting状态且未超时时返回最晚的截止时间，否则返回0
+     */
+    private fun getConnectingAdcDeadline(now: Long): Long {
+        var connectingDeadline = 0L
+        mAdcConnectingDeadlineMap.forEach { (adcKey, deadline) ->
+            val dc = mAdcMap[adcKey]
+            if (dc == null || deadline <= now || dc.state != ImsDCStatus.DC_STATE_CONNECTING) {
+                mAdcConnectingDeadlineMap.remove(adcKey)
+            } else {
+                connectingDeadline = maxOf(connectingDeadline, deadline)
+            }
+        }
+        return connectingDeadline
+    }
 
-                val data = createAdcQueue.poll()
-                if (data == null) {
-                    delay(1000)
-                    continue
+    private fun onAdcCreateResponse(dc: IImsDataChannel?) {
+        synchronized(mAdcCreateBatches) {
+            if (dc == null) {
+                // 无法对应到具体的ADC，认为最早的批次已经结束
+                if (mAdcCreateBatches.isNotEmpty()) {
+                    mAdcCreateBatches.removeAt(0)
+                }
+            } else {
+                val adcKey = getAdcKey(dc.telecomCallId, dc.dcLabel)
+                if (dc.state == ImsDCStatus.DC_STATE_CONNECTING) {
+                    mAdcConnectingDeadlineMap[adcKey] =
+                        SystemClock.elapsedRealtime() + CommonConstants.ADC_CREATE_TIMEOUT_MILLIS
                 }
-                if (data.callId != currentCallId){
-                    delay(200)
-                    continue
+                val batch = mAdcCreateBatches.firstOrNull { it.adcKeys.contains(adcKey) }
+                if (batch != null) {
+                    batch.adcKeys.remove(adcKey)
+                    if (batch.adcKeys.isEmpty()) {
+                        mAdcCreateBatches.remove(batch)
+                    }
                 }
-                createADC( data.slotId, data.callId, data.remoteNumber,data.labels, data.description)
-                // 强制等待3秒
-                delay(3000)
             }
         }
+        notifyCreateAdcQueue()
+    }
+
+    /**
+     * 取出队首请求，并把队列中同一通话、同一小程序的请求合并到一次创建中
+     */
+    private fun takeCreateAdcParams(): CreateAdcParams? {
+        val first = createAdcQueue.poll() ?: return null
+        if (first.callId != currentCallId) {
+            sLogger.info("createApplicationDataChannels drop ${first.callId}, currentCallId:$currentCallId")
+            return null
+        }
+        val appInfo = first.dataChannelAppInfo ?: return first
+        val appId = appInfo.dataChannelApp?.appId ?: return first
+        val mergeList = createAdcQueue.filter { params ->
+            params.slotId == first.slotId
+                    && params.callId == first.callId
+                    && params.remoteNumber == first.remoteNumber
+                    && params.dataChannelAppInfo?.dataChannelApp?.appId == appId
+        }
+        if (mergeList.isEmpty()) {
+            return first
+        }
+        mergeList.forEach { createAdcQueue.remove(it) }
+
+        val dataChannelList = (listOf(first) + mergeList)
+            .flatMap { it.dataChannelAppInfo?.dataChannelApp?.dataChannelList ?: emptyList() }
+            .distinctBy { it.dcLabel }
+        val mergedApp = DataChannelApp()
+        mergedApp.appId = appId
+        mergedApp.dataChannelList = dataChannelList.toMutableList()
+        val mergedAppInfo = DataChannelAppInfo()
+        mergedAppInfo.dataChannelApp = mergedApp
+        val labels = (first.labels.asList() + mergeList.flatMap { it.labels.asList() }).distinct()
+        if (sLogger.isDebugActivated) {
+            sLogger.debug("createApplicationDataChannels merge ${mergeList.size + 1} requests, labels:$labels")
+        }
+        return CreateAdcParams(
+            first.slotId,
+            first.callId,
+            first.remoteNumber,
+            labels.toTypedArray(),
+            DataChannelAppInfoCodec.toXml(mergedAppInfo),
+            mergedAppInfo
+        )
     }
 
     private fun createADC(
@@ -435,9 +571,9 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
         callId: String,
         remoteNumber: String?,
         labels: Array<String>,
-        description: String
+        description: String,
+        dataChannelAppInfo: DataChannelAppInfo?
     ){
-        canCreateADC = false
         val shouldCreateLabels = mutableListOf<String>()
         // 检查是否有adc缓存，有的话就直接返回缓存adc，不用再次创建
         val imsDcCallback = mImsDcCallbackMap[getImsDcCallbackKey(slotId,callId)]
@@ -455,7 +591,6 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
                 } else {
                     // 相同dcLabel的dc正在关闭
                     sLogger.debug("createApplicationDataChannels dc maybe closing,state:${dc.state}")
-                    canCreateADC = true
                     return
                 }
             } else {
@@ -466,14 +601,23 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
             }
         }
         if (shouldCreateLabels.size == 0){
-            canCreateADC = true
             return
         }
-        val shouldCreateDescription = createNewXml(shouldCreateLabels.toTypedArray(), description)
+        val shouldCreateDescription = createNewXml(shouldCreateLabels.toTypedArray(), description, dataChannelAppInfo)
         sLogger.debug("createApplicationDataChannels shouldCreateLabels:$shouldCreateLabels, shouldCreateDescription:$shouldCreateDescription")
+        val batch = AdcCreateBatch(
+            shouldCreateLabels.mapTo(HashSet()) { getAdcKey(callId, it) },
+            SystemClock.elapsedRealtime() + CommonConstants.ADC_CREATE_TIMEOUT_MILLIS
+        )
+        // 先登记再调用，避免响应先于登记到达
+        synchronized(mAdcCreateBatches) {
+            mAdcCreateBatches.add(batch)
+        }
         val result = DCServiceManager.createImsDc(shouldCreateLabels.toTypedArray(), shouldCreateDescription, slotId, callId, remoteNumber)
         if (result == 1){
-            canCreateADC = true
+            synchronized(mAdcCreateBatches) {
+                mAdcCreateBatches.remove(batch)
+            }
         }
     }
 
@@ -481,32 +625,31 @@ class DCManager() : ICallStateListener, ImsDcServiceConnectionCallback {
         currentCallId = callId
     }
 
-    private fun createNewXml(labels: Array<String>, description: String): String {
+    private fun createNewXml(labels: Array<String>, description: String, parsedAppInfo: DataChannelAppInfo?): String {
         return try {
-            val classes = arrayOf<Class<*>>(
-                DataChannelAppInfo::class.java,
-                DataChannelApp::class.java,
-                DataChannel::class.java
-            )
-
-            // 解析XML
-            val dataChannelAppInfo = XmlUtils.parseXml(description, classes, DataChannelAppInfo::class.java)
+            // 调用方已解析过的直接复用，不再重复解析XML
+            val dataChannelAppInfo = parsedAppInfo ?: DataChannelAppInfoCodec.parse(description)
+            val dataChannelApp = dataChannelAppInfo.dataChannelApp ?: return description
+            val dataChannelList = dataChannelApp.dataChannelList ?: return description
 
             // 过滤DataChannel列表，只保留包含在labels中的dcLabel
-            val filteredDataChannels = dataChannelAppInfo.dataChannelApp.dataChannelList
-                .filter { dataChannel ->
-                    labels.contains(dataChannel.dcLabel)
-                }
-                .toMutableList() // 转换为可变列表以便后续操作
-
-            // 更新dataChannelList
-            dataChannelAppInfo.dataChannelApp.dataChannelList = filteredDataChannels
-
-            // 序列化回XML
-            XmlUtils.toXml(dataChannelAppInfo, classes)
+            val filteredDataChannels = dataChannelList.filter { dataChannel ->
+                labels.contains(dataChannel.dcLabel)
+            }
+            // 全部都要创建时原始description就是结果，不用重新序列化
+            if (filteredDataChannels.size == dataChannelList.size) {
+                return description
+            }
 
+            // 基于副本序列化，不修改队列中共享的模型
+            val filteredApp = DataChannelApp()
+            filteredApp.appId = dataChannelApp.appId
+            filteredApp.dataChannelList = filteredDataChannels.toMutableList()
+            val filteredAppInfo = DataChannelAppInfo()
+            filteredAppInfo.dataChannelApp = filteredApp
+            DataChannelAppInfoCodec.toXml(filteredAppInfo)
         } catch (e: Exception) {
-            e.printStackTrace()
+            sLogger.error("createNewXml", e)
             // 发生异常时返回原始description
             description
         }
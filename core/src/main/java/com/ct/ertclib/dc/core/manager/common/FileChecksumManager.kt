@@ -0,0 +1,151 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.manager.common
+
+import android.content.Context
+import android.net.Uri
+import android.os.Build
+import android.system.ErrnoException
+import android.system.Os
+import android.system.StructStat
+import com.ct.ertclib.dc.core.common.NewCallDatabase
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_CHECKSUM_CACHE_MAX_ROWS
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_CHECKSUM_PRUNE_INTERVAL
+import com.ct.ertclib.dc.core.data.model.FileChecksumEntity
+import com.ct.ertclib.dc.core.utils.common.FileChecksum
+import com.ct.ertclib.dc.core.utils.logger.Logger
+import java.io.File
+import java.io.FileDescriptor
+import java.io.FileInputStream
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 文件校验值缓存，以(路径, 大小, 修改时间, inode)判断文件是否变化，未变化时不再读取文件。
+ * 进程内首次写入及此后每写入FILE_CHECKSUM_PRUNE_INTERVAL次清理一次缓存表
+ */
+class FileChecksumManager {
+    private val fileDao = NewCallDatabase.getInstance().FileDao()
+
+    companion object {
+        private const val TAG = "FileChecksumManager"
+        val instance: FileChecksumManager by lazy {
+            FileChecksumManager()
+        }
+    }
+    private val sLogger: Logger = Logger.getLogger(TAG)
+    private val upsertCount = AtomicInteger(0)
+
+    /**
+     * 计算或读取缓存的文件校验值，可在协程取消时中止
+     *
+     * @param onProgress 已处理字节数和总字节数，命中缓存时不回调
+     * @return 小写十六进制字符串，文件不可读时返回null
+     */
+    suspend fun getFileChecksum(file: File, algorithm: String, onProgress: ((Long, Long) -> Unit)? = null): String? {
+        return try {
+            FileInputStream(file).use { stream ->
+                getChecksum(file.absolutePath, stream.fd, stream, algorithm, onProgress)
+            }
+        } catch (e: IOException) {
+            sLogger.warn("getFileChecksum failed, ${e.message}")
+            null
+        }
+    }
+
+    /**
+     * 同[getFileChecksum]，content uri通过文件描述符读取，描述符不是普通文件时返回null
+     */
+    suspend fun getUriChecksum(context: Context, uri: Uri, algorithm: String, onProgress: ((Long, Long) -> Unit)? = null): String? {
+        return try {
+            context.contentResolver.openFileDescriptor(uri, "r")?.use { pfd ->
+                if (pfd.statSize < 0) {
+                    return null
+                }
+                FileInputStream(pfd.fileDescriptor).use { stream ->
+                    getChecksum(uri.toString(), pfd.fileDescriptor, stream, algorithm, onProgress)
+                }
+            }
+        } catch (e: IOException) {
+            sLogger.warn("getUriChecksum failed, ${e.message}")
+            null
+        } catch (e: SecurityException) {
+            sLogger.warn("getUriChecksum failed, ${e.message}")
+            null
+        }
+    }
+
+    private suspend fun getChecksum(
+        path: String,
+        fd: FileDescriptor,
+        stream: FileInputStream,
+        algorithm: String,
+        onProgress: ((Long, Long) -> Unit)?
+    ): String {
+        // 对已打开的描述符取属性，计算期间路径被替换也不会把旧内容的校验值记到新文件上
+        val stat = fstat(fd)
+        val lastModified = lastModifiedMillis(stat)
+        fileDao.queryChecksum(path, algorithm)?.let {
+            if (it.size == stat.st_size && it.lastModified == lastModified && it.inode == stat.st_ino) {
+                return it.checksum
+            }
+        }
+        val checksum = FileChecksum.compute(stream.channel, stat.st_size, algorithm, onProgress)
+        // 计算期间文件被修改时不写缓存
+        val after = fstat(fd)
+        if (after.st_size == stat.st_size && lastModifiedMillis(after) == lastModified) {
+            fileDao.upsertChecksum(FileChecksumEntity(path, algorithm, stat.st_size, lastModified, stat.st_ino, checksum))
+            if (upsertCount.getAndIncrement() % FILE_CHECKSUM_PRUNE_INTERVAL == 0) {
+                prune()
+            }
+        }
+        if (sLogger.isDebugActivated) {
+            sLogger.debug("getChecksum computed $algorithm, size:${stat.st_size}")
+        }
+        return checksum
+    }
+
+    /**
+     * 删除已不存在的文件的记录，再把表裁剪到FILE_CHECKSUM_CACHE_MAX_ROWS行。
+     * content uri无法低成本判断是否存在，只按行数淘汰
+     */
+    private fun prune() {
+        val missing = fileDao.queryChecksumPaths().filter { !it.startsWith("content:") && !File(it).exists() }
+        // 分批删除，避免超过SQLite的参数个数上限
+        missing.chunked(500).forEach { fileDao.deleteChecksums(it) }
+        fileDao.trimChecksums(FILE_CHECKSUM_CACHE_MAX_ROWS)
+        if (sLogger.isDebugActivated) {
+            sLogger.debug("prune removed ${missing.size} missing files")
+        }
+    }
+
+    private fun fstat(fd: FileDescriptor): StructStat {
+        return try {
+            Os.fstat(fd)
+        } catch (e: ErrnoException) {
+            throw IOException(e)
+        }
+    }
+
+    private fun lastModifiedMillis(stat: StructStat): Long {
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            stat.st_mtim.tv_sec * 1000 + stat.st_mtim.tv_nsec / 1_000_000
+        } else {
+            stat.st_mtime * 1000
+        }
+    }
+}
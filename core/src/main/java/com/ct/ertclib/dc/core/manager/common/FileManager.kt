@@ -1,15 +1,23 @@
 package com.ct.ertclib.dc.core.manager.common
 
 import android.content.Context
+import android.os.Build
+import android.os.SystemClock
+import android.provider.MediaStore
 import androidx.sqlite.db.SimpleSQLiteQuery
+import com.blankj.utilcode.util.SPUtils
 import com.ct.ertclib.dc.core.common.FileScanner
 import com.ct.ertclib.dc.core.common.NewCallDatabase
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_INDEX_BATCH_SIZE
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_INDEX_MEDIA_GENERATION_KEY
 import com.ct.ertclib.dc.core.data.model.FileEntity
+import com.ct.ertclib.dc.core.utils.common.SearchGrams
 import com.ct.ertclib.dc.core.utils.logger.Logger
+import java.util.concurrent.atomic.AtomicBoolean
 
 class FileManager {
     private val fileDao = NewCallDatabase.getInstance().FileDao()
-    private var isScanning = false
+    private val isScanning = AtomicBoolean(false)
 
     companion object {
         private const val TAG = "FileManager"
@@ -24,30 +32,75 @@ class FileManager {
     }
 
     fun updateFiles(context: Context){
-        if (isScanning){
+        if (!isScanning.compareAndSet(false, true)){
             return
         }
-        isScanning = true
-        sLogger.info("updateFiles")
-        val fileScanner = FileScanner(context)
-        val list = fileScanner.scanAllFiles()
-        fileDao.upsertFiles(list)
-        isScanning = false
+        try {
+            val generation = getMediaGeneration(context)
+            if (generation != null && hasFileIndex()
+                && generation == SPUtils.getInstance().getString(FILE_INDEX_MEDIA_GENERATION_KEY)) {
+                sLogger.info("updateFiles media generation not changed, skip")
+                return
+            }
+            val startTime = SystemClock.elapsedRealtime()
+            val fileScanner = FileScanner(context)
+            val result = fileScanner.scan(fileDao.queryDirs()) { fileDao.queryFilesByParent(it) }
+            applyScanResult(result)
+            generation?.let { SPUtils.getInstance().put(FILE_INDEX_MEDIA_GENERATION_KEY, it) }
+            sLogger.info("updateFiles visited:${result.visitedDirCount.get()}, listed:${result.listedDirCount.get()}, " +
+                    "upsert:${result.upsertFiles.size}, delete:${result.deletedFiles.size}, " +
+                    "deleteDirs:${result.deletedDirs.size}, cost:${SystemClock.elapsedRealtime() - startTime}ms")
+        } finally {
+            isScanning.set(false)
+        }
+    }
+
+    /**
+     * 分批写入，每个事务最多FILE_INDEX_BATCH_SIZE行，避免长时间占用数据库
+     */
+    private fun applyScanResult(result: FileScanner.ScanResult) {
+        val db = NewCallDatabase.getInstance()
+        result.deletedDirs.chunked(FILE_INDEX_BATCH_SIZE).forEach { dirs ->
+            db.runInTransaction { dirs.forEach { fileDao.deleteDirTree(it) } }
+        }
+        result.deletedFiles.chunked(FILE_INDEX_BATCH_SIZE).forEach { paths ->
+            db.runInTransaction { fileDao.deleteFiles(paths) }
+        }
+        result.upsertFiles.chunked(FILE_INDEX_BATCH_SIZE).forEach { files ->
+            db.runInTransaction { fileDao.upsertFiles(files) }
+        }
+        // 目录快照最后写入，中途失败时下次仍会重新列举这些目录
+        result.upsertDirs.chunked(FILE_INDEX_BATCH_SIZE).forEach { dirs ->
+            db.runInTransaction { fileDao.upsertDirs(dirs) }
+        }
+    }
+
+    /**
+     * MediaStore记录了外部存储上的所有文件，generation不变说明没有文件增删改，可以跳过扫描。
+     * Android 11以下没有generation，返回null
+     */
+    private fun getMediaGeneration(context: Context): String? {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return null
+        }
+        return try {
+            // 数据库重建后generation会重新计数，所以带上version
+            MediaStore.getExternalVolumeNames(context).sorted().joinToString(",") { volume ->
+                "$volume:${MediaStore.getVersion(context, volume)}:${MediaStore.getGeneration(context, volume)}"
+            }
+        } catch (e: Exception) {
+            sLogger.error("getMediaGeneration", e)
+            null
+        }
     }
 
     fun searchFilesByName(name: String): List<FileEntity> {
-        return fileDao.queryFiles(name)
+        return searchFilesByKeyWords(name)
     }
 
     fun searchFilesByKeyWords(vararg keywords: String): List<FileEntity> {
         if (keywords.isEmpty()) return emptyList()
-        val clauses = mutableListOf<String>()
-        val args = mutableListOf<String>()
-        keywords.forEach { keyword ->
-            clauses.add("name LIKE ?")
-            args.add("%$keyword%")
-        }
-        val sql = "SELECT * FROM files WHERE ${clauses.joinToString(" OR ")}"
-        return fileDao.queryFilesByKeywords(SimpleSQLiteQuery(sql, args.toTypedArray()))
+        val (sql, args) = SearchGrams.buildFileSearchQuery(keywords.toList())
+        return fileDao.queryFilesByKeywords(SimpleSQLiteQuery(sql, args))
     }
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.manager.context
+
+import android.os.Handler
+import android.os.Looper
+import com.ct.ertclib.dc.core.constants.CommonConstants
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_NOTIFY_MESSAGE
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_NOTIFY_MESSAGE_BATCH
+import com.ct.ertclib.dc.core.port.miniapp.IMiniApp
+import com.ct.ertclib.dc.core.utils.common.FileUtils
+import com.ct.ertclib.dc.core.utils.common.JsonUtil
+import com.ct.ertclib.dc.core.utils.logger.Logger
+
+/**
+ * 合并投递数据通道收到的消息。
+ * 同一dcLabel在[maxLatencyMillis]内到达的消息合并为一次messageBatchNotify调用，
+ * 累计到[maxBatchSize]条时立即投递。每个dcLabel的消息按到达顺序投递。
+ * 页面没有注册messageBatchNotify，或还未查询到是否注册时，仍逐条调用messageNotify，
+ * 每条消息各执行一次evaluateJavascript，只有合并投递的时机，没有减少调用次数；
+ * DSBridge的callHandler每次调用各执行一段脚本，合并需要依赖它的内部协议，因此不做合并。
+ */
+class DataChannelMessageBatcher(private val miniAppProvider: () -> IMiniApp?) {
+
+    companion object {
+        private const val TAG = "DataChannelMessageBatcher"
+    }
+
+    private val sLogger: Logger = Logger.getLogger(TAG)
+    private val mMainHandler = Handler(Looper.getMainLooper())
+    private val mLock = Any()
+    // 按dcLabel首次到达的顺序保存待投递的Base64消息
+    private val mPendingMessages = LinkedHashMap<String, MutableList<String>>()
+    private var isFlushScheduled = false
+
+    // 页面是否注册了批量接口，null表示还未查询
+    @Volatile
+    private var isBatchSupported: Boolean? = null
+    @Volatile
+    private var isQueryingBatchSupported = false
+
+    var maxBatchSize = CommonConstants.DC_MESSAGE_BATCH_MAX_SIZE
+    var maxLatencyMillis = CommonConstants.DC_MESSAGE_BATCH_MAX_LATENCY_MILLIS
+
+    private val mFlushRunnable = Runnable { flush() }
+
+    /**
+     * 可在任意线程调用，Base64编码在调用线程完成，不占用主线程
+     */
+    fun offer(label: String, data: ByteArray, length: Int) {
+        val message = if (length == data.size) {
+            FileUtils.byteArrayToBase64(data)
+        } else {
+            FileUtils.byteArrayToBase64(data.copyOf(length))
+        }
+        synchronized(mLock) {
+            val messages = mPendingMessages.getOrPut(label) { ArrayList() }
+            messages.add(message)
+            if (messages.size >= maxBatchSize) {
+                // 达到批量上限，不再等待
+                mMainHandler.removeCallbacks(mFlushRunnable)
+                mMainHandler.post(mFlushRunnable)
+                isFlushScheduled = true
+            } else if (!isFlushScheduled) {
+                mMainHandler.postDelayed(mFlushRunnable, maxLatencyMillis)
+                isFlushScheduled = true
+            }
+        }
+    }
+
+    fun clear() {
+        synchronized(mLock) {
+            mMainHandler.removeCallbacks(mFlushRunnable)
+            mPendingMessages.clear()
+            isFlushScheduled = false
+        }
+        isBatchSupported = null
+    }
+
+    private fun flush() {
+        val batches: List<Pair<String, List<String>>>
+        synchronized(mLock) {
+            isFlushScheduled = false
+            if (mPendingMessages.isEmpty()) {
+                return
+            }
+            batches = mPendingMessages.map { (label, messages) -> label to messages }
+            mPendingMessages.clear()
+        }
+        val miniApp = miniAppProvider() ?: return
+        queryBatchSupported(miniApp)
+        val useBatch = isBatchSupported == true
+        batches.forEach { (label, messages) ->
+            if (sLogger.isDebugActivated) {
+                sLogger.debug("flush dcLabel:$label, size:${messages.size}, useBatch:$useBatch")
+            }
+            if (useBatch) {
+                val map = mapOf("dcLabel" to label, "messages" to messages)
+                miniApp.callHandler(FUNCTION_NOTIFY_MESSAGE_BATCH, arrayOf(JsonUtil.toJson(map)))
+            } else {
+                messages.forEach { message ->
+                    val map = mapOf("dcLabel" to label, "message" to message)
+                    miniApp.callHandler(FUNCTION_NOTIFY_MESSAGE, arrayOf(JsonUtil.toJson(map)))
+                }
+            }
+        }
+    }
+
+    private fun queryBatchSupported(miniApp: IMiniApp) {
+        if (isBatchSupported != null || isQueryingBatchSupported) {
+            return
+        }
+        isQueryingBatchSupported = true
+        miniApp.hasJavascriptMethod(FUNCTION_NOTIFY_MESSAGE_BATCH) { supported ->
+            isQueryingBatchSupported = false
+            isBatchSupported = supported
+            sLogger.info("queryBatchSupported supported:$supported")
+        }
+    }
+}
@@ -20,9 +20,11 @@ import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
 import android.content.ServiceConnection
+import android.os.Build
 import android.os.IBinder
 import android.os.RemoteException
-import com.ct.ertclib.dc.core.utils.common.FileUtils
+import android.os.SharedMemory
+import android.system.ErrnoException
 import com.ct.ertclib.dc.core.utils.common.JsonUtil
 import com.ct.ertclib.dc.core.utils.common.DCUtils
 import com.ct.ertclib.dc.core.constants.CommonConstants
@@ -31,11 +33,11 @@ import com.ct.ertclib.dc.core.constants.CommonConstants.ACTION_REFRESH_MINI_PERM
 import com.ct.ertclib.dc.core.constants.CommonConstants.ACTION_START_APP_RESPONSE
 import com.ct.ertclib.dc.core.constants.CommonConstants.APP_RESPONSE_CODE_SUCCESS
 import com.ct.ertclib.dc.core.constants.CommonConstants.APP_RESPONSE_MESSAGE_SUCCESS
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_MESSAGE_CHANNEL_KEY
 import com.ct.ertclib.dc.core.constants.ContextConstants.INTENT_APP_SERVICE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_DRAWING_INO_NOTIFY
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_EC_NOTIFY
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_NOTIFY_DATA_CHANNEL
-import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_NOTIFY_MESSAGE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_SCREEN_SIZE_NOTIFY
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_SCREEN_SHARE_NOTIFY
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_SKETCH_STATUS_NOTIFY
@@ -50,6 +52,10 @@ import com.ct.ertclib.dc.core.miniapp.aidl.IDCCallback
 import com.ct.ertclib.dc.core.miniapp.aidl.IMessageCallback
 import com.ct.ertclib.dc.core.miniapp.aidl.IMiniToParent
 import com.ct.ertclib.dc.core.miniapp.aidl.IParentToMini
+import com.ct.ertclib.dc.core.miniapp.bridge.DataChannelBinaryBridge
+import com.ct.ertclib.dc.core.miniapp.bridge.FileBinaryBridge
+import com.ct.ertclib.dc.core.miniapp.bridge.FileHandleTable
+import com.ct.ertclib.dc.core.miniapp.ipc.MiniAppMessageChannel
 import com.ct.ertclib.dc.core.port.common.OnPickMediaCallbackListener
 import com.ct.ertclib.dc.core.port.manager.IMiniToParentManager
 import com.ct.ertclib.dc.core.port.miniapp.IMiniApp
@@ -75,9 +81,15 @@ class MiniToParentManager : IMiniToParentManager {
     override val createDCLabelList: MutableList<String> = Collections.synchronizedList(ArrayList())
     override val openDCList: MutableList<IImsDataChannel> = Collections.synchronizedList(ArrayList())//可能会重复
     override val systemApiLicenseMap = mutableMapOf<String, String>()
+    override val binaryBridge = DataChannelBinaryBridge(this)
+    override val fileHandleTable = FileHandleTable()
+    override val fileBinaryBridge = FileBinaryBridge(fileHandleTable)
+    private val messageBatcher = DataChannelMessageBatcher { miniAppInterface }
 
     private val logger = Logger.getLogger(TAG)
     private var appServiceImpl: IMiniToParent? = null
+    @Volatile
+    private var messageChannel: MiniAppMessageChannel? = null
     private val scope = CoroutineScope(Dispatchers.Default + SupervisorJob())
     private var isBind = false
 
@@ -95,10 +107,16 @@ class MiniToParentManager : IMiniToParentManager {
 
     override fun unBindService(context: Context) {
         logger.info("unBindService")
+        // 小程序退出时关闭所有文件句柄，与是否绑定成功无关
+        fileBinaryBridge.close()
+        fileHandleTable.closeAll()
         if (!isBind) {
             return
         }
         isBind = false
+        closeMessageChannel()
+        binaryBridge.close()
+        messageBatcher.clear()
         openDCList.forEach {
             it.unregisterObserver()
         }
@@ -151,6 +169,11 @@ class MiniToParentManager : IMiniToParentManager {
     }
 
     override fun sendMessageToParent(message: String, callback: IMessageCallback.Stub?) {
+        // 不需要回复的消息优先写入共享内存通道，通道不可用或已满时走AIDL
+        if (callback == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU &&
+            messageChannel?.send(message) { notifyMessageChannel() } == true) {
+            return
+        }
         appServiceImpl?.sendMessageToParent(
             getMiniAppInfo()?.callId,
             getMiniAppInfo()?.appId,
@@ -159,6 +182,45 @@ class MiniToParentManager : IMiniToParentManager {
         )
     }
 
+    private fun notifyMessageChannel() {
+        try {
+            appServiceImpl?.notifyMessageChannel(getMiniAppInfo()?.callId, getMiniAppInfo()?.appId)
+        } catch (e: RemoteException) {
+            logger.error("notifyMessageChannel", e)
+        }
+    }
+
+    private fun openMessageChannel() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+            return
+        }
+        val bundle = try {
+            appServiceImpl?.openMessageChannel(getMiniAppInfo()?.callId, getMiniAppInfo()?.appId)
+        } catch (e: RemoteException) {
+            logger.error("openMessageChannel", e)
+            null
+        } ?: return
+        bundle.classLoader = SharedMemory::class.java.classLoader
+        val sharedMemory = bundle.getParcelable<SharedMemory>(MINI_APP_MESSAGE_CHANNEL_KEY) ?: return
+        try {
+            messageChannel = MiniAppMessageChannel.attach(sharedMemory)
+            logger.info("openMessageChannel size:${sharedMemory.size}")
+        } catch (e: ErrnoException) {
+            logger.error("openMessageChannel attach", e)
+            sharedMemory.close()
+        } catch (e: IllegalArgumentException) {
+            logger.error("openMessageChannel attach", e)
+            sharedMemory.close()
+        }
+    }
+
+    private fun closeMessageChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            messageChannel?.close()
+        }
+        messageChannel = null
+    }
+
     override fun getCallInfo(): CallInfo? {
         return miniAppInterface?.callInfo
     }
@@ -189,6 +251,7 @@ class MiniToParentManager : IMiniToParentManager {
                     getMiniAppInfo()?.appId,
                     parentToMiniImpl
                 )
+                openMessageChannel()
                 appServiceImpl?.registerDCCallBack(
                     getMiniAppInfo()?.callId,
                     getMiniAppInfo()?.appId,
@@ -202,6 +265,7 @@ class MiniToParentManager : IMiniToParentManager {
 
         override fun onServiceDisconnected(name: ComponentName?) {
             logger.debug("onServiceDisconnected, name: $name")
+            closeMessageChannel()
             appServiceImpl = null
         }
     }
@@ -217,7 +281,7 @@ class MiniToParentManager : IMiniToParentManager {
             message: String?,
             iMessageCallback: IMessageCallback?
         ) {
-            logger.debug("sendMessageToMini miniAppId:$miniAppId, message:$message")
+            logger.debug { "sendMessageToMini miniAppId:$miniAppId, message:$message" }
             if (miniAppId == null || message == null) {
                 return
             }
@@ -337,14 +401,15 @@ class MiniToParentManager : IMiniToParentManager {
         }
 
         override fun onMessage(data: ByteArray?, length: Int) {
-            logger.debug("AC ImsDCObserverImpl onMessage dcLabel:$label,bytes:${data?.toString()}, length:$length")
+            logger.debug { "AC ImsDCObserverImpl onMessage dcLabel:$label,bytes:${data?.toString()}, length:$length" }
             if (data == null) {
                 return
             }
-            scope.launch(Dispatchers.Default) {
-                val map = mapOf("dcLabel" to label, "message" to FileUtils.byteArrayToBase64(data))
-                miniAppInterface?.callHandler(FUNCTION_NOTIFY_MESSAGE, arrayOf(JsonUtil.toJson(map)))
+            // 小程序打开了二进制通道时直接转发原始数据
+            if (binaryBridge.post(label, data, length)) {
+                return
             }
+            messageBatcher.offer(label, data, length)
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,211 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.PROPERTIES_FILE_NAME
+import com.ct.ertclib.dc.core.data.miniapp.MiniAppProperties
+import com.ct.ertclib.dc.core.data.model.MiniAppIndexEntity
+import com.ct.ertclib.dc.core.utils.logger.Logger
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 已安装小程序的元数据索引，按appId在内存中查找安装路径、版本、properties和权限，同时持久化到数据库。
+ * 安装完成后由[onInstalled]更新索引，启动时不再遍历目录、读取和解析properties.json。
+ * 每个小程序在进程内首次查询时校验一次版本目录和properties.json的修改时间，
+ * 不一致或索引中没有时重新扫描目录补建，扫描不到的记录为未安装，直到下次安装。
+ * 不依赖Android，存储和版本比较由调用方传入。
+ */
+class MiniAppIndex(
+    private val rootDir: File,
+    private val storage: Storage,
+    private val versionComparator: Comparator<String>,
+    private val parser: (String) -> MiniAppProperties?,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    companion object {
+        private const val TAG = "MiniAppIndex"
+        private val sLogger: Logger = Logger.getLogger(TAG)
+    }
+
+    interface Storage {
+        fun loadAll(): List<MiniAppIndexEntity>
+
+        fun save(index: MiniAppIndexEntity)
+
+        fun delete(appId: String)
+    }
+
+    private class Entry(val record: MiniAppIndexEntity, @Volatile var verified: Boolean) {
+        @Volatile
+        var properties: MiniAppProperties? = null
+    }
+
+    private val entries = ConcurrentHashMap<String, Entry>()
+    // 本进程内已确认未安装的小程序
+    private val absent = ConcurrentHashMap.newKeySet<String>()
+    @Volatile
+    private var loaded = false
+
+    fun getInstalledPath(appId: String): String? = getEntry(appId)?.record?.path
+
+    fun getVersion(appId: String): String? = getEntry(appId)?.record?.version
+
+    /**
+     * 取小程序的properties，[path]不为空且与索引中的安装路径不同时直接读取该目录下的properties.json
+     */
+    fun getProperties(appId: String, path: String? = null): MiniAppProperties? {
+        val entry = getEntry(appId)
+        if (entry == null || (path != null && path != entry.record.path)) {
+            return path?.let { readProperties(File(it, PROPERTIES_FILE_NAME)) }?.let { parser(it) }
+        }
+        entry.properties?.let { return it }
+        if (entry.record.properties.isEmpty()) {
+            return null
+        }
+        return parser(entry.record.properties)?.also { entry.properties = it }
+    }
+
+    fun getPermissions(appId: String): List<String>? = getProperties(appId)?.permissions
+
+    /**
+     * 小程序安装到[versionDir]后调用，先写数据库再更新内存
+     */
+    @Synchronized
+    fun onInstalled(appId: String, versionDir: File) {
+        ensureLoaded()
+        val record = createRecord(appId, versionDir)
+        try {
+            storage.save(record)
+        } catch (e: RuntimeException) {
+            // 数据库写入失败时内存索引照常更新，下次启动时按目录校验补建
+            sLogger.warn("onInstalled save $appId failed", e)
+        }
+        entries[appId] = Entry(record, true)
+        absent.remove(appId)
+    }
+
+    private fun getEntry(appId: String): Entry? {
+        if (!loaded) {
+            ensureLoaded()
+        }
+        val entry = entries[appId]
+        if (entry != null && entry.verified) {
+            return entry
+        }
+        if (entry == null && absent.contains(appId)) {
+            return null
+        }
+        return verify(appId)
+    }
+
+    @Synchronized
+    private fun ensureLoaded() {
+        if (loaded) {
+            return
+        }
+        try {
+            storage.loadAll().forEach { entries[it.appId] = Entry(it, false) }
+        } catch (e: RuntimeException) {
+            sLogger.warn("ensureLoaded failed", e)
+        }
+        loaded = true
+    }
+
+    /**
+     * 校验索引记录，版本目录或properties.json有变化时重新扫描目录
+     */
+    @Synchronized
+    private fun verify(appId: String): Entry? {
+        val entry = entries[appId]
+        if (entry != null) {
+            if (entry.verified) {
+                return entry
+            }
+            val record = entry.record
+            val versionDir = File(record.path)
+            if (versionDir.lastModified() == record.dirModified && versionDir.isDirectory &&
+                File(versionDir, PROPERTIES_FILE_NAME).lastModified() == record.propertiesModified) {
+                entry.verified = true
+                return entry
+            }
+        } else if (absent.contains(appId)) {
+            return null
+        }
+        val versionDir = scan(appId)
+        if (versionDir == null) {
+            sLogger.info("verify $appId not installed")
+            if (entry != null) {
+                try {
+                    storage.delete(appId)
+                } catch (e: RuntimeException) {
+                    sLogger.warn("verify delete $appId failed", e)
+                }
+                entries.remove(appId)
+            }
+            absent.add(appId)
+            return null
+        }
+        sLogger.info("verify $appId reindex ${versionDir.name}")
+        val record = createRecord(appId, versionDir)
+        try {
+            storage.save(record)
+        } catch (e: RuntimeException) {
+            sLogger.warn("verify save $appId failed", e)
+        }
+        return Entry(record, true).also { entries[appId] = it }
+    }
+
+    /**
+     * 取小程序目录下版本号最大的版本目录，忽略安装中的临时目录
+     */
+    private fun scan(appId: String): File? {
+        val versionDirs = File(rootDir, appId).listFiles { file ->
+            file.isDirectory && !file.name.endsWith(MiniAppPackageStore.INSTALLING_SUFFIX)
+        }
+        if (versionDirs.isNullOrEmpty()) {
+            return null
+        }
+        return versionDirs.maxWithOrNull { a, b -> versionComparator.compare(a.name, b.name) }
+    }
+
+    private fun createRecord(appId: String, versionDir: File): MiniAppIndexEntity {
+        val propertiesFile = File(versionDir, PROPERTIES_FILE_NAME)
+        return MiniAppIndexEntity(
+            appId,
+            versionDir.name,
+            versionDir.path,
+            versionDir.lastModified(),
+            propertiesFile.lastModified(),
+            readProperties(propertiesFile) ?: "",
+            clock()
+        )
+    }
+
+    private fun readProperties(file: File): String? {
+        return try {
+            file.readText()
+        } catch (e: IOException) {
+            if (sLogger.isDebugActivated) {
+                sLogger.debug("readProperties ${file.path} failed")
+            }
+            null
+        }
+    }
+}
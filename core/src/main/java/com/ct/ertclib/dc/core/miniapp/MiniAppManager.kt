@@ -19,7 +19,6 @@ package com.ct.ertclib.dc.core.miniapp
 import android.annotation.SuppressLint
 import android.content.Context
 import android.os.Build
-import android.os.Bundle
 import android.os.Handler
 import android.os.HandlerThread
 import android.os.Looper
@@ -30,20 +29,16 @@ import android.os.VibratorManager
 import android.telecom.Call
 import android.text.TextUtils
 import com.blankj.utilcode.util.Utils
-import com.blankj.utilcode.util.ZipUtils
 import com.ct.ertclib.dc.core.R
 import com.ct.ertclib.dc.core.common.NewCallAppSdkInterface
 import com.ct.ertclib.dc.core.data.call.CallInfo
 import com.ct.ertclib.dc.core.manager.call.NewCallsManager
 import com.ct.ertclib.dc.core.port.call.ICallStateListener
-import com.ct.ertclib.dc.core.common.PathManager
 import com.ct.ertclib.dc.core.constants.CommonConstants
 import com.ct.ertclib.dc.core.constants.CommonConstants.ACTION_START_APP_RESPONSE
 import com.ct.ertclib.dc.core.data.common.Reason
 import com.ct.ertclib.dc.core.data.model.MiniAppInfo
 import com.ct.ertclib.dc.core.port.dc.IDcCreateListener
-import com.ct.ertclib.dc.core.data.miniapp.DataChannel
-import com.ct.ertclib.dc.core.data.miniapp.DataChannelApp
 import com.ct.ertclib.dc.core.data.miniapp.DataChannelAppInfo
 import com.ct.ertclib.dc.core.manager.call.DCManager
 import com.ct.ertclib.dc.core.utils.logger.Logger
@@ -62,7 +57,7 @@ import com.ct.ertclib.dc.core.miniapp.MiniAppOwnADCImpl.OnADCListener
 import com.ct.ertclib.dc.core.miniapp.MiniAppOwnADCImpl.OnSendCallback
 import com.ct.ertclib.dc.core.miniapp.aidl.IMessageCallback
 import com.ct.ertclib.dc.core.port.dc.IAdverseDcCreateListener
-import com.ct.ertclib.dc.core.utils.common.XmlUtils
+import com.ct.ertclib.dc.core.utils.common.DataChannelAppInfoCodec
 import com.ct.ertclib.dc.core.port.miniapp.IDownloadMiniApp
 import com.ct.ertclib.dc.core.port.miniapp.IMiniAppListLoadedCallback
 import com.ct.ertclib.dc.core.port.miniapp.IMiniAppStartManager
@@ -78,7 +73,6 @@ import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import java.io.File
-import java.io.FileOutputStream
 import java.io.IOException
 import java.util.concurrent.ConcurrentHashMap
 
@@ -88,8 +82,6 @@ class MiniAppManager(private val callInfo: CallInfo) :
     companion object {
         private const val TAG = "MiniAppManager"
         private val sLogger: Logger = Logger.getLogger(TAG)
-        private const val QOS_HINT_HEAD = "<QosHint>"
-        private const val QOS_HINT_TAIL = "</QosHint>"
         private const val ACTIVE_START_TYPE = 1
         private const val PASSIVE_START_TYPE = 2
         private const val CONST_IMS_BDC_CLOSE: Int = 0
@@ -178,6 +170,8 @@ class MiniAppManager(private val callInfo: CallInfo) :
 
     @Volatile
     private var mMiniAppListInfo: MiniAppList? = null
+    // 按appId索引mMiniAppListInfo中的小程序，与列表同步更新
+    private val mMiniAppInfoMap = ConcurrentHashMap<String, MiniAppInfo>()
     // 本次通话中被动拉起的小程序,目前设计成只可能来自remote
     private val mPassivelyMiniAppMap = ConcurrentHashMap<String, MiniAppInfo>()
     private val mRejectPassivelyMiniAppCountMap = ConcurrentHashMap<String, Int>()
@@ -229,16 +223,11 @@ class MiniAppManager(private val callInfo: CallInfo) :
             }
             return null
         }
-        val applications = mMiniAppListInfo!!.applications
-        applications?.forEach {
-            if (it.appId == appId) {
-                if (sLogger.isDebugActivated) {
-                    sLogger.debug("getMiniAppInfo-appId:$appId MiniAppInfo:$it")
-                }
-                return it
-            }
+        val miniAppInfo = appId?.let { mMiniAppInfoMap[it] }
+        if (miniAppInfo != null && sLogger.isDebugActivated) {
+            sLogger.debug("getMiniAppInfo-appId:$appId MiniAppInfo:$miniAppInfo")
         }
-        return null
+        return miniAppInfo
     }
 
     fun isPeerSupportDc(): Boolean {
@@ -270,10 +259,7 @@ class MiniAppManager(private val callInfo: CallInfo) :
                 }
 
                 CONST_MINI_APP_DOWNLOADED -> {
-                    handleMiniAppDownloaded(
-                        msg.obj as MiniAppDownloadResult,
-                        msg.data.getByteArray("app")
-                    )
+                    handleMiniAppDownloaded(msg.obj as MiniAppDownloadResult)
                 }
 
                 CONST_START_MINI_APP -> {
@@ -444,6 +430,8 @@ class MiniAppManager(private val callInfo: CallInfo) :
         }
 
         if (isFirstPage){
+            mMiniAppInfoMap.clear()
+            applications.forEach { mMiniAppInfoMap.putIfAbsent(it.appId, it) }
             mMiniAppListInfo = miniAppList
             if (mMiniAppListCallback == null) {
                 sLogger.debug("$mTag, handleReceiveMiniAppList mMiniAppListCallback is null")
@@ -453,6 +441,7 @@ class MiniAppManager(private val callInfo: CallInfo) :
             startAutoloadApp()
         } else {
             mMiniAppListInfo?.applications?.addAll(applications)
+            applications.forEach { mMiniAppInfoMap.putIfAbsent(it.appId, it) }
             mMiniAppListInfo?.beginIndex = miniAppList.beginIndex
         }
         NewCallAppSdkInterface.emitAppListEvent(MiniAppListGetEvent(0,MiniAppListGetEvent.ON_DOWNLOAD, mMiniAppListInfo))
@@ -499,22 +488,26 @@ class MiniAppManager(private val callInfo: CallInfo) :
 
     // 获取当前缓存的最新版本
     private fun getInstalledPath(appId: String): String? {
-        val appPath = "${Utils.getApp().getDir("miniApps", Context.MODE_PRIVATE)}${File.separator}$appId"
-        val pathFiles = FileUtils.getPathFiles(appPath)
-        if (pathFiles.isNullOrEmpty()) {
-            sLogger.debug("$mTag getInstalledPath is null, appPath:$appPath")
-            return null
-        }
-        var path = pathFiles[0].path
-        pathFiles.forEach{
-            path = PathManager().getMaxPath(path,it.path)
+        val path = MiniAppPackageStore.index.getInstalledPath(appId)
+        if (path == null && sLogger.isDebugActivated) {
+            sLogger.debug("$mTag getInstalledPath is null, appId:$appId")
         }
         return path
     }
 
+    private fun handleMiniAppDownloaded(miniAppDownloadResult: MiniAppDownloadResult) {
+        val packageFile = miniAppDownloadResult.packagePath?.let { File(it) }
+        try {
+            handleMiniAppDownloaded(miniAppDownloadResult, packageFile)
+        } finally {
+            // 下载的安装包只用于本次安装
+            packageFile?.delete()
+        }
+    }
+
     private fun handleMiniAppDownloaded(
         miniAppDownloadResult: MiniAppDownloadResult,
-        byteArray: ByteArray?
+        packageFile: File?
     ) {
         if (!mIsBDCOpen) {
             sLogger.debug("$mTag handleMiniAppDownloaded - do not handle due bdc is closed")
@@ -533,7 +526,7 @@ class MiniAppManager(private val callInfo: CallInfo) :
         val miniAppInfo = getMiniAppInfo(appId)
         if (miniAppInfo == null) {
             sLogger.info("$mTag handleMiniAppDownloaded- not found app")
-        } else if (!installMiniApp(miniAppInfo, miniAppDownloadResult.appVersion!!, byteArray!!)) {
+        } else if (packageFile == null || !installMiniApp(miniAppInfo, miniAppDownloadResult.appVersion!!, packageFile, miniAppDownloadResult.isDelta)) {
             sLogger.info("$mTag handleMiniAppDownloaded- install failed")
             handleStartMiniAppFailed(appId, Reason.INSTALL_FAILED)
         } else {
@@ -547,7 +540,8 @@ class MiniAppManager(private val callInfo: CallInfo) :
     private fun installMiniApp(
         miniAppInfo: MiniAppInfo,
         appVersion: String,
-        data: ByteArray
+        packageFile: File,
+        isDelta: Boolean = false
     ): Boolean {
         val appId = miniAppInfo.appId
 
@@ -562,26 +556,30 @@ class MiniAppManager(private val callInfo: CallInfo) :
         if (!FileUtils.isFileExists(filePath)) {
             //不存在存储小程序
             try {
-                //将数据写到沙盒cache里面
-                val cacheFile = PathManager().createCacheFile(Utils.getApp(),fileName = "tmp_miniapp.zip")
-                val fileOutputStream = FileOutputStream(cacheFile)
-                fileOutputStream.write(data)
-                fileOutputStream.close()
+                //安装包在下载时已写入沙盒cache
                 //校验小程序签名
-                // if(!LicenseManager.getInstance().verifyMiniAppPkg(cacheFile!!.absolutePath)){
+                // if(!LicenseManager.getInstance().verifyMiniAppPkg(packageFile.absolutePath)){
                 //     sLogger.debug("$mTag handleStartMiniAppFailed verifyMiniAppPkg false")
                 //     return false
                 // }
-                //解压小程序
-                ZipUtils.unzipFile(cacheFile!!.absolutePath, filePath)
-                //删除cache
-                FileUtils.deletePath(cacheFile.absolutePath)
+                //增量包以当前安装的版本为基础
+                val baseDir = if (isDelta) {
+                    miniAppInfo.path?.let { File(it) }?.takeIf { it.isDirectory }
+                        ?: throw IOException("base version of delta package not found")
+                } else {
+                    null
+                }
+                //解压小程序，文件按内容存入仓库后链接到版本目录
+                MiniAppPackageStore.install(packageFile, File(filePath), baseDir)
+                //先更新索引再删除旧版本，索引不会指向已删除的目录
+                MiniAppPackageStore.index.onInstalled(appId, File(filePath))
                 val path = miniAppInfo.path
                 if (filePath != path) {
                     miniAppInfo.path = filePath
                     path?.let {
                         FileUtils.deletePath(it)
                     }
+                    MiniAppPackageStore.collectGarbage()
                 }
                 if (sLogger.isDebugActivated) {
                     sLogger.debug("$mTag install appId:$appId, filePath:$filePath,oldPath:$path")
@@ -592,6 +590,9 @@ class MiniAppManager(private val callInfo: CallInfo) :
                 }
                 return false
             }
+        } else {
+            //版本目录已存在，索引与目录不一致时以目录为准
+            MiniAppPackageStore.index.onInstalled(appId, File(filePath))
         }
         miniAppInfo.path = filePath
         miniAppInfo.appStatus = MiniAppStatus.INSTALLED
@@ -694,6 +695,7 @@ class MiniAppManager(private val callInfo: CallInfo) :
 
     private fun stopMiniApps() {
         mMiniAppListInfo = null
+        mMiniAppInfoMap.clear()
         mStartAppMap.forEach { (_, value) ->
             miniAppStartManager?.stopMiniApp(Utils.getApp(), value.callId,value.appId)
         }
@@ -727,16 +729,14 @@ class MiniAppManager(private val callInfo: CallInfo) :
         mHandler.sendMessageAtFrontOfQueue(mHandler.obtainMessage(CONST_IMS_BDC_CLOSE))
     }
 
-    fun onMiniAppDownloaded(miniAppDownloadResult: MiniAppDownloadResult, data: ByteArray?) {
+    fun onMiniAppDownloaded(miniAppDownloadResult: MiniAppDownloadResult) {
         if (sLogger.isDebugActivated) {
             sLogger.debug("$mTag onMiniAppDownloaded -miniAppDownloadResult$miniAppDownloadResult")
         }
 
+        // 只传递安装包路径，不在消息中携带包数据
         val downloadMessage = mHandler.obtainMessage(CONST_MINI_APP_DOWNLOADED)
         downloadMessage.obj = miniAppDownloadResult
-        val bundle = Bundle()
-        bundle.putByteArray("app", data)
-        downloadMessage.data = bundle
         downloadMessage.sendToTarget()
     }
 
@@ -830,23 +830,23 @@ class MiniAppManager(private val callInfo: CallInfo) :
             return 1
         }
 
+        // 描述只解析一次，QoS校验、用例校验和DCManager的按label筛选共用同一个模型
+        val dataChannelAppInfo = parseDataChannelAppInfo(description)
         var modifiedDescription = description
-        if (!isSupportQosHit(description)) {
+        if (dataChannelAppInfo != null && !isSupportQosHit(dataChannelAppInfo)) {
             val appQosHint = if (mStartAppMap[appId]?.qosHint?.contains(",") == true) {
                 mStartAppMap[appId]?.qosHint?.split(",")?.first()
             } else {
                 mStartAppMap[appId]?.qosHint
             }
             appQosHint?.let {
-                val beginIndex = description.indexOf(QOS_HINT_HEAD)
-                val lastIndex = description.indexOf(QOS_HINT_TAIL) + QOS_HINT_TAIL.length
-                if (lastIndex < description.length) {
-                    modifiedDescription = description.replaceRange(beginIndex, lastIndex, "$QOS_HINT_HEAD$it$QOS_HINT_TAIL")
+                if (replaceQosHint(dataChannelAppInfo, it)) {
+                    modifiedDescription = DataChannelAppInfoCodec.toXml(dataChannelAppInfo)
                 }
             }
             sLogger.debug("createApplicationDataChannelsInternal replace qosHint")
         }
-        if (!isUseCaseCorrect(description)) {
+        if (dataChannelAppInfo != null && !isUseCaseCorrect(dataChannelAppInfo)) {
             if (sLogger.isDebugActivated) {
                 sLogger.debug("$mTag createApplicationDataChannelsInternal not allow create adc isUseCaseCorrect is false")
             }
@@ -857,89 +857,85 @@ class MiniAppManager(private val callInfo: CallInfo) :
             callInfo.telecomCallId,
             callInfo.remoteNumber,
             toTypedArray,
-            modifiedDescription
+            modifiedDescription,
+            dataChannelAppInfo
         ) ?: 1
     }
 
-    private fun isSupportQosHit(description: String): Boolean {
-
+    private fun parseDataChannelAppInfo(description: String): DataChannelAppInfo? {
         try {
-            val classes = arrayOf<Class<*>>(
-                DataChannelAppInfo::class.java,
-                DataChannelApp::class.java,
-                DataChannel::class.java
-            )
-            val dataChannelAppInfo =
-                XmlUtils.parseXml(description, classes, DataChannelAppInfo::class.java)
+            val dataChannelAppInfo = DataChannelAppInfoCodec.parse(description)
             if (sLogger.isDebugActivated) {
-                sLogger.debug("$mTag isSupportQosHit description:$description, DataChannelAppInfo:$dataChannelAppInfo")
-            }
-            if (dataChannelAppInfo != null) {
-                val dataChannelApp = dataChannelAppInfo.dataChannelApp ?: return false
-                val dataChannelList = dataChannelApp.dataChannelList ?: return false
-                if (dataChannelList.isEmpty()) return false
-                dataChannelList.forEach { dataChannel ->
-                    val qosHint = dataChannel.qosHint
-                    if (!TextUtils.isEmpty(qosHint)) {
-                        mStartAppMap[dataChannelApp.appId]?.let { appInfo ->
-                            if (!appInfo.qosHint.contains(qosHint)){
-                                return false
-                            }
-                        }
-                    } else {
-                        return false
-                    }
-                }
-
-                sLogger.info("isSupportQosHit is true")
-                return true
+                sLogger.debug("$mTag parseDataChannelAppInfo description:$description, DataChannelAppInfo:$dataChannelAppInfo")
             }
+            return dataChannelAppInfo
         } catch (e: Exception) {
+            // 解析失败时不做校验，与原有逻辑一致
             if (sLogger.isDebugActivated) {
-                sLogger.error("$mTag isSupportQosHit", e)
+                sLogger.error("$mTag parseDataChannelAppInfo", e)
+            }
+        }
+        return null
+    }
+
+    private fun isSupportQosHit(dataChannelAppInfo: DataChannelAppInfo): Boolean {
+        val dataChannelApp = dataChannelAppInfo.dataChannelApp ?: return false
+        val dataChannelList = dataChannelApp.dataChannelList ?: return false
+        if (dataChannelList.isEmpty()) return false
+        dataChannelList.forEach { dataChannel ->
+            if (!isQosHintSupported(dataChannelApp.appId, dataChannel.qosHint)) {
+                return false
             }
         }
+        sLogger.info("isSupportQosHit is true")
         return true
     }
 
-    private fun isUseCaseCorrect(description: String):Boolean{
-        try {
-            val classes = arrayOf<Class<*>>(
-                DataChannelAppInfo::class.java,
-                DataChannelApp::class.java,
-                DataChannel::class.java
-            )
-            val dataChannelAppInfo =
-                XmlUtils.parseXml(description, classes, DataChannelAppInfo::class.java)
-            if (sLogger.isDebugActivated) {
-                sLogger.debug("$mTag isUseCaseCorrect description:$description, DataChannelAppInfo:$dataChannelAppInfo")
+    private fun isQosHintSupported(appId: String?, qosHint: String?): Boolean {
+        if (TextUtils.isEmpty(qosHint)) {
+            return false
+        }
+        mStartAppMap[appId]?.let { appInfo ->
+            if (!appInfo.qosHint.contains(qosHint!!)) {
+                return false
             }
-            if (dataChannelAppInfo != null) {
-                val dataChannelApp = dataChannelAppInfo.dataChannelApp ?: return false
-                val dataChannelList = dataChannelApp.dataChannelList ?: return false
-                if (dataChannelList.isEmpty()) return false
-                dataChannelList.forEach { dataChannel ->
-                    val useCase = dataChannel.useCase
-                    val dcLabel = dataChannel.dcLabel
-                    if (TextUtils.isEmpty(useCase)){
-                        sLogger.info("dcLabel $dcLabel useCase is null")
-                        return false
-                    }
-                    val labelList = dcLabel.split("_")
-                    if (labelList.size != 4 || labelList[2] != useCase){
-                        sLogger.info("dcLabel $dcLabel useCase is wrong")
-                        return false
-                    }
-                }
+        }
+        return true
+    }
 
-                sLogger.info("isUseCaseCorrect is true")
-                return true
+    /**
+     * 把不支持的QosHint替换为小程序声明的QosHint，返回是否有修改
+     */
+    private fun replaceQosHint(dataChannelAppInfo: DataChannelAppInfo, appQosHint: String): Boolean {
+        val dataChannelApp = dataChannelAppInfo.dataChannelApp ?: return false
+        var isModified = false
+        dataChannelApp.dataChannelList?.forEach { dataChannel ->
+            if (!isQosHintSupported(dataChannelApp.appId, dataChannel.qosHint)) {
+                dataChannel.qosHint = appQosHint
+                isModified = true
             }
-        } catch (e: Exception) {
-            if (sLogger.isDebugActivated) {
-                sLogger.error("$mTag isUseCaseCorrect", e)
+        }
+        return isModified
+    }
+
+    private fun isUseCaseCorrect(dataChannelAppInfo: DataChannelAppInfo): Boolean {
+        val dataChannelApp = dataChannelAppInfo.dataChannelApp ?: return false
+        val dataChannelList = dataChannelApp.dataChannelList ?: return false
+        if (dataChannelList.isEmpty()) return false
+        dataChannelList.forEach { dataChannel ->
+            val useCase = dataChannel.useCase
+            val dcLabel = dataChannel.dcLabel
+            if (TextUtils.isEmpty(useCase)) {
+                sLogger.info("dcLabel $dcLabel useCase is null")
+                return false
+            }
+            val labelList = dcLabel?.split("_")
+            if (labelList == null || labelList.size != 4 || labelList[2] != useCase) {
+                sLogger.info("dcLabel $dcLabel useCase is wrong")
+                return false
             }
         }
+        sLogger.info("isUseCaseCorrect is true")
         return true
     }
 
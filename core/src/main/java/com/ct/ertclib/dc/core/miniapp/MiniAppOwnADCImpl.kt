@@ -16,6 +16,7 @@
 
 package com.ct.ertclib.dc.core.miniapp
 
+import android.os.SystemClock
 import com.ct.ertclib.dc.core.utils.logger.Logger
 import com.ct.ertclib.dc.core.constants.CommonConstants
 import com.ct.ertclib.dc.core.utils.common.FileUtils
@@ -29,11 +30,12 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.cancel
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
-import java.util.concurrent.ArrayBlockingQueue
+import kotlinx.coroutines.withTimeoutOrNull
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
 
 /**
  * 用于SDK与SDK自己的AS通信
@@ -56,14 +58,35 @@ class MiniAppOwnADCImpl(private val onADCParamsOk:OnADCParamsOk){
         fun onSendDataResult(state: Int)
     }
 
+    companion object {
+        // 协商二进制帧的控制消息，始终以JSON发送
+        private const val MODEL_FRAME_NEGOTIATE = "frame"
+    }
+
     private val TAG = "MiniAppOwnADCImpl"
     private val sLogger: Logger = Logger.getLogger(TAG)
     private var mAdc :IImsDataChannel? = null
     private val mModelListenerMap = ConcurrentHashMap<String, OnADCListener>()
 
-    private var mDataQueue: ArrayBlockingQueue<QueueData> = ArrayBlockingQueue(10000)
+    private val mDataQueue = LinkedBlockingQueue<QueueData>(CommonConstants.OWN_ADC_SEND_QUEUE_CAPACITY)
+    @Volatile
     private var canSend = false
-    private var sendResultOK = true
+    // 新数据入队、收到发送结果时唤醒发送协程
+    private val mSendSignal = Channel<Unit>(Channel.CONFLATED)
+    // 已调用send、还未收到发送结果的帧，按发送顺序排列，访问时锁住自身
+    private val mInFlight = ArrayDeque<InFlight>()
+    // 底层缓存满被退回、需要在新数据之前按原顺序重发的帧，访问时锁住mInFlight
+    private val mResendQueue = ArrayDeque<QueueData>()
+    // 收到CACHE_FULL后置为true，停止发送新帧，等在途帧的结果全部返回后再处理
+    private var isStalled = false
+    // 每次通道打开或关闭时加一，旧通道上迟到的发送结果不再参与计数，访问时锁住mInFlight
+    private var mGeneration = 0
+    // 底层缓存满后暂停发送的截止时间
+    @Volatile
+    private var mCacheFullUntil = 0L
+    // AS确认支持二进制帧后置为true
+    @Volatile
+    private var useBinaryFrame = false
 
     private val scope = CoroutineScope(Dispatchers.Default + SupervisorJob())
     private var job:Job? = null
@@ -75,6 +98,7 @@ class MiniAppOwnADCImpl(private val onADCParamsOk:OnADCParamsOk){
             override fun onDataChannelStateChange(status: ImsDCStatus?, errCode: Int) {
                 sLogger.info("MiniAppOwnADCImpl onDataChannelStateChange:${status},dcLabel:${imsDataChannel.dcLabel}")
                 if (status == ImsDCStatus.DC_STATE_OPEN){
+                    requestFrameNegotiate()
                     startSendQueue()
                 } else {
                     stopSendQueue()
@@ -84,13 +108,26 @@ class MiniAppOwnADCImpl(private val onADCParamsOk:OnADCParamsOk){
             override fun onMessage(data: ByteArray?, length: Int) {
                 try {
                     data?.let {
-                        val msg = String(data)
-                        sLogger.info("MiniAppOwnADCImpl onMessage:${msg}")
+                        if (OwnADCFrameCodec.isFrame(data, length)) {
+                            if (sLogger.isDebugActivated) {
+                                sLogger.debug("MiniAppOwnADCImpl onMessage frame length:$length")
+                            }
+                            if (!OwnADCFrameCodec.decode(data, length, mFrameListener)) {
+                                sLogger.warn("MiniAppOwnADCImpl onMessage invalid frame, length:$length")
+                            }
+                            return
+                        }
+                        val msg = String(data, 0, length)
+                        sLogger.info { "MiniAppOwnADCImpl onMessage:${msg}" }
                         msg.let {
                             val ownDataMsg = JsonUtil.fromJson(it, OwnDataMsg::class.java)
                             if (ownDataMsg != null) {
                                 val bs = FileUtils.base64ToByteArray(ownDataMsg.dataBase64)
-                                mModelListenerMap[ownDataMsg.model]?.onMessage(bs,bs.size)
+                                if (ownDataMsg.model == MODEL_FRAME_NEGOTIATE) {
+                                    onFrameNegotiated(bs)
+                                } else {
+                                    mModelListenerMap[ownDataMsg.model]?.onMessage(bs,bs.size)
+                                }
                             }
                         }
                     }
@@ -101,6 +138,51 @@ class MiniAppOwnADCImpl(private val onADCParamsOk:OnADCParamsOk){
         })
     }
 
+    private val mFrameListener = object : OwnADCFrameCodec.OnFrameListener {
+        override fun onFrame(modelId: Byte, payload: ByteArray) {
+            val model = Model.fromId(modelId)
+            if (model == null) {
+                sLogger.warn("MiniAppOwnADCImpl onFrame unknown modelId:$modelId")
+                return
+            }
+            mModelListenerMap[model.value]?.onMessage(payload, payload.size)
+        }
+    }
+
+    /**
+     * 向AS声明支持的二进制帧版本，AS回复后才切换为二进制帧发送，不支持的AS继续使用JSON
+     */
+    private fun requestFrameNegotiate() {
+        val negotiateMsg = OwnDataMsg(
+            MODEL_FRAME_NEGOTIATE,
+            FileUtils.byteArrayToBase64(byteArrayOf(OwnADCFrameCodec.FRAME_VERSION))
+        )
+        val data = JsonUtil.toJson(negotiateMsg).toByteArray()
+        try {
+            mAdc?.send(data, data.size, object : IDCSendDataCallback.Stub() {
+                override fun onSendDataResult(state: Int) {
+                    sLogger.info("MiniAppOwnADCImpl requestFrameNegotiate onSendDataResult:${state}")
+                }
+            })
+        } catch (e: Exception) {
+            sLogger.error("MiniAppOwnADCImpl requestFrameNegotiate", e)
+        }
+    }
+
+    private fun onFrameNegotiated(versions: ByteArray) {
+        val version = versions.firstOrNull() ?: 0
+        useBinaryFrame = version >= OwnADCFrameCodec.FRAME_VERSION
+        sLogger.info("MiniAppOwnADCImpl onFrameNegotiated version:$version, useBinaryFrame:$useBinaryFrame")
+    }
+
+    private fun encode(queueData: QueueData): ByteArray {
+        if (useBinaryFrame) {
+            return OwnADCFrameCodec.encode(queueData.model.id, queueData.originData)
+        }
+        val ownDataJson = OwnDataMsg(queueData.model.value,FileUtils.byteArrayToBase64(queueData.originData))
+        return JsonUtil.toJson(ownDataJson).toByteArray()
+    }
+
     fun createDC() {
         val labels = mutableListOf<String>()
         val label = "local_${CommonConstants.DC_APPID_OWN}_0_${CommonConstants.DC_LABEL_OWN}"
@@ -119,50 +201,200 @@ class MiniAppOwnADCImpl(private val onADCParamsOk:OnADCParamsOk){
         stopSendQueue()
         mAdc?.unregisterObserver()
         mModelListenerMap.clear()
-        job?.cancel()
-        job = null
     }
 
-    fun sendData(model:Model,originData:ByteArray,onSendCallback:OnSendCallback){
+    /**
+     * 数据入队，发送结果通过onSendCallback回调。
+     * 通道未打开时直接回调DC_SEND_DATA_CLOSED，队列已满时直接回调DC_SEND_DATA_CACHE_FULL
+     */
+    fun sendData(model:Model,originData:ByteArray,onSendCallback:OnSendCallback) {
         if (!canSend){
+            onSendCallback.onSendDataResult(CommonConstants.DC_SEND_DATA_CLOSED)
+            return
+        }
+        if (!mDataQueue.offer(QueueData(model, originData, onSendCallback))) {
+            onSendCallback.onSendDataResult(CommonConstants.DC_SEND_DATA_CACHE_FULL)
             return
         }
-        mDataQueue.add(QueueData(model, originData, onSendCallback))
+        mSendSignal.trySend(Unit)
     }
 
     private fun stopSendQueue(){
         canSend = false
-        mDataQueue.clear()
+        useBinaryFrame = false
+        job?.cancel()
+        job = null
+        val results = resetSendState()
+        // 未发出的数据通知调用方通道已关闭
+        while (true) {
+            val queueData = mDataQueue.poll() ?: break
+            results.add(queueData to CommonConstants.DC_SEND_DATA_CLOSED)
+        }
+        report(results)
+    }
+
+    /**
+     * 清空在途和重发记录，已有结果的帧返回给调用方上报，还未返回结果的帧由迟到的回调上报
+     */
+    private fun resetSendState(): MutableList<Pair<QueueData, Int>> {
+        val results = ArrayList<Pair<QueueData, Int>>()
+        synchronized(mInFlight) {
+            mGeneration++
+            mInFlight.forEach { inFlight ->
+                inFlight.state?.let { results.add(inFlight.queueData to closedIfCacheFull(it)) }
+            }
+            mInFlight.clear()
+            mResendQueue.forEach { results.add(it to CommonConstants.DC_SEND_DATA_CLOSED) }
+            mResendQueue.clear()
+            isStalled = false
+            mCacheFullUntil = 0L
+        }
+        return results
     }
+
     private fun startSendQueue(){
         canSend = true
+        job?.cancel()
+        report(resetSendState())
         job = scope.launch {
             while (isActive && canSend) {
+                val waitMillis = pumpSendQueue()
+                if (waitMillis > 0L) {
+                    withTimeoutOrNull(waitMillis) { mSendSignal.receive() }
+                } else {
+                    mSendSignal.receive()
+                }
+            }
+        }
+    }
 
-                if (!sendResultOK) {
-                    delay(100)
-                    continue
+    /**
+     * 在发送窗口和底层缓冲高水位内尽量多地发送，返回需要重新检查的等待时间，0表示只等待发送结果或新数据
+     */
+    private fun pumpSendQueue(): Long {
+        while (canSend) {
+            val adc = mAdc ?: return 0L
+            val generation: Int
+            synchronized(mInFlight) {
+                // 停止发送期间等在途帧的结果唤醒
+                if (isStalled || mInFlight.size >= CommonConstants.OWN_ADC_SEND_WINDOW) {
+                    return 0L
                 }
-                if (mAdc?.state != ImsDCStatus.DC_STATE_OPEN){
-                    delay(1000)
-                    continue
+                if (mResendQueue.isEmpty() && mDataQueue.isEmpty()) {
+                    return 0L
                 }
-                val queueData = mDataQueue.poll()
-                if (queueData == null) {
-                    delay(100)
-                    continue
+                generation = mGeneration
+            }
+            val now = SystemClock.elapsedRealtime()
+            if (now < mCacheFullUntil) {
+                return mCacheFullUntil - now
+            }
+            if (adc.bufferedAmount() >= CommonConstants.OWN_ADC_BUFFERED_HIGH_WATER) {
+                // 有未返回的发送结果时等回调唤醒，否则定时检查
+                val hasInFlight = synchronized(mInFlight) { mInFlight.isNotEmpty() }
+                return if (hasInFlight) 0L else CommonConstants.OWN_ADC_SEND_RECHECK_MILLIS
+            }
+            val inFlight = synchronized(mInFlight) {
+                if (generation != mGeneration) {
+                    return 0L
                 }
-                val ownDataJson = OwnDataMsg(queueData.model.value,FileUtils.byteArrayToBase64(queueData.originData))
-                val data = JsonUtil.toJson(ownDataJson).toByteArray()
-                mAdc?.send(data,data.size,object : IDCSendDataCallback.Stub() {
-                    override fun onSendDataResult(state: Int) {
-                        sLogger.info("MiniAppOwnADCImpl onSendDataResult:${state}")
-                        queueData.onSendCallback.onSendDataResult(state)
-                        sendResultOK = state == CommonConstants.DC_SEND_DATA_OK
-                    }
-                })
-                sendResultOK = false
+                // 重发的帧排在新数据之前
+                val queueData = mResendQueue.removeFirstOrNull() ?: mDataQueue.poll() ?: return 0L
+                InFlight(queueData).also { mInFlight.addLast(it) }
+            }
+            send(adc, inFlight, generation)
+        }
+        return 0L
+    }
+
+    private fun send(adc: IImsDataChannel, inFlight: InFlight, generation: Int) {
+        val data = encode(inFlight.queueData)
+        try {
+            adc.send(data, data.size, SendDataCallback(inFlight, generation))
+        } catch (e: Exception) {
+            sLogger.error("MiniAppOwnADCImpl send", e)
+            val results = synchronized(mInFlight) {
+                if (generation == mGeneration) {
+                    mInFlight.remove(inFlight)
+                }
+                resolveStallLocked()
+            }
+            report(results)
+            inFlight.queueData.onSendCallback.onSendDataResult(CommonConstants.DC_SEND_DATA_ERR_UNKNOWN)
+        }
+    }
+
+    private fun onSendResult(inFlight: InFlight, generation: Int, state: Int) {
+        val results = synchronized(mInFlight) {
+            if (generation != mGeneration) {
+                // 通道已重新打开或关闭，不再重发
+                null
+            } else {
+                if (state == CommonConstants.DC_SEND_DATA_CACHE_FULL) {
+                    isStalled = true
+                }
+                if (isStalled) {
+                    inFlight.state = state
+                    resolveStallLocked()
+                } else {
+                    mInFlight.remove(inFlight)
+                    mutableListOf(inFlight.queueData to state)
+                }
+            }
+        }
+        report(results ?: listOf(inFlight.queueData to closedIfCacheFull(state)))
+        mSendSignal.trySend(Unit)
+    }
+
+    /**
+     * 停止发送后，等所有在途帧都有结果时处理被底层退回的帧：
+     * 第一个被退回的帧之后没有发送成功的帧时，按原顺序放入重发队列，稍后从最早的帧开始重发；
+     * 否则后面的帧已先到达对端，重发会打乱有序通道上的顺序，只能把退回结果交给调用方。
+     * 返回需要上报给调用方的结果，调用时需持有mInFlight锁
+     */
+    private fun resolveStallLocked(): MutableList<Pair<QueueData, Int>> {
+        val results = ArrayList<Pair<QueueData, Int>>()
+        if (!isStalled || mInFlight.any { it.state == null }) {
+            return results
+        }
+        val firstRejected = mInFlight.indexOfFirst { it.state == CommonConstants.DC_SEND_DATA_CACHE_FULL }
+        val canResend = firstRejected >= 0 &&
+                mInFlight.drop(firstRejected).all { it.state == CommonConstants.DC_SEND_DATA_CACHE_FULL }
+        mInFlight.forEachIndexed { index, inFlight ->
+            if (canResend && index >= firstRejected) {
+                mResendQueue.addLast(inFlight.queueData)
+            } else {
+                results.add(inFlight.queueData to inFlight.state!!)
+            }
+        }
+        if (firstRejected >= 0 && !canResend) {
+            sLogger.warn("MiniAppOwnADCImpl frames after a rejected frame were sent, not resending")
+        }
+        mInFlight.clear()
+        isStalled = false
+        mCacheFullUntil = SystemClock.elapsedRealtime() + CommonConstants.OWN_ADC_SEND_RECHECK_MILLIS
+        return results
+    }
+
+    private fun closedIfCacheFull(state: Int): Int {
+        return if (state == CommonConstants.DC_SEND_DATA_CACHE_FULL) CommonConstants.DC_SEND_DATA_CLOSED else state
+    }
+
+    private fun report(results: List<Pair<QueueData, Int>>) {
+        results.forEach { (queueData, state) -> queueData.onSendCallback.onSendDataResult(state) }
+    }
+
+    private class InFlight(val queueData: QueueData) {
+        // 收到的发送结果，null表示还未返回
+        var state: Int? = null
+    }
+
+    private inner class SendDataCallback(private val inFlight: InFlight, private val generation: Int) : IDCSendDataCallback.Stub() {
+        override fun onSendDataResult(state: Int) {
+            if (sLogger.isDebugActivated) {
+                sLogger.debug("MiniAppOwnADCImpl onSendDataResult:${state}")
             }
+            onSendResult(inFlight, generation, state)
         }
     }
 
@@ -174,8 +406,14 @@ class MiniAppOwnADCImpl(private val onADCParamsOk:OnADCParamsOk){
         mModelListenerMap.remove(model.value)
     }
 
-    enum class Model(val value: String) {
-        VPN("vpn")
+    enum class Model(val value: String, val id: Byte) {
+        VPN("vpn", 1);
+
+        companion object {
+            fun fromId(id: Byte): Model? {
+                return values().firstOrNull { it.id == id }
+            }
+        }
     }
 }
 
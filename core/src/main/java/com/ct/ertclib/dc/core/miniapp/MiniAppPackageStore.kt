@@ -0,0 +1,235 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp
+
+import android.content.Context
+import android.system.ErrnoException
+import android.system.Os
+import com.blankj.utilcode.util.Utils
+import com.ct.ertclib.dc.core.common.PathManager
+import com.ct.ertclib.dc.core.data.miniapp.MiniAppProperties
+import com.ct.ertclib.dc.core.miniapp.bridge.MiniAppAssetServer
+import com.ct.ertclib.dc.core.miniapp.db.MiniAppDbRepo
+import com.ct.ertclib.dc.core.utils.common.ArchiveExtractor
+import com.ct.ertclib.dc.core.utils.common.FileUtils
+import com.ct.ertclib.dc.core.utils.common.JsonUtil
+import com.ct.ertclib.dc.core.utils.logger.Logger
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.security.DigestOutputStream
+import java.security.MessageDigest
+import java.util.zip.ZipFile
+
+/**
+ * 按内容寻址的小程序文件仓库。
+ * 安装包中的每个文件按SHA-256存一份到仓库，再硬链接到各版本目录，
+ * 不同版本、不同小程序之间相同的资源只占用一份空间。
+ *
+ * 增量更新沿用RFC 3229的A-IM/IM头：服务端返回226时，包内只有变化的文件，
+ * 被删除的文件列在[DELTA_REMOVED_ENTRY]中，其余文件从旧版本目录链接过来。
+ */
+object MiniAppPackageStore {
+
+    private const val TAG = "MiniAppPackageStore"
+    private val sLogger: Logger = Logger.getLogger(TAG)
+
+    const val DELTA_ENCODING = "ctnewcall-zip-delta"
+    const val DELTA_REMOVED_ENTRY = ".delta/removed"
+    const val HTTP_IM_USED = 226
+    const val INSTALLING_SUFFIX = ".installing"
+
+    private const val STORE_DIR_NAME = "miniAppStore"
+    private const val OBJECTS_DIR_NAME = "objects"
+    private const val TMP_DIR_NAME = "tmp"
+    private const val APPS_DIR_NAME = "miniApps"
+    private const val BUFFER_SIZE = 64 * 1024
+
+    private val storeDir: File by lazy {
+        Utils.getApp().getDir(STORE_DIR_NAME, Context.MODE_PRIVATE)
+    }
+
+    /**
+     * 已安装小程序的元数据索引
+     */
+    val index: MiniAppIndex by lazy {
+        MiniAppIndex(
+            Utils.getApp().getDir(APPS_DIR_NAME, Context.MODE_PRIVATE),
+            MiniAppDbRepo(),
+            { version1, version2 -> -PathManager().compareVersion(version1, version2) },
+            { JsonUtil.fromJson(it, MiniAppProperties::class.java) }
+        )
+    }
+
+    private val objectsDir: File
+        get() = File(storeDir, OBJECTS_DIR_NAME)
+
+    private val tmpDir: File
+        get() = File(storeDir, TMP_DIR_NAME)
+
+    /**
+     * 把安装包安装到[versionDir]，[baseDir]不为空时按增量包处理
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun install(packageFile: File, versionDir: File, baseDir: File? = null) {
+        val stagingDir = File(versionDir.path + INSTALLING_SUFFIX)
+        FileUtils.deletePath(stagingDir.path)
+        if (!stagingDir.mkdirs()) {
+            throw IOException("can not create $stagingDir")
+        }
+        try {
+            if (baseDir != null) {
+                linkTree(baseDir, stagingDir)
+            }
+            extract(packageFile, stagingDir, baseDir != null)
+            try {
+                MiniAppAssetServer.writePreloadManifest(stagingDir)
+            } catch (e: IOException) {
+                // 预加载清单只影响首屏速度，不影响安装
+                sLogger.warn("writePreloadManifest failed", e)
+            }
+            FileUtils.deletePath(versionDir.path)
+            if (!stagingDir.renameTo(versionDir)) {
+                throw IOException("can not rename $stagingDir to $versionDir")
+            }
+        } catch (e: IOException) {
+            FileUtils.deletePath(stagingDir.path)
+            throw e
+        }
+    }
+
+    /**
+     * 删除已没有任何版本目录引用的文件
+     */
+    @Synchronized
+    fun collectGarbage() {
+        var removed = 0
+        objectsDir.listFiles()?.forEach { prefixDir ->
+            prefixDir.listFiles()?.forEach { objectFile ->
+                try {
+                    if (Os.stat(objectFile.path).st_nlink <= 1 && objectFile.delete()) {
+                        removed++
+                    }
+                } catch (e: ErrnoException) {
+                    sLogger.warn("collectGarbage stat ${objectFile.name} failed", e)
+                }
+            }
+        }
+        sLogger.info("collectGarbage removed:$removed")
+    }
+
+    /**
+     * 文件条目由ArchiveExtractor并行解压，每个条目在解压线程中直接写入仓库并链接到目标位置
+     */
+    private fun extract(packageFile: File, targetDir: File, isDelta: Boolean) {
+        // 删除列表在解压前处理，增量包中不会同时删除和新增同一文件
+        if (isDelta) {
+            removeEntries(packageFile, targetDir)
+        }
+        ArchiveExtractor.unzip(packageFile, targetDir, handler = { name, input, target, buffer ->
+            if (!isDelta || name != DELTA_REMOVED_ENTRY) {
+                storeEntry(input, target, buffer)
+            }
+            true
+        })
+        if (isDelta) {
+            // 解压时为删除列表建的空目录
+            File(targetDir, DELTA_REMOVED_ENTRY).parentFile?.delete()
+        }
+    }
+
+    private fun removeEntries(packageFile: File, targetDir: File) {
+        val targetPath = targetDir.canonicalPath + File.separator
+        val removed = ZipFile(packageFile).use { zip ->
+            val entry = zip.getEntry(DELTA_REMOVED_ENTRY) ?: return
+            zip.getInputStream(entry).use { String(it.readBytes()) }
+        }
+        removed.lines().forEach { name ->
+            if (name.isBlank()) {
+                return@forEach
+            }
+            val file = File(targetDir, name.trim())
+            if (file.canonicalPath.startsWith(targetPath)) {
+                FileUtils.deletePath(file.path)
+            }
+        }
+    }
+
+    private fun storeEntry(input: InputStream, target: File, buffer: ByteArray) {
+        if (!tmpDir.exists() && !tmpDir.mkdirs() && !tmpDir.exists()) {
+            throw IOException("can not create $tmpDir")
+        }
+        val tmpFile = File.createTempFile("entry", null, tmpDir)
+        try {
+            val digest = MessageDigest.getInstance("SHA-256")
+            DigestOutputStream(FileOutputStream(tmpFile), digest).use { output ->
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) {
+                        break
+                    }
+                    output.write(buffer, 0, read)
+                }
+            }
+            val hash = digest.digest().joinToString("") { "%02x".format(it) }
+            val objectFile = File(File(objectsDir, hash.substring(0, 2)), hash)
+            if (!objectFile.exists()) {
+                objectFile.parentFile?.mkdirs()
+                if (!tmpFile.renameTo(objectFile)) {
+                    throw IOException("can not store $hash")
+                }
+                // 仓库文件被多个版本共享，禁止原地修改
+                objectFile.setReadOnly()
+            }
+            link(objectFile, target)
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    private fun linkTree(sourceDir: File, targetDir: File) {
+        sourceDir.listFiles()?.forEach { file ->
+            val target = File(targetDir, file.name)
+            if (file.isDirectory) {
+                target.mkdirs()
+                linkTree(file, target)
+            } else {
+                link(file, target)
+            }
+        }
+    }
+
+    private fun link(source: File, target: File) {
+        target.parentFile?.let {
+            if (!it.exists() && !it.mkdirs()) {
+                throw IOException("$it create dirs error")
+            }
+        }
+        // 覆盖时先删除旧链接，不能写入共享的inode
+        if (target.exists()) {
+            target.delete()
+        }
+        try {
+            Os.link(source.path, target.path)
+        } catch (e: ErrnoException) {
+            sLogger.warn("link ${target.name} failed, copy instead", e)
+            source.copyTo(target, true, BUFFER_SIZE)
+        }
+    }
+}
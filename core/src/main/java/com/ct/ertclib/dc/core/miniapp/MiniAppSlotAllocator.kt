@@ -0,0 +1,211 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_SLOT_START_GRACE_MILLIS
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_WARM_LARGE_MEMORY_CLASS
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_WARM_MIN_AVAIL_BYTES
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_WARM_POOL_MAX
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_WARM_TWO_AVAIL_BYTES
+
+/**
+ * 小程序进程槽位分配，对应MiniAppActivity0~9及其所在进程。
+ * 槽位状态：空闲、预热(进程已拉起、WebView已初始化、未绑定小程序)、已绑定小程序、被未知小程序占用。
+ * 启动时优先使用预热槽位，其次空闲槽位，都没有时淘汰优先级不高于启动小程序的已绑定槽位，优先级相同时淘汰最久未使用的。
+ * 不依赖Android，进程是否存活由调用方传入。
+ */
+class MiniAppSlotAllocator<T>(val slotCount: Int, private val clock: () -> Long = System::currentTimeMillis) {
+
+    companion object {
+        /**
+         * 根据内存情况计算预热进程数：内存紧张时不预热，内存充足且单进程内存上限较大时预热两个
+         */
+        fun warmPoolSize(memoryClassMb: Int, availMem: Long, lowMemory: Boolean): Int {
+            if (lowMemory || availMem < MINI_APP_WARM_MIN_AVAIL_BYTES) {
+                return 0
+            }
+            if (memoryClassMb >= MINI_APP_WARM_LARGE_MEMORY_CLASS && availMem >= MINI_APP_WARM_TWO_AVAIL_BYTES) {
+                return minOf(2, MINI_APP_WARM_POOL_MAX)
+            }
+            return minOf(1, MINI_APP_WARM_POOL_MAX)
+        }
+    }
+
+    enum class State { FREE, WARM, BOUND, OCCUPIED }
+
+    /**
+     * @param slot 槽位下标
+     * @param warm 是否使用了预热进程
+     * @param evicted 被淘汰的小程序，调用方需结束它后再启动
+     */
+    class Claim<T>(val slot: Int, val warm: Boolean, val evicted: T?)
+
+    private class Slot<T> {
+        var state = State.FREE
+        var payload: T? = null
+        var priority = -1
+        var lastUsed = 0L
+        // 进入当前状态的时间，进程拉起需要时间，宽限期内即使进程未运行也不回收
+        var since = 0L
+    }
+
+    private val slots = Array(slotCount) { Slot<T>() }
+
+    /**
+     * 与实际进程状态同步：进程已退出的槽位回收为空闲，空闲却有进程在运行的槽位视为被占用
+     */
+    @Synchronized
+    fun sync(isRunning: (Int) -> Boolean) {
+        val now = clock()
+        slots.forEachIndexed { index, slot ->
+            val running = isRunning(index)
+            when (slot.state) {
+                State.FREE -> if (running) setState(slot, State.OCCUPIED, now)
+                State.OCCUPIED -> if (!running) reset(slot)
+                State.WARM, State.BOUND -> if (!running && now - slot.since >= MINI_APP_SLOT_START_GRACE_MILLIS) reset(slot)
+            }
+        }
+    }
+
+    /**
+     * 为小程序分配槽位，没有可用槽位时返回null
+     * @param create 根据分配到的槽位下标创建绑定到槽位的对象
+     */
+    @Synchronized
+    fun claim(priority: Int, create: (Int) -> T): Claim<T>? {
+        val now = clock()
+        var index = slots.indexOfFirst { it.state == State.WARM }
+        var warm = true
+        var evicted: T? = null
+        if (index < 0) {
+            warm = false
+            index = slots.indexOfFirst { it.state == State.FREE }
+        }
+        if (index < 0) {
+            index = findVictim(priority)
+            if (index < 0) {
+                return null
+            }
+            evicted = slots[index].payload
+        }
+        val slot = slots[index]
+        setState(slot, State.BOUND, now)
+        slot.payload = create(index)
+        slot.priority = priority
+        slot.lastUsed = now
+        return Claim(index, warm, evicted)
+    }
+
+    /**
+     * 淘汰对象：优先级不高于启动小程序的已绑定槽位中优先级最低的，相同时取最久未使用的
+     */
+    private fun findVictim(priority: Int): Int {
+        var victim = -1
+        slots.forEachIndexed { index, slot ->
+            if (slot.state != State.BOUND || slot.priority > priority) {
+                return@forEachIndexed
+            }
+            val current = if (victim >= 0) slots[victim] else null
+            if (current == null || slot.priority < current.priority ||
+                (slot.priority == current.priority && slot.lastUsed < current.lastUsed)) {
+                victim = index
+            }
+        }
+        return victim
+    }
+
+    @Synchronized
+    fun find(predicate: (T) -> Boolean): Int {
+        return slots.indexOfFirst { slot -> slot.state == State.BOUND && slot.payload?.let(predicate) == true }
+    }
+
+    @Synchronized
+    fun payload(index: Int): T? = slots[index].payload
+
+    @Synchronized
+    fun state(index: Int): State = slots[index].state
+
+    /**
+     * 小程序被切到前台时更新使用时间
+     */
+    @Synchronized
+    fun touch(index: Int) {
+        slots[index].lastUsed = clock()
+    }
+
+    @Synchronized
+    fun release(index: Int) {
+        reset(slots[index])
+    }
+
+    /**
+     * 清除所有绑定记录，预热槽位保留
+     */
+    @Synchronized
+    fun releaseBound() {
+        slots.forEach { if (it.state == State.BOUND) reset(it) }
+    }
+
+    /**
+     * 把空闲槽位标记为预热，使预热槽位数达到target，返回需要拉起预热进程的槽位
+     */
+    @Synchronized
+    fun reserveWarm(target: Int): List<Int> {
+        val now = clock()
+        val result = ArrayList<Int>()
+        var warmCount = slots.count { it.state == State.WARM }
+        for (index in slots.indices) {
+            if (warmCount >= target) {
+                break
+            }
+            if (slots[index].state == State.FREE) {
+                setState(slots[index], State.WARM, now)
+                result.add(index)
+                warmCount++
+            }
+        }
+        return result
+    }
+
+    /**
+     * 回收所有预热槽位，返回需要结束预热进程的槽位
+     */
+    @Synchronized
+    fun releaseWarm(): List<Int> {
+        val result = ArrayList<Int>()
+        slots.forEachIndexed { index, slot ->
+            if (slot.state == State.WARM) {
+                reset(slot)
+                result.add(index)
+            }
+        }
+        return result
+    }
+
+    private fun setState(slot: Slot<T>, state: State, now: Long) {
+        slot.state = state
+        slot.since = now
+    }
+
+    private fun reset(slot: Slot<T>) {
+        slot.state = State.FREE
+        slot.payload = null
+        slot.priority = -1
+        slot.lastUsed = 0L
+        slot.since = 0L
+    }
+}
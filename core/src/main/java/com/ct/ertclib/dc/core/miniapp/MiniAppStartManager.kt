@@ -16,14 +16,18 @@
 
 package com.ct.ertclib.dc.core.miniapp
 
+import android.app.ActivityManager
+import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
-import android.os.Build
+import android.content.ServiceConnection
+import android.os.IBinder
 import android.os.RemoteException
 import com.ct.ertclib.dc.core.common.NewCallAppSdkInterface
 import com.ct.ertclib.dc.core.common.PathManager
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_EVICT_START_DELAY_MILLIS
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_WARM_REFILL_DELAY_MILLIS
 import com.ct.ertclib.dc.core.utils.logger.Logger
-import com.ct.ertclib.dc.core.utils.common.JsonUtil
 import com.ct.ertclib.dc.core.utils.common.LogUtils
 import com.ct.ertclib.dc.core.data.call.CallInfo
 import com.ct.ertclib.dc.core.data.common.Reason
@@ -31,8 +35,6 @@ import com.ct.ertclib.dc.core.data.miniapp.MiniAppList
 import com.ct.ertclib.dc.core.data.model.MiniAppInfo
 import com.ct.ertclib.dc.core.service.MiniAppService
 import com.ct.ertclib.dc.core.miniapp.aidl.IMessageCallback
-import com.ct.ertclib.dc.core.data.miniapp.MiniAppProperties
-import com.ct.ertclib.dc.core.miniapp.ui.activity.MiniAppActivity
 import com.ct.ertclib.dc.core.miniapp.ui.activity.MiniAppActivity0
 import com.ct.ertclib.dc.core.miniapp.ui.activity.MiniAppActivity1
 import com.ct.ertclib.dc.core.miniapp.ui.activity.MiniAppActivity2
@@ -43,46 +45,64 @@ import com.ct.ertclib.dc.core.miniapp.ui.activity.MiniAppActivity6
 import com.ct.ertclib.dc.core.miniapp.ui.activity.MiniAppActivity7
 import com.ct.ertclib.dc.core.miniapp.ui.activity.MiniAppActivity8
 import com.ct.ertclib.dc.core.miniapp.ui.activity.MiniAppActivity9
+import com.ct.ertclib.dc.core.service.MiniAppWarmService0
+import com.ct.ertclib.dc.core.service.MiniAppWarmService1
+import com.ct.ertclib.dc.core.service.MiniAppWarmService2
+import com.ct.ertclib.dc.core.service.MiniAppWarmService3
+import com.ct.ertclib.dc.core.service.MiniAppWarmService4
+import com.ct.ertclib.dc.core.service.MiniAppWarmService5
+import com.ct.ertclib.dc.core.service.MiniAppWarmService6
+import com.ct.ertclib.dc.core.service.MiniAppWarmService7
+import com.ct.ertclib.dc.core.service.MiniAppWarmService8
+import com.ct.ertclib.dc.core.service.MiniAppWarmService9
 import com.ct.ertclib.dc.core.utils.common.ClassUtils
 import com.ct.ertclib.dc.core.port.miniapp.IMiniAppStartManager
 import com.ct.ertclib.dc.core.port.miniapp.IMiniAppStartCallback
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.async
+import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
-import java.io.File
 import kotlin.coroutines.EmptyCoroutineContext
 
 object MiniAppStartManager : IMiniAppStartManager {
     private const val TAG = "MiniAppStartManager"
     private val sLogger: Logger = Logger.getLogger(TAG)
-    private val mMiniAppInfoList = ArrayList<MiniAppInfoWrapper>()
     private var appService: MiniAppService? = null
-
-
-    class MiniAppChecker(private val activityClass: Class<out MiniAppActivity>) :
-            (MiniAppInfoWrapper) -> Boolean {
-        override fun invoke(miniAppInfo: MiniAppInfoWrapper): Boolean {
-            return miniAppInfo.activityClass == activityClass
-        }
-    }
+    private val activityClasses = arrayOf(
+        MiniAppActivity0::class.java,
+        MiniAppActivity1::class.java,
+        MiniAppActivity2::class.java,
+        MiniAppActivity3::class.java,
+        MiniAppActivity4::class.java,
+        MiniAppActivity5::class.java,
+        MiniAppActivity6::class.java,
+        MiniAppActivity7::class.java,
+        MiniAppActivity8::class.java,
+        MiniAppActivity9::class.java
+    )
+    private val warmServiceClasses = arrayOf(
+        MiniAppWarmService0::class.java,
+        MiniAppWarmService1::class.java,
+        MiniAppWarmService2::class.java,
+        MiniAppWarmService3::class.java,
+        MiniAppWarmService4::class.java,
+        MiniAppWarmService5::class.java,
+        MiniAppWarmService6::class.java,
+        MiniAppWarmService7::class.java,
+        MiniAppWarmService8::class.java,
+        MiniAppWarmService9::class.java
+    )
+    // 槽位分配和预热连接只在主线程访问
+    private val slotAllocator = MiniAppSlotAllocator<MiniAppInfoWrapper>(activityClasses.size)
+    private val warmConnections = HashMap<Int, ServiceConnection>()
+    private val scope = CoroutineScope(Dispatchers.Main + SupervisorJob())
 
     private fun startMiniAppInfo(miniAppInfo: MiniAppInfo, context: Context, callInfo: CallInfo?, miniAppListInfo: MiniAppList?, callback: IMiniAppStartCallback?) {
         val coroutineScope = CoroutineScope(EmptyCoroutineContext)
         coroutineScope.launch(Dispatchers.IO) {
-            val deferred = async {
-                val file = File(miniAppInfo.path + "/properties.json")
-                if (file.exists()) {
-                    val propertiesString = file.readText()
-                    if (sLogger.isDebugActivated) sLogger.debug("startMiniAppActivity propertiesString:$propertiesString")
-                    JsonUtil.fromJson(propertiesString, MiniAppProperties::class.java)
-                } else {
-                    if (sLogger.isDebugActivated) sLogger.debug("startMiniAppActivity propertiesString null, path:${miniAppInfo.path}")
-                    null
-                }
-            }
-            val properties = deferred.await()
+            // 安装时已解析并索引properties.json，这里只在路径与索引不一致时读取文件
+            val properties = MiniAppPackageStore.index.getProperties(miniAppInfo.appId, miniAppInfo.path)
             if (sLogger.isDebugActivated) sLogger.debug("startMiniAppActivity properties:$properties")
             if (properties == null){
                 callback?.onMiniAppStartFailed(Reason.START_FAILED)
@@ -110,110 +130,115 @@ object MiniAppStartManager : IMiniAppStartManager {
     ) {
         if (sLogger.isDebugActivated) sLogger.debug("startMiniAppActivity miniAppInfp:$miniAppInfo")
 
-        checkAllRunningApp(context)
+        syncSlots(context)
 
-        val runningMiniAppWrapper = getRunningMiniAppWrapper(miniAppInfo, callInfo)
-        if (runningMiniAppWrapper != null) {
+        val runningIndex = slotAllocator.find { it.miniApp.appId == miniAppInfo.appId }
+        if (runningIndex >= 0) {
+            val runningMiniAppWrapper = updateRunningMiniAppWrapper(slotAllocator.payload(runningIndex)!!, miniAppInfo, callInfo)
+            slotAllocator.touch(runningIndex)
             val intent = Intent(context, runningMiniAppWrapper.activityClass)
             intent.putExtra("miniApp", runningMiniAppWrapper.miniApp)
             intent.putExtra("callInfo", runningMiniAppWrapper.callInfo)
             intent.putExtra("miniAppListInfo", miniAppListInfo)
             intent.addFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT or Intent.FLAG_ACTIVITY_NEW_TASK)
-            val coroutineScope = CoroutineScope(EmptyCoroutineContext)
-            coroutineScope.launch(Dispatchers.Main) {
-                delay(500)
-                context.startActivity(intent)
-            }
+            context.startActivity(intent)
             return
         }
 
-        val targetActivityClass = getTargetActivityClass(context, miniAppInfo)
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            mMiniAppInfoList.removeIf {
-                MiniAppChecker(targetActivityClass).invoke(it)
-            }
+        val priority = miniAppInfo.appProperties?.priority ?: -1
+        val claim = slotAllocator.claim(priority) { MiniAppInfoWrapper(miniAppInfo, callInfo, activityClasses[it]) }
+            ?: throw Exception("No low priority found value:$priority")
+        val miniAppInfoWrapper = slotAllocator.payload(claim.slot)!!
+        sLogger.info("startMiniAppActivity slot:${claim.slot}, warm:${claim.warm}, evicted:${claim.evicted?.miniApp?.appId}")
+        claim.evicted?.let {
+            finishMiniApp(it.miniApp.callId, it.miniApp.appId)
         }
 
-        val miniAppInfoWrapper = MiniAppInfoWrapper(miniAppInfo, callInfo, targetActivityClass)
-        mMiniAppInfoList.add(miniAppInfoWrapper)
-
         NewCallAppSdkInterface.emitCloseExpandedViewFlow(isClose = true)
         val intent = Intent(context, miniAppInfoWrapper.activityClass)
         intent.putExtra("miniApp", miniAppInfoWrapper.miniApp)
         intent.putExtra("callInfo", callInfo)
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT or Intent.FLAG_ACTIVITY_NEW_TASK)
-        val coroutineScope = CoroutineScope(EmptyCoroutineContext)
-        coroutineScope.launch(Dispatchers.Main) {
-            delay(500)
+        scope.launch {
+            // 只有淘汰了其他小程序时才需要等待其进程退出
+            if (claim.evicted != null) {
+                delay(MINI_APP_EVICT_START_DELAY_MILLIS)
+            }
             context.startActivity(intent)
+            if (claim.warm) {
+                // 预热进程已被小程序Activity接管
+                unbindWarmService(context, claim.slot)
+            }
+            // 启动完成后再在后台补充预热进程，不与本次启动争抢资源
+            delay(MINI_APP_WARM_REFILL_DELAY_MILLIS)
+            warmUp(context)
         }
     }
 
-
-    private fun getTargetActivityClass(
-        context: Context,
-        miniAppInfo: MiniAppInfo
-    ): Class<out MiniAppActivity> {
-
-        val clsArr = arrayOf(
-            MiniAppActivity0::class.java,
-            MiniAppActivity1::class.java,
-            MiniAppActivity2::class.java,
-            MiniAppActivity3::class.java,
-            MiniAppActivity4::class.java,
-            MiniAppActivity5::class.java,
-            MiniAppActivity6::class.java,
-            MiniAppActivity7::class.java,
-            MiniAppActivity8::class.java,
-            MiniAppActivity9::class.java
-        )
-        //如果没有有没有使用的app界面，直接返回使用拉起。
-        clsArr.forEach {
-            val runAppClassName = ClassUtils.getRunAppClassName(context, it)
-            if (!ClassUtils.isAppClassRunning(context, runAppClassName)) {
-                return it
+    /**
+     * 通话建立时预热小程序进程，进程数由内存情况决定
+     */
+    fun warmUp(context: Context) {
+        val appContext = context.applicationContext
+        scope.launch {
+            val activityManager = appContext.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+            val memoryInfo = ActivityManager.MemoryInfo()
+            activityManager.getMemoryInfo(memoryInfo)
+            val target = MiniAppSlotAllocator.warmPoolSize(activityManager.memoryClass, memoryInfo.availMem, memoryInfo.lowMemory)
+            syncSlots(appContext)
+            val slots = slotAllocator.reserveWarm(target)
+            if (sLogger.isDebugActivated) {
+                sLogger.debug("warmUp target:$target, memoryClass:${activityManager.memoryClass}, availMem:${memoryInfo.availMem}, slots:$slots")
             }
+            slots.forEach { bindWarmService(appContext, it) }
         }
+    }
 
-        //如果没有空闲activity,那么根据properties 优先级结束最低优先级的小程序，返回此小程序界面
-        val priority = miniAppInfo.appProperties?.priority
+    /**
+     * 通话全部结束时结束空闲的预热进程
+     */
+    fun coolDown(context: Context) {
+        val appContext = context.applicationContext
+        scope.launch {
+            slotAllocator.releaseWarm().forEach { unbindWarmService(appContext, it) }
+        }
+    }
 
-        val launchAppProperties = priority ?: -1
-        val lowPropertiesMiniAppList = ArrayList<MiniAppInfoWrapper>()
-        for (miniAppWrapper in mMiniAppInfoList) {
-            val appProperties = miniAppWrapper.miniApp.appProperties?.priority
-            if ((appProperties ?: -1) <= launchAppProperties) {
-                lowPropertiesMiniAppList.add(miniAppWrapper)
+    private fun bindWarmService(context: Context, slot: Int) {
+        val connection = object : ServiceConnection {
+            override fun onServiceConnected(name: ComponentName?, service: IBinder?) {
+                if (sLogger.isDebugActivated) sLogger.debug("warm service connected, slot:$slot")
             }
-        }
 
-        if (lowPropertiesMiniAppList.isEmpty()) {
-            throw Exception("No low priority found value:$launchAppProperties")
-        }
-        var miniAppInfoWraper: MiniAppInfoWrapper?
-        if (lowPropertiesMiniAppList.size == 1) {
-            miniAppInfoWraper = lowPropertiesMiniAppList[0]
-        } else {
-            val iterator = lowPropertiesMiniAppList.iterator()
-            miniAppInfoWraper = iterator.next()
-            var desPriority = miniAppInfoWraper.miniApp.appProperties?.priority ?: -1
-            do {
-                val next = iterator.next()
-                val nextPriority = next.miniApp.appProperties?.priority ?: -1
-                if (desPriority > nextPriority) {
-                    miniAppInfoWraper = next
-                    desPriority = nextPriority
+            override fun onServiceDisconnected(name: ComponentName?) {
+                // 预热进程被系统回收，不自动重建，下次预热时再补充
+                sLogger.info("warm service disconnected, slot:$slot")
+                unbindWarmService(context, slot)
+                if (slotAllocator.state(slot) == MiniAppSlotAllocator.State.WARM) {
+                    slotAllocator.release(slot)
                 }
-            } while (iterator.hasNext())
+            }
         }
-
-        if (miniAppInfoWraper != null) {
-            finishMiniApp(miniAppInfoWraper.miniApp.callId,miniAppInfoWraper.miniApp.appId)
-            return miniAppInfoWraper.activityClass
+        try {
+            if (context.bindService(Intent(context, warmServiceClasses[slot]), connection, Context.BIND_AUTO_CREATE)) {
+                warmConnections[slot] = connection
+            } else {
+                context.unbindService(connection)
+                slotAllocator.release(slot)
+            }
+        } catch (e: Exception) {
+            sLogger.error("bindWarmService slot:$slot", e)
+            slotAllocator.release(slot)
         }
+    }
 
-        throw Exception("can not get target class")
-
+    private fun unbindWarmService(context: Context, slot: Int) {
+        val connection = warmConnections.remove(slot) ?: return
+        try {
+            context.applicationContext.unbindService(connection)
+        } catch (e: Exception) {
+            sLogger.error("unbindWarmService slot:$slot", e)
+        }
     }
 
     private fun finishMiniApp(callId: String,appId: String) {
@@ -233,37 +258,27 @@ object MiniAppStartManager : IMiniAppStartManager {
         }
     }
 
-    private fun getRunningMiniAppWrapper(
+    private fun updateRunningMiniAppWrapper(
+        miniAppInfoWraper: MiniAppInfoWrapper,
         miniAppInfo: MiniAppInfo,
         callInfo: CallInfo?
-    ): MiniAppInfoWrapper? {
-        for (miniAppInfoWraper in mMiniAppInfoList) {
-            if (miniAppInfoWraper.miniApp.appId == miniAppInfo.appId) {
-                if (miniAppInfoWraper.miniApp.appProperties?.version?.let { miniAppInfo.appProperties?.version?.let { it1 ->
-                        PathManager().compareVersion(it,
-                            it1
-                        )
-                    } } == 1) {
-                    miniAppInfoWraper.miniApp = miniAppInfo
-                    if (callInfo != null) {
-                        miniAppInfoWraper.callInfo = callInfo
-                    }
-                }
-                return miniAppInfoWraper
+    ): MiniAppInfoWrapper {
+        if (miniAppInfoWraper.miniApp.appProperties?.version?.let { miniAppInfo.appProperties?.version?.let { it1 ->
+                PathManager().compareVersion(it,
+                    it1
+                )
+            } } == 1) {
+            miniAppInfoWraper.miniApp = miniAppInfo
+            if (callInfo != null) {
+                miniAppInfoWraper.callInfo = callInfo
             }
         }
-        return null
+        return miniAppInfoWraper
     }
 
-    private fun checkAllRunningApp(context: Context) {
-        val list = ArrayList<MiniAppInfoWrapper>()
-        mMiniAppInfoList.forEach {
-            val runAppClassName = ClassUtils.getRunAppClassName(context, it.activityClass)
-            if (!ClassUtils.isAppClassRunning(context, runAppClassName)) {
-                list.add(it)
-            }
-        }
-        mMiniAppInfoList.removeAll(list.toSet())
+    private fun syncSlots(context: Context) {
+        val runningProcesses = ClassUtils.getRunningProcessNames(context)
+        slotAllocator.sync { runningProcesses.contains(ClassUtils.getRunAppClassName(context, activityClasses[it])) }
     }
 
     override fun startMiniApp(context: Context, miniAppInfo: MiniAppInfo, callInfo: CallInfo?, miniAppListInfo: MiniAppList?, callback: IMiniAppStartCallback?) {
@@ -286,11 +301,15 @@ object MiniAppStartManager : IMiniAppStartManager {
     }
 
     override fun clearBackgroundTaskList() {
-        mMiniAppInfoList.clear()
+        slotAllocator.releaseBound()
     }
 
     override fun moveMiniAppToFront(context: Context, appId: String) {
-        val miniAppWrapper = mMiniAppInfoList.firstOrNull { it.miniApp.appId == appId }
+        val index = slotAllocator.find { it.miniApp.appId == appId }
+        if (index >= 0) {
+            slotAllocator.touch(index)
+        }
+        val miniAppWrapper = if (index >= 0) slotAllocator.payload(index) else null
         miniAppWrapper?.let {
             val intent = Intent(context, it.activityClass)
             intent.flags = Intent.FLAG_ACTIVITY_NEW_TASK or Intent.FLAG_ACTIVITY_CLEAR_TOP
@@ -0,0 +1,94 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp
+
+import android.content.Context
+import android.content.MutableContextWrapper
+import android.webkit.WebSettings
+import com.ct.ertclib.dc.core.utils.logger.Logger
+import wendu.dsbridge.DWebView
+
+/**
+ * 小程序进程内预先创建的WebView，只在主线程访问。
+ * 预热进程中提前创建DWebView(同时完成WebView内核和DSBridge的初始化)，小程序Activity启动时直接取用，
+ * WebView用MutableContextWrapper创建，取用时把Context换成Activity。
+ */
+object MiniAppWebViewPool {
+
+    private const val TAG = "MiniAppWebViewPool"
+    private val sLogger: Logger = Logger.getLogger(TAG)
+
+    private var webView: DWebView? = null
+    // 本进程已有小程序Activity，预热服务结束时不能结束进程
+    var isTaken = false
+        private set
+
+    fun prepare(context: Context) {
+        if (isTaken || webView != null) {
+            return
+        }
+        val start = System.currentTimeMillis()
+        // 不预加载页面，避免在小程序页面之前留下历史记录
+        webView = DWebView(MutableContextWrapper(context.applicationContext)).also {
+            applySettings(it)
+        }
+        sLogger.info("prepare webView cost:${System.currentTimeMillis() - start}ms")
+    }
+
+    /**
+     * 取走预创建的WebView，没有时返回null由调用方自行创建。无论是否取到，本进程此后都归Activity使用
+     */
+    fun take(context: Context): DWebView? {
+        isTaken = true
+        val pooled = webView ?: return null
+        webView = null
+        (pooled.context as? MutableContextWrapper)?.baseContext = context
+        return pooled
+    }
+
+    /**
+     * 释放未被取走的WebView，返回本进程是否仍处于空闲预热状态
+     */
+    fun release(): Boolean {
+        webView?.destroy()
+        webView = null
+        return !isTaken
+    }
+
+    fun applySettings(dWebView: DWebView) {
+        val settings = dWebView.settings
+        settings.allowFileAccess = true
+        settings.allowContentAccess = true
+        settings.cacheMode = WebSettings.LOAD_DEFAULT
+        settings.allowFileAccessFromFileURLs = true
+        settings.allowUniversalAccessFromFileURLs = true
+        settings.mixedContentMode = WebSettings.MIXED_CONTENT_ALWAYS_ALLOW
+        settings.loadWithOverviewMode = true
+        settings.useWideViewPort = true
+        settings.javaScriptEnabled = true
+        settings.domStorageEnabled = true
+        settings.displayZoomControls = false
+        settings.builtInZoomControls = false
+        settings.loadWithOverviewMode = true
+        settings.textZoom = 100
+        settings.loadsImagesAutomatically = true
+        settings.mediaPlaybackRequiresUserGesture = false// video预览需要
+        if (!settings.userAgentString.endsWith(";MiniAppContainer")) {
+            settings.userAgentString = settings.userAgentString + ";MiniAppContainer"
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp
+
+/**
+ * SDK与AS自有ADC的二进制帧编解码。
+ * 帧格式：魔数(1字节) + 版本(1字节) + 模块id(1字节) + 负载长度(4字节，大端) + 负载。
+ * 魔数不可能是JSON报文的首字节，收到的数据据此区分二进制帧和JSON报文。
+ */
+object OwnADCFrameCodec {
+
+    const val FRAME_VERSION: Byte = 1
+    const val HEADER_LENGTH = 7
+
+    private const val FRAME_MAGIC: Byte = 0xC7.toByte()
+
+    interface OnFrameListener {
+        fun onFrame(modelId: Byte, payload: ByteArray)
+    }
+
+    fun isFrame(data: ByteArray, length: Int): Boolean {
+        return length >= HEADER_LENGTH && data[0] == FRAME_MAGIC
+    }
+
+    fun encode(modelId: Byte, payload: ByteArray): ByteArray {
+        val frame = ByteArray(HEADER_LENGTH + payload.size)
+        frame[0] = FRAME_MAGIC
+        frame[1] = FRAME_VERSION
+        frame[2] = modelId
+        writeInt(frame, 3, payload.size)
+        System.arraycopy(payload, 0, frame, HEADER_LENGTH, payload.size)
+        return frame
+    }
+
+    /**
+     * 解析一条消息中的全部帧，返回是否全部解析成功
+     */
+    fun decode(data: ByteArray, length: Int, listener: OnFrameListener): Boolean {
+        var offset = 0
+        while (offset < length) {
+            if (length - offset < HEADER_LENGTH || data[offset] != FRAME_MAGIC) {
+                return false
+            }
+            // 高版本的帧格式无法识别
+            if (data[offset + 1] > FRAME_VERSION) {
+                return false
+            }
+            val modelId = data[offset + 2]
+            val payloadLength = readInt(data, offset + 3)
+            val payloadOffset = offset + HEADER_LENGTH
+            if (payloadLength < 0 || payloadLength > length - payloadOffset) {
+                return false
+            }
+            listener.onFrame(modelId, data.copyOfRange(payloadOffset, payloadOffset + payloadLength))
+            offset = payloadOffset + payloadLength
+        }
+        return true
+    }
+
+    private fun writeInt(data: ByteArray, offset: Int, value: Int) {
+        data[offset] = (value ushr 24).toByte()
+        data[offset + 1] = (value ushr 16).toByte()
+        data[offset + 2] = (value ushr 8).toByte()
+        data[offset + 3] = value.toByte()
+    }
+
+    private fun readInt(data: ByteArray, offset: Int): Int {
+        return (data[offset].toInt() and 0xFF shl 24) or
+                (data[offset + 1].toInt() and 0xFF shl 16) or
+                (data[offset + 2].toInt() and 0xFF shl 8) or
+                (data[offset + 3].toInt() and 0xFF)
+    }
+}
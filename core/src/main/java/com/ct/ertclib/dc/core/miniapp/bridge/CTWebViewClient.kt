@@ -42,7 +42,18 @@ class CTWebViewClient(private val miniAppActivity: MiniAppActivity) : WebViewCli
         view: WebView?,
         request: WebResourceRequest?
     ): WebResourceResponse? {
-        return super.shouldInterceptRequest(view, request)
+        val assetServer = miniAppActivity.assetServer
+        if (request == null || assetServer == null) {
+            return super.shouldInterceptRequest(view, request)
+        }
+        val response = try {
+            assetServer.serve(MiniAppAssetServer.AssetRequest(request.url.toString(), request.method, request.requestHeaders ?: emptyMap()))
+        } catch (e: Exception) {
+            sLogger.error("shouldInterceptRequest url:${request.url}", e)
+            null
+        } ?: return super.shouldInterceptRequest(view, request)
+        if (sLogger.isDebugActivated) sLogger.debug("shouldInterceptRequest url:${request.url}, status:${response.status}")
+        return WebResourceResponse(response.mimeType, response.encoding, response.status, response.reason, response.headers, response.body)
     }
 
     override fun onPageStarted(view: WebView?, url: String?, favicon: Bitmap?) {
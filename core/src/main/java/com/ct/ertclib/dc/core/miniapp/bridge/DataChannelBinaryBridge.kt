@@ -0,0 +1,194 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.bridge
+
+import android.net.Uri
+import android.os.Handler
+import android.os.HandlerThread
+import android.webkit.WebView
+import androidx.annotation.MainThread
+import androidx.webkit.WebMessageCompat
+import androidx.webkit.WebMessagePortCompat
+import androidx.webkit.WebViewCompat
+import androidx.webkit.WebViewFeature
+import com.ct.ertclib.dc.core.constants.CommonConstants.DC_SEND_DATA_OK
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_ASSET_SITE
+import com.ct.ertclib.dc.core.port.manager.IMiniToParentManager
+import com.ct.ertclib.dc.core.utils.common.DCUtils
+import com.ct.ertclib.dc.core.utils.common.JsonUtil
+import com.ct.ertclib.dc.core.utils.logger.Logger
+import com.newcalllib.datachannel.V1_0.IDCSendDataCallback
+
+/**
+ * 小程序与数据通道之间的二进制通道，基于WebMessagePort传递ArrayBuffer，不经过Base64。
+ *
+ * 小程序调用openBinaryChannel成功后，页面会收到data为[PORT_MESSAGE]的message事件，ports[0]即通道端口。
+ * 两个方向的ArrayBuffer格式相同：序号(4字节，大端) + label长度(1字节) + label(UTF-8) + 数据。
+ * 小程序发送时序号不为0则通过端口回复字符串{"seq":序号,"code":结果码,"message":描述}，收到的数据序号固定为0。
+ * 不支持ArrayBuffer的WebView继续使用sendData和notifyMessage的Base64方式。
+ * 端口只发给[MINI_APP_ASSET_SITE]，file://页面没有可匹配的origin，只能在useAssetOrigin的小程序中使用。
+ */
+class DataChannelBinaryBridge(private val miniToParentManager: IMiniToParentManager) {
+
+    companion object {
+        private const val TAG = "DataChannelBinaryBridge"
+        const val PORT_MESSAGE = "ctDcBinaryPort"
+        private const val HEADER_LENGTH = 5
+        private const val MAX_LABEL_LENGTH = 0xFF
+    }
+
+    private val sLogger: Logger = Logger.getLogger(TAG)
+    private var mHandlerThread: HandlerThread? = null
+    private var mHandler: Handler? = null
+
+    @Volatile
+    private var mPort: WebMessagePortCompat? = null
+
+    val isOpen: Boolean
+        get() = mPort != null
+
+    fun isSupported(): Boolean {
+        return WebViewFeature.isFeatureSupported(WebViewFeature.CREATE_WEB_MESSAGE_CHANNEL)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.POST_WEB_MESSAGE)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_POST_MESSAGE)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_SET_MESSAGE_CALLBACK)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_ARRAY_BUFFER)
+    }
+
+    /**
+     * 创建通道并把端口发给页面，重复调用时关闭旧通道
+     */
+    @MainThread
+    fun open(webView: WebView): Boolean {
+        if (!isSupported()) {
+            sLogger.info("open binary channel not supported")
+            return false
+        }
+        close()
+        val thread = HandlerThread(TAG)
+        thread.start()
+        val handler = Handler(thread.looper)
+        val ports = WebViewCompat.createWebMessageChannel(webView)
+        ports[0].setWebMessageCallback(handler, object : WebMessagePortCompat.WebMessageCallbackCompat() {
+            override fun onMessage(port: WebMessagePortCompat, message: WebMessageCompat?) {
+                if (message?.type == WebMessageCompat.TYPE_ARRAY_BUFFER) {
+                    onFrame(message.arrayBuffer)
+                }
+            }
+        })
+        mHandlerThread = thread
+        mHandler = handler
+        mPort = ports[0]
+        // 只发给小程序页面，其他frame或跳转后的页面收不到端口
+        WebViewCompat.postWebMessage(webView, WebMessageCompat(PORT_MESSAGE, arrayOf(ports[1])), Uri.parse(MINI_APP_ASSET_SITE))
+        sLogger.info("open binary channel")
+        return true
+    }
+
+    fun close() {
+        val port = mPort ?: return
+        mPort = null
+        try {
+            port.close()
+        } catch (e: Exception) {
+            sLogger.error("close", e)
+        }
+        mHandlerThread?.quitSafely()
+        mHandlerThread = null
+        mHandler = null
+        sLogger.info("close binary channel")
+    }
+
+    /**
+     * 把数据通道收到的数据发给小程序，通道未打开时返回false，由调用方走Base64方式
+     */
+    fun post(label: String, data: ByteArray, length: Int): Boolean {
+        val handler = mHandler ?: return false
+        val labelBytes = label.toByteArray(Charsets.UTF_8)
+        if (labelBytes.size > MAX_LABEL_LENGTH) {
+            return false
+        }
+        val frame = ByteArray(HEADER_LENGTH + labelBytes.size + length)
+        frame[4] = labelBytes.size.toByte()
+        System.arraycopy(labelBytes, 0, frame, HEADER_LENGTH, labelBytes.size)
+        System.arraycopy(data, 0, frame, HEADER_LENGTH + labelBytes.size, length)
+        // 与端口回调在同一线程，保证顺序
+        return handler.post {
+            try {
+                mPort?.postMessage(WebMessageCompat(frame))
+            } catch (e: Exception) {
+                sLogger.error("post label:$label", e)
+            }
+        }
+    }
+
+    private fun onFrame(frame: ByteArray) {
+        if (frame.size < HEADER_LENGTH) {
+            sLogger.warn("onFrame invalid length:${frame.size}")
+            return
+        }
+        val seq = (frame[0].toInt() and 0xFF shl 24) or
+                (frame[1].toInt() and 0xFF shl 16) or
+                (frame[2].toInt() and 0xFF shl 8) or
+                (frame[3].toInt() and 0xFF)
+        val labelLength = frame[4].toInt() and 0xFF
+        val payloadOffset = HEADER_LENGTH + labelLength
+        if (frame.size < payloadOffset) {
+            sLogger.warn("onFrame invalid labelLength:$labelLength, length:${frame.size}")
+            reply(seq, "1", "invalid frame")
+            return
+        }
+        val label = String(frame, HEADER_LENGTH, labelLength, Charsets.UTF_8)
+        val dc = miniToParentManager.openDCList?.firstOrNull { DCUtils.compareDCLabel(it.dcLabel, label) }
+        if (dc == null) {
+            reply(seq, "1", "dcLabel:$label is not open")
+            return
+        }
+        val payload = frame.copyOfRange(payloadOffset, frame.size)
+        if (sLogger.isDebugActivated) {
+            sLogger.debug("onFrame seq:$seq, dcLabel:$label, length:${payload.size}")
+        }
+        try {
+            dc.send(payload, payload.size, object : IDCSendDataCallback.Stub() {
+                override fun onSendDataResult(state: Int) {
+                    if (state == DC_SEND_DATA_OK) {
+                        reply(seq, "0", "success")
+                    } else {
+                        reply(seq, state.toString(), "fail")
+                    }
+                }
+            })
+        } catch (e: Exception) {
+            sLogger.error("onFrame send dcLabel:$label", e)
+            reply(seq, "1", "fail")
+        }
+    }
+
+    private fun reply(seq: Int, code: String, message: String) {
+        if (seq == 0) {
+            return
+        }
+        val response = JsonUtil.toJson(mapOf("seq" to seq, "code" to code, "message" to message))
+        mHandler?.post {
+            try {
+                mPort?.postMessage(WebMessageCompat(response))
+            } catch (e: Exception) {
+                sLogger.error("reply seq:$seq", e)
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.bridge
+
+import android.net.Uri
+import android.os.Handler
+import android.os.HandlerThread
+import android.webkit.WebView
+import androidx.annotation.MainThread
+import androidx.webkit.WebMessageCompat
+import androidx.webkit.WebMessagePortCompat
+import androidx.webkit.WebViewCompat
+import androidx.webkit.WebViewFeature
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_HANDLE_MAX_CHUNK
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_ASSET_SITE
+import com.ct.ertclib.dc.core.utils.logger.Logger
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * 小程序文件句柄的二进制读写通道，基于WebMessagePort传递ArrayBuffer，不经过Base64。
+ *
+ * 小程序调用openFileBinaryChannel成功后，页面会收到data为[PORT_MESSAGE]的message事件，ports[0]即通道端口。
+ * 请求格式：序号(4字节，大端) + 操作(1字节，1读 2写) + 句柄(4字节) + 位置(8字节) + 读取长度(4字节)或写入的数据。
+ * 回复格式：序号(4字节) + 结果码(1字节，0成功) + 读到的数据或写入字节数(4字节)，失败时为UTF-8错误描述。
+ * 不同请求在IO线程并发执行，回复顺序不保证与请求一致，页面按序号匹配。
+ * 不支持ArrayBuffer的WebView继续使用readFileHandle和writeFileHandle的Base64方式。
+ * 端口只发给[MINI_APP_ASSET_SITE]，file://页面没有可匹配的origin，只能在useAssetOrigin的小程序中使用。
+ */
+class FileBinaryBridge(private val handleTable: FileHandleTable) {
+
+    companion object {
+        private const val TAG = "FileBinaryBridge"
+        const val PORT_MESSAGE = "ctFileBinaryPort"
+        const val OP_READ: Byte = 1
+        const val OP_WRITE: Byte = 2
+        const val REQUEST_HEADER_LENGTH = 17
+        const val RESPONSE_HEADER_LENGTH = 5
+        private const val CODE_SUCCESS: Byte = 0
+        private const val CODE_FAILED: Byte = 1
+    }
+
+    private val sLogger: Logger = Logger.getLogger(TAG)
+    private var mHandlerThread: HandlerThread? = null
+    private var mHandler: Handler? = null
+    private var mScope: CoroutineScope? = null
+
+    @Volatile
+    private var mPort: WebMessagePortCompat? = null
+
+    fun isSupported(): Boolean {
+        return WebViewFeature.isFeatureSupported(WebViewFeature.CREATE_WEB_MESSAGE_CHANNEL)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.POST_WEB_MESSAGE)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_POST_MESSAGE)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_SET_MESSAGE_CALLBACK)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_ARRAY_BUFFER)
+    }
+
+    /**
+     * 创建通道并把端口发给页面，重复调用时关闭旧通道
+     */
+    @MainThread
+    fun open(webView: WebView): Boolean {
+        if (!isSupported()) {
+            sLogger.info("open file binary channel not supported")
+            return false
+        }
+        close()
+        val thread = HandlerThread(TAG)
+        thread.start()
+        val handler = Handler(thread.looper)
+        val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+        val ports = WebViewCompat.createWebMessageChannel(webView)
+        ports[0].setWebMessageCallback(handler, object : WebMessagePortCompat.WebMessageCallbackCompat() {
+            override fun onMessage(port: WebMessagePortCompat, message: WebMessageCompat?) {
+                if (message?.type == WebMessageCompat.TYPE_ARRAY_BUFFER) {
+                    val frame = message.arrayBuffer
+                    scope.launch {
+                        reply(handleFrame(frame))
+                    }
+                }
+            }
+        })
+        mHandlerThread = thread
+        mHandler = handler
+        mScope = scope
+        mPort = ports[0]
+        // 只发给小程序页面，其他frame或跳转后的页面收不到端口
+        WebViewCompat.postWebMessage(webView, WebMessageCompat(PORT_MESSAGE, arrayOf(ports[1])), Uri.parse(MINI_APP_ASSET_SITE))
+        sLogger.info("open file binary channel")
+        return true
+    }
+
+    fun close() {
+        val port = mPort ?: return
+        mPort = null
+        mScope?.cancel()
+        mScope = null
+        try {
+            port.close()
+        } catch (e: Exception) {
+            sLogger.error("close", e)
+        }
+        mHandlerThread?.quitSafely()
+        mHandlerThread = null
+        mHandler = null
+        sLogger.info("close file binary channel")
+    }
+
+    /**
+     * 执行一个请求并生成回复，请求格式错误且无法取得序号时返回null
+     */
+    fun handleFrame(frame: ByteArray): ByteArray? {
+        if (frame.size < REQUEST_HEADER_LENGTH) {
+            sLogger.warn("handleFrame invalid length:${frame.size}")
+            return null
+        }
+        val header = ByteBuffer.wrap(frame)
+        val seq = header.getInt(0)
+        val op = header.get(4)
+        val handle = header.getInt(5)
+        val position = header.getLong(9)
+        if (sLogger.isDebugActivated) {
+            sLogger.debug("handleFrame seq:$seq, op:$op, handle:$handle, position:$position, length:${frame.size}")
+        }
+        return try {
+            if (position < 0) {
+                throw IOException("invalid position: $position")
+            }
+            when (op) {
+                OP_READ -> {
+                    if (frame.size < REQUEST_HEADER_LENGTH + 4) {
+                        throw IOException("invalid read frame")
+                    }
+                    val length = header.getInt(REQUEST_HEADER_LENGTH)
+                    if (length < 0 || length > FILE_HANDLE_MAX_CHUNK) {
+                        throw IOException("invalid length: $length")
+                    }
+                    response(seq, CODE_SUCCESS, handleTable.read(handle, position, length))
+                }
+                OP_WRITE -> {
+                    val length = frame.size - REQUEST_HEADER_LENGTH
+                    if (length > FILE_HANDLE_MAX_CHUNK) {
+                        throw IOException("invalid length: $length")
+                    }
+                    val written = handleTable.write(handle, position, frame, REQUEST_HEADER_LENGTH, length)
+                    response(seq, CODE_SUCCESS, ByteBuffer.allocate(4).putInt(written).array())
+                }
+                else -> throw IOException("invalid op: $op")
+            }
+        } catch (e: IOException) {
+            sLogger.warn("handleFrame seq:$seq failed, ${e.message}")
+            response(seq, CODE_FAILED, (e.message ?: "fail").toByteArray(Charsets.UTF_8))
+        }
+    }
+
+    private fun response(seq: Int, code: Byte, payload: ByteArray): ByteArray {
+        val response = ByteArray(RESPONSE_HEADER_LENGTH + payload.size)
+        ByteBuffer.wrap(response).putInt(seq).put(code)
+        System.arraycopy(payload, 0, response, RESPONSE_HEADER_LENGTH, payload.size)
+        return response
+    }
+
+    private fun reply(response: ByteArray?) {
+        response ?: return
+        mHandler?.post {
+            try {
+                mPort?.postMessage(WebMessageCompat(response))
+            } catch (e: Exception) {
+                sLogger.error("reply", e)
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.bridge
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_HANDLE_MAX_OPEN
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 小程序打开的文件句柄表，每个句柄对应一个FileChannel，读写都带位置，不同句柄可以并发读写。
+ * 小程序退出时由MiniToParentManager调用[closeAll]关闭全部句柄。
+ */
+class FileHandleTable {
+
+    /**
+     * @param closeable 关闭句柄时一并关闭的对象，如content uri的ParcelFileDescriptor
+     */
+    class Handle(val path: String, val channel: FileChannel, val writable: Boolean, private val closeable: Closeable?) : Closeable {
+        override fun close() {
+            try {
+                channel.close()
+            } finally {
+                closeable?.close()
+            }
+        }
+    }
+
+    private val handles = ConcurrentHashMap<Int, Handle>()
+    private val nextId = AtomicInteger(1)
+
+    /**
+     * 登记一个已打开的通道，超过上限时关闭通道并抛出异常，检查数量和登记在同一把锁内完成
+     *
+     * @return 句柄编号，从1开始
+     */
+    @Synchronized
+    fun add(handle: Handle): Int {
+        if (handles.size >= FILE_HANDLE_MAX_OPEN) {
+            handle.close()
+            throw IOException("too many open handles")
+        }
+        val id = nextId.getAndIncrement()
+        handles[id] = handle
+        return id
+    }
+
+    fun get(id: Int): Handle? {
+        return handles[id]
+    }
+
+    /**
+     * 从position读取最多length字节，到文件末尾时返回的数组短于length，空数组表示已在末尾
+     */
+    fun read(id: Int, position: Long, length: Int): ByteArray {
+        val handle = handles[id] ?: throw IOException("invalid handle: $id")
+        val buffer = ByteBuffer.allocate(length)
+        var offset = position
+        while (buffer.hasRemaining()) {
+            val read = handle.channel.read(buffer, offset)
+            if (read < 0) {
+                break
+            }
+            offset += read
+        }
+        return if (buffer.position() == length) buffer.array() else buffer.array().copyOf(buffer.position())
+    }
+
+    /**
+     * 在position写入data，position大于文件大小时中间补0
+     */
+    fun write(id: Int, position: Long, data: ByteArray, offset: Int = 0, length: Int = data.size - offset): Int {
+        val handle = handles[id] ?: throw IOException("invalid handle: $id")
+        if (!handle.writable) {
+            throw IOException("handle $id is read only")
+        }
+        val buffer = ByteBuffer.wrap(data, offset, length)
+        var writePosition = position
+        while (buffer.hasRemaining()) {
+            writePosition += handle.channel.write(buffer, writePosition)
+        }
+        return length
+    }
+
+    fun size(id: Int): Long {
+        val handle = handles[id] ?: throw IOException("invalid handle: $id")
+        return handle.channel.size()
+    }
+
+    fun close(id: Int): Boolean {
+        val handle = handles.remove(id) ?: return false
+        handle.close()
+        return true
+    }
+
+    fun closeAll() {
+        val ids = handles.keys.toList()
+        ids.forEach {
+            try {
+                close(it)
+            } catch (e: IOException) {
+                // 继续关闭其他句柄
+            }
+        }
+    }
+
+    fun openCount(): Int {
+        return handles.size
+    }
+}
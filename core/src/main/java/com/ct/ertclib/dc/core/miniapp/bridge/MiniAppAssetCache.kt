@@ -0,0 +1,62 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.bridge
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.ASSET_CACHE_MAX_BYTES
+
+/**
+ * 小程序资源文件的内存缓存，按总字节数做LRU淘汰，进程内共享。
+ * 缓存项记录文件的修改时间和大小，命中时由调用方用一次stat校验。
+ */
+class MiniAppAssetCache(private val maxBytes: Long = ASSET_CACHE_MAX_BYTES) {
+
+    companion object {
+        val instance: MiniAppAssetCache by lazy {
+            MiniAppAssetCache()
+        }
+    }
+
+    class Asset(val bytes: ByteArray, val lastModified: Long, val mimeType: String)
+
+    private val assets = LinkedHashMap<String, Asset>(64, 0.75f, true)
+    private var totalBytes = 0L
+
+    @Synchronized
+    fun get(path: String): Asset? = assets[path]
+
+    @Synchronized
+    fun put(path: String, asset: Asset) {
+        if (asset.bytes.size > maxBytes) {
+            return
+        }
+        assets.put(path, asset)?.let { totalBytes -= it.bytes.size }
+        totalBytes += asset.bytes.size
+        val iterator = assets.values.iterator()
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            totalBytes -= iterator.next().bytes.size
+            iterator.remove()
+        }
+    }
+
+    @Synchronized
+    fun remove(path: String) {
+        assets.remove(path)?.let { totalBytes -= it.bytes.size }
+    }
+
+    @Synchronized
+    fun size(): Long = totalBytes
+}
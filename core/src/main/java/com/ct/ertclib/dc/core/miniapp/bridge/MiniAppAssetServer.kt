@@ -0,0 +1,308 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.bridge
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.ASSET_CACHE_MAX_FILE_BYTES
+import com.ct.ertclib.dc.core.constants.CommonConstants.ASSET_PRELOAD_FILE_NAME
+import com.ct.ertclib.dc.core.constants.CommonConstants.ASSET_PRELOAD_MAX_COUNT
+import com.ct.ertclib.dc.core.constants.CommonConstants.INDEX_FILE_NAME
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_ASSET_ORIGIN
+import org.apache.commons.io.input.BoundedInputStream
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.net.URI
+import java.net.URISyntaxException
+import java.nio.file.Files
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * 小程序资源服务，在CTWebViewClient.shouldInterceptRequest中统一拦截小程序安装目录下的资源请求。
+ * 同时处理安装目录下的file://地址和虚拟https源[MINI_APP_ASSET_ORIGIN]，小文件读入内存缓存，
+ * 支持Range请求供音视频拖动，启动时按预加载清单提前读入首屏资源。
+ * 请求和响应不依赖Android类型，可在JVM上测试。
+ */
+class MiniAppAssetServer(rootDir: File, private val cache: MiniAppAssetCache = MiniAppAssetCache.instance) {
+
+    companion object {
+        private const val RANGE_PREFIX = "bytes="
+        private const val DEFAULT_MIME_TYPE = "application/octet-stream"
+        private val ORIGIN_PATH = URI(MINI_APP_ASSET_ORIGIN).path
+        private val REFERENCE_REGEX = Regex("""(?:src|href)\s*=\s*["']([^"'#?]+)""", RegexOption.IGNORE_CASE)
+        private val MIME_TYPES = mapOf(
+            "html" to "text/html",
+            "htm" to "text/html",
+            "js" to "text/javascript",
+            "mjs" to "text/javascript",
+            "css" to "text/css",
+            "json" to "application/json",
+            "map" to "application/json",
+            "txt" to "text/plain",
+            "xml" to "text/xml",
+            "svg" to "image/svg+xml",
+            "png" to "image/png",
+            "jpg" to "image/jpeg",
+            "jpeg" to "image/jpeg",
+            "gif" to "image/gif",
+            "webp" to "image/webp",
+            "ico" to "image/x-icon",
+            "woff" to "font/woff",
+            "woff2" to "font/woff2",
+            "ttf" to "font/ttf",
+            "otf" to "font/otf",
+            "wasm" to "application/wasm",
+            "mp3" to "audio/mpeg",
+            "m4a" to "audio/mp4",
+            "aac" to "audio/aac",
+            "wav" to "audio/wav",
+            "ogg" to "audio/ogg",
+            "mp4" to "video/mp4",
+            "webm" to "video/webm"
+        )
+
+        fun getMimeType(name: String): String {
+            return MIME_TYPES[name.substringAfterLast('.', "").lowercase()] ?: DEFAULT_MIME_TYPE
+        }
+
+        private fun getEncoding(mimeType: String): String? {
+            return if (mimeType.startsWith("text/") || mimeType == "application/json" || mimeType == "image/svg+xml") "utf-8" else null
+        }
+
+        /**
+         * 由index.html中引用的本地脚本、样式和图片生成预加载清单，按出现顺序排列
+         */
+        fun buildPreloadManifest(rootDir: File): List<String> {
+            val index = File(rootDir, INDEX_FILE_NAME)
+            if (!index.isFile) {
+                return emptyList()
+            }
+            val rootPath = rootDir.absoluteFile.normalize().path + File.separator
+            val result = LinkedHashSet<String>()
+            result.add(INDEX_FILE_NAME)
+            REFERENCE_REGEX.findAll(index.readText()).forEach { match ->
+                val reference = match.groupValues[1].trim()
+                if (reference.isEmpty() || reference.startsWith("//") || reference.contains(':')) {
+                    return@forEach
+                }
+                val file = File(rootDir, reference.removePrefix("./")).absoluteFile.normalize()
+                if (file.path.startsWith(rootPath) && file.isFile && file.length() <= ASSET_CACHE_MAX_FILE_BYTES) {
+                    result.add(file.path.substring(rootPath.length).replace(File.separatorChar, '/'))
+                }
+            }
+            return result.take(ASSET_PRELOAD_MAX_COUNT)
+        }
+
+        /**
+         * 安装时生成预加载清单，写入小程序目录
+         */
+        @Throws(IOException::class)
+        fun writePreloadManifest(rootDir: File) {
+            val manifestFile = File(rootDir, ASSET_PRELOAD_FILE_NAME)
+            // 增量安装时旧清单是指向旧版本的硬链接，先删除再写，不能改写共享的inode
+            manifestFile.delete()
+            val manifest = buildPreloadManifest(rootDir)
+            if (manifest.isNotEmpty()) {
+                manifestFile.writeText(manifest.joinToString("\n"))
+            }
+        }
+    }
+
+    class AssetRequest(val url: String, val method: String = "GET", val headers: Map<String, String> = emptyMap())
+
+    class AssetResponse(
+        val status: Int,
+        val reason: String,
+        val mimeType: String,
+        val encoding: String?,
+        val headers: Map<String, String>,
+        val body: InputStream
+    )
+
+    private class Range(val start: Long, val end: Long)
+
+    private val root = rootDir.absoluteFile.normalize()
+    private val rootPath = root.path + File.separator
+    private val unsatisfiable = Range(-1, -1)
+
+    /**
+     * 处理一个请求，不属于本小程序的请求返回null由WebView自行加载。
+     * 虚拟源下的请求一律在这里应答，找不到文件时返回404，避免请求发到网络
+     */
+    fun serve(request: AssetRequest): AssetResponse? {
+        val uri = try {
+            URI(request.url)
+        } catch (e: URISyntaxException) {
+            return null
+        }
+        val path = uri.path ?: return null
+        val isVirtual = request.url.startsWith(MINI_APP_ASSET_ORIGIN)
+        val relative = when {
+            isVirtual -> path.removePrefix(ORIGIN_PATH)
+            "file".equals(uri.scheme, true) && path.startsWith(rootPath) -> path.substring(rootPath.length)
+            else -> return null
+        }
+        val file = File(root, if (relative.isEmpty() || relative.endsWith("/")) relative + INDEX_FILE_NAME else relative).normalize()
+        if (!file.path.startsWith(rootPath)) {
+            return if (isVirtual) error(404, "Not Found") else null
+        }
+        val isHead = request.method.equals("HEAD", true)
+        if (!isHead && !request.method.equals("GET", true)) {
+            return if (isVirtual) error(405, "Method Not Allowed") else null
+        }
+        return try {
+            respond(file, request, isHead)
+        } catch (e: IOException) {
+            if (isVirtual) error(404, "Not Found") else null
+        }
+    }
+
+    /**
+     * 按预加载清单把首屏资源读入缓存，返回读入的文件数
+     */
+    fun preload(): Int {
+        val manifestFile = File(root, ASSET_PRELOAD_FILE_NAME)
+        val manifest = if (manifestFile.isFile) {
+            manifestFile.readLines().filter { it.isNotBlank() }.take(ASSET_PRELOAD_MAX_COUNT)
+        } else {
+            buildPreloadManifest(root)
+        }
+        var count = 0
+        manifest.forEach { name ->
+            val file = File(root, name.trim()).normalize()
+            if (!file.path.startsWith(rootPath)) {
+                return@forEach
+            }
+            try {
+                val attrs = Files.readAttributes(file.toPath(), BasicFileAttributes::class.java)
+                if (attrs.isRegularFile && load(file, attrs) != null) {
+                    count++
+                }
+            } catch (e: IOException) {
+                // 清单中的文件可能已被删除
+            }
+        }
+        return count
+    }
+
+    private fun respond(file: File, request: AssetRequest, isHead: Boolean): AssetResponse {
+        // 一次stat同时判断文件是否存在和校验缓存
+        val attrs = Files.readAttributes(file.toPath(), BasicFileAttributes::class.java)
+        if (!attrs.isRegularFile) {
+            throw IOException("not a file: $file")
+        }
+        val asset = load(file, attrs)
+        val mimeType = asset?.mimeType ?: getMimeType(file.name)
+        val length = asset?.bytes?.size?.toLong() ?: attrs.size()
+        val range = parseRange(getHeader(request.headers, "Range"), length)
+        if (range === unsatisfiable) {
+            return AssetResponse(416, "Range Not Satisfiable", mimeType, null,
+                mapOf("Content-Range" to "bytes */$length"), ByteArrayInputStream(ByteArray(0)))
+        }
+        val start = range?.start ?: 0L
+        val count = if (range != null) range.end - range.start + 1 else length
+        val headers = LinkedHashMap<String, String>()
+        headers["Accept-Ranges"] = "bytes"
+        headers["Content-Length"] = count.toString()
+        if (range != null) {
+            headers["Content-Range"] = "bytes ${range.start}-${range.end}/$length"
+        }
+        val body = when {
+            isHead -> ByteArrayInputStream(ByteArray(0))
+            asset != null -> ByteArrayInputStream(asset.bytes, start.toInt(), count.toInt())
+            else -> openRange(file, start, count)
+        }
+        return if (range != null) {
+            AssetResponse(206, "Partial Content", mimeType, getEncoding(mimeType), headers, body)
+        } else {
+            AssetResponse(200, "OK", mimeType, getEncoding(mimeType), headers, body)
+        }
+    }
+
+    /**
+     * 取缓存的文件内容，缓存失效时重新读入；超过单文件缓存上限的文件返回null，由调用方直接读文件
+     */
+    private fun load(file: File, attrs: BasicFileAttributes): MiniAppAssetCache.Asset? {
+        val lastModified = attrs.lastModifiedTime().toMillis()
+        cache.get(file.path)?.let {
+            if (it.lastModified == lastModified && it.bytes.size.toLong() == attrs.size()) {
+                return it
+            }
+            cache.remove(file.path)
+        }
+        if (attrs.size() > ASSET_CACHE_MAX_FILE_BYTES) {
+            return null
+        }
+        val asset = MiniAppAssetCache.Asset(Files.readAllBytes(file.toPath()), lastModified, getMimeType(file.name))
+        cache.put(file.path, asset)
+        return asset
+    }
+
+    private fun openRange(file: File, start: Long, count: Long): InputStream {
+        val input = FileInputStream(file)
+        try {
+            input.channel.position(start)
+        } catch (e: IOException) {
+            input.close()
+            throw e
+        }
+        return BoundedInputStream(input, count)
+    }
+
+    /**
+     * 只支持单个区间，多区间请求按整个文件应答
+     */
+    private fun parseRange(header: String?, length: Long): Range? {
+        if (header == null || !header.trim().startsWith(RANGE_PREFIX) || header.contains(',')) {
+            return null
+        }
+        val spec = header.trim().substring(RANGE_PREFIX.length).trim()
+        val dash = spec.indexOf('-')
+        if (dash < 0) {
+            return null
+        }
+        val first = spec.substring(0, dash).trim()
+        val last = spec.substring(dash + 1).trim()
+        return try {
+            if (first.isEmpty()) {
+                // 后缀区间：最后n个字节
+                val suffix = last.toLong()
+                if (suffix <= 0 || length == 0L) unsatisfiable else Range(maxOf(0L, length - suffix), length - 1)
+            } else {
+                val start = first.toLong()
+                val end = if (last.isEmpty()) Long.MAX_VALUE else last.toLong()
+                when {
+                    // 结束位置小于起始位置的区间无效，忽略Range头
+                    end < start -> null
+                    start >= length -> unsatisfiable
+                    else -> Range(start, minOf(end, length - 1))
+                }
+            }
+        } catch (e: NumberFormatException) {
+            null
+        }
+    }
+
+    private fun getHeader(headers: Map<String, String>, name: String): String? {
+        return headers.entries.firstOrNull { it.key.equals(name, true) }?.value
+    }
+
+    private fun error(status: Int, reason: String): AssetResponse {
+        return AssetResponse(status, reason, "text/plain", "utf-8", emptyMap(), ByteArrayInputStream(ByteArray(0)))
+    }
+}
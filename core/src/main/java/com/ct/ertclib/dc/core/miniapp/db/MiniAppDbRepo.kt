@@ -17,9 +17,11 @@
 package com.ct.ertclib.dc.core.miniapp.db
 
 import com.ct.ertclib.dc.core.common.NewCallDatabase
+import com.ct.ertclib.dc.core.data.model.MiniAppIndexEntity
 import com.ct.ertclib.dc.core.data.model.MiniAppInfo
+import com.ct.ertclib.dc.core.miniapp.MiniAppIndex
 
-class MiniAppDbRepo {
+class MiniAppDbRepo : MiniAppIndex.Storage {
 
     private val miniAppInfoDao = NewCallDatabase.getInstance().miniAppDao()
 
@@ -30,4 +32,16 @@ class MiniAppDbRepo {
     fun getAll(): List<MiniAppInfo>{
         return miniAppInfoDao.getAll()
     }
-}
\ No newline at end of file
+
+    override fun loadAll(): List<MiniAppIndexEntity> {
+        return miniAppInfoDao.getAllIndexes()
+    }
+
+    override fun save(index: MiniAppIndexEntity) {
+        miniAppInfoDao.upsertIndex(index)
+    }
+
+    override fun delete(appId: String) {
+        miniAppInfoDao.deleteIndex(appId)
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.db
+
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.PriorityQueue
+import java.util.zip.CRC32
+
+/**
+ * 小程序键值存储，单个小程序一个文件。
+ *
+ * 文件为内存映射的追加日志：8字节文件头之后依次是记录，
+ * 每条记录为 crc(4) + type(1) + keyLen(4) + valueLen(4) + expiry(8) + key + value，crc覆盖type之后的全部字节。
+ * 写入只追加一条记录，进程被杀时已写入映射内存的数据由系统落盘；打开时逐条校验crc，
+ * 遇到不完整或损坏的记录即截断并清零之后的内容。
+ * 空间不足时把有效数据重写到临时文件再rename替换，重写过程中崩溃不影响原文件。
+ * 数据全部缓存在内存中，读取不访问文件；过期时间用最小堆索引，读取时惰性淘汰，另由调用方定时调用[evictExpired]。
+ * 同一文件同一时间只能由一个进程打开。
+ */
+class MiniAppKvStore(
+    private val file: File,
+    private val clock: () -> Long = System::currentTimeMillis
+) : Closeable {
+
+    companion object {
+        const val NO_EXPIRY = 0L
+        const val MIN_CAPACITY = 16 * 1024
+
+        private const val MAGIC = 0x4D4B5631 // MKV1
+        private const val VERSION = 1
+        private const val HEADER_SIZE = 8
+        private const val RECORD_HEADER_SIZE = 4 + 1 + 4 + 4 + 8
+        private const val TYPE_PUT: Byte = 1
+        private const val TYPE_DELETE: Byte = 2
+        private const val TMP_SUFFIX = ".tmp"
+    }
+
+    private class Entry(val value: String, val expiry: Long, val size: Int)
+
+    private class ExpiryItem(val key: String, val expiry: Long)
+
+    private val entries = HashMap<String, Entry>()
+    private val expiryQueue = PriorityQueue<ExpiryItem>(11) { a, b -> a.expiry.compareTo(b.expiry) }
+    private val crc = CRC32()
+    private lateinit var channel: FileChannel
+    private lateinit var buffer: MappedByteBuffer
+    private var position = HEADER_SIZE
+    private var liveBytes = 0L
+
+    /**
+     * 打开时因记录损坏被丢弃的字节数
+     */
+    var recoveredDroppedBytes = 0
+        private set
+
+    init {
+        open()
+    }
+
+    @Synchronized
+    fun get(key: String): String? {
+        val entry = entries[key] ?: return null
+        if (isExpired(entry.expiry, clock())) {
+            // 过期记录在下次重写时丢弃，这里只从内存中移除
+            entries.remove(key)
+            liveBytes -= entry.size
+            return null
+        }
+        return entry.value
+    }
+
+    @Synchronized
+    fun put(key: String, value: String, expiry: Long = NO_EXPIRY) {
+        val record = encode(TYPE_PUT, key.toByteArray(), value.toByteArray(), expiry)
+        append(record)
+        entries.put(key, Entry(value, expiry, record.size))?.let { liveBytes -= it.size }
+        liveBytes += record.size
+        if (expiry != NO_EXPIRY) {
+            expiryQueue.add(ExpiryItem(key, expiry))
+        }
+    }
+
+    @Synchronized
+    fun remove(key: String) {
+        val entry = entries.remove(key) ?: return
+        liveBytes -= entry.size
+        append(encode(TYPE_DELETE, key.toByteArray(), ByteArray(0), NO_EXPIRY))
+    }
+
+    @Synchronized
+    fun size(): Int {
+        return entries.size
+    }
+
+    /**
+     * 淘汰已过期的键，无效数据超过一半时顺带重写文件
+     *
+     * @return 淘汰的键数
+     */
+    @Synchronized
+    fun evictExpired(): Int {
+        val now = clock()
+        var count = 0
+        while (true) {
+            val item = expiryQueue.peek() ?: break
+            if (!isExpired(item.expiry, now)) {
+                break
+            }
+            expiryQueue.poll()
+            val entry = entries[item.key]
+            // 键被覆盖或删除后堆里的旧项失效，直接丢弃
+            if (entry != null && entry.expiry == item.expiry) {
+                entries.remove(item.key)
+                liveBytes -= entry.size
+                count++
+            }
+        }
+        if (position - HEADER_SIZE - liveBytes > liveBytes && position > MIN_CAPACITY / 2) {
+            rewrite(capacityFor(0))
+        }
+        return count
+    }
+
+    /**
+     * 最近的过期时间，没有带过期时间的键时返回null
+     */
+    @Synchronized
+    fun nextExpiry(): Long? {
+        while (true) {
+            val item = expiryQueue.peek() ?: return null
+            if (entries[item.key]?.expiry == item.expiry) {
+                return item.expiry
+            }
+            expiryQueue.poll()
+        }
+    }
+
+    /**
+     * 把有效数据重写到新文件，丢弃被覆盖、删除和过期的记录
+     */
+    @Synchronized
+    fun compact() {
+        rewrite(capacityFor(0))
+    }
+
+    /**
+     * 文件大小，主要用于观察重写效果
+     */
+    @Synchronized
+    fun fileSize(): Int {
+        return buffer.capacity()
+    }
+
+    /**
+     * 强制落盘，只防掉电，进程崩溃不需要调用
+     */
+    @Synchronized
+    fun sync() {
+        buffer.force()
+    }
+
+    @Synchronized
+    override fun close() {
+        channel.close()
+    }
+
+    private fun open() {
+        // rename之前崩溃留下的临时文件，原文件仍然完整
+        File(file.path + TMP_SUFFIX).delete()
+        file.parentFile?.mkdirs()
+        map(file, 0)
+        if (buffer.getInt(0) != MAGIC) {
+            // 新文件或文件头损坏，按空文件处理
+            zeroFill(0)
+            buffer.putInt(0, MAGIC)
+            buffer.putInt(4, VERSION)
+            return
+        }
+        recover()
+    }
+
+    private fun recover() {
+        val now = clock()
+        var offset = HEADER_SIZE
+        val capacity = buffer.capacity()
+        var corrupted = false
+        while (offset + RECORD_HEADER_SIZE <= capacity) {
+            val type = buffer.get(offset + 4)
+            if (type == 0.toByte() && buffer.getInt(offset) == 0) {
+                break
+            }
+            val keyLength = buffer.getInt(offset + 5)
+            val valueLength = buffer.getInt(offset + 9)
+            val size = RECORD_HEADER_SIZE.toLong() + keyLength + valueLength
+            if ((type != TYPE_PUT && type != TYPE_DELETE) || keyLength < 0 || valueLength < 0
+                || offset + size > capacity) {
+                corrupted = true
+                break
+            }
+            val record = ByteArray(size.toInt())
+            buffer.position(offset)
+            buffer.get(record)
+            crc.reset()
+            crc.update(record, 4, record.size - 4)
+            if (ByteBuffer.wrap(record).getInt(0) != crc.value.toInt()) {
+                corrupted = true
+                break
+            }
+            apply(record, keyLength, valueLength, now)
+            offset += record.size
+        }
+        position = offset
+        if (corrupted) {
+            // 清零损坏位置之后的内容，避免之后追加的短记录后面残留旧数据
+            recoveredDroppedBytes = capacity - offset
+            zeroFill(offset)
+        }
+    }
+
+    private fun apply(record: ByteArray, keyLength: Int, valueLength: Int, now: Long) {
+        val recordBuffer = ByteBuffer.wrap(record)
+        val type = recordBuffer.get(4)
+        val expiry = recordBuffer.getLong(13)
+        val key = String(record, RECORD_HEADER_SIZE, keyLength)
+        entries.remove(key)?.let { liveBytes -= it.size }
+        if (type == TYPE_PUT && !isExpired(expiry, now)) {
+            val value = String(record, RECORD_HEADER_SIZE + keyLength, valueLength)
+            entries[key] = Entry(value, expiry, record.size)
+            liveBytes += record.size
+            if (expiry != NO_EXPIRY) {
+                expiryQueue.add(ExpiryItem(key, expiry))
+            }
+        }
+    }
+
+    private fun append(record: ByteArray) {
+        if (position + record.size > buffer.capacity()) {
+            rewrite(capacityFor(record.size))
+        }
+        buffer.position(position)
+        buffer.put(record)
+        position += record.size
+    }
+
+    /**
+     * 重写后至少保留一半空闲空间，保证追加的均摊开销
+     */
+    private fun capacityFor(extra: Int): Int {
+        val need = HEADER_SIZE + liveBytes + extra
+        var capacity = MIN_CAPACITY.toLong()
+        while (capacity < need * 2) {
+            capacity = capacity shl 1
+        }
+        if (capacity > Int.MAX_VALUE) {
+            throw IOException("kv store too large: $need")
+        }
+        return capacity.toInt()
+    }
+
+    private fun rewrite(capacity: Int) {
+        val now = clock()
+        val tmp = File(file.path + TMP_SUFFIX)
+        tmp.delete()
+        RandomAccessFile(tmp, "rw").use { raf ->
+            raf.setLength(capacity.toLong())
+            val tmpBuffer = raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity.toLong())
+            tmpBuffer.putInt(MAGIC)
+            tmpBuffer.putInt(VERSION)
+            val iterator = entries.entries.iterator()
+            liveBytes = 0
+            while (iterator.hasNext()) {
+                val (key, entry) = iterator.next()
+                if (isExpired(entry.expiry, now)) {
+                    iterator.remove()
+                    continue
+                }
+                val record = encode(TYPE_PUT, key.toByteArray(), entry.value.toByteArray(), entry.expiry)
+                tmpBuffer.put(record)
+                liveBytes += record.size
+            }
+            position = tmpBuffer.position()
+            tmpBuffer.force()
+        }
+        channel.close()
+        if (!tmp.renameTo(file)) {
+            throw IOException("rename ${tmp.path} failed")
+        }
+        map(file, capacity)
+        expiryQueue.removeAll { entries[it.key]?.expiry != it.expiry }
+    }
+
+    private fun map(target: File, capacity: Int) {
+        val raf = RandomAccessFile(target, "rw")
+        val length = maxOf(raf.length(), capacity.toLong(), MIN_CAPACITY.toLong())
+        if (raf.length() < length) {
+            raf.setLength(length)
+        }
+        channel = raf.channel
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length)
+    }
+
+    private fun encode(type: Byte, key: ByteArray, value: ByteArray, expiry: Long): ByteArray {
+        val record = ByteArray(RECORD_HEADER_SIZE + key.size + value.size)
+        ByteBuffer.wrap(record)
+            .putInt(0)
+            .put(type)
+            .putInt(key.size)
+            .putInt(value.size)
+            .putLong(expiry)
+            .put(key)
+            .put(value)
+        crc.reset()
+        crc.update(record, 4, record.size - 4)
+        ByteBuffer.wrap(record).putInt(0, crc.value.toInt())
+        return record
+    }
+
+    private fun zeroFill(from: Int) {
+        val zeros = ByteArray(4096)
+        buffer.position(from)
+        while (buffer.remaining() > 0) {
+            buffer.put(zeros, 0, minOf(zeros.size, buffer.remaining()))
+        }
+    }
+
+    private fun isExpired(expiry: Long, now: Long): Boolean {
+        return expiry != NO_EXPIRY && expiry <= now
+    }
+}
@@ -42,6 +42,10 @@ class PermissionDbRepo: IPermissionDbRepo {
         permissionInfoDao.insertPermissionUsage(permissionUsage)
     }
 
+    override fun insertPermissionUsages(permissionUsages: List<PermissionUsageEntity>) {
+        permissionInfoDao.insertPermissionUsages(permissionUsages)
+    }
+
     override fun getPermissionUsageById(appId: String): MutableList<PermissionUsageEntity> {
         return permissionInfoDao.getPermissionUsageByAppId(appId)
     }
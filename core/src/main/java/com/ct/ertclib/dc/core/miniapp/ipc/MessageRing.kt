@@ -0,0 +1,230 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.ipc
+
+import android.os.Build
+import androidx.annotation.RequiresApi
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.VarHandle
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * 跨进程共享内存上的单生产者、单消费者消息环，小程序进程写入，MiniAppService所在进程读出。
+ *
+ * 内存布局：[HEADER_SIZE]字节的头部之后是数据区，头部依次为magic、数据区大小、关闭标记，
+ * 写位置tail、读位置head和消费者空闲标记各占一个缓存行。tail和head为累计字节数，对数据区大小取模得到偏移。
+ * 每帧为 payload长度(4) + 类型(4) + payload，按8字节对齐；帧放不下数据区末尾的剩余空间时，
+ * 先写一个填满剩余空间的填充帧再从头写。
+ * 生产者写完帧后才更新tail，消费者读完帧后更新head。头部中的tail、head、空闲标记和关闭标记
+ * 都通过VarHandle做volatile读写，屏障作用在共享内存的地址上，另一进程同样能看到帧内容先于tail写入；
+ * 对象字段上的volatile读写不能保证这一点。VarHandle的ByteBuffer视图需要API 33，更低版本不使用消息环。
+ * 消费者处理完所有消息后置空闲标记，生产者写入后看到空闲标记才需要唤醒消费者，消费者处理期间写入的消息不再唤醒。
+ * 数据区大小只在创建和打开时读取并校验一次，之后另一进程改写头部也不会越界访问。
+ * 数据区内容来自另一进程，读取时校验帧长度，不合法时抛出[IllegalStateException]。
+ * 写入和读取各自需要由调用方保证单线程。
+ */
+@RequiresApi(Build.VERSION_CODES.TIRAMISU)
+class MessageRing private constructor(private val buffer: ByteBuffer, private val capacity: Int) {
+
+    companion object {
+        const val HEADER_SIZE = 256
+        private const val MAGIC = 0x4D525231 // MRR1
+        private const val OFFSET_MAGIC = 0
+        private const val OFFSET_CAPACITY = 4
+        private const val OFFSET_CLOSED = 8
+        private const val OFFSET_TAIL = 64
+        private const val OFFSET_HEAD = 128
+        private const val OFFSET_WAITING = 192
+        private const val FRAME_HEADER_SIZE = 8
+        private const val FRAME_ALIGN = 8
+        private const val TYPE_MESSAGE = 1
+        private const val TYPE_PADDING = 2
+
+        // 两个进程中的CPU字节序相同
+        private val LONG_VIEW: VarHandle = MethodHandles.byteBufferViewVarHandle(LongArray::class.java, ByteOrder.nativeOrder())
+        private val INT_VIEW: VarHandle = MethodHandles.byteBufferViewVarHandle(IntArray::class.java, ByteOrder.nativeOrder())
+
+        /**
+         * 在[buffer]上初始化一个新的消息环，数据区大小为buffer大小减去头部后按8字节向下取整
+         */
+        fun create(buffer: ByteBuffer): MessageRing {
+            val capacity = (buffer.capacity() - HEADER_SIZE) / FRAME_ALIGN * FRAME_ALIGN
+            require(capacity >= FRAME_ALIGN * 4) { "buffer too small: ${buffer.capacity()}" }
+            val ring = MessageRing(nativeOrder(buffer), capacity)
+            ring.buffer.putInt(OFFSET_CAPACITY, capacity)
+            ring.buffer.putInt(OFFSET_CLOSED, 0)
+            ring.buffer.putLong(OFFSET_TAIL, 0L)
+            ring.buffer.putLong(OFFSET_HEAD, 0L)
+            ring.buffer.putInt(OFFSET_WAITING, 1)
+            // 最后写magic，打开方读到magic时其余头部字段都已可见
+            ring.setVolatileInt(OFFSET_MAGIC, MAGIC)
+            return ring
+        }
+
+        /**
+         * 打开另一进程已初始化的消息环
+         */
+        fun attach(buffer: ByteBuffer): MessageRing {
+            nativeOrder(buffer)
+            require(buffer.capacity() >= HEADER_SIZE && INT_VIEW.getVolatile(buffer, OFFSET_MAGIC) as Int == MAGIC) {
+                "not a message ring"
+            }
+            val capacity = buffer.getInt(OFFSET_CAPACITY)
+            require(capacity >= FRAME_ALIGN * 4 && capacity % FRAME_ALIGN == 0 && capacity <= buffer.capacity() - HEADER_SIZE) {
+                "invalid capacity: $capacity"
+            }
+            return MessageRing(buffer, capacity)
+        }
+
+        private fun nativeOrder(buffer: ByteBuffer): ByteBuffer = buffer.order(ByteOrder.nativeOrder())
+
+        private fun align(size: Int): Int = (size + FRAME_ALIGN - 1) / FRAME_ALIGN * FRAME_ALIGN
+    }
+
+    /**
+     * 能写入的最大payload长度，更大的消息由调用方走其他通道
+     */
+    val maxPayloadSize: Int
+        get() = capacity / 2 - FRAME_HEADER_SIZE
+
+    val isClosed: Boolean
+        get() = getVolatileInt(OFFSET_CLOSED) != 0
+
+    fun isEmpty(): Boolean {
+        return getVolatileLong(OFFSET_TAIL) == getVolatileLong(OFFSET_HEAD)
+    }
+
+    /**
+     * 标记为关闭，之后生产者写入都返回false
+     */
+    fun markClosed() {
+        setVolatileInt(OFFSET_CLOSED, 1)
+    }
+
+    /**
+     * 写入一帧，空间不足、消息过大或已关闭时返回false
+     */
+    fun write(payload: ByteArray): Boolean {
+        if (payload.size > maxPayloadSize || isClosed) {
+            return false
+        }
+        val frameSize = align(FRAME_HEADER_SIZE + payload.size)
+        val tail = getVolatileLong(OFFSET_TAIL)
+        // 读到head之后，消费者对已释放空间的读取都已完成
+        val head = getVolatileLong(OFFSET_HEAD)
+        val used = tail - head
+        if (used < 0 || used > capacity) {
+            return false
+        }
+        val offset = (tail % capacity).toInt()
+        val contiguous = capacity - offset
+        val padding = if (frameSize > contiguous) contiguous else 0
+        if (capacity - used < padding + frameSize) {
+            return false
+        }
+        if (padding > 0) {
+            putFrameHeader(offset, padding - FRAME_HEADER_SIZE, TYPE_PADDING)
+        }
+        val frameOffset = ((tail + padding) % capacity).toInt()
+        putFrameHeader(frameOffset, payload.size, TYPE_MESSAGE)
+        val data = buffer.duplicate()
+        data.position(HEADER_SIZE + frameOffset + FRAME_HEADER_SIZE)
+        data.put(payload)
+        // 帧内容先于tail对消费者可见
+        setVolatileLong(OFFSET_TAIL, tail + padding + frameSize)
+        return true
+    }
+
+    /**
+     * 生产者写入后调用，消费者空闲时清除空闲标记并返回true，调用方需要唤醒消费者
+     */
+    fun takeWakeup(): Boolean {
+        return INT_VIEW.compareAndSet(buffer, OFFSET_WAITING, 1, 0) as Boolean
+    }
+
+    /**
+     * 读出当前所有消息，每读出一帧先更新head再交给[handler]
+     *
+     * @return 读出的消息数
+     */
+    fun drain(handler: (ByteArray) -> Unit): Int {
+        // 读到tail之后，生产者在tail之前写入的帧内容都已可见
+        val tail = getVolatileLong(OFFSET_TAIL)
+        var head = getVolatileLong(OFFSET_HEAD)
+        check(tail - head in 0..capacity) { "invalid positions head:$head, tail:$tail" }
+        var count = 0
+        while (head < tail) {
+            val offset = (head % capacity).toInt()
+            val contiguous = capacity - offset
+            val length = buffer.getInt(HEADER_SIZE + offset)
+            val type = buffer.getInt(HEADER_SIZE + offset + 4)
+            check(length >= 0 && length <= contiguous - FRAME_HEADER_SIZE) { "invalid frame length:$length at $head" }
+            val frameSize = align(FRAME_HEADER_SIZE + length)
+            check(head + frameSize <= tail) { "frame beyond tail at $head" }
+            var payload: ByteArray? = null
+            when (type) {
+                TYPE_MESSAGE -> {
+                    payload = ByteArray(length)
+                    val data = buffer.duplicate()
+                    data.position(HEADER_SIZE + offset + FRAME_HEADER_SIZE)
+                    data.get(payload)
+                }
+                TYPE_PADDING -> check(frameSize == contiguous) { "invalid padding at $head" }
+                else -> throw IllegalStateException("invalid frame type:$type at $head")
+            }
+            head += frameSize
+            // 帧已读完，之后生产者才能覆盖这段空间
+            setVolatileLong(OFFSET_HEAD, head)
+            if (payload != null) {
+                count++
+                handler(payload)
+            }
+        }
+        return count
+    }
+
+    /**
+     * 消费者处理完消息准备空闲时调用，置空闲标记后仍有未读消息时返回false，调用方应继续读取
+     */
+    fun prepareToWait(): Boolean {
+        // 与生产者写tail后读空闲标记对应，两侧都是volatile读写，至少一侧能看到另一侧的写入
+        setVolatileInt(OFFSET_WAITING, 1)
+        if (getVolatileLong(OFFSET_TAIL) != getVolatileLong(OFFSET_HEAD)) {
+            setVolatileInt(OFFSET_WAITING, 0)
+            return false
+        }
+        return true
+    }
+
+    private fun putFrameHeader(offset: Int, length: Int, type: Int) {
+        buffer.putInt(HEADER_SIZE + offset, length)
+        buffer.putInt(HEADER_SIZE + offset + 4, type)
+    }
+
+    private fun getVolatileLong(offset: Int): Long = LONG_VIEW.getVolatile(buffer, offset) as Long
+
+    private fun setVolatileLong(offset: Int, value: Long) {
+        LONG_VIEW.setVolatile(buffer, offset, value)
+    }
+
+    private fun getVolatileInt(offset: Int): Int = INT_VIEW.getVolatile(buffer, offset) as Int
+
+    private fun setVolatileInt(offset: Int, value: Int) {
+        INT_VIEW.setVolatile(buffer, offset, value)
+    }
+}
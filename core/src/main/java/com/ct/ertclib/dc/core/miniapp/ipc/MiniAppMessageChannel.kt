@@ -0,0 +1,122 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.ipc
+
+import android.os.Build
+import android.os.SharedMemory
+import android.system.ErrnoException
+import androidx.annotation.RequiresApi
+import com.ct.ertclib.dc.core.utils.logger.Logger
+import java.io.Closeable
+import java.nio.ByteBuffer
+
+/**
+ * 小程序进程到MiniAppService的共享内存消息通道，每个小程序一个。
+ * MiniAppService在小程序注册回调后创建，通过AIDL把SharedMemory交给小程序进程。
+ * 小程序发送不需要回复的消息时写入[MessageRing]，MiniAppService空闲时才通过oneway AIDL唤醒，
+ * 一次唤醒读出期间写入的所有消息；消息环已满、消息过大或需要回复时仍走AIDL。
+ * 消息环的跨进程内存屏障需要API 33，更低版本不创建通道，全部走AIDL。
+ * 关闭后解除映射，读写都在同一把锁内进行，不会访问已解除映射的内存。
+ */
+@RequiresApi(Build.VERSION_CODES.TIRAMISU)
+class MiniAppMessageChannel private constructor(
+    val sharedMemory: SharedMemory,
+    private val buffer: ByteBuffer,
+    private val ring: MessageRing
+) : Closeable {
+
+    companion object {
+        private const val TAG = "MiniAppMessageChannel"
+        private val sLogger: Logger = Logger.getLogger(TAG)
+
+        /**
+         * MiniAppService创建通道，[capacity]为数据区大小
+         */
+        @Throws(ErrnoException::class)
+        fun create(name: String, capacity: Int): MiniAppMessageChannel {
+            val sharedMemory = SharedMemory.create(name, MessageRing.HEADER_SIZE + capacity)
+            try {
+                val buffer = sharedMemory.mapReadWrite()
+                return MiniAppMessageChannel(sharedMemory, buffer, MessageRing.create(buffer))
+            } catch (e: ErrnoException) {
+                sharedMemory.close()
+                throw e
+            }
+        }
+
+        /**
+         * 小程序进程打开MiniAppService创建的通道，内存内容不是消息环时抛出IllegalArgumentException
+         */
+        @Throws(ErrnoException::class)
+        fun attach(sharedMemory: SharedMemory): MiniAppMessageChannel {
+            val buffer = sharedMemory.mapReadWrite()
+            try {
+                return MiniAppMessageChannel(sharedMemory, buffer, MessageRing.attach(buffer))
+            } catch (e: IllegalArgumentException) {
+                SharedMemory.unmap(buffer)
+                throw e
+            }
+        }
+    }
+
+    private var isClosed = false
+
+    /**
+     * 写入一条消息，需要唤醒MiniAppService时调用[doorbell]。返回false时调用方改走AIDL
+     */
+    fun send(message: String, doorbell: () -> Unit): Boolean {
+        val wakeup = synchronized(this) {
+            if (isClosed || !ring.write(message.toByteArray())) {
+                return false
+            }
+            ring.takeWakeup()
+        }
+        if (wakeup) {
+            doorbell()
+        }
+        return true
+    }
+
+    /**
+     * 读出所有消息直到消息环为空，读取时出现任何运行时异常都按数据损坏处理并关闭通道，之后小程序改走AIDL
+     */
+    @Synchronized
+    fun drain(handler: (String) -> Unit) {
+        if (isClosed) {
+            return
+        }
+        try {
+            do {
+                ring.drain { handler(it.decodeToString()) }
+            } while (!ring.prepareToWait())
+        } catch (e: RuntimeException) {
+            sLogger.error("drain failed, close channel", e)
+            close()
+        }
+    }
+
+    @Synchronized
+    override fun close() {
+        if (isClosed) {
+            return
+        }
+        isClosed = true
+        ring.markClosed()
+        SharedMemory.unmap(buffer)
+        sharedMemory.close()
+    }
+}
@@ -36,7 +36,6 @@ import android.view.ViewGroup
 import android.view.WindowManager.LayoutParams
 import android.webkit.DownloadListener
 import android.webkit.URLUtil
-import android.webkit.WebSettings
 import android.webkit.WebView
 import androidx.annotation.RequiresApi
 import androidx.appcompat.app.AppCompatActivity
@@ -50,9 +49,11 @@ import com.blankj.utilcode.util.SizeUtils
 import com.ct.ertclib.dc.core.R
 import com.ct.ertclib.dc.core.common.NewCallAppSdkInterface
 import com.ct.ertclib.dc.core.constants.CommonConstants
+import com.ct.ertclib.dc.core.miniapp.MiniAppWebViewPool
 import com.ct.ertclib.dc.core.miniapp.bridge.CTWebChromeClient
 import com.ct.ertclib.dc.core.miniapp.bridge.CTWebViewClient
 import com.ct.ertclib.dc.core.miniapp.bridge.JSApi
+import com.ct.ertclib.dc.core.miniapp.bridge.MiniAppAssetServer
 import com.ct.ertclib.dc.core.data.model.MiniAppInfo
 import com.ct.ertclib.dc.core.databinding.ActivityMiniAppBinding
 import com.ct.ertclib.dc.core.utils.common.BitmapUtils
@@ -94,6 +95,7 @@ import com.ct.ertclib.dc.core.utils.common.PkgUtils
 import androidx.core.view.ViewCompat
 import androidx.core.view.WindowInsetsCompat
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.FUNCTION_IME_HEIGHT_NOTIFY
+import java.io.File
 
 open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
 
@@ -109,6 +111,11 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
     override var callInfo: CallInfo? = null
     override var miniAppListInfo: MiniAppList? = null
     private lateinit var binding: ActivityMiniAppBinding
+    private lateinit var webView: DWebView
+    // 小程序资源服务，在WebView的IO线程中使用
+    @Volatile
+    var assetServer: MiniAppAssetServer? = null
+        private set
     private var onPickMediaCallbackListener: OnPickMediaCallbackListener? = null
     private var callState = Call.STATE_DISCONNECTED
     private var miniAppDbRepo:MiniAppDbRepo? = null
@@ -145,6 +152,8 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
         supportActionBar?.hide()
         miniToParentManager.miniAppInterface = this
         handleIntent(intent)
+        // 尽早加载权限快照，小程序调用接口检查权限时不再查库
+        miniApp?.appId?.let { viewModel.preloadPermission(it) }
         initView()
 
         miniApp?.let {
@@ -267,8 +276,21 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
         }
 
 
-        binding.webView.let {
-            setWebViewSettings(it)
+        miniApp?.path?.let { path ->
+            val server = MiniAppAssetServer(File(path))
+            assetServer = server
+            // 等待服务连接的同时预加载首屏资源
+            lifecycleScope.launch(Dispatchers.IO) {
+                val count = server.preload()
+                sLogger.info("initView preload assets:$count")
+            }
+        }
+        webView = MiniAppWebViewPool.take(this)?.also {
+            sLogger.info("initView use warm webView")
+            replaceWebView(it)
+        } ?: binding.webView
+        webView.let {
+            MiniAppWebViewPool.applySettings(it)
             it.setBackgroundColor(Color.TRANSPARENT)
             it.webViewClient = CTWebViewClient(this)
             it.webChromeClient = CTWebChromeClient(this)
@@ -301,25 +323,17 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
         }
     }
 
-    private fun setWebViewSettings(dWebView: DWebView) {
-        val settings = dWebView.settings
-        settings.allowFileAccess = true
-        settings.allowContentAccess = true
-        settings.cacheMode = WebSettings.LOAD_DEFAULT
-        settings.allowFileAccessFromFileURLs = true
-        settings.allowUniversalAccessFromFileURLs = true
-        settings.mixedContentMode = WebSettings.MIXED_CONTENT_ALWAYS_ALLOW
-        settings.loadWithOverviewMode = true
-        settings.useWideViewPort = true
-        settings.javaScriptEnabled = true
-        settings.domStorageEnabled = true
-        settings.displayZoomControls = false
-        settings.builtInZoomControls = false
-        settings.loadWithOverviewMode = true
-        settings.textZoom = 100
-        settings.loadsImagesAutomatically = true
-        settings.mediaPlaybackRequiresUserGesture = false// video预览需要
-        settings.userAgentString = settings.userAgentString + ";MiniAppContainer"
+    /**
+     * 用预热进程中创建好的WebView替换布局中的WebView，保持位置和布局参数不变
+     */
+    private fun replaceWebView(pooled: DWebView) {
+        val placeholder = binding.webView
+        val parent = placeholder.parent as ViewGroup
+        val index = parent.indexOfChild(placeholder)
+        pooled.id = placeholder.id
+        parent.removeViewAt(index)
+        parent.addView(pooled, index, placeholder.layoutParams)
+        placeholder.destroy()
     }
 
     private fun notifyIMEHeight(height: Int){
@@ -399,7 +413,7 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
     }
 
     fun updateBack(){
-        if (binding.webView.canGoBack()) {
+        if (webView.canGoBack()) {
             binding.ivBack.visibility = View.VISIBLE
         } else {
             binding.ivBack.visibility = View.GONE
@@ -435,6 +449,8 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
         if (permissionDialog?.isShowing == true) {
             permissionDialog?.dismiss()
         }
+        // 权限使用记录在缓冲中最多保留几秒，页面销毁时写入
+        viewModel.flushPermissionUsage()
         miniToParentManager.unBindService(this@MiniAppActivity)
         if (miniApp?.appName == CommonConstants.DC_YI_SHARE){
             NewCallAppSdkInterface.saveShareType("")
@@ -466,8 +482,8 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
 
     override fun onBackPressed() {
         setPageName("")
-        if (binding.webView.canGoBack()) {
-            binding.webView.goBack()
+        if (webView.canGoBack()) {
+            webView.goBack()
         } else {
             finishAndKillMiniAppActivity()
         }
@@ -583,6 +599,8 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
             // 1秒之后释放资源
             notifyMiniAppState("onFinish")
             delay(500)
+            // 结束进程前写入缓冲中的权限使用记录
+            viewModel.flushPermissionUsage().join()
             miniToParentManager.unBindService(this@MiniAppActivity)
             finishAndRemoveTask()
             android.os.Process.killProcess(android.os.Process.myPid())
@@ -591,12 +609,26 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
 
     override fun callHandler(method: String, args: Array<Any>) {
         sLogger.info("callHandler, method: $method")
-        binding.webView.callHandler(method, args)
+        webView.callHandler(method, args)
+    }
+
+    override fun getMiniAppWebView(): WebView {
+        return webView
+    }
+
+    override fun hasJavascriptMethod(method: String, callback: (Boolean) -> Unit) {
+        webView.hasJavascriptMethod(method) { callback(it == true) }
     }
 
     override fun invokeOnServiceConnected() {
         sLogger.debug("onServiceConnected")
-        loadUrl()
+        // 权限快照加载完成后再加载页面，页面在主线程发起的权限检查(如getUserMedia)不会因未命中而被拒绝
+        val appId = miniApp?.appId
+        if (appId == null) {
+            loadUrl()
+        } else {
+            viewModel.preloadPermission(appId) { loadUrl() }
+        }
     }
 
     private fun loadUrl() {
@@ -604,7 +636,11 @@ open class MiniAppActivity : AppCompatActivity(), IMiniApp, KoinComponent {
         val path = miniApp?.path
         sLogger.debug("loadUrl path:$path, param:${miniApp?.startByOthersParams}")
         val params = if (!miniApp?.startByOthersParams.isNullOrEmpty()){"?${miniApp?.startByOthersParams}"}else{""}
-        binding.webView.loadUrl("file://$path/index.html${params}")
+        if (miniApp?.appProperties?.useAssetOrigin == true) {
+            webView.loadUrl("${CommonConstants.MINI_APP_ASSET_ORIGIN}index.html${params}")
+        } else {
+            webView.loadUrl("file://$path/index.html${params}")
+        }
     }
 
     override fun invokeOnCallStateChange(params: Map<String, Any?>) {
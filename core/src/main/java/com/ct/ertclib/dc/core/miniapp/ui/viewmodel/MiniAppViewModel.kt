@@ -42,6 +42,7 @@ import com.ct.ertclib.dc.core.utils.common.PermissionUtils
 import com.hjq.permissions.OnPermissionCallback
 import com.hjq.permissions.XXPermissions
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.koin.core.component.KoinComponent
@@ -129,6 +130,14 @@ class MiniAppViewModel : ViewModel(), KoinComponent {
         }
     }
 
+    fun preloadPermission(appId: String, onLoaded: (() -> Unit)? = null) {
+        permissionUseCase.preloadPermission(appId, onLoaded)
+    }
+
+    fun flushPermissionUsage(): Job {
+        return permissionUseCase.flush()
+    }
+
     fun refreshPermission(appId: String) {
         viewModelScope.launch(Dispatchers.IO) {
             permissionUseCase.refreshPermissionMapFromRepo(appId)
@@ -32,6 +32,12 @@ interface ConversationsDao {
     @Query("SELECT * FROM conversations WHERE recipientId = :recipientId")
     fun queryConversation(recipientId: Int): ConversationEntity
 
+    /**
+     * count和unreadCount由messages上的触发器增量维护，不需要统计messages
+     */
+    @Query("SELECT unreadCount FROM conversations WHERE _id = :conversationId")
+    fun queryUnreadCount(conversationId: Int): Int
+
     @Insert
     fun insertConversation(conversationEntity: ConversationEntity): Long
 }
\ No newline at end of file
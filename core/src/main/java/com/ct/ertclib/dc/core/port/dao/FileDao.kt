@@ -21,21 +21,86 @@ import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import androidx.room.RawQuery
+import androidx.room.Transaction
+import androidx.room.Update
 import androidx.sqlite.db.SupportSQLiteQuery
+import com.ct.ertclib.dc.core.data.model.FileChecksumEntity
+import com.ct.ertclib.dc.core.data.model.FileDirEntity
 import com.ct.ertclib.dc.core.data.model.FileEntity
 
 @Dao
 interface FileDao {
 
-    @Query("SELECT * FROM files WHERE name LIKE '%' || :name || '%'")
-    fun queryFiles(name: String): List<FileEntity>
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertFiles(fileEntities: List<FileEntity>): List<Long>
+
+    @Update
+    fun updateFiles(fileEntities: List<FileEntity>)
+
+    /**
+     * REPLACE会先删除旧行，而删除触发的同步触发器在未开启recursive_triggers时不执行，
+     * files_fts会残留旧索引，所以已存在的行改为UPDATE
+     */
+    @Transaction
+    fun upsertFiles(fileEntities: List<FileEntity>) {
+        val rowIds = insertFiles(fileEntities)
+        val existFiles = fileEntities.filterIndexed { index, _ -> rowIds[index] == -1L }
+        if (existFiles.isNotEmpty()) {
+            updateFiles(existFiles)
+        }
+    }
+
+    @Query("SELECT * FROM files WHERE parent = :parent")
+    fun queryFilesByParent(parent: String): List<FileEntity>
+
+    @Query("DELETE FROM files WHERE path IN (:paths)")
+    fun deleteFiles(paths: List<String>)
+
+    @Query("SELECT * FROM file_dirs")
+    fun queryDirs(): List<FileDirEntity>
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    fun upsertFiles(fileEntities: List<FileEntity>)
+    fun upsertDirs(dirs: List<FileDirEntity>)
+
+    /**
+     * 删除目录及其所有子目录下的文件和目录快照
+     */
+    @Transaction
+    fun deleteDirTree(dir: String) {
+        deleteFilesInDirTree(dir)
+        deleteDirsInDirTree(dir)
+    }
+
+    @Query("DELETE FROM files WHERE parent = :dir OR substr(parent, 1, length(:dir) + 1) = :dir || '/'")
+    fun deleteFilesInDirTree(dir: String)
+
+    @Query("DELETE FROM file_dirs WHERE path = :dir OR substr(path, 1, length(:dir) + 1) = :dir || '/'")
+    fun deleteDirsInDirTree(dir: String)
 
     @Query("SELECT COUNT(*) FROM files")
     fun queryFileCount(): Long
 
+    /**
+     * 查询语句由SearchGrams.buildFileSearchQuery生成
+     */
     @RawQuery
     fun queryFilesByKeywords(query: SupportSQLiteQuery): List<FileEntity>
-}
\ No newline at end of file
+
+    @Query("SELECT * FROM file_checksums WHERE path = :path AND algorithm = :algorithm")
+    fun queryChecksum(path: String, algorithm: String): FileChecksumEntity?
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun upsertChecksum(checksum: FileChecksumEntity)
+
+    @Query("SELECT DISTINCT path FROM file_checksums")
+    fun queryChecksumPaths(): List<String>
+
+    @Query("DELETE FROM file_checksums WHERE path IN (:paths)")
+    fun deleteChecksums(paths: List<String>)
+
+    /**
+     * 只保留最近写入的maxRows行，REPLACE会重新分配rowid，rowid越大写入越晚
+     */
+    @Query("DELETE FROM file_checksums WHERE rowid NOT IN (SELECT rowid FROM file_checksums ORDER BY rowid DESC LIMIT :maxRows)")
+    fun trimChecksums(maxRows: Int)
+}
@@ -21,8 +21,12 @@ import androidx.paging.PagingSource
 import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.Query
+import androidx.room.RawQuery
 import androidx.room.Update
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteQuery
 import com.ct.ertclib.dc.core.data.model.MessageEntity
+import com.ct.ertclib.dc.core.utils.common.SearchGrams
 
 @Dao
 interface MessageDao {
@@ -35,6 +39,16 @@ interface MessageDao {
     @Query("SELECT * FROM messages WHERE conversationId = :conversationId ORDER BY _id desc LIMIT :pageSize OFFSET :offset")
     fun queryAllMessageList(conversationId: Int, pageSize: Int, offset: Int): List<MessageEntity>
 
+    /**
+     * 按(receiveTime, _id)倒序的keyset分页，耗时与翻到第几页无关
+     *
+     * @param beforeTime 上一页最后一条消息的receiveTime，第一页传Long.MAX_VALUE
+     * @param beforeId 上一页最后一条消息的_id，第一页传Int.MAX_VALUE
+     */
+    @Query("SELECT * FROM messages WHERE conversationId = :conversationId AND receiveTime <= :beforeTime " +
+            "AND (receiveTime < :beforeTime OR _id < :beforeId) ORDER BY receiveTime DESC, _id DESC LIMIT :pageSize")
+    fun queryMessageListBefore(conversationId: Int, beforeTime: Long, beforeId: Int, pageSize: Int): List<MessageEntity>
+
     @Query("SELECT _id FROM messages WHERE conversationId = :conversationId ORDER BY _id desc LIMIT 1")
     fun queryLatestMessageIDByConversationId(conversationId: Int): Int
 
@@ -56,14 +70,32 @@ interface MessageDao {
     @Query("SELECT COUNT(*) FROM messages WHERE conversationId = :senderId AND selfId = :selfId AND read = 0 AND receiveTime <= :timestamp")
     fun queryUnreadCount(senderId: Int, selfId: Int, timestamp: Long): Int
 
-    @Query("SELECT * FROM messages WHERE message LIKE '%' || :keyword || '%'")
-    fun queryMessage(keyword: String): LiveData<List<MessageEntity>>
+    /**
+     * 查询语句由SearchGrams.buildMessageSearchQuery生成
+     */
+    @RawQuery(observedEntities = [MessageEntity::class])
+    fun queryMessageByRawQuery(query: SupportSQLiteQuery): LiveData<List<MessageEntity>>
+
+    fun queryMessage(keyword: String): LiveData<List<MessageEntity>> {
+        val (sql, args) = SearchGrams.buildMessageSearchQuery(keyword)
+        return queryMessageByRawQuery(SimpleSQLiteQuery(sql, args))
+    }
 
     @Insert
-    fun insertMessage(message: MessageEntity): Long
+    fun insertMessageEntity(message: MessageEntity): Long
 
     @Update
-    fun updateMessage(message: MessageEntity): Int
+    fun updateMessageEntity(message: MessageEntity): Int
+
+    fun insertMessage(message: MessageEntity): Long {
+        message.searchGrams = SearchGrams.toGrams(message.message)
+        return insertMessageEntity(message)
+    }
+
+    fun updateMessage(message: MessageEntity): Int {
+        message.searchGrams = SearchGrams.toGrams(message.message)
+        return updateMessageEntity(message)
+    }
 
     @Query("DELETE FROM messages WHERE _id = :id")
     fun deleteMessageById(id: Int)
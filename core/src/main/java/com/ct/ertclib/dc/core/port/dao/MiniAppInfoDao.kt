@@ -21,7 +21,9 @@ import androidx.room.Delete
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
+import androidx.room.Transaction
 import androidx.room.Update
+import com.ct.ertclib.dc.core.data.model.MiniAppIndexEntity
 import com.ct.ertclib.dc.core.data.model.MiniAppInfo
 
 @Dao
@@ -41,4 +43,25 @@ interface MiniAppInfoDao {
 
     @Query("SELECT * FROM mini_app_info ORDER BY lastUseTime DESC")
     fun getAll(): List<MiniAppInfo>
-}
\ No newline at end of file
+
+    @Query("SELECT * FROM mini_app_index")
+    fun getAllIndexes(): List<MiniAppIndexEntity>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertIndex(index: MiniAppIndexEntity)
+
+    @Query("DELETE FROM mini_app_index WHERE appId = :appId")
+    fun deleteIndex(appId: String)
+
+    @Query("UPDATE mini_app_info SET path = :path, eTag = :eTag WHERE appId = :appId")
+    fun updateInstalled(appId: String, path: String, eTag: String)
+
+    /**
+     * 安装后在同一事务中更新索引和小程序记录中的路径、版本
+     */
+    @Transaction
+    fun upsertIndex(index: MiniAppIndexEntity) {
+        insertIndex(index)
+        updateInstalled(index.appId, index.path, index.version)
+    }
+}
@@ -43,6 +43,9 @@ interface PermissionDao {
     @Insert
     fun insertPermissionUsage(vararg permissionUsageEntity: PermissionUsageEntity)
 
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertPermissionUsages(permissionUsageEntities: List<PermissionUsageEntity>)
+
     @Query("SELECT * FROM permission_usage_table WHERE appId = :appId ORDER BY permissionUsageTimeStamp DESC")
     fun getPermissionUsageByAppId(appId: String): MutableList<PermissionUsageEntity>
 
@@ -21,6 +21,9 @@ import com.ct.ertclib.dc.core.data.call.CallInfo
 import com.ct.ertclib.dc.core.data.miniapp.MiniAppList
 import com.ct.ertclib.dc.core.data.model.MiniAppInfo
 import com.ct.ertclib.dc.core.miniapp.aidl.IMessageCallback
+import com.ct.ertclib.dc.core.miniapp.bridge.DataChannelBinaryBridge
+import com.ct.ertclib.dc.core.miniapp.bridge.FileBinaryBridge
+import com.ct.ertclib.dc.core.miniapp.bridge.FileHandleTable
 import com.ct.ertclib.dc.core.port.common.OnPickMediaCallbackListener
 import com.ct.ertclib.dc.core.port.miniapp.IMiniApp
 import com.newcalllib.datachannel.V1_0.IImsDataChannel
@@ -33,6 +36,9 @@ interface IMiniToParentManager {
     val createDCLabelList : MutableList<String>?
     val openDCList: MutableList<IImsDataChannel>?
     val systemApiLicenseMap: MutableMap<String, String>
+    val binaryBridge: DataChannelBinaryBridge
+    val fileHandleTable: FileHandleTable
+    val fileBinaryBridge: FileBinaryBridge
 
     fun bindService(context: Context)
 
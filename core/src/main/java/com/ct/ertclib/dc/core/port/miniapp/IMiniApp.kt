@@ -16,6 +16,7 @@
 
 package com.ct.ertclib.dc.core.port.miniapp
 
+import android.webkit.WebView
 import com.ct.ertclib.dc.core.data.call.CallInfo
 import com.ct.ertclib.dc.core.data.model.MiniAppInfo
 import com.ct.ertclib.dc.core.data.miniapp.AppRequest
@@ -52,4 +53,8 @@ interface IMiniApp {
     fun playVoice(path:String)
 
     fun stopPlayVoice()
+
+    fun getMiniAppWebView(): WebView?
+
+    fun hasJavascriptMethod(method: String, callback: (Boolean) -> Unit)
 }
\ No newline at end of file
@@ -30,6 +30,8 @@ interface IPermissionDbRepo {
 
     fun insertPermissionUsage(permissionUsage: PermissionUsageEntity)
 
+    fun insertPermissionUsages(permissionUsages: List<PermissionUsageEntity>)
+
     fun getPermissionUsageById(appId: String): MutableList<PermissionUsageEntity>
 
     fun getPermissionUsageByIdWithInTime(appId: String, timeStamp: Long): MutableList<PermissionUsageEntity>
@@ -35,4 +35,9 @@ interface IDCMiniEventUseCase {
     fun isPeerSupportDC(context: Context, params: Map<String, Any>, handler: CompletionHandler<String?>)
 
     fun getBufferedAmount(context: Context, params: Map<String, Any>) : String?
+
+    /**
+     * 打开二进制数据通道，打开后收发数据不再经过Base64
+     */
+    fun openBinaryChannel(context: Context, params: Map<String, Any>, handler: CompletionHandler<String?>)
 }
\ No newline at end of file
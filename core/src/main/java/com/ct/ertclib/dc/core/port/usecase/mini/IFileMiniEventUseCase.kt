@@ -43,6 +43,16 @@ interface IFileMiniEventUseCase {
 
     fun stopReadFile(context: Context): String?
 
+    fun openFileHandle(context: Context, params: Map<String, Any>): String?
+
+    fun readFileHandle(context: Context, params: Map<String, Any>, handler: CompletionHandler<String?>)
+
+    fun writeFileHandle(context: Context, params: Map<String, Any>, handler: CompletionHandler<String?>)
+
+    fun closeFileHandle(context: Context, params: Map<String, Any>): String?
+
+    fun openFileBinaryChannel(context: Context, params: Map<String, Any>, handler: CompletionHandler<String?>)
+
     fun checkFileOrFolderExists(context: Context, params: Map<String, Any>): String?
 
     fun getFileInfo(context: Context, params: Map<String, Any>): String?
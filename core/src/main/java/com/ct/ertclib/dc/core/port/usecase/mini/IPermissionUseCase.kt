@@ -17,11 +17,17 @@
 package com.ct.ertclib.dc.core.port.usecase.mini
 
 import com.ct.ertclib.dc.core.data.miniapp.PermissionUsageData
+import kotlinx.coroutines.Job
 
 interface IPermissionUseCase {
 
     suspend fun getPermission(appId: String): MutableMap<String, Boolean>
 
+    /**
+     * 异步加载权限快照，加载完成后在主线程回调onLoaded，已加载时直接回调
+     */
+    fun preloadPermission(appId: String, onLoaded: (() -> Unit)? = null)
+
     suspend fun savePermission(appId: String,  map: MutableMap<String, Boolean>, isMainProcess: Boolean, callId: String = "")
 
     fun checkPermissionAndRecord(appId: String, permissions: List<String>, needRecord: Boolean = true): Boolean
@@ -30,7 +36,16 @@ interface IPermissionUseCase {
 
     suspend fun refreshPermissionMapFromRepo(appId: String)
 
+    /**
+     * 查询权限使用记录。只会先写入本进程缓冲中的记录，
+     * 小程序进程中的记录最多延迟PERMISSION_USAGE_FLUSH_INTERVAL_MILLIS后才能查到
+     */
     fun getPermissionUsage(appId: String, timeStamp: Long): MutableList<PermissionUsageData>
 
     fun insertPermissionUsages(appId: String, miniPermissionNames: List<String>)
+
+    /**
+     * 在IO线程把本进程缓冲中的权限使用记录写入数据库，进程退出前调用并等待返回的Job完成
+     */
+    fun flush(): Job
 }
\ No newline at end of file
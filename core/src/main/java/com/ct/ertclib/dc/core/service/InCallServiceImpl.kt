@@ -206,6 +206,8 @@ class InCallServiceImpl : InCallService(), KoinComponent {
                 it.addCallInfoUpdateListener(telecomCallId, bdcManager)
                 it.notifyOnCallAdded(callInfo)
             }
+            // 通话建立时预热小程序进程，用户点击小程序时直接使用
+            MiniAppStartManager.warmUp(this)
         }catch (e:Exception){
             e.printStackTrace()
         }
@@ -247,6 +249,7 @@ class InCallServiceImpl : InCallService(), KoinComponent {
             mCallsManager?.onCallServiceUnBind()
             mCallsManager = null
             mCallsMap.clear()
+            MiniAppStartManager.coolDown(Utils.getApp())
 
             // 结束后授权
             if (checkPermissionAfterCall){
@@ -0,0 +1,68 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.service
+
+import android.os.IBinder
+import android.os.RemoteException
+import com.ct.ertclib.dc.core.miniapp.aidl.IParentToMini
+
+/**
+ * 小程序进程注册到MiniAppService的一个连接，按callId++appId登记。
+ * 通过linkToDeath监听小程序进程退出，退出时由[onDied]回收该连接注册的回调和监听
+ */
+class MiniAppConnection(
+    val key: String,
+    val callId: String,
+    val appId: String,
+    val pid: Int,
+    val parentToMini: IParentToMini,
+    private val onDied: (MiniAppConnection) -> Unit
+) : IBinder.DeathRecipient {
+
+    // 健康探测：上一次探测的binder调用是否还未返回，以及连续无响应的次数
+    @Volatile
+    var isProbing = false
+    @Volatile
+    var missedProbes = 0
+
+    val isAlive: Boolean
+        get() = parentToMini.asBinder().isBinderAlive
+
+    /**
+     * 对端进程已退出时返回false
+     */
+    fun link(): Boolean {
+        return try {
+            parentToMini.asBinder().linkToDeath(this, 0)
+            true
+        } catch (e: RemoteException) {
+            false
+        }
+    }
+
+    fun unlink() {
+        try {
+            parentToMini.asBinder().unlinkToDeath(this, 0)
+        } catch (e: NoSuchElementException) {
+            // 已收到退出通知或未注册成功
+        }
+    }
+
+    override fun binderDied() {
+        onDied(this)
+    }
+}
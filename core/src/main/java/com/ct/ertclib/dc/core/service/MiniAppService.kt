@@ -20,9 +20,13 @@ import android.app.Application
 import android.app.Service
 import android.content.Context
 import android.content.Intent
+import android.os.Binder
 import android.os.Build
+import android.os.Bundle
 import android.os.IBinder
+import android.os.Process
 import android.os.RemoteException
+import android.system.ErrnoException
 import android.text.TextUtils
 import androidx.annotation.RequiresApi
 import com.ct.ertclib.dc.core.constants.CommonConstants.ACTION_AUDIO_DEVICE_CHANGE
@@ -34,6 +38,10 @@ import com.ct.ertclib.dc.core.port.dc.IDcCreateListener
 import com.ct.ertclib.dc.core.data.event.CloseAdcEvent
 import com.ct.ertclib.dc.core.constants.CommonConstants.ACTION_CALL_STATUS_CHANGE
 import com.ct.ertclib.dc.core.constants.CommonConstants.ACTION_CHECK_ALIVE
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_HEALTH_PROBE_INTERVAL_MILLIS
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_HEALTH_PROBE_MAX_MISSES
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_MESSAGE_CHANNEL_BYTES
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_MESSAGE_CHANNEL_KEY
 import com.ct.ertclib.dc.core.data.event.NotifyEvent
 import com.ct.ertclib.dc.core.data.miniapp.AppRequest
 import com.ct.ertclib.dc.core.factory.AppServiceEventDispatcherFactory
@@ -45,19 +53,20 @@ import com.ct.ertclib.dc.core.miniapp.aidl.IDCCallback
 import com.ct.ertclib.dc.core.miniapp.aidl.IMessageCallback
 import com.ct.ertclib.dc.core.miniapp.aidl.IMiniToParent
 import com.ct.ertclib.dc.core.miniapp.aidl.IParentToMini
+import com.ct.ertclib.dc.core.miniapp.ipc.MiniAppMessageChannel
 import com.ct.ertclib.dc.core.port.manager.IAppServiceManager
 import com.newcalllib.datachannel.V1_0.IImsDataChannel
 import com.newcalllib.datachannel.V1_0.ImsDCStatus
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.MainScope
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
 import org.koin.core.component.KoinComponent
 import org.koin.core.component.inject
 import java.util.concurrent.ConcurrentHashMap
-import kotlin.coroutines.EmptyCoroutineContext
 
 class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent  {
 
@@ -71,6 +80,16 @@ class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent
 
     val mParentToMiniCallbackMap = ConcurrentHashMap<String, IParentToMini>()
 
+    // 与mParentToMiniCallbackMap同步，记录每个连接的进程和退出监听
+    private val mConnectionMap = ConcurrentHashMap<String, MiniAppConnection>()
+    private val mProbeLock = Any()
+    private var mHealthProbeJob: Job? = null
+    // 共享内存消息通道，key与mConnectionMap相同
+    private val mMessageChannelMap = ConcurrentHashMap<String, MiniAppMessageChannel>()
+    private val mCheckAliveMessage: String by lazy {
+        JsonUtil.toJson(NotifyEvent(ACTION_CHECK_ALIVE, mutableMapOf()))
+    }
+
     private val mCallStatusListenerMap = ConcurrentHashMap<String, ICallStateListener>()
     private val appServiceManager: IAppServiceManager by inject()
 
@@ -179,9 +198,143 @@ class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent
         return split[1]
     }
 
+    /**
+     * 调用小程序失败时调用，小程序进程已退出时回收连接，进程仍存活时保留
+     */
     fun onRemoteError(telecomCallId: String,appId: String) {
-        mParentToMiniCallbackMap.remove(getKey(telecomCallId,appId))
+        val connection = mConnectionMap[getKey(telecomCallId, appId)]
+        if (connection == null) {
+            mParentToMiniCallbackMap.remove(getKey(telecomCallId,appId))
+            mDcCallBackMap.remove(appId)
+            return
+        }
+        if (!connection.isAlive) {
+            releaseConnection(connection)
+        }
+    }
+
+    /**
+     * 小程序进程退出，回收该连接注册的所有回调和监听
+     */
+    private fun onMiniAppDied(connection: MiniAppConnection) {
+        sLogger.info("onMiniAppDied key:${connection.key}, pid:${connection.pid}")
+        releaseConnection(connection)
+    }
+
+    private fun releaseConnection(connection: MiniAppConnection) {
+        // 同一小程序重新注册后，旧连接的退出通知不能回收新连接
+        if (!mConnectionMap.remove(connection.key, connection)) {
+            return
+        }
+        connection.unlink()
+        releaseParentToMini(connection.callId, connection.appId)
+        releaseDataChannel(connection.callId, connection.appId)
+    }
+
+    private fun releaseParentToMini(telecomCallId: String?, appId: String) {
+        telecomCallId?.let {
+            val key = getKey(telecomCallId, appId)
+            // 先读出通道中剩余的消息
+            drainMessageChannel(telecomCallId, appId)
+            mMessageChannelMap.remove(key)?.close()
+            mParentToMiniCallbackMap.remove(key)
+            mConnectionMap.remove(key)?.unlink()
+        }
+        val iCallStateListener = mCallStatusListenerMap[appId]
+        if (iCallStateListener != null) {
+            MiniAppManager.getAppPackageManager(telecomCallId)
+                ?.unregisterCallStateListenerInternal(appId, iCallStateListener)
+            mCallStatusListenerMap.remove(appId)
+        }
+        telecomCallId?.let {
+            ExpandingCapacityManager.instance.unregisterECListener(this, telecomCallId, appId)
+        }
+    }
+
+    private fun releaseDataChannel(telecomCallId: String?, appId: String) {
         mDcCallBackMap.remove(appId)
+        MiniAppManager.getAppPackageManager(telecomCallId)
+            ?.unregisterAppDataChannelCallbackInternal(appId)
+    }
+
+    private fun drainMessageChannel(telecomCallId: String, appId: String) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+            return
+        }
+        mMessageChannelMap[getKey(telecomCallId, appId)]?.drain { message ->
+            dispatchMessage(telecomCallId, appId, message, null)
+        }
+    }
+
+    private fun dispatchMessage(telecomCallId: String, appId: String, message: String, iMessageCallback: IMessageCallback?) {
+        try {
+            if (sLogger.isDebugActivated) {
+                sLogger.debug("sendMessageToParent, appId:$appId, message:$message")
+            }
+            if (appId.isEmpty() || message.isEmpty()) {
+                return
+            }
+            val appRequest = JsonUtil.fromJson(message, AppRequest::class.java)
+            appRequest?.let {
+                AppServiceEventDispatcherFactory.getDispatcher(appRequest.eventName).dispatchEvent(telecomCallId, appId, appRequest, iMessageCallback)
+            }
+        } catch (e:Exception){
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * 有连接时按低频率探测小程序是否响应，只用于发现进程存活但binder调用无响应的情况，进程退出由linkToDeath通知
+     */
+    private fun startHealthProbe() {
+        if (MINI_APP_HEALTH_PROBE_INTERVAL_MILLIS <= 0) {
+            return
+        }
+        synchronized(mProbeLock) {
+            if (mHealthProbeJob != null) {
+                return
+            }
+            mHealthProbeJob = launch(Dispatchers.IO) {
+                while (true) {
+                    delay(MINI_APP_HEALTH_PROBE_INTERVAL_MILLIS)
+                    synchronized(mProbeLock) {
+                        if (mConnectionMap.isEmpty()) {
+                            mHealthProbeJob = null
+                            return@launch
+                        }
+                    }
+                    mConnectionMap.values.forEach { probe(it) }
+                }
+            }
+        }
+    }
+
+    private fun probe(connection: MiniAppConnection) {
+        if (connection.isProbing) {
+            // 上一次探测的调用还没有返回
+            connection.missedProbes++
+            if (connection.missedProbes >= MINI_APP_HEALTH_PROBE_MAX_MISSES && connection.pid != Process.myPid()) {
+                sLogger.warn("probe ${connection.key} not responding, kill pid:${connection.pid}")
+                // 进程退出后由linkToDeath通知回收
+                Process.killProcess(connection.pid)
+            }
+            return
+        }
+        connection.isProbing = true
+        launch(Dispatchers.IO) {
+            try {
+                // sendMessageToMini是同步调用，返回即说明小程序有响应，不需要回复
+                connection.parentToMini.sendMessageToMini(connection.appId, mCheckAliveMessage, null)
+                connection.missedProbes = 0
+            } catch (e: RemoteException) {
+                if (sLogger.isDebugActivated) {
+                    sLogger.error("probe ${connection.key}", e)
+                }
+                onRemoteError(connection.callId, connection.appId)
+            } finally {
+                connection.isProbing = false
+            }
+        }
     }
 
     inner class MiniToParentAidlImpl(private val appService: MiniAppService) : IMiniToParent.Stub() {
@@ -233,7 +386,16 @@ class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent
             if (appId.isEmpty()) {
                 return
             }
-            mParentToMiniCallbackMap[getKey(telecomCallId,appId)] = iParentToMini
+            val key = getKey(telecomCallId,appId)
+            val connection = MiniAppConnection(key, telecomCallId, appId, Binder.getCallingPid(), iParentToMini) {
+                onMiniAppDied(it)
+            }
+            if (!connection.link()) {
+                sLogger.info("registerParentToMiniCallback, appId:$appId already died")
+                return
+            }
+            mConnectionMap.put(key, connection)?.unlink()
+            mParentToMiniCallbackMap[key] = iParentToMini
             val listenerWrapper = CallStatusListener(appService, telecomCallId, appId)
             MiniAppManager.getAppPackageManager(telecomCallId)
                 ?.registerCallStateChangeCallbackInternal(
@@ -241,6 +403,7 @@ class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent
                     listenerWrapper
                 )
             mCallStatusListenerMap[appId] = listenerWrapper
+            startHealthProbe()
         }
 
         override fun sendMessageToParent(
@@ -249,20 +412,38 @@ class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent
             message: String,
             iMessageCallback: IMessageCallback?
         ) {
-            try {
-                if (sLogger.isDebugActivated) {
-                    sLogger.debug("sendMessageToParent, appId:$appId, message:$message")
-                }
-                if (appId.isEmpty() || message.isEmpty()) {
-                    return
-                }
-                val appRequest = JsonUtil.fromJson(message, AppRequest::class.java)
-                appRequest?.let {
-                    AppServiceEventDispatcherFactory.getDispatcher(appRequest.eventName).dispatchEvent(telecomCallId, appId, appRequest, iMessageCallback)
-                }
-            } catch (e:Exception){
-                e.printStackTrace()
+            // 共享内存通道中先写入的消息先处理，保证与AIDL消息的顺序
+            drainMessageChannel(telecomCallId, appId)
+            dispatchMessage(telecomCallId, appId, message, iMessageCallback)
+        }
+
+        override fun openMessageChannel(telecomCallId: String, appId: String): Bundle? {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+                return null
+            }
+            val key = getKey(telecomCallId, appId)
+            if (!mConnectionMap.containsKey(key)) {
+                sLogger.info("openMessageChannel, appId:$appId not registered")
+                return null
+            }
+            val channel = try {
+                MiniAppMessageChannel.create(key, MINI_APP_MESSAGE_CHANNEL_BYTES)
+            } catch (e: ErrnoException) {
+                sLogger.error("openMessageChannel, appId:$appId", e)
+                return null
+            }
+            mMessageChannelMap.put(key, channel)?.let { old ->
+                // 重新打开时旧通道中剩余的消息先处理
+                old.drain { dispatchMessage(telecomCallId, appId, it, null) }
+                old.close()
             }
+            return Bundle().apply {
+                putParcelable(MINI_APP_MESSAGE_CHANNEL_KEY, channel.sharedMemory)
+            }
+        }
+
+        override fun notifyMessageChannel(telecomCallId: String, appId: String) {
+            drainMessageChannel(telecomCallId, appId)
         }
 
         override fun unregisterDCCallBack(telecomCallId: String?, appId: String?) {
@@ -272,9 +453,7 @@ class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent
             if (appId.isNullOrEmpty()) {
                 return
             }
-            mDcCallBackMap.remove(appId)
-            MiniAppManager.getAppPackageManager(telecomCallId)
-                ?.unregisterAppDataChannelCallbackInternal(appId)
+            releaseDataChannel(telecomCallId, appId)
         }
 
         override fun unregisterParentToMiniCallback(telecomCallId: String?, appId: String?) {
@@ -284,18 +463,7 @@ class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent
             if (appId.isNullOrEmpty()) {
                 return
             }
-            telecomCallId?.let {
-                mParentToMiniCallbackMap.remove(getKey(telecomCallId, appId))
-            }
-            val iCallStateListener = mCallStatusListenerMap[appId]
-            if (iCallStateListener != null) {
-                MiniAppManager.getAppPackageManager(telecomCallId)
-                    ?.unregisterCallStateListenerInternal(appId, iCallStateListener)
-                mCallStatusListenerMap.remove(appId)
-            }
-            telecomCallId?.let {
-                ExpandingCapacityManager.instance.unregisterECListener(this@MiniAppService,telecomCallId,appId)
-            }
+            releaseParentToMini(telecomCallId, appId)
         }
 
         override fun onDataChannelStateChange(
@@ -320,36 +488,7 @@ class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent
 
         MiniAppStartManager.setMiniAppAidlService(this)
 
-        //使用kotlin协程调用sendMessageToMini 每隔5000毫秒发送一次消息，避免parent不知道miniapp是否存活
-        val event = NotifyEvent(
-            ACTION_CHECK_ALIVE,
-            mutableMapOf()
-        )
-        launch(EmptyCoroutineContext) {
-            while (true) {
-                withContext(Dispatchers.IO) {
-                    mParentToMiniCallbackMap.forEach {
-                        val iParentToMini = it.value
-                        try {
-                            iParentToMini.sendMessageToMini(getAppIdFromKey(it.key), JsonUtil.toJson(event), object : IMessageCallback.Stub() {
-                                override fun reply(message: String?) {
-                                    if (sLogger.isDebugActivated) {
-                                        sLogger.info("checkAlive reply $message")
-                                    }
-                                }
-                            })
-                        } catch (e: RemoteException) {
-                            if (sLogger.isDebugActivated) {
-                                sLogger.error("sendMessageToMini", e)
-                            }
-                            onRemoteError(getCallIdFromKey(it.key),getAppIdFromKey(it.key))
-                        }
-                    }
-                }
-                kotlinx.coroutines.delay(5000)
-            }
-        }
-
+        //小程序进程退出由注册回调时的linkToDeath通知，不再定时轮询
         return MiniToParentAidlImpl(this)
     }
 
@@ -368,6 +507,10 @@ class MiniAppService : Service(), CoroutineScope by MainScope(), KoinComponent
             sLogger.debug("onDestroy, processName:${Application.getProcessName()}")
         }
         appServiceManager.release()
+        mConnectionMap.values.forEach { it.unlink() }
+        mConnectionMap.clear()
+        mMessageChannelMap.values.forEach { it.close() }
+        mMessageChannelMap.clear()
         cancel()
         super.onDestroy()
     }
@@ -0,0 +1,66 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.service
+
+import android.app.Service
+import android.content.Intent
+import android.os.Binder
+import android.os.Handler
+import android.os.IBinder
+import android.os.Looper
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_SLOT_START_GRACE_MILLIS
+import com.ct.ertclib.dc.core.miniapp.MiniAppWebViewPool
+import com.ct.ertclib.dc.core.utils.logger.Logger
+
+/**
+ * 小程序预热服务，与MiniAppActivity0~9一一对应运行在同一进程中。
+ * 主进程绑定后拉起小程序进程并预先创建WebView；解绑后如果没有小程序Activity取用，稍后结束进程释放内存。
+ */
+open class MiniAppWarmService : Service() {
+
+    companion object {
+        private const val TAG = "MiniAppWarmService"
+    }
+
+    private val sLogger: Logger = Logger.getLogger(TAG)
+
+    override fun onCreate() {
+        super.onCreate()
+        sLogger.info("onCreate ${javaClass.simpleName}")
+        try {
+            MiniAppWebViewPool.prepare(this)
+        } catch (e: Exception) {
+            sLogger.error("prepare webView failed", e)
+        }
+    }
+
+    override fun onBind(intent: Intent?): IBinder {
+        return Binder()
+    }
+
+    override fun onDestroy() {
+        sLogger.info("onDestroy ${javaClass.simpleName}")
+        super.onDestroy()
+        // 被认领时小程序Activity随后启动并取走WebView，等待宽限期后仍未取用才结束进程
+        Handler(Looper.getMainLooper()).postDelayed({
+            if (MiniAppWebViewPool.release()) {
+                sLogger.info("warm process not claimed, kill")
+                android.os.Process.killProcess(android.os.Process.myPid())
+            }
+        }, MINI_APP_SLOT_START_GRACE_MILLIS)
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.usecase.common
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.PERMISSION_USAGE_BUFFER_CAPACITY
+import com.ct.ertclib.dc.core.constants.CommonConstants.PERMISSION_USAGE_FLUSH_INTERVAL_MILLIS
+import com.ct.ertclib.dc.core.constants.CommonConstants.PERMISSION_USAGE_FLUSH_THRESHOLD
+import com.ct.ertclib.dc.core.data.model.PermissionUsageEntity
+import com.ct.ertclib.dc.core.port.miniapp.IPermissionDbRepo
+import com.ct.ertclib.dc.core.utils.logger.Logger
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+
+/**
+ * 权限使用记录缓冲：同一小程序同一分钟内重复使用同一权限只保留第一条，
+ * 定时或达到阈值时在一个事务中批量写入数据库。
+ */
+class PermissionUsageBuffer(
+    private val permissionDbRepo: IPermissionDbRepo,
+    private val scope: CoroutineScope
+) {
+
+    companion object {
+        private const val TAG = "PermissionUsageBuffer"
+        private const val MINUTE_MILLIS = 60_000L
+    }
+
+    private data class UsageKey(val appId: String, val permissionName: String, val minute: Long)
+
+    private val logger = Logger.getLogger(TAG)
+    private val lock = Any()
+    private var pending = LinkedHashMap<UsageKey, PermissionUsageEntity>()
+    private var flushScheduled = false
+    private var droppedCount = 0
+
+    // 表的主键是(appId, 时间戳)，记录每个小程序最后写入的时间戳，保证同一毫秒的不同权限不冲突
+    private val lastTimeStamps = HashMap<String, Long>()
+
+    fun record(appId: String, permissionName: String, timeStamp: Long) {
+        val key = UsageKey(appId, permissionName, timeStamp / MINUTE_MILLIS)
+        var flushNow = false
+        var scheduleFlush = false
+        synchronized(lock) {
+            if (pending.containsKey(key)) {
+                return
+            }
+            if (pending.size >= PERMISSION_USAGE_BUFFER_CAPACITY) {
+                // 两次写入之间只在第一次丢弃时记录，丢弃总数在写入时记录
+                if (droppedCount++ == 0) {
+                    logger.warn("record, buffer full, drop usage appId:$appId, permission:$permissionName")
+                }
+                return
+            }
+            pending[key] = PermissionUsageEntity(appId, permissionName, timeStamp)
+            if (pending.size >= PERMISSION_USAGE_FLUSH_THRESHOLD) {
+                flushNow = true
+            } else if (!flushScheduled) {
+                flushScheduled = true
+                scheduleFlush = true
+            }
+        }
+        if (flushNow) {
+            scope.launch(Dispatchers.IO) { flush() }
+        } else if (scheduleFlush) {
+            scope.launch(Dispatchers.IO) {
+                delay(PERMISSION_USAGE_FLUSH_INTERVAL_MILLIS)
+                flush()
+            }
+        }
+    }
+
+    /**
+     * 把缓冲中的记录写入数据库，在调用线程执行
+     */
+    fun flush() {
+        val usages: Collection<PermissionUsageEntity>
+        val dropped: Int
+        synchronized(lock) {
+            flushScheduled = false
+            if (pending.isEmpty()) {
+                return
+            }
+            usages = pending.values
+            pending = LinkedHashMap()
+            dropped = droppedCount
+            droppedCount = 0
+            usages.forEach { usage ->
+                val last = lastTimeStamps[usage.appId]
+                if (last != null && usage.permissionUsageTimeStamp <= last) {
+                    usage.permissionUsageTimeStamp = last + 1
+                }
+                lastTimeStamps[usage.appId] = usage.permissionUsageTimeStamp
+            }
+        }
+        if (dropped > 0) {
+            logger.warn("flush, buffer full, dropped $dropped usages")
+        }
+        try {
+            permissionDbRepo.insertPermissionUsages(usages.toList())
+        } catch (e: Exception) {
+            logger.error("flush, insert ${usages.size} usages failed", e)
+        }
+    }
+}
@@ -18,8 +18,7 @@ package com.ct.ertclib.dc.core.usecase.common
 
 import android.content.Context
 import android.content.pm.PackageManager
-import android.os.Build
-import androidx.annotation.RequiresApi
+import android.os.Looper
 import androidx.core.content.ContextCompat
 import com.ct.ertclib.dc.core.utils.logger.Logger
 import com.ct.ertclib.dc.core.utils.common.JsonUtil
@@ -32,7 +31,6 @@ import com.ct.ertclib.dc.core.data.miniapp.AppRequest
 import com.ct.ertclib.dc.core.data.miniapp.PermissionUsageData
 import com.ct.ertclib.dc.core.data.miniapp.getCombineKey
 import com.ct.ertclib.dc.core.data.model.PermissionModel
-import com.ct.ertclib.dc.core.data.model.PermissionUsageEntity
 import com.ct.ertclib.dc.core.port.common.IParentToMiniNotify
 import com.ct.ertclib.dc.core.port.manager.IMiniToParentManager
 import com.ct.ertclib.dc.core.port.miniapp.IPermissionDbRepo
@@ -41,11 +39,11 @@ import com.ct.ertclib.dc.core.utils.common.DateUtils
 import com.ct.ertclib.dc.core.utils.common.PermissionUtils
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.withTimeoutOrNull
-import kotlin.random.Random
+import kotlinx.coroutines.withContext
+import java.util.concurrent.ConcurrentHashMap
 
 class PermissionUseCase(
     private val context: Context,
@@ -56,25 +54,20 @@ class PermissionUseCase(
 
     companion object {
         private const val TAG = "PermissionUseCase"
-        private const val MAX_TIME_GET_PERMISSIONS = 3000L
     }
 
     private val logger = Logger.getLogger(TAG)
     private val scope = CoroutineScope(Dispatchers.Default + SupervisorJob())
     private val permissionDaoFlow = permissionDbRepo.getAll()
-    private val permissionsMap = mutableMapOf<String, MutableMap<String, Boolean>>()
+    // 权限快照，每个小程序的map只整体替换不修改，检查权限时无需加锁和等待
+    private val permissionsMap = ConcurrentHashMap<String, Map<String, Boolean>>()
+    private val usageBuffer = PermissionUsageBuffer(permissionDbRepo, scope)
 
     init {
         scope.launch {
             permissionDaoFlow.collect {
                 it.forEach { model ->
-                    val resultMap = mutableMapOf<String, Boolean>()
-                    val map = JsonUtil.fromJson(model.permissionMapString, Map::class.java)
-                    map?.forEach { (entry, value) ->
-                        val result = value as? Boolean
-                        result?.let { resultMap[entry.toString()] = result }
-                    }
-                    permissionsMap[model.appId] = resultMap
+                    permissionsMap[model.appId] = parsePermissionMap(model)
                     logger.info("collect, update permissionTable,appId: ${model.appId},  permissionsMap: ${permissionsMap[model.appId]}")
                 }
             }
@@ -84,21 +77,24 @@ class PermissionUseCase(
     override suspend fun getPermission(
         appId: String
     ): MutableMap<String, Boolean> {
-        val permissionMap = permissionsMap[appId]
-        permissionMap?.let {
-            return it
-        } ?: run {
-            val resultMap = mutableMapOf<String, Boolean>()
-            val permissionJsonString = permissionDbRepo.getPermissionModelById(appId)
-            permissionJsonString?.let { permissionModel ->
-                val map = JsonUtil.fromJson(permissionModel.permissionMapString, Map::class.java)
-                map?.forEach { (entry, value) ->
-                    val result = value as? Boolean
-                    result?.let { resultMap[entry.toString()] = result }
-                }
+        return (permissionsMap[appId] ?: loadPermission(appId)).toMutableMap()
+    }
+
+    override fun preloadPermission(appId: String, onLoaded: (() -> Unit)?) {
+        if (permissionsMap.containsKey(appId)) {
+            onLoaded?.invoke()
+            return
+        }
+        scope.launch(Dispatchers.IO) {
+            // 加载失败也要回调，不能让页面一直不加载
+            try {
+                loadPermission(appId)
+            } catch (e: Exception) {
+                logger.error("preloadPermission, appId: $appId", e)
+            }
+            onLoaded?.let {
+                withContext(Dispatchers.Main) { it() }
             }
-            permissionsMap[appId] = resultMap
-            return resultMap
         }
     }
 
@@ -108,15 +104,10 @@ class PermissionUseCase(
         isMainProcess: Boolean,
         callId: String,
     ) {
-        var currentMap = permissionsMap[appId]
-        currentMap?.putAll(map) ?: run {
-            currentMap = map
-            permissionsMap[appId] = map
-        }
-        currentMap?.let {
-            val permissionJsonString = JsonUtil.toJson(it)
-            permissionDbRepo.insertOrUpdate(PermissionModel(appId, permissionJsonString))
-        }
+        val currentMap = (permissionsMap[appId] ?: emptyMap()) + map
+        permissionsMap[appId] = currentMap
+        val permissionJsonString = JsonUtil.toJson(currentMap)
+        permissionDbRepo.insertOrUpdate(PermissionModel(appId, permissionJsonString))
         if (isMainProcess) {
             val permissionNotifyEvent = NotifyEvent(
                 ACTION_REFRESH_MINI_PERMISSION,
@@ -130,18 +121,16 @@ class PermissionUseCase(
     }
 
     override fun checkPermissionAndRecord(appId: String, permissions: List<String>, needRecord: Boolean): Boolean {
-        var grantedResult = false
-        permissionsMap[appId]?.let {
-            grantedResult = isPermissionAllGranted(permissions, it)
-        } ?: run {
-            var map: MutableMap<String, Boolean> = mutableMapOf()
-            runBlocking {
-                withTimeoutOrNull(MAX_TIME_GET_PERMISSIONS) {
-                    map = getPermission(appId)
-                }
+        val permissionMap = permissionsMap[appId] ?: run {
+            // 小程序页面在权限快照加载完成后才加载，正常不会走到这里；主线程不能查库，异步加载后本次按未授权处理
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                logger.warn("checkPermissionAndRecord, permissions of $appId not loaded")
+                preloadPermission(appId)
+                return false
             }
-            grantedResult = isPermissionAllGranted(permissions, map)
+            loadPermission(appId)
         }
+        val grantedResult = isPermissionAllGranted(permissions, permissionMap)
         if (grantedResult && needRecord) {
             //当所有权限全部授予，且needRecord为true时，将权限使用记录插入到数据库中，默认情况下needRecord值为true
             insertPermissionUsages(appId, permissions)
@@ -154,20 +143,13 @@ class PermissionUseCase(
     }
 
     override suspend fun refreshPermissionMapFromRepo(appId: String) {
-        val resultMap = mutableMapOf<String, Boolean>()
-        val permissionJsonString = permissionDbRepo.getPermissionModelById(appId)
-        permissionJsonString?.let { permissionModel ->
-            val map = JsonUtil.fromJson(permissionModel.permissionMapString, Map::class.java)
-            map?.forEach { (entry, value) ->
-                val result = value as? Boolean
-                result?.let { resultMap[entry.toString()] = result }
-            }
-        }
+        val resultMap = loadPermission(appId)
         LogUtils.debug(TAG, "refreshPermissionMapFromRepo appId: $appId, resultMap: $resultMap")
-        permissionsMap[appId] = resultMap
     }
 
     override fun getPermissionUsage(appId: String, timeStamp: Long): MutableList<PermissionUsageData> {
+        // 先写入本进程缓冲中的记录；其他进程的缓冲无法在这里写入，按各自的定时写入
+        usageBuffer.flush()
         val permissionUsageList = permissionDbRepo.getPermissionUsageByIdWithInTime(appId, timeStamp)
         val resultList = permissionUsageList.asSequence().map {
             PermissionUsageData(PermissionUtils.getPermissionData(it.permissionName)?.permissionUsageName ?: "", DateUtils.timestampToDateTime(it.permissionUsageTimeStamp))
@@ -176,15 +158,33 @@ class PermissionUseCase(
     }
 
     override fun insertPermissionUsages(appId: String, miniPermissionNames: List<String>) {
-        scope.launch(Dispatchers.IO) {
-            miniPermissionNames.forEach { miniPermissionName ->
-                val permissionUsageEntity = PermissionUsageEntity(appId, PermissionUtils.convertToSingleSystemPermissions(miniPermissionName), System.currentTimeMillis())
-                permissionDbRepo.insertPermissionUsage(permissionUsageEntity)
-            }
+        val timeStamp = System.currentTimeMillis()
+        miniPermissionNames.forEach { miniPermissionName ->
+            usageBuffer.record(appId, PermissionUtils.convertToSingleSystemPermissions(miniPermissionName), timeStamp)
+        }
+    }
+
+    override fun flush(): Job {
+        return scope.launch(Dispatchers.IO) { usageBuffer.flush() }
+    }
+
+    private fun loadPermission(appId: String): Map<String, Boolean> {
+        val resultMap = permissionDbRepo.getPermissionModelById(appId)?.let { parsePermissionMap(it) } ?: emptyMap()
+        permissionsMap[appId] = resultMap
+        return resultMap
+    }
+
+    private fun parsePermissionMap(permissionModel: PermissionModel): Map<String, Boolean> {
+        val resultMap = mutableMapOf<String, Boolean>()
+        val map = JsonUtil.fromJson(permissionModel.permissionMapString, Map::class.java)
+        map?.forEach { (entry, value) ->
+            val result = value as? Boolean
+            result?.let { resultMap[entry.toString()] = result }
         }
+        return resultMap
     }
 
-    private fun isPermissionAllGranted(permissions: List<String>, permissionMap: MutableMap<String, Boolean>): Boolean {
+    private fun isPermissionAllGranted(permissions: List<String>, permissionMap: Map<String, Boolean>): Boolean {
         permissions.forEach { permission ->
             if (permissionMap[permission] != true) {
                 return false
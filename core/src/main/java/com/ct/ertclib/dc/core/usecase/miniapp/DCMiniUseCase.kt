@@ -109,11 +109,11 @@ class DCMiniUseCase(private val miniToParentManager: IMiniToParentManager) :
 
         val dcLabelStr = dcLabel as String
         scope.launch(Dispatchers.IO) {
-            logger.info("JSApi asyn ,sendData dcLabel:$dcLabelStr, data:$data")
+            logger.info { "JSApi asyn ,sendData dcLabel:$dcLabelStr, data:$data" }
             val dc = miniToParentManager.openDCList?.firstOrNull { DCUtils.compareDCLabel(it.dcLabel, dcLabelStr) }
             dc?.send(dataByteArray, dataByteArray.size, object : IDCSendDataCallback.Stub() {
                 override fun onSendDataResult(state: Int) {
-                    logger.debug("onSendDataResult state:$state")
+                    logger.debug { "onSendDataResult state:$state" }
                     val response = JSResponse(if(state == DC_SEND_DATA_OK) "0" else state.toString(), if(state == DC_SEND_DATA_OK) "success" else "fail", "")
                     handler.complete(JsonUtil.toJson(response))
                 }
@@ -209,4 +209,27 @@ class DCMiniUseCase(private val miniToParentManager: IMiniToParentManager) :
         val response = JSResponse("0", "success", bufferedAmountMap)
         return JsonUtil.toJson(response)
     }
+
+    override fun openBinaryChannel(
+        context: Context,
+        params: Map<String, Any>,
+        handler: CompletionHandler<String?>
+    ) {
+        logger.info("JSApi asyn ,openBinaryChannel")
+        // 端口只能发给虚拟https源，file://加载的页面不提供二进制通道
+        if (miniToParentManager.getMiniAppInfo()?.appProperties?.useAssetOrigin != true) {
+            handler.complete(JsonUtil.toJson(JSResponse("1", "binary channel requires useAssetOrigin", "")))
+            return
+        }
+        scope.launch(Dispatchers.Main) {
+            val webView = miniToParentManager.miniAppInterface?.getMiniAppWebView()
+            val result = webView != null && miniToParentManager.binaryBridge.open(webView)
+            val response = if (result) {
+                JSResponse("0", "success", "")
+            } else {
+                JSResponse("1", "binary channel not supported", "")
+            }
+            handler.complete(JsonUtil.toJson(response))
+        }
+    }
 }
\ No newline at end of file
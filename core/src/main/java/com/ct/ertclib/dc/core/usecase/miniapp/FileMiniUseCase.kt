@@ -29,22 +29,28 @@ import android.provider.Settings
 import android.text.TextUtils
 import androidx.appcompat.app.AlertDialog
 import com.blankj.utilcode.util.SPUtils
-import com.blankj.utilcode.util.ZipUtils
 import com.ct.ertclib.dc.core.R
 import com.ct.ertclib.dc.core.utils.logger.Logger
 import com.ct.ertclib.dc.core.utils.common.JsonUtil
+import com.ct.ertclib.dc.core.common.DirectoryListingCache
 import com.ct.ertclib.dc.core.common.PathManager
-import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_SP_EXPIRY_ITEM_SPLIT_KEY
-import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_SP_EXPIRY_SPLIT_KEY
-import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_SP_KEYS_KEY
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_HANDLE_MAX_CHUNK
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_KV_EVICT_INTERVAL_MILLIS
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_KV_ROOT_PATH
+import com.ct.ertclib.dc.core.constants.CommonConstants.PERCENT_CONSTANTS
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.KEY_PARAM
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_ALGORITHM
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_DOWNLOAD_EVENT
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_DOWNLOAD_URL
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_EXTRA_INFO
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_FILE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_FILE_NAME
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_FILE_PATH
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_HANDLE
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_MODE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_MODEL
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_POSITION
+import com.ct.ertclib.dc.core.constants.MiniAppConstants.PARAMS_PROGRESS
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.RESPONSE_FAILED_CODE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.RESPONSE_FAILED_MESSAGE
 import com.ct.ertclib.dc.core.constants.MiniAppConstants.RESPONSE_SUCCESS_CODE
@@ -58,7 +64,10 @@ import com.ct.ertclib.dc.core.data.miniapp.MiniAppPermissions
 import com.ct.ertclib.dc.core.data.miniapp.ModelInfo
 import com.ct.ertclib.dc.core.data.model.FileEntity
 import com.ct.ertclib.dc.core.data.model.ModelEntity
+import com.ct.ertclib.dc.core.manager.common.FileChecksumManager
 import com.ct.ertclib.dc.core.manager.common.FileManager
+import com.ct.ertclib.dc.core.miniapp.bridge.FileHandleTable
+import com.ct.ertclib.dc.core.miniapp.db.MiniAppKvStore
 import com.ct.ertclib.dc.core.port.common.OnPickMediaCallbackListener
 import com.ct.ertclib.dc.core.port.listener.IDownloadListener
 import com.ct.ertclib.dc.core.port.manager.IFileDownloadManager
@@ -66,24 +75,30 @@ import com.ct.ertclib.dc.core.port.manager.IMiniToParentManager
 import com.ct.ertclib.dc.core.port.manager.IModelManager
 import com.ct.ertclib.dc.core.port.usecase.mini.IFileMiniEventUseCase
 import com.ct.ertclib.dc.core.port.usecase.mini.IPermissionUseCase
+import com.ct.ertclib.dc.core.utils.common.ArchiveExtractor
+import com.ct.ertclib.dc.core.utils.common.FileChecksum
 import com.ct.ertclib.dc.core.utils.common.FileUtils
 import com.ct.ertclib.dc.core.utils.common.LogUtils
 import com.ct.ertclib.dc.core.utils.common.SystemUtils
 import com.ct.ertclib.dc.core.utils.common.ToastUtils
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import wendu.dsbridge.CompletionHandler
 import java.io.File
-import java.io.FileFilter
 import java.io.FileInputStream
 import java.io.FileOutputStream
+import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
-import java.util.Collections
+import java.io.RandomAccessFile
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 
 class FileMiniUseCase(
     private val miniToParentManager: IMiniToParentManager,
@@ -95,12 +110,21 @@ class FileMiniUseCase(
     companion object {
         private const val TAG = "FileMiniUseCase"
         private const val FILE_MODEL_PATH = "model"
+        private const val FILE_HANDLE_MODE_READ = "r"
+        private const val FILE_HANDLE_MODE_READ_WRITE = "rw"
+        private const val FILE_HANDLE_MODE_WRITE = "w"
+        private const val FILE_LIST_CURSOR_SPLIT = ":"
     }
 
     private val logger = Logger.getLogger(TAG)
     private var mFileInputStream: InputStream? = null
     private var mFileOutputStream: OutputStream? = null
     private val scope = CoroutineScope(Dispatchers.Default + SupervisorJob())
+    private val kvStores = ConcurrentHashMap<String, MiniAppKvStore>()
+    private val kvEvictLock = Any()
+    // 定时淘汰过期键的任务及其下次运行的时间，没有带过期时间的键时不运行
+    private var kvEvictJob: Job? = null
+    private var kvEvictAt = Long.MAX_VALUE
 
 
     override fun getLocation(
@@ -313,7 +337,8 @@ class FileMiniUseCase(
         var srcPathStr = srcPath as String
         val desPathStr = desPath as String
         val compressTypeStr = compressType as String
-        if (!isMiniAppPrivatePath(context, desPathStr)) {//严格判断只能是path，所以用startsWith
+        // 去掉..后再判断一次，防止解压到私有目录之外
+        if (!isMiniAppPrivatePath(context, desPathStr) || !isMiniAppPrivatePath(context, File(desPathStr).normalize().path)) {//严格判断只能是path，所以用startsWith
             logger.debug("JSApi sync decompressFile desPathStr path not in privateFolder")
             response.code = "1"
             response.message = "desPathStr not in privateFolder"
@@ -327,33 +352,30 @@ class FileMiniUseCase(
                 srcPathStr = filePath
             }
         }
-        scope.launch {
-            withContext(Dispatchers.IO) {
-                //根据压缩类型 compressType把压缩文件解压到对应路径
-                try {
-                    var ok = false
-                    if (compressTypeStr == "zip") {
-                        ZipUtils.unzipFile(srcPathStr, desPath)
-                        ok = true
-                    } else if (compressTypeStr == "tar" || compressTypeStr == "gz") {
-                        ok = FileUtils.untarFile(srcPathStr, desPathStr)
-                    }
-
-                    scope.launch {
-                        withContext(Dispatchers.Main) {
-                            if (ok){
-                                handler.complete(JsonUtil.toJson(JSResponse("0", "success",null)))
-                            } else {
-                                handler.complete(JsonUtil.toJson(JSResponse("0", "fail",null)))
-                            }
-                        }
+        val onProgress = createProgressCallback(params, handler, srcPathStr)
+        scope.launch(Dispatchers.IO) {
+            //根据压缩类型 compressType把压缩文件解压到对应路径
+            val ok = try {
+                when (compressTypeStr) {
+                    "zip" -> {
+                        ArchiveExtractor.unzip(File(srcPathStr), File(desPathStr), onProgress = onProgress)
+                        true
                     }
-                } catch (e:Exception){
-                    scope.launch {
-                        withContext(Dispatchers.Main) {
-                            handler.complete(JsonUtil.toJson(JSResponse("0", "fail",null)))
-                        }
+                    "tar", "gz" -> {
+                        ArchiveExtractor.untar(File(srcPathStr), File(desPathStr), onProgress = onProgress)
+                        true
                     }
+                    else -> false
+                }
+            } catch (e: Exception) {
+                logger.warn("decompressFile failed, ${e.message}")
+                false
+            }
+            withContext(Dispatchers.Main) {
+                if (ok){
+                    handler.complete(JsonUtil.toJson(JSResponse("0", "success",null)))
+                } else {
+                    handler.complete(JsonUtil.toJson(JSResponse("0", "fail",null)))
                 }
             }
         }
@@ -378,13 +400,14 @@ class FileMiniUseCase(
         val sortType = params["sortType"]//可空，排序规则，"sizeSort"，"timeSort"
         val sortOrder = params["sortOrder"]//根据sortType字段确定，"sizeSort"("1":从大到小，"2":从小到大);"timeSort"("1":最新修改在前，"2":最新修改在后)
         val folderPosition = params["folderPosition"]//文件夹位置，可空，空或"0":默认，"1":文件夹放在前面，"2":文件夹放在后面
+        val cursor = params["cursor"] as? String//可空，传了(可为空字符串)时按游标翻页，返回下一页的游标，非首页时offset可不传
 
         val response = JSResponse("0", "getFileList", mutableListOf<HashMap<String,Any>>())
         // 必填参数校验
         var errMsg = ""
         if (path == null || TextUtils.isEmpty(path as String)) {
             errMsg = "JSApi sync getFileList path is null"
-        } else if (offset == null || TextUtils.isEmpty(offset as String)) {
+        } else if (cursor.isNullOrEmpty() && (offset == null || TextUtils.isEmpty(offset as String))) {
             errMsg = "JSApi sync getFileList offset is null"
         } else if (count == null || TextUtils.isEmpty(count as String)) {
             errMsg = "JSApi sync getFileList count is null"
@@ -398,7 +421,7 @@ class FileMiniUseCase(
         }
 
         val folderPath = path as String
-        val offsetInt = (offset as String).toInt()
+        val offsetInt = (offset as? String)?.toIntOrNull() ?: 0
         val countInt = (count as String).toInt()
         val fileTypeInt = if (fileType == null) 0 else (fileType as String).toInt()
         val suffixStr = if (suffix == null) "" else (suffix as String)
@@ -414,85 +437,24 @@ class FileMiniUseCase(
                 suffixArray.add(su)
             }
         }
-        //过滤规则
-        val filter = object : FileFilter {
-            override fun accept(file: File?): Boolean {
-                file?.let {
-                    val fileTypeBoolean = when(fileTypeInt){
-                        0 ->  true
-                        1 -> !it.isDirectory
-                        2 -> it.isDirectory
-                        else -> false
-                    }
-                    var suffixBoolean = true
-                    if(suffixArray.isNotEmpty() && !it.isDirectory){//说明需要根据后缀筛选
-                        suffixBoolean = false
-                        for(su in suffixArray){
-                            if (it.name.endsWith(su)){
-                                suffixBoolean = true
-                                break
-                            }
-                        }
-                    }
-                    return fileTypeBoolean && suffixBoolean
-                }
-                return false
-            }
-        }
-        //排序
-        val fileList = com.blankj.utilcode.util.FileUtils.listFilesInDirWithFilter(folderPath,filter)
-        val sortComparator: java.util.Comparator<File>? = when(sortTypeStr){
-            "sizeSort" -> when(sortOrderInt){//"1":从大到小，"2":从小到大
-                1 -> Comparator { o1, o2 ->
-                    (o2.length() - o1.length()).toInt()
-                }
-                2 -> Comparator { o1, o2 ->
-                    (o1.length() - o2.length()).toInt()
-                }
-                else -> null
-            }
-            "timeSort" -> when(sortOrderInt){//"1":最新修改在前，"2":最新修改在后
-                1 -> Comparator { o1, o2 ->
-                    (o2.lastModified() - o1.lastModified()).toInt()
-                }
-                2 -> Comparator { o1, o2 ->
-                    (o1.lastModified() - o2.lastModified()).toInt()
-                }
-                else -> null
-            }
-            else -> null
-        }
-        if (sortComparator!=null){
-            Collections.sort(fileList, sortComparator)
-        }
-        //文件夹位置
-        val folderComparator = when(folderPositionInt){
-            1 -> Comparator<File> { o1, o2 ->
-                var result = 0
-                if (o1.isDirectory && !o2.isDirectory){
-                    result = 1
-                } else if (!o1.isDirectory && o2.isDirectory){
-                    result = -1
-                }
-                result
-            }
-            2 -> Comparator { o1, o2 ->
-                var result = 0
-                if (o1.isDirectory && !o2.isDirectory){
-                    result = -1
-                } else if (!o1.isDirectory && o2.isDirectory){
-                    result = 1
-                }
-                result
-            }
-            else -> null
-        }
-        if (folderComparator!=null){
-            Collections.sort(fileList, folderComparator)
+        // 游标所在的快照还在时从该快照继续，各页之间不受目录变化影响
+        val cursorPosition = parseFileListCursor(cursor)
+        val query = DirectoryListingCache.Query(fileTypeInt, suffixArray, sortTypeStr, sortOrderInt, folderPositionInt)
+        val cursorSnapshot = cursorPosition?.let { DirectoryListingCache.instance.getSnapshot(it.first) }
+        if (cursorSnapshot != null && !cursorSnapshot.matches(folderPath, query)) {
+            // 游标属于其他目录或其他列举条件，不能用来翻页
+            logger.warn("JSApi sync getFileList cursor does not match folderPath or query")
+            response.code = "1"
+            response.message = "cursor does not match folderPath or query"
+            response.data = mutableListOf()
+            return JsonUtil.toJson(response)
         }
+        val snapshot = cursorSnapshot ?: DirectoryListingCache.instance.getSnapshot(folderPath, query)
+        val start = cursorPosition?.second ?: offsetInt
         //分页
+        val fileList = snapshot.files
         val fileListSize = fileList.size
-        if (offsetInt > fileListSize) {
+        if (start > fileListSize) {
             if (logger.isDebugActivated) {
                 logger.debug("JSApi sync getFileList offsetInt > fileListSize")
             }
@@ -502,17 +464,22 @@ class FileMiniUseCase(
             return JsonUtil.toJson(response)
         }
         val end =
-            if (offsetInt + countInt > fileListSize) fileListSize else offsetInt + countInt
-        val subList = fileList.subList(offsetInt, end)
+            if (start + countInt > fileListSize) fileListSize else start + countInt
+        val subList = fileList.subList(start, end)
         val result = mutableListOf<HashMap<String,Any>>()
         subList.forEach {
             result.add(hashMapOf(
-                "path" to it.absolutePath,
-                "size" to it.length(),
-                "lastModified" to it.lastModified(),
-                "isDirectory" to it.isDirectory(),
+                "path" to it.path,
+                "size" to it.size,
+                "lastModified" to it.lastModified,
+                "isDirectory" to it.isDirectory,
                 "name" to it.name))
         }
+        if (cursor != null) {
+            val nextCursor = if (end < fileListSize) "${snapshot.id}$FILE_LIST_CURSOR_SPLIT$end" else ""
+            return JsonUtil.toJson(JSResponse("0", "success",
+                hashMapOf("list" to result, "cursor" to nextCursor, "total" to fileListSize)))
+        }
         response.code = "0"
         response.message = "success"
         response.data = result
@@ -707,6 +674,151 @@ class FileMiniUseCase(
         return JsonUtil.toJson(response)
     }
 
+    override fun openFileHandle(context: Context, params: Map<String, Any>): String? {
+        logger.debug("openFileHandle")
+        miniToParentManager.getMiniAppInfo()?.let {
+            if (!permissionMiniUseCase.checkPermissionAndRecord(it.appId, listOf(MiniAppPermissions.MINIAPP_EXTERNAL_STORAGE))) {
+                logger.warn("openFileHandle, permission not granted, return")
+                return JsonUtil.toJson(JSResponse(RESPONSE_FAILED_CODE, RESPONSE_FAILED_MESSAGE, null))
+            }
+        } ?: run {
+            logger.warn("openFileHandle, appInfo is null, return")
+            return JsonUtil.toJson(JSResponse(RESPONSE_FAILED_CODE, RESPONSE_FAILED_MESSAGE, null))
+        }
+        val pathStr = params["path"] as? String
+        if (pathStr.isNullOrEmpty()) {
+            return JsonUtil.toJson(JSResponse("1", "path is null", ""))
+        }
+        // r只读，rw读写不存在时创建，w读写并清空原内容
+        val mode = params[PARAMS_MODE] as? String ?: FILE_HANDLE_MODE_READ
+        if (mode != FILE_HANDLE_MODE_READ && mode != FILE_HANDLE_MODE_READ_WRITE && mode != FILE_HANDLE_MODE_WRITE) {
+            return JsonUtil.toJson(JSResponse("1", "invalid mode:$mode", ""))
+        }
+        val handle = try {
+            if (mode == FILE_HANDLE_MODE_READ) {
+                // 路径有可能是uri也可能是path
+                if (FileUtils.isUri(pathStr)) {
+                    val pfd = context.contentResolver.openFileDescriptor(Uri.parse(pathStr), "r")
+                        ?: return JsonUtil.toJson(JSResponse("1", "openFileHandle open uri failed", ""))
+                    FileHandleTable.Handle(pathStr, FileInputStream(pfd.fileDescriptor).channel, false, pfd)
+                } else {
+                    FileHandleTable.Handle(pathStr, FileInputStream(File(pathStr)).channel, false, null)
+                }
+            } else {
+                val file = File(pathStr)
+                // 去掉..后再判断，防止写到私有目录之外；不用canonicalPath，/sdcard等符号链接解析后不再匹配
+                if (!isMiniAppPrivatePath(context, pathStr) || !isMiniAppPrivatePath(context, file.normalize().path)) {
+                    return JsonUtil.toJson(JSResponse("1", "path not in privateFolder", ""))
+                }
+                if (pathStr.contains(":")) {//有些手机文件名不能有冒号
+                    return JsonUtil.toJson(JSResponse("1", "path cannot contains :", ""))
+                }
+                file.parentFile?.let { dir ->
+                    if (!dir.exists()) {
+                        dir.mkdirs()
+                    }
+                }
+                val channel = RandomAccessFile(file, "rw").channel
+                if (mode == FILE_HANDLE_MODE_WRITE) {
+                    channel.truncate(0)
+                }
+                FileHandleTable.Handle(pathStr, channel, true, null)
+            }
+        } catch (e: Exception) {
+            logger.warn("openFileHandle failed, ${e.message}")
+            return JsonUtil.toJson(JSResponse("1", "openFileHandle err $e", ""))
+        }
+        return try {
+            val size = handle.channel.size()
+            val id = miniToParentManager.fileHandleTable.add(handle)
+            JsonUtil.toJson(JSResponse("0", "success", hashMapOf(PARAMS_HANDLE to id, "size" to size)))
+        } catch (e: IOException) {
+            handle.close()
+            JsonUtil.toJson(JSResponse("1", "openFileHandle err $e", ""))
+        }
+    }
+
+    override fun readFileHandle(context: Context, params: Map<String, Any>, handler: CompletionHandler<String?>) {
+        val handle = parseLongParam(params[PARAMS_HANDLE])?.toInt()
+        val position = parseLongParam(params[PARAMS_POSITION])
+        val length = parseLongParam(params["length"])
+        if (handle == null || position == null || position < 0 || length == null || length < 0) {
+            handler.complete(JsonUtil.toJson(JSResponse("1", "handle, position or length is invalid", "")))
+            return
+        }
+        if (length > FILE_HANDLE_MAX_CHUNK) {
+            handler.complete(JsonUtil.toJson(JSResponse("1", "length should not exceed $FILE_HANDLE_MAX_CHUNK", "")))
+            return
+        }
+        scope.launch(Dispatchers.IO) {
+            val response = try {
+                val data = miniToParentManager.fileHandleTable.read(handle, position, length.toInt())
+                JSResponse("0", "success", hashMapOf("isEnd" to (data.size < length), "base64Data" to FileUtils.byteArrayToBase64(data)))
+            } catch (e: IOException) {
+                logger.warn("readFileHandle failed, ${e.message}")
+                JSResponse("1", "readFileHandle err $e", "")
+            }
+            withContext(Dispatchers.Main) {
+                handler.complete(JsonUtil.toJson(response))
+            }
+        }
+    }
+
+    override fun writeFileHandle(context: Context, params: Map<String, Any>, handler: CompletionHandler<String?>) {
+        val handle = parseLongParam(params[PARAMS_HANDLE])?.toInt()
+        val position = parseLongParam(params[PARAMS_POSITION])
+        val data = params["data"] as? String
+        if (handle == null || position == null || position < 0 || data == null) {
+            handler.complete(JsonUtil.toJson(JSResponse("1", "handle, position or data is invalid", "")))
+            return
+        }
+        scope.launch(Dispatchers.IO) {
+            val response = try {
+                val written = miniToParentManager.fileHandleTable.write(handle, position, FileUtils.base64ToByteArray(data))
+                JSResponse("0", "success", hashMapOf("written" to written))
+            } catch (e: IOException) {
+                logger.warn("writeFileHandle failed, ${e.message}")
+                JSResponse("1", "writeFileHandle err $e", "")
+            }
+            withContext(Dispatchers.Main) {
+                handler.complete(JsonUtil.toJson(response))
+            }
+        }
+    }
+
+    override fun closeFileHandle(context: Context, params: Map<String, Any>): String? {
+        val handle = parseLongParam(params[PARAMS_HANDLE])?.toInt()
+            ?: return JsonUtil.toJson(JSResponse("1", "handle is null", ""))
+        return try {
+            if (miniToParentManager.fileHandleTable.close(handle)) {
+                JsonUtil.toJson(JSResponse("0", "success", ""))
+            } else {
+                JsonUtil.toJson(JSResponse("1", "invalid handle:$handle", ""))
+            }
+        } catch (e: IOException) {
+            JsonUtil.toJson(JSResponse("1", "closeFileHandle err $e", ""))
+        }
+    }
+
+    override fun openFileBinaryChannel(context: Context, params: Map<String, Any>, handler: CompletionHandler<String?>) {
+        logger.info("JSApi asyn ,openFileBinaryChannel")
+        // 端口只能发给虚拟https源，file://加载的页面不提供二进制通道
+        if (miniToParentManager.getMiniAppInfo()?.appProperties?.useAssetOrigin != true) {
+            handler.complete(JsonUtil.toJson(JSResponse("1", "binary channel requires useAssetOrigin", "")))
+            return
+        }
+        scope.launch(Dispatchers.Main) {
+            val webView = miniToParentManager.miniAppInterface?.getMiniAppWebView()
+            val result = webView != null && miniToParentManager.fileBinaryBridge.open(webView)
+            val response = if (result) {
+                JSResponse("0", "success", "")
+            } else {
+                JSResponse("1", "binary channel not supported", "")
+            }
+            handler.complete(JsonUtil.toJson(response))
+        }
+    }
+
     override fun checkFileOrFolderExists(
         context: Context,
         params: Map<String, Any>
@@ -836,6 +948,14 @@ class FileMiniUseCase(
             return
         }
         val pathStr = path as String
+        val algorithm = params[PARAMS_ALGORITHM]?.toString() ?: FileChecksum.ALGORITHM_MD5
+        if (!FileChecksum.isSupported(algorithm)) {
+            response.code = "1"
+            response.message = "unsupported algorithm"
+            handler.complete(JsonUtil.toJson(response))
+            return
+        }
+        val onProgress = createProgressCallback(params, handler, pathStr)
         scope.launch(Dispatchers.IO) {
             if (FileUtils.isUri(pathStr)){
                 val uri = Uri.parse(pathStr)
@@ -848,10 +968,11 @@ class FileMiniUseCase(
                     response.data = hashMapOf()
                 } else {
                     val isDirectory = !name!!.contains(".")//这个判断不够严谨
-                    val md5 = if (FileUtils.isUriFolder(context,uri)){
+                    val checksum = if (FileUtils.isUriFolder(context,uri)){
                         ""
                     } else {
-                        FileUtils.getFileMD5FromUri(context,uri)
+                        FileChecksumManager.instance.getUriChecksum(context, uri, algorithm, onProgress)
+                            ?: if (algorithm == FileChecksum.ALGORITHM_MD5) FileUtils.getFileMD5FromUri(context,uri) else null
                     }
                     response.data = hashMapOf(
                         "path" to pathStr,
@@ -859,7 +980,7 @@ class FileMiniUseCase(
                         "lastModified" to FileUtils.getFileLastModifiedFromUri(context,uri),
                         "isDirectory" to isDirectory,
                         "name" to name,
-                        "md5" to (md5 ?: "")
+                        algorithm to (checksum ?: "")
                     )
                 }
             } else {
@@ -871,10 +992,12 @@ class FileMiniUseCase(
                 } else {
                     response.code = "0"
                     response.message = "success"
-                    val md5 = if (file.isDirectory){
+                    val checksum = if (file.isDirectory){
                         ""
                     } else {
-                        com.blankj.utilcode.util.FileUtils.getFileMD5ToString(file)
+                        // 与原FileUtils.getFileMD5ToString一致，文件路径的md5返回大写
+                        FileChecksumManager.instance.getFileChecksum(file, algorithm, onProgress)
+                            ?.let { if (algorithm == FileChecksum.ALGORITHM_MD5) it.uppercase() else it } ?: ""
                     }
                     response.data = hashMapOf(
                         "path" to file.absolutePath,
@@ -882,7 +1005,7 @@ class FileMiniUseCase(
                         "lastModified" to file.lastModified(),
                         "isDirectory" to file.isDirectory(),
                         "name" to file.name,
-                        "md5" to md5
+                        algorithm to checksum
                     )
                 }
             }
@@ -952,7 +1075,8 @@ class FileMiniUseCase(
             return JsonUtil.toJson(JSResponse(RESPONSE_FAILED_CODE, RESPONSE_FAILED_MESSAGE, null))
         }
         miniToParentManager.getMiniAppInfo()?.let{
-            SPUtils.getInstance().put(it.appId+key,value)
+            getKvStore(context, it.appId).put(key, value)
+            removeLegacyKeyValue(it.appId, key)
         }
         val response = JSResponse("0", "success", null)
         return JsonUtil.toJson(response)
@@ -974,17 +1098,17 @@ class FileMiniUseCase(
             logger.warn("saveKeyValue, param ttl is null, return")
             return JsonUtil.toJson(JSResponse(RESPONSE_FAILED_CODE, RESPONSE_FAILED_MESSAGE, null))
         }
+        val ttlMillis = ttl.toLongOrNull()
+        if (ttlMillis == null) {
+            logger.warn("saveKeyValue, param ttl is invalid: $ttl, return")
+            return JsonUtil.toJson(JSResponse(RESPONSE_FAILED_CODE, RESPONSE_FAILED_MESSAGE, null))
+        }
         miniToParentManager.getMiniAppInfo()?.let{
-            SPUtils.getInstance().put(it.appId+key,value)
-            // 存有效期，用于在SDK启动的时候清除过期的key
-            val expiryTime = System.currentTimeMillis() + ttl.toLong()
-            val keysStr = SPUtils.getInstance().getString(MINI_APP_SP_KEYS_KEY,"")
-            var builder = StringBuilder(keysStr)
-            if (builder.isNotEmpty()){
-                builder.append(MINI_APP_SP_EXPIRY_ITEM_SPLIT_KEY)
-            }
-            builder.append("${it.appId}${key}${MINI_APP_SP_EXPIRY_SPLIT_KEY}${expiryTime}")
-            SPUtils.getInstance().put(MINI_APP_SP_KEYS_KEY, builder.toString())
+            // 过期时间随记录写入，由存储自己的过期索引淘汰
+            val expiry = System.currentTimeMillis() + ttlMillis
+            getKvStore(context, it.appId).put(key, value, expiry)
+            scheduleKvEviction(expiry)
+            removeLegacyKeyValue(it.appId, key)
         }
         val response = JSResponse("0", "success", null)
         return JsonUtil.toJson(response)
@@ -997,28 +1121,8 @@ class FileMiniUseCase(
             return JsonUtil.toJson(JSResponse(RESPONSE_FAILED_CODE, RESPONSE_FAILED_MESSAGE, null))
         }
         miniToParentManager.getMiniAppInfo()?.let{ appInfo ->
-            SPUtils.getInstance().remove(appInfo.appId+key)
-            scope.launch(Dispatchers.IO) {
-                val keysStr = SPUtils.getInstance().getString(MINI_APP_SP_KEYS_KEY,"")
-                val keys = keysStr.split(MINI_APP_SP_EXPIRY_ITEM_SPLIT_KEY)
-                var builder = StringBuilder()
-                keys.forEach {
-                    try {
-                        val appIdKey = it.split(MINI_APP_SP_EXPIRY_SPLIT_KEY)[0]
-                        if (appIdKey === appInfo.appId+key){
-                            SPUtils.getInstance().remove(key)
-                        } else {
-                            if (builder.isNotEmpty()){
-                                builder.append(MINI_APP_SP_EXPIRY_ITEM_SPLIT_KEY)
-                            }
-                            builder.append(it)
-                        }
-                    } catch (e: Exception){
-                        e.printStackTrace()
-                    }
-                }
-                SPUtils.getInstance().put(MINI_APP_SP_KEYS_KEY, builder.toString())
-            }
+            getKvStore(context, appInfo.appId).remove(key)
+            removeLegacyKeyValue(appInfo.appId, key)
         }
         val response = JSResponse("0", "success", null)
         return JsonUtil.toJson(response)
@@ -1077,7 +1181,8 @@ class FileMiniUseCase(
             return JsonUtil.toJson(JSResponse(RESPONSE_FAILED_CODE, RESPONSE_FAILED_MESSAGE, null))
         }
         miniToParentManager.getMiniAppInfo()?.let{
-            val value = SPUtils.getInstance().getString(it.appId+key)
+            // 旧版本写在SP中的数据只读不迁移，SP中的过期时间仍由InCallServiceImpl清理
+            val value = getKvStore(context, it.appId).get(key) ?: SPUtils.getInstance().getString(it.appId+key)
             val valueMap = mutableMapOf<String, String>()
             valueMap["value"] = value
             val response = JSResponse("0", "success", valueMap)
@@ -1166,7 +1271,10 @@ class FileMiniUseCase(
         if (!FileManager.instance.hasFileIndex()) {// 没有扫描过，第一次扫描
             FileManager.instance.updateFiles(context)
         }
-        val resultList = FileManager.instance.searchFilesByKeyWords(*keyWordsArray)
+        // 只返回name和path，不带索引列
+        val resultList = FileManager.instance.searchFilesByKeyWords(*keyWordsArray).map {
+            hashMapOf("path" to it.path, "name" to it.name)
+        }
 
         scope.launch {
             withContext(Dispatchers.Main) {
@@ -1222,7 +1330,7 @@ class FileMiniUseCase(
                             LogUtils.debug(TAG, "onDownloadSuccess")
                             kotlin.runCatching {
                                 FileUtils.deletePath(targetFileDir)
-                                ZipUtils.unzipFile(downloadFilePath, targetFileDir)
+                                ArchiveExtractor.unzip(File(downloadFilePath), File(targetFileDir))
                             }.onFailure {
                                 LogUtils.error(TAG, "onDownloadSuccess unzipFile failed: $this")
                             }
@@ -1368,6 +1476,49 @@ class FileMiniUseCase(
         builder.show()
     }
 
+    /**
+     * 小程序传progress为true时按百分比回调进度，否则返回null
+     */
+    private fun createProgressCallback(params: Map<String, Any>, handler: CompletionHandler<String?>, path: String): ((Long, Long) -> Unit)? {
+        if (params[PARAMS_PROGRESS] != true) {
+            return null
+        }
+        val lastPercent = AtomicLong(-1)
+        return { done, total ->
+            val percent = if (total > 0) done * PERCENT_CONSTANTS / total else PERCENT_CONSTANTS.toLong()
+            val last = lastPercent.get()
+            if (percent > last && lastPercent.compareAndSet(last, percent)) {
+                val progressJson = JsonUtil.toJson(JSResponse("0", "progress",
+                    mapOf("path" to path, "processed" to done, "total" to total)))
+                scope.launch(Dispatchers.Main) {
+                    handler.setProgressData(progressJson)
+                }
+            }
+        }
+    }
+
+    /**
+     * 游标格式为"快照编号:起始位置"，无效时返回null。快照已被淘汰时由调用方重新取快照，从同一位置继续
+     */
+    private fun parseFileListCursor(cursor: String?): Pair<Long, Int>? {
+        if (cursor.isNullOrEmpty()) {
+            return null
+        }
+        val parts = cursor.split(FILE_LIST_CURSOR_SPLIT)
+        val id = parts.getOrNull(0)?.toLongOrNull() ?: return null
+        val position = parts.getOrNull(1)?.toIntOrNull() ?: return null
+        return if (position >= 0) id to position else null
+    }
+
+    // JS传来的数字可能是Double也可能是字符串
+    private fun parseLongParam(value: Any?): Long? {
+        return when (value) {
+            is Number -> value.toLong()
+            is String -> value.toLongOrNull()
+            else -> null
+        }
+    }
+
     private fun isMiniAppPrivatePath(context: Context, path:String):Boolean{
         if (TextUtils.isEmpty(path)){
             return false
@@ -1378,6 +1529,67 @@ class FileMiniUseCase(
         return path.startsWith(miniAppFilePath(context, "inner")) || path.startsWith(miniAppFilePath(context,"outer"))
     }
 
+    private fun getKvStore(context: Context, appId: String): MiniAppKvStore {
+        val store = kvStores.computeIfAbsent(appId) {
+            val file = File(PathManager().getInternalFilesDirPath(context) + MINI_APP_KV_ROOT_PATH, "$appId.kv")
+            MiniAppKvStore(file).also { store ->
+                if (store.recoveredDroppedBytes > 0) {
+                    logger.warn("getKvStore, $appId dropped ${store.recoveredDroppedBytes} corrupted bytes")
+                }
+                // 文件中已有带过期时间的键
+                store.nextExpiry()?.let { scheduleKvEviction(it) }
+            }
+        }
+        return store
+    }
+
+    /**
+     * 按最近的过期时间安排淘汰，[expiry]早于已安排的时间时重新安排；
+     * 每次淘汰后取所有存储中最近的过期时间，没有时结束，不再定时唤醒
+     */
+    private fun scheduleKvEviction(expiry: Long) {
+        synchronized(kvEvictLock) {
+            if (kvEvictJob?.isActive == true && kvEvictAt <= expiry) {
+                return
+            }
+            kvEvictJob?.cancel()
+            kvEvictAt = expiry
+            kvEvictJob = scope.launch(Dispatchers.IO) {
+                var next = expiry
+                while (true) {
+                    // 两次淘汰至少间隔MINI_APP_KV_EVICT_INTERVAL_MILLIS，相继过期的键合并处理
+                    delay(maxOf(next - System.currentTimeMillis(), MINI_APP_KV_EVICT_INTERVAL_MILLIS))
+                    kvStores.values.forEach {
+                        try {
+                            it.evictExpired()
+                        } catch (e: IOException) {
+                            logger.error("evictExpired failed", e)
+                        }
+                    }
+                    synchronized(kvEvictLock) {
+                        // 已被新安排的任务取代
+                        if (!isActive) {
+                            return@launch
+                        }
+                        val nextExpiry = kvStores.values.mapNotNull { it.nextExpiry() }.minOrNull()
+                        kvEvictAt = nextExpiry ?: Long.MAX_VALUE
+                        if (nextExpiry == null) {
+                            return@launch
+                        }
+                        next = nextExpiry
+                    }
+                }
+            }
+        }
+    }
+
+    private fun removeLegacyKeyValue(appId: String, key: String) {
+        // 旧版本把键值写在SP中，只在确实存在时删除，避免无谓地重写SP文件
+        if (SPUtils.getInstance().contains(appId + key)) {
+            SPUtils.getInstance().remove(appId + key)
+        }
+    }
+
     private fun miniAppFilePath(context: Context, type:String):String{
         when(type){
             "inner" -> context.let {
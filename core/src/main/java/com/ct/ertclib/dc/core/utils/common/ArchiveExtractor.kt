@@ -0,0 +1,380 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.common
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.ARCHIVE_BUFFER_SIZE
+import com.ct.ertclib.dc.core.constants.CommonConstants.ARCHIVE_MAX_COMPRESSION_RATIO
+import com.ct.ertclib.dc.core.constants.CommonConstants.ARCHIVE_MAX_ENTRIES
+import com.ct.ertclib.dc.core.constants.CommonConstants.ARCHIVE_MAX_THREADS
+import com.ct.ertclib.dc.core.constants.CommonConstants.ARCHIVE_MAX_TOTAL_BYTES
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import java.io.BufferedInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.InterruptedIOException
+import java.io.RandomAccessFile
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPInputStream
+import java.util.zip.ZipException
+import java.util.zip.ZipFile
+
+/**
+ * 压缩包解压。
+ *
+ * zip先只读中央目录，校验所有条目的路径(zip-slip)、数量和声明大小，创建目录；
+ * 再由有界线程池并行解压文件条目，每个线程打开自己的ZipFile，大文件按声明大小预分配。
+ * 实际解出的字节在写入过程中同时校验：超过声明大小、总大小上限或压缩比上限时立即中止(zip炸弹)。
+ * tar不能随机访问，只能顺序解压，同样使用大缓冲、预分配和上述校验，gzip压缩的tar自动识别。
+ * 缓冲区在多次解压之间复用。
+ */
+object ArchiveExtractor {
+
+    // 小条目不检查压缩比，避免误判
+    private const val RATIO_CHECK_MIN_BYTES = 1024L * 1024
+    // 小文件预分配的系统调用开销大于收益
+    private const val PREALLOCATE_MIN_BYTES = 1024L * 1024
+    private const val GZIP_MAGIC_1 = 0x1f
+    private const val GZIP_MAGIC_2 = 0x8b
+
+    private val bufferPool = ArrayBlockingQueue<ByteArray>(ARCHIVE_MAX_THREADS)
+
+    class Limits(
+        val maxTotalBytes: Long = ARCHIVE_MAX_TOTAL_BYTES,
+        val maxEntries: Int = ARCHIVE_MAX_ENTRIES,
+        val maxCompressionRatio: Int = ARCHIVE_MAX_COMPRESSION_RATIO
+    )
+
+    class Result(val fileCount: Int, val totalBytes: Long)
+
+    /**
+     * 自定义文件条目的写入方式，在解压线程中调用，返回false时按默认方式写到target
+     *
+     * @param input 已经过大小校验的条目数据，不需要关闭
+     * @param buffer 可复用的缓冲区
+     */
+    fun interface EntryHandler {
+        @Throws(IOException::class)
+        fun handle(name: String, input: InputStream, target: File, buffer: ByteArray): Boolean
+    }
+
+    private class Task(val name: String, val target: File, val size: Long, val compressedSize: Long)
+
+    /**
+     * 解压过程共享的状态，任一线程失败后其他线程在下一次读取时停止
+     *
+     * @param progressSource 不为空时进度按它返回的已处理字节数计算，否则按解出的字节数
+     */
+    private class State(
+        val limits: Limits,
+        val total: Long,
+        val onProgress: ((Long, Long) -> Unit)?,
+        val progressSource: (() -> Long)? = null
+    ) {
+        val done = AtomicLong()
+        @Volatile
+        var failed = false
+
+        fun add(bytes: Int) {
+            val extracted = done.addAndGet(bytes.toLong())
+            if (extracted > limits.maxTotalBytes) {
+                throw ZipException("uncompressed size exceeds ${limits.maxTotalBytes}")
+            }
+            onProgress?.invoke(progressSource?.invoke() ?: extracted, total)
+        }
+    }
+
+    /**
+     * 统计条目实际解出的字节数并校验
+     */
+    private class GuardedInputStream(input: InputStream, private val task: Task, private val state: State) : FilterInputStream(input) {
+        private var count = 0L
+
+        override fun read(): Int {
+            val single = ByteArray(1)
+            return if (read(single, 0, 1) < 0) -1 else single[0].toInt() and 0xFF
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (state.failed) {
+                throw InterruptedIOException("extraction cancelled")
+            }
+            val read = super.read(b, off, len)
+            if (read > 0) {
+                count += read
+                if (task.size >= 0 && count > task.size) {
+                    throw ZipException("entry ${task.name} is larger than declared")
+                }
+                if (count > RATIO_CHECK_MIN_BYTES && task.compressedSize > 0
+                    && count / task.compressedSize > state.limits.maxCompressionRatio) {
+                    throw ZipException("entry ${task.name} exceeds compression ratio")
+                }
+                state.add(read)
+            }
+            return read
+        }
+
+        override fun skip(n: Long): Long {
+            val buffer = ByteArray(minOf(n, ARCHIVE_BUFFER_SIZE.toLong()).toInt())
+            val read = read(buffer, 0, buffer.size)
+            return if (read < 0) 0 else read.toLong()
+        }
+
+        // 由调用方关闭底层流，tar的条目流不能关闭
+        override fun close() {}
+    }
+
+    /**
+     * 并行解压zip到targetDir，出错时抛出异常，已解出的文件由调用方清理
+     *
+     * @param onProgress 已解出字节数和声明的总字节数，在解压线程中回调
+     */
+    @Throws(IOException::class)
+    fun unzip(
+        zipFile: File,
+        targetDir: File,
+        limits: Limits = Limits(),
+        handler: EntryHandler? = null,
+        onProgress: ((Long, Long) -> Unit)? = null
+    ): Result {
+        mkdirs(targetDir)
+        val targetPath = targetDir.canonicalPath + File.separator
+        val tasks = LinkedHashMap<String, Task>()
+        var declaredTotal = 0L
+        ZipFile(zipFile).use { zip ->
+            val entries = zip.entries()
+            var count = 0
+            while (entries.hasMoreElements()) {
+                val entry = entries.nextElement()
+                if (++count > limits.maxEntries) {
+                    throw ZipException("entries exceed ${limits.maxEntries}")
+                }
+                val target = resolve(targetPath, entry.name)
+                if (entry.isDirectory) {
+                    mkdirs(target)
+                    continue
+                }
+                if (entry.size > 0) {
+                    declaredTotal += entry.size
+                    if (declaredTotal > limits.maxTotalBytes) {
+                        throw ZipException("uncompressed size exceeds ${limits.maxTotalBytes}")
+                    }
+                    if (entry.size > RATIO_CHECK_MIN_BYTES && entry.compressedSize > 0
+                        && entry.size / entry.compressedSize > limits.maxCompressionRatio) {
+                        throw ZipException("entry ${entry.name} exceeds compression ratio")
+                    }
+                }
+                // 同名条目只保留最后一个，与顺序解压时后者覆盖前者一致，也避免两个线程写同一文件
+                tasks.remove(target.path)
+                tasks[target.path] = Task(entry.name, target, entry.size, entry.compressedSize)
+            }
+        }
+        // 目录在并行前单线程创建，避免多个线程同时mkdirs
+        tasks.values.mapNotNullTo(HashSet()) { it.target.parentFile }.forEach { mkdirs(it) }
+        // 大条目先处理，各线程负载更均衡
+        val sorted = tasks.values.sortedByDescending { it.size }
+        val state = State(limits, declaredTotal, onProgress)
+        val next = AtomicInteger()
+        val worker = Callable {
+            val buffer = obtainBuffer()
+            try {
+                ZipFile(zipFile).use { zip ->
+                    while (!state.failed) {
+                        val index = next.getAndIncrement()
+                        if (index >= sorted.size) {
+                            break
+                        }
+                        val task = sorted[index]
+                        val entry = zip.getEntry(task.name) ?: throw ZipException("entry ${task.name} not found")
+                        zip.getInputStream(entry).use { raw ->
+                            extractEntry(GuardedInputStream(raw, task, state), task, handler, buffer)
+                        }
+                    }
+                }
+            } catch (e: Throwable) {
+                state.failed = true
+                throw e
+            } finally {
+                recycleBuffer(buffer)
+            }
+        }
+        val threads = minOf(ARCHIVE_MAX_THREADS, Runtime.getRuntime().availableProcessors(), sorted.size)
+        if (threads <= 1) {
+            worker.call()
+        } else {
+            runParallel(worker, threads)
+        }
+        return Result(sorted.size, state.done.get())
+    }
+
+    /**
+     * 顺序解压tar或tar.gz到targetDir，符号链接等非普通文件条目忽略
+     *
+     * @param onProgress 已读取的压缩包字节数和压缩包大小
+     */
+    @Throws(IOException::class)
+    fun untar(
+        tarFile: File,
+        targetDir: File,
+        limits: Limits = Limits(),
+        onProgress: ((Long, Long) -> Unit)? = null
+    ): Result {
+        mkdirs(targetDir)
+        val targetPath = targetDir.canonicalPath + File.separator
+        val consumed = AtomicLong()
+        val source = object : FilterInputStream(FileInputStream(tarFile)) {
+            override fun read(b: ByteArray, off: Int, len: Int): Int {
+                val read = super.read(b, off, len)
+                if (read > 0) {
+                    consumed.addAndGet(read.toLong())
+                }
+                return read
+            }
+        }
+        val buffered = BufferedInputStream(source, ARCHIVE_BUFFER_SIZE)
+        buffered.mark(2)
+        val isGzip = buffered.read() == GZIP_MAGIC_1 && buffered.read() == GZIP_MAGIC_2
+        buffered.reset()
+        val input = if (isGzip) GZIPInputStream(buffered, ARCHIVE_BUFFER_SIZE) else buffered
+        val state = State(limits, tarFile.length(), onProgress) { consumed.get() }
+        val buffer = obtainBuffer()
+        var fileCount = 0
+        try {
+            TarArchiveInputStream(input).use { tar ->
+                var count = 0
+                while (true) {
+                    val entry = tar.nextEntry ?: break
+                    if (++count > limits.maxEntries) {
+                        throw ZipException("entries exceed ${limits.maxEntries}")
+                    }
+                    val target = resolve(targetPath, entry.name)
+                    when {
+                        entry.isDirectory -> mkdirs(target)
+                        entry.isFile -> {
+                            target.parentFile?.let { mkdirs(it) }
+                            val task = Task(entry.name, target, entry.size, -1)
+                            extractEntry(GuardedInputStream(tar, task, state), task, null, buffer)
+                            fileCount++
+                        }
+                    }
+                }
+            }
+        } finally {
+            recycleBuffer(buffer)
+        }
+        return Result(fileCount, state.done.get())
+    }
+
+    private fun extractEntry(input: InputStream, task: Task, handler: EntryHandler?, buffer: ByteArray) {
+        if (handler != null && handler.handle(task.name, input, task.target, buffer)) {
+            return
+        }
+        if (task.size < PREALLOCATE_MIN_BYTES) {
+            FileOutputStream(task.target).use { output ->
+                copy(input, output::write, buffer)
+            }
+            return
+        }
+        RandomAccessFile(task.target, "rw").use { output ->
+            // 大文件预分配，写入过程中不再反复扩展文件
+            output.setLength(task.size)
+            val written = copy(input, output::write, buffer)
+            // 实际大小与声明不一致时截断
+            if (written != task.size) {
+                output.setLength(written)
+            }
+        }
+    }
+
+    private inline fun copy(input: InputStream, write: (ByteArray, Int, Int) -> Unit, buffer: ByteArray): Long {
+        var written = 0L
+        while (true) {
+            val read = input.read(buffer)
+            if (read < 0) {
+                break
+            }
+            write(buffer, 0, read)
+            written += read
+        }
+        return written
+    }
+
+    private fun runParallel(worker: Callable<Unit>, threads: Int) {
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val futures = (0 until threads).map { executor.submit(worker) }
+            var error: Throwable? = null
+            futures.forEach {
+                try {
+                    it.get()
+                } catch (e: ExecutionException) {
+                    // 保留最先出错的原因，其他线程的InterruptedIOException是被连带中止的
+                    if (error == null || error is InterruptedIOException) {
+                        error = e.cause
+                    }
+                }
+            }
+            when (val cause = error) {
+                null -> return
+                is IOException -> throw cause
+                is RuntimeException -> throw cause
+                is Error -> throw cause
+                else -> throw IOException(cause)
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw InterruptedIOException("extraction interrupted")
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    /**
+     * 条目路径去掉.和..后必须在目标目录内，拒绝../和绝对路径(zip-slip)。
+     * 只按字符串规范化，不逐级解析符号链接，解压出的只有普通文件和目录
+     */
+    private fun resolve(targetPath: String, name: String): File {
+        val target = File(targetPath, name).normalize()
+        val path = target.path
+        if (path + File.separator != targetPath && !path.startsWith(targetPath)) {
+            throw ZipException("illegal entry $name")
+        }
+        return target
+    }
+
+    private fun mkdirs(dir: File) {
+        if (!dir.isDirectory && !dir.mkdirs() && !dir.isDirectory) {
+            throw IOException("$dir create dirs error")
+        }
+    }
+
+    private fun obtainBuffer(): ByteArray {
+        return bufferPool.poll() ?: ByteArray(ARCHIVE_BUFFER_SIZE)
+    }
+
+    private fun recycleBuffer(buffer: ByteArray) {
+        bufferPool.offer(buffer)
+    }
+}
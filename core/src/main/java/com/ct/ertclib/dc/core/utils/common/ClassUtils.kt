@@ -43,6 +43,14 @@ object ClassUtils {
         return nameBuilder.toString()
     }
 
+    /**
+     * 一次取出本应用所有运行中的进程名，避免逐个槽位查询
+     */
+    fun getRunningProcessNames(context: Context): Set<String> {
+        val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+        return activityManager.runningAppProcesses?.mapTo(HashSet()) { it.processName } ?: emptySet()
+    }
+
     fun isAppClassRunning(context: Context, runName: String): Boolean {
         val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
         val runningAppProcesses = activityManager.runningAppProcesses
@@ -0,0 +1,189 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.common
+
+import android.util.Xml
+import com.ct.ertclib.dc.core.data.miniapp.DataChannel
+import com.ct.ertclib.dc.core.data.miniapp.DataChannelApp
+import com.ct.ertclib.dc.core.data.miniapp.DataChannelAppInfo
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
+import java.io.IOException
+import java.io.StringReader
+
+/**
+ * DataChannelAppInfo描述XML的编解码。
+ * 基于pull解析器并按线程复用解析器实例，替代每次都要反射初始化的XStream；
+ * 输出格式与XStream序列化结果保持一致。
+ */
+object DataChannelAppInfoCodec {
+
+    private const val TAG_APP_INFO = "DataChannelAppInfo"
+    private const val TAG_APP = "DataChannelApp"
+    private const val TAG_CHANNEL = "DataChannel"
+    private const val ATTR_APP_ID = "appId"
+    private const val ATTR_DC_ID = "dcId"
+
+    private const val TAG_AUTO_ACCEPT_DC_SETUP = "AutoAcceptDcSetup"
+    private const val TAG_BANDWIDTH = "Bandwidth"
+    private const val TAG_DC_LABEL = "DcLabel"
+    private const val TAG_MAX_RETR = "MaxRetr"
+    private const val TAG_MAX_TIME = "MaxTime"
+    private const val TAG_ORDERED = "Ordered"
+    private const val TAG_PRIORITY = "Priority"
+    private const val TAG_QOS_HINT = "QosHint"
+    private const val TAG_STREAM_ID = "StreamId"
+    private const val TAG_SUBPROTOCOL = "Subprotocol"
+    private const val TAG_USE_CASE = "UseCase"
+
+    private const val INDENT = "  "
+
+    private val parserHolder = object : ThreadLocal<XmlPullParser>() {
+        override fun initialValue(): XmlPullParser = Xml.newPullParser()
+    }
+
+    @Throws(XmlPullParserException::class, IOException::class)
+    fun parse(xml: String): DataChannelAppInfo {
+        val parser = parserHolder.get()!!
+        parser.setInput(StringReader(xml))
+        var appInfo: DataChannelAppInfo? = null
+        var app: DataChannelApp? = null
+        var channel: DataChannel? = null
+        var eventType = parser.eventType
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                val name = parser.name
+                when (parser.depth) {
+                    1 -> if (name == TAG_APP_INFO) {
+                        appInfo = DataChannelAppInfo()
+                    }
+                    2 -> if (name == TAG_APP && appInfo != null) {
+                        app = DataChannelApp()
+                        app.appId = parser.getAttributeValue(null, ATTR_APP_ID)
+                        appInfo.dataChannelApp = app
+                    }
+                    3 -> if (name == TAG_CHANNEL && app != null) {
+                        channel = DataChannel()
+                        channel.dcId = parser.getAttributeValue(null, ATTR_DC_ID)
+                        app.addDataChannel(channel)
+                    } else {
+                        channel = null
+                    }
+                    4 -> channel?.let { readChannelField(parser, it, name) }
+                }
+            }
+            eventType = parser.next()
+        }
+        return appInfo ?: throw XmlPullParserException("$TAG_APP_INFO not found")
+    }
+
+    fun toXml(appInfo: DataChannelAppInfo): String {
+        val builder = StringBuilder()
+        val app = appInfo.dataChannelApp
+        if (app == null) {
+            builder.append('<').append(TAG_APP_INFO).append("/>")
+            return builder.toString()
+        }
+        builder.append('<').append(TAG_APP_INFO).append(">\n")
+        builder.append(INDENT).append('<').append(TAG_APP)
+        appendAttribute(builder, ATTR_APP_ID, app.appId)
+        val channels = app.dataChannelList
+        if (channels.isNullOrEmpty()) {
+            builder.append("/>\n")
+        } else {
+            builder.append(">\n")
+            channels.forEach { appendChannel(builder, it) }
+            builder.append(INDENT).append("</").append(TAG_APP).append(">\n")
+        }
+        builder.append("</").append(TAG_APP_INFO).append('>')
+        return builder.toString()
+    }
+
+    private fun readChannelField(parser: XmlPullParser, channel: DataChannel, name: String) {
+        when (name) {
+            TAG_AUTO_ACCEPT_DC_SETUP -> channel.autoAcceptDcSetup = parser.nextText()
+            TAG_BANDWIDTH -> channel.bandwidth = parser.nextText()
+            TAG_DC_LABEL -> channel.dcLabel = parser.nextText()
+            TAG_MAX_RETR -> channel.maxRetr = parser.nextText()
+            TAG_MAX_TIME -> channel.maxTime = parser.nextText()
+            TAG_ORDERED -> channel.ordered = parser.nextText()
+            TAG_PRIORITY -> channel.priority = parser.nextText()
+            TAG_QOS_HINT -> channel.qosHint = parser.nextText()
+            TAG_STREAM_ID -> channel.streamId = parser.nextText()
+            TAG_SUBPROTOCOL -> channel.subProtocol = parser.nextText()
+            TAG_USE_CASE -> channel.useCase = parser.nextText()
+            // 与XStream的ignoreUnknownElements一致，未知元素直接跳过
+            else -> {}
+        }
+    }
+
+    private fun appendChannel(builder: StringBuilder, channel: DataChannel) {
+        val indent = INDENT + INDENT
+        builder.append(indent).append('<').append(TAG_CHANNEL)
+        appendAttribute(builder, ATTR_DC_ID, channel.dcId)
+        // 字段顺序与DataChannel的声明顺序一致
+        val fields = arrayOf(
+            TAG_AUTO_ACCEPT_DC_SETUP to channel.autoAcceptDcSetup,
+            TAG_BANDWIDTH to channel.bandwidth,
+            TAG_DC_LABEL to channel.dcLabel,
+            TAG_MAX_RETR to channel.maxRetr,
+            TAG_MAX_TIME to channel.maxTime,
+            TAG_ORDERED to channel.ordered,
+            TAG_PRIORITY to channel.priority,
+            TAG_QOS_HINT to channel.qosHint,
+            TAG_STREAM_ID to channel.streamId,
+            TAG_SUBPROTOCOL to channel.subProtocol,
+            TAG_USE_CASE to channel.useCase
+        )
+        if (fields.all { it.second == null }) {
+            builder.append("/>\n")
+            return
+        }
+        builder.append(">\n")
+        fields.forEach { (name, value) ->
+            if (value != null) {
+                builder.append(indent).append(INDENT).append('<').append(name).append('>')
+                appendEscaped(builder, value)
+                builder.append("</").append(name).append(">\n")
+            }
+        }
+        builder.append(indent).append("</").append(TAG_CHANNEL).append(">\n")
+    }
+
+    private fun appendAttribute(builder: StringBuilder, name: String, value: String?) {
+        if (value == null) {
+            return
+        }
+        builder.append(' ').append(name).append("=\"")
+        appendEscaped(builder, value)
+        builder.append('"')
+    }
+
+    private fun appendEscaped(builder: StringBuilder, value: String) {
+        value.forEach { c ->
+            when (c) {
+                '&' -> builder.append("&amp;")
+                '<' -> builder.append("&lt;")
+                '>' -> builder.append("&gt;")
+                '"' -> builder.append("&quot;")
+                '\'' -> builder.append("&apos;")
+                '\r' -> builder.append("&#xd;")
+                else -> builder.append(c)
+            }
+        }
+    }
+}
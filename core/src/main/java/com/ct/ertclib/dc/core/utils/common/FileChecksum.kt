@@ -0,0 +1,238 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.common
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_CHECKSUM_MAX_THREADS
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_CHECKSUM_PARALLEL_THRESHOLD
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.CRC32
+
+/**
+ * 文件校验值计算，可取消，按块回调进度。
+ *
+ * MD5只能顺序计算，大文件由一个协程预读下一块、当前协程计算摘要，读盘和计算重叠；
+ * CRC32把大文件分成几段并行计算，再按zlib的crc32_combine合并，结果与顺序计算一致。
+ */
+object FileChecksum {
+
+    const val ALGORITHM_MD5 = "md5"
+    const val ALGORITHM_CRC32 = "crc32"
+
+    private const val BUFFER_SIZE = 1024 * 1024
+    private const val PREFETCH_BUFFER_COUNT = 3
+    private const val CRC32_POLYNOMIAL = 0xEDB88320L
+
+    fun isSupported(algorithm: String): Boolean {
+        return algorithm == ALGORITHM_MD5 || algorithm == ALGORITHM_CRC32
+    }
+
+    /**
+     * 计算校验值，取消协程时在当前块读完后停止
+     *
+     * @param channel 按位置读取，不改变通道的position
+     * @param size 文件大小
+     * @param onProgress 已处理字节数和总字节数，并行计算时在工作线程回调
+     * @return 小写十六进制字符串
+     */
+    suspend fun compute(
+        channel: FileChannel,
+        size: Long,
+        algorithm: String,
+        onProgress: ((Long, Long) -> Unit)? = null
+    ): String {
+        return when (algorithm) {
+            ALGORITHM_MD5 -> toHex(md5(channel, size, onProgress))
+            ALGORITHM_CRC32 -> crc32(channel, size, onProgress).toString(16).padStart(8, '0')
+            else -> throw IllegalArgumentException("unsupported algorithm: $algorithm")
+        }
+    }
+
+    private suspend fun md5(channel: FileChannel, size: Long, onProgress: ((Long, Long) -> Unit)?): ByteArray {
+        val digest = MessageDigest.getInstance("MD5")
+        if (size < FILE_CHECKSUM_PARALLEL_THRESHOLD) {
+            val buffer = ByteBuffer.allocate(BUFFER_SIZE)
+            var position = 0L
+            while (true) {
+                currentCoroutineContext().ensureActive()
+                buffer.clear()
+                val read = channel.read(buffer, position)
+                if (read < 0) {
+                    break
+                }
+                buffer.flip()
+                digest.update(buffer)
+                position += read
+                onProgress?.invoke(position, size)
+            }
+            return digest.digest()
+        }
+        coroutineScope {
+            val free = Channel<ByteBuffer>(PREFETCH_BUFFER_COUNT)
+            val filled = Channel<ByteBuffer>(PREFETCH_BUFFER_COUNT)
+            repeat(PREFETCH_BUFFER_COUNT) { free.send(ByteBuffer.allocate(BUFFER_SIZE)) }
+            launch(Dispatchers.IO) {
+                var position = 0L
+                while (true) {
+                    val buffer = free.receive()
+                    buffer.clear()
+                    if (!readFully(channel, buffer, position)) {
+                        break
+                    }
+                    position += buffer.remaining()
+                    filled.send(buffer)
+                }
+                filled.close()
+            }
+            var done = 0L
+            for (buffer in filled) {
+                done += buffer.remaining()
+                digest.update(buffer)
+                free.send(buffer)
+                onProgress?.invoke(done, size)
+            }
+        }
+        return digest.digest()
+    }
+
+    private suspend fun crc32(channel: FileChannel, size: Long, onProgress: ((Long, Long) -> Unit)?): Long {
+        val partCount = if (size < FILE_CHECKSUM_PARALLEL_THRESHOLD) 1 else FILE_CHECKSUM_MAX_THREADS
+        val partSize = (size + partCount - 1) / partCount
+        val done = AtomicLong()
+        val parts = coroutineScope {
+            (0 until partCount).map { index ->
+                async(Dispatchers.IO) {
+                    val start = index * partSize
+                    val end = minOf(size, start + partSize)
+                    val crc = CRC32()
+                    val buffer = ByteBuffer.allocate(BUFFER_SIZE)
+                    var position = start
+                    while (position < end) {
+                        ensureActive()
+                        buffer.clear()
+                        buffer.limit(minOf(BUFFER_SIZE.toLong(), end - position).toInt())
+                        if (!readFully(channel, buffer, position)) {
+                            break
+                        }
+                        position += buffer.remaining()
+                        crc.update(buffer.array(), 0, buffer.remaining())
+                        onProgress?.invoke(done.addAndGet(buffer.remaining().toLong()), size)
+                    }
+                    crc.value to (position - start)
+                }
+            }.awaitAll()
+        }
+        var result = parts[0].first
+        for (i in 1 until parts.size) {
+            result = crc32Combine(result, parts[i].first, parts[i].second)
+        }
+        return result
+    }
+
+    /**
+     * 从position读到buffer的limit或文件末尾，读完后flip
+     *
+     * @return 是否读到了数据
+     */
+    private fun readFully(channel: FileChannel, buffer: ByteBuffer, position: Long): Boolean {
+        var offset = position
+        while (buffer.hasRemaining()) {
+            val read = channel.read(buffer, offset)
+            if (read < 0) {
+                break
+            }
+            offset += read
+        }
+        buffer.flip()
+        return buffer.hasRemaining()
+    }
+
+    /**
+     * 已知crc(A)、crc(B)和B的长度，求crc(AB)，算法同zlib的crc32_combine
+     */
+    fun crc32Combine(crc1: Long, crc2: Long, length2: Long): Long {
+        if (length2 <= 0) {
+            return crc1
+        }
+        val even = LongArray(32)
+        val odd = LongArray(32)
+        // 一个0比特对应的变换矩阵
+        odd[0] = CRC32_POLYNOMIAL
+        var row = 1L
+        for (n in 1 until 32) {
+            odd[n] = row
+            row = row shl 1
+        }
+        gf2MatrixSquare(even, odd)
+        gf2MatrixSquare(odd, even)
+        // 依次平方得到1、2、4...个0字节的变换，按length2的二进制位作用到crc1上
+        var crc = crc1
+        var length = length2
+        do {
+            gf2MatrixSquare(even, odd)
+            if (length and 1L != 0L) {
+                crc = gf2MatrixTimes(even, crc)
+            }
+            length = length shr 1
+            if (length == 0L) {
+                break
+            }
+            gf2MatrixSquare(odd, even)
+            if (length and 1L != 0L) {
+                crc = gf2MatrixTimes(odd, crc)
+            }
+            length = length shr 1
+        } while (length != 0L)
+        return crc xor crc2
+    }
+
+    private fun gf2MatrixTimes(matrix: LongArray, vector: Long): Long {
+        var sum = 0L
+        var v = vector
+        var i = 0
+        while (v != 0L) {
+            if (v and 1L != 0L) {
+                sum = sum xor matrix[i]
+            }
+            v = v ushr 1
+            i++
+        }
+        return sum
+    }
+
+    private fun gf2MatrixSquare(square: LongArray, matrix: LongArray) {
+        for (n in 0 until 32) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n])
+        }
+    }
+
+    private fun toHex(bytes: ByteArray): String {
+        val builder = StringBuilder(bytes.size * 2)
+        bytes.forEach { builder.append(String.format("%02x", it)) }
+        return builder.toString()
+    }
+}
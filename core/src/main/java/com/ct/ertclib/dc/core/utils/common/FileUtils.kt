@@ -30,21 +30,16 @@ import android.util.Base64
 import androidx.annotation.RequiresApi
 import androidx.documentfile.provider.DocumentFile
 import com.ct.ertclib.dc.core.utils.logger.Logger
-import okhttp3.internal.closeQuietly
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
-import org.apache.commons.io.FilenameUtils
 import java.io.BufferedReader
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.FileFilter
 import java.io.FileInputStream
-import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
 import java.math.BigInteger
 import java.security.MessageDigest
-import java.util.zip.ZipInputStream
 
 
 object FileUtils {
@@ -297,67 +292,10 @@ object FileUtils {
         if (!srcFile.exists()) {
             return
         }
-        val desFile = File(desPathStr)
-        if (!desFile.exists()) {
-            val mkdirsResult = desFile.mkdirs()
-            if (!mkdirsResult) {
-                sLogger.warn("can not create ${desFile.path}")
-                return
-            }
-        }
-        val zipInputStream = ZipInputStream(srcFile.inputStream())
         try {
-            while (true) {
-                val nextEntry = zipInputStream.nextEntry
-                if (nextEntry != null) {
-                    if (nextEntry.isDirectory) {
-                        val nextPath = FilenameUtils.normalize(desPathStr + "/" + nextEntry.name)
-                        if (File(nextPath).mkdirs()) {
-                            throw IOException("nextPath: $nextPath create dirs error")
-                        }
-                    } else {
-                        val normalizePath = FilenameUtils.normalize(desPathStr + "/" + nextEntry.name)
-                        val file = File(normalizePath)
-                        val parentFile = file.parentFile
-                        if (parentFile != null) {
-                            if (!parentFile.exists() && !parentFile.mkdirs()) {
-                                throw IOException("$parentFile create dirs error")
-                            } else if (!file.createNewFile()) {
-                                throw IOException("$file create file error")
-                            } else {
-                                var fileOutputStream: FileOutputStream? = null
-                                try {
-                                    fileOutputStream = FileOutputStream(file)
-                                    val bufferArray = ByteArray(1024)
-                                    while (true) {
-                                        val read = zipInputStream.read(bufferArray)
-                                        if (read == -1) {
-                                            break
-                                        }
-                                        fileOutputStream.write(bufferArray, 0, read)
-                                    }
-                                } catch (e: Exception) {
-                                    sLogger.warn(e.message)
-                                } finally {
-                                    try {
-                                        fileOutputStream?.close()
-                                    } catch (e: Exception) {
-                                        sLogger.warn(e.message)
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    zipInputStream.closeEntry()
-                } else {
-                    //跳出循环
-                    return
-                }
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
-        } finally {
-            zipInputStream.closeQuietly()
+            ArchiveExtractor.unzip(srcFile, File(desPathStr))
+        } catch (e: IOException) {
+            sLogger.warn("unzipFile failed, ${e.message}")
         }
     }
 
@@ -366,58 +304,12 @@ object FileUtils {
         if (!srcFile.exists()) {
             return false
         }
-        val desFile = File(desPathStr)
-        if (!desFile.exists()) {
-            val mkdirsResult = desFile.mkdirs()
-            if (!mkdirsResult) {
-                sLogger.warn("can not create ${desFile.path}")
-                return false
-            }
-        }
-        val tarInputStream = TarArchiveInputStream(srcFile.inputStream())
-        try {
-            while (true) {
-                val nextEntry = tarInputStream.nextEntry
-                if (nextEntry != null) {
-                    if (nextEntry.isDirectory) {
-                        val nextPath = desPathStr + "/" + nextEntry.name
-                        if (File(nextPath).mkdirs()) {
-                            throw IOException("nextPath: $nextPath create dirs error")
-                        }
-                    } else {
-                        val file = File(desPathStr + "/" + nextEntry.name)
-                        val parentFile = file.parentFile
-                        if (parentFile != null) {
-                            if (!parentFile.exists() && !parentFile.mkdirs()) {
-                                throw IOException("$parentFile create dirs error")
-                            } else if (!file.createNewFile()) {
-                                throw IOException("$file create file error")
-                            } else {
-                                try {
-                                    FileOutputStream(file).use { fileOutputStream ->
-                                        val bufferArray = ByteArray(1024)
-                                        while (true) {
-                                            val read = tarInputStream.read(bufferArray)
-                                            if (read == -1) break
-                                            fileOutputStream.write(bufferArray, 0, read)
-                                        }
-                                    }
-                                } catch (e: Exception) {
-                                    sLogger.warn("Error during file extraction: ${e.message}")
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    //跳出循环
-                    return true
-                }
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
-            return false
-        } finally {
-            tarInputStream.closeQuietly()
+        return try {
+            ArchiveExtractor.untar(srcFile, File(desPathStr))
+            true
+        } catch (e: IOException) {
+            sLogger.warn("untarFile failed, ${e.message}")
+            false
         }
     }
 
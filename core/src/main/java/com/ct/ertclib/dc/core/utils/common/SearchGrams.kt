@@ -0,0 +1,152 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.common
+
+/**
+ * 全文检索分词及检索语句，用于文件名和消息内容。
+ * 系统SQLite没有FTS5和trigram分词器，这里把文本切成二元组后写入files.nameGrams、messages.searchGrams列，
+ * 由files_fts、messages_fts(FTS4，simple分词器)建索引，中文中的任意两个字及以上都能命中。
+ * simple分词器把ASCII字母数字和所有非ASCII字符当作词内字符，其余字符为分隔符，这里按同样规则切分。
+ * 全文索引只用于筛选候选行，最终仍以LIKE校验，结果与原来的LIKE查询一致。
+ */
+object SearchGrams {
+
+    private const val GRAM_LENGTH = 2
+    // 只索引消息开头的部分，避免长消息的索引过大
+    private const val MAX_TEXT_LENGTH = 2048
+    private const val LIKE_ESCAPE = '\\'
+
+    /**
+     * 文本转为以空格分隔的二元组，不足两个字符的片段原样保留
+     */
+    fun toGrams(text: String): String {
+        val grams = LinkedHashSet<String>()
+        forEachRun(text.take(MAX_TEXT_LENGTH).lowercase()) { run ->
+            if (run.length < GRAM_LENGTH) {
+                grams.add(run)
+            } else {
+                addGrams(run, grams)
+            }
+        }
+        return grams.joinToString(" ")
+    }
+
+    /**
+     * 关键字转为MATCH语句，关键字中没有两个字符及以上的片段时返回null，只能用LIKE查询
+     */
+    fun toMatchQuery(keyword: String): String? {
+        val grams = LinkedHashSet<String>()
+        forEachRun(keyword.lowercase()) { run ->
+            if (run.length >= GRAM_LENGTH) {
+                addGrams(run, grams)
+            }
+        }
+        return if (grams.isEmpty()) null else grams.joinToString(" ")
+    }
+
+    fun toLikePattern(keyword: String): String {
+        val sb = StringBuilder(keyword.length + 2)
+        sb.append('%')
+        keyword.forEach { c ->
+            if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+                sb.append(LIKE_ESCAPE)
+            }
+            sb.append(c)
+        }
+        sb.append('%')
+        return sb.toString()
+    }
+
+    /**
+     * 生成多关键字文件查询，任一关键字命中即返回。
+     * 排序：命中的关键字越多越靠前，其次文件名与关键字相同、以关键字开头的靠前，最后按修改时间倒序
+     */
+    fun buildFileSearchQuery(keywords: List<String>): Pair<String, Array<Any>> {
+        val conditions = ArrayList<String>(keywords.size)
+        val scores = ArrayList<String>(keywords.size)
+        val conditionArgs = ArrayList<Any>()
+        val scoreArgs = ArrayList<Any>()
+        keywords.forEach { keyword ->
+            val like = toLikePattern(keyword)
+            val match = toMatchQuery(keyword)
+            if (match != null) {
+                conditions.add("(files.rowid IN (SELECT docid FROM files_fts WHERE files_fts MATCH ?) AND files.name LIKE ? ESCAPE '\\')")
+                conditionArgs.add(match)
+            } else {
+                conditions.add("files.name LIKE ? ESCAPE '\\'")
+            }
+            conditionArgs.add(like)
+            scores.add("(CASE WHEN files.name = ? THEN 4 WHEN files.name LIKE ? ESCAPE '\\' THEN 2 WHEN files.name LIKE ? ESCAPE '\\' THEN 1 ELSE 0 END)")
+            scoreArgs.add(keyword)
+            scoreArgs.add(like.substring(1))
+            scoreArgs.add(like)
+        }
+        val sql = "SELECT files.* FROM files WHERE ${conditions.joinToString(" OR ")} " +
+                "ORDER BY ${scores.joinToString(" + ")} DESC, files.lastModified DESC"
+        return sql to (conditionArgs + scoreArgs).toTypedArray()
+    }
+
+    /**
+     * 生成消息内容查询，结果与message LIKE '%keyword%'一致
+     */
+    fun buildMessageSearchQuery(keyword: String): Pair<String, Array<Any>> {
+        val like = toLikePattern(keyword)
+        val match = toMatchQuery(keyword)
+        // 超出MAX_TEXT_LENGTH的部分没有索引，长消息仍用LIKE判断。length按字符计，一个字符最多占两个Char
+        return if (match != null) {
+            "SELECT * FROM messages WHERE (rowid IN (SELECT docid FROM messages_fts WHERE messages_fts MATCH ?) " +
+                    "OR length(message) > ${MAX_TEXT_LENGTH / 2}) AND message LIKE ? ESCAPE '\\' " +
+                    "ORDER BY receiveTime DESC, _id DESC" to arrayOf<Any>(match, like)
+        } else {
+            "SELECT * FROM messages WHERE message LIKE ? ESCAPE '\\' ORDER BY receiveTime DESC, _id DESC" to arrayOf<Any>(like)
+        }
+    }
+
+    private inline fun forEachRun(text: String, action: (String) -> Unit) {
+        var start = -1
+        for (i in text.indices) {
+            if (isTokenChar(text[i])) {
+                if (start < 0) {
+                    start = i
+                }
+            } else if (start >= 0) {
+                action(text.substring(start, i))
+                start = -1
+            }
+        }
+        if (start >= 0) {
+            action(text.substring(start))
+        }
+    }
+
+    private fun addGrams(run: String, grams: MutableSet<String>) {
+        var i = 0
+        while (i + GRAM_LENGTH <= run.length) {
+            // 不拆开代理对，否则写入数据库的UTF-8不合法
+            var end = i + GRAM_LENGTH
+            if (end < run.length && Character.isLowSurrogate(run[end]) && Character.isHighSurrogate(run[end - 1])) {
+                end++
+            }
+            grams.add(run.substring(i, end))
+            i += if (Character.isHighSurrogate(run[i]) && i + 1 < run.length && Character.isLowSurrogate(run[i + 1])) 2 else 1
+        }
+    }
+
+    private fun isTokenChar(c: Char): Boolean {
+        return c.code >= 0x80 || c in 'a'..'z' || c in '0'..'9' || c in 'A'..'Z'
+    }
+}
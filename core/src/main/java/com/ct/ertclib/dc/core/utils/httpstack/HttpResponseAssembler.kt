@@ -0,0 +1,255 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.httpstack
+
+import com.ct.ertclib.dc.core.data.common.HttpResponseResult
+import com.ct.ertclib.dc.core.utils.logger.Logger
+import okhttp3.internal.http.StatusLine
+import okio.Buffer
+import okio.BufferedSink
+import okio.ByteString.Companion.encodeUtf8
+import okio.buffer
+import okio.sink
+import java.io.File
+import java.io.IOException
+
+/**
+ * 增量组装数据通道上分片到达的HTTP响应。
+ * 状态行和响应头只解析一次，之后的分片直接追加到okio分段缓冲区，
+ * 每个分片的进度和完成判断都是O(1)，避免整包拷贝和重复解析。
+ * 指定[bodyFile]时，成功且按Content-Length分帧的响应体直接写入该文件，内存占用与包大小无关。
+ */
+class HttpResponseAssembler(private val bodyFile: File? = null) {
+
+    companion object {
+        private const val TAG = "HttpResponseAssembler"
+        private val HEADER_END = "\r\n\r\n".encodeUtf8()
+        private val CHUNKED_END = "0\r\n\r\n".encodeUtf8()
+    }
+
+    private val sLogger: Logger = Logger.getLogger(TAG)
+
+    // 响应头结束之前的数据
+    private val headerBuffer = Buffer()
+
+    // 响应体数据，按分段追加，不做整体拷贝
+    val body = Buffer()
+
+    var statusLine: StatusLine? = null
+        private set
+    var headers: HttpStackHeaders? = null
+        private set
+
+    // 响应体已写入文件时不为空
+    var streamedBodyFile: File? = null
+        private set
+    private var bodySink: BufferedSink? = null
+
+    var receivedBodyLength = 0L
+        private set
+
+    private var contentLength = -1L
+    private var isChunked = false
+    private var hasNoBody = false
+    private var headerScanIndex = 0L
+    private var isBroken = false
+
+    // 超出本响应长度的数据，属于流水线中的下一个响应
+    private var overflow: ByteArray? = null
+
+    private val result = HttpResponseResult(isComplete = false, downloadProgress = 0F)
+
+    val isHeaderParsed: Boolean
+        get() = headers != null
+
+    val isComplete: Boolean
+        get() = result.isComplete
+
+    /**
+     * 响应头已解析且响应按Content-Length分帧(或没有响应体)，只有这种响应能切分出流水线中的下一个响应
+     */
+    val isLengthFramed: Boolean
+        get() = isHeaderParsed && (hasNoBody || (!isChunked && contentLength >= 0L))
+
+    /**
+     * 追加一个分片，返回当前的完成状态和下载进度
+     */
+    fun append(data: ByteArray, length: Int = data.size): HttpResponseResult {
+        if (result.isComplete) {
+            sLogger.warn("append after complete, ignore ${length}bytes")
+            return result
+        }
+        if (isBroken) {
+            return result
+        }
+        if (!isHeaderParsed) {
+            headerBuffer.write(data, 0, length)
+            if (!parseHeaders()) {
+                return result
+            }
+        } else {
+            val accepted = acceptableLength(length.toLong()).toInt()
+            if (!writeBody(data, accepted)) {
+                return result
+            }
+            if (accepted < length) {
+                overflow = data.copyOfRange(accepted, length)
+            }
+        }
+        updateResult()
+        return result
+    }
+
+    /**
+     * 取出完成后多收到的数据，由调用方交给下一个响应的组装器。
+     * 只有按Content-Length分帧的响应能准确切分，chunked响应的剩余数据会留在body中。
+     */
+    fun takeOverflow(): ByteArray? {
+        val bytes = overflow
+        overflow = null
+        return bytes
+    }
+
+    /**
+     * 放弃本次响应，关闭并删除已写入的响应体文件
+     */
+    fun abort() {
+        closeBodySink()
+        bodyFile?.delete()
+        streamedBodyFile = null
+        isBroken = true
+    }
+
+    private fun acceptableLength(length: Long): Long {
+        return when {
+            hasNoBody -> 0L
+            !isChunked && contentLength >= 0L -> minOf(length, contentLength - receivedBodyLength)
+            else -> length
+        }
+    }
+
+    private fun writeBody(data: ByteArray, length: Int): Boolean {
+        val sink = bodySink
+        try {
+            if (sink == null) {
+                body.write(data, 0, length)
+            } else {
+                sink.write(data, 0, length)
+            }
+        } catch (e: IOException) {
+            sLogger.error("writeBody", e)
+            abort()
+            return false
+        }
+        receivedBodyLength += length
+        return true
+    }
+
+    private fun openBodySink(code: Int) {
+        val file = bodyFile ?: return
+        if (code !in 200..299 || isChunked) {
+            return
+        }
+        bodySink = file.sink().buffer()
+        streamedBodyFile = file
+    }
+
+    private fun closeBodySink() {
+        try {
+            bodySink?.close()
+        } catch (e: IOException) {
+            sLogger.error("closeBodySink", e)
+        }
+        bodySink = null
+    }
+
+    private fun parseHeaders(): Boolean {
+        val headerEnd = headerBuffer.indexOf(HEADER_END, headerScanIndex)
+        if (headerEnd == -1L) {
+            // 下次从可能被分片截断的位置继续查找
+            headerScanIndex = maxOf(0L, headerBuffer.size - HEADER_END.size + 1)
+            return false
+        }
+        try {
+            val statusString = headerBuffer.readUtf8LineStrict()
+            statusLine = StatusLine.parse(statusString)
+            val headerBuilder = HttpStackHeaders.Builder()
+            while (true) {
+                val headerLine = headerBuffer.readUtf8LineStrict()
+                if (headerLine.isEmpty()) {
+                    break
+                }
+                headerBuilder.addLenient(headerLine)
+            }
+            val stackHeaders = headerBuilder.build()
+            headers = stackHeaders
+            if (sLogger.isDebugActivated) {
+                sLogger.debug("parseHeaders statusLine:$statusLine, headers:$stackHeaders")
+            }
+            isChunked = "chunked".equals(stackHeaders.get("Transfer-Encoding"), true)
+            contentLength = stackHeaders.get("Content-Length")?.toLongOrNull() ?: -1L
+            val code = statusLine!!.code
+            hasNoBody = (code in 100..199 || code == 204 || code == 304) && contentLength <= 0L && !isChunked
+            openBodySink(code)
+            // 头部之后已到达的部分属于响应体
+            val accepted = acceptableLength(headerBuffer.size)
+            if (!writeBody(headerBuffer.readByteArray(accepted), accepted.toInt())) {
+                return false
+            }
+            if (headerBuffer.size > 0L) {
+                overflow = headerBuffer.readByteArray()
+            }
+            return true
+        } catch (e: IOException) {
+            // 打开响应体文件失败也视为响应无法组装
+            sLogger.error("parseHeaders", e)
+            headerBuffer.clear()
+            abort()
+            return false
+        }
+    }
+
+    private fun updateResult() {
+        val bodySize = receivedBodyLength
+        when {
+            hasNoBody -> {
+                result.isComplete = true
+                result.downloadProgress = 1F
+            }
+            isChunked -> {
+                result.isComplete = body.size >= CHUNKED_END.size
+                        && body.rangeEquals(body.size - CHUNKED_END.size, CHUNKED_END)
+                result.downloadProgress = if (result.isComplete) 1F else 0F
+            }
+            contentLength >= 0L -> {
+                result.isComplete = bodySize >= contentLength
+                result.downloadProgress = if (contentLength == 0L) 1F else bodySize / contentLength.toFloat()
+            }
+            else -> {
+                // 没有Content-Length时无法判断结束，保持未完成
+                result.isComplete = false
+            }
+        }
+        if (result.isComplete) {
+            closeBodySink()
+        }
+    }
+
+    override fun toString(): String {
+        return "HttpResponseAssembler(statusLine=$statusLine, contentLength=$contentLength, chunked=$isChunked, received=$receivedBodyLength, file=$streamedBodyFile, complete=${result.isComplete})"
+    }
+}
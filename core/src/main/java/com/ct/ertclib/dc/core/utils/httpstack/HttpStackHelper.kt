@@ -21,13 +21,9 @@ import com.ct.ertclib.dc.core.utils.logger.Logger
 import com.ct.ertclib.dc.core.data.common.HttpResponseResult
 import okhttp3.Request
 import okhttp3.internal.http.RequestLine
-import okhttp3.internal.http.StatusLine.Companion.parse
 import okio.buffer
 import okio.sink
-import okio.source
-import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
-import java.io.IOException
 import java.net.Proxy
 
 object HttpStackHelper {
@@ -36,106 +32,43 @@ object HttpStackHelper {
 
     fun verify(byteArray: ByteArray): HttpResponseResult {
         sLogger.info("verify-byteArray:" + byteArray.size)
-        val byteArrayLength = byteArray.size
-        val byteArrayInputStream = ByteArrayInputStream(byteArray)
-        val bufferedSource = byteArrayInputStream.source().buffer()
-        val result = HttpResponseResult(isComplete = false, downloadProgress = 0F)
-        try {
-            val readUtf8LineStrict = bufferedSource.readUtf8LineStrict()
-            val statusLine = parse(readUtf8LineStrict)
-            sLogger.debug("verify-statusLine=$statusLine")
-            val lineLength = readUtf8LineStrict.length + "\r\n".toByteArray().size
-            var contentLength = byteArrayLength - lineLength
-            val headerBuilder = HttpStackHeaders.Builder()
-            while (true) {
-                val header = bufferedSource.readUtf8LineStrict()
-                if (header.isEmpty()) {
-                    break
-                }
-
-                val headerLength = header.toByteArray().size
-                contentLength = contentLength - headerLength - "\r\n".toByteArray().size
-                headerBuilder.addLenient(header)
-                sLogger.info("verify headerLength:$headerLength, contentLength:$contentLength")
-            }
-
-            val httpStackHeaders = headerBuilder.build()
-            val bufferBodyByteLength = contentLength - "\r\n".toByteArray().size
-            val contentLengthValue = httpStackHeaders.get("Content-Length")
-            return if (contentLengthValue.isNullOrEmpty()) {
-                if (sLogger.isDebugActivated) {
-                    sLogger.debug("verify-contentLengthValue is null, return true")
-                }
-                result
-            } else {
-                sLogger.info("verify-bufferBodyByteLength:$bufferBodyByteLength,contentLengthValue:$contentLengthValue")
-                result.apply {
-                    isComplete = (bufferBodyByteLength >= contentLengthValue.toLong())
-                    downloadProgress = bufferBodyByteLength / contentLengthValue.toFloat()
-                }
-
-            }
-        } catch (e: IOException) {
-            if (sLogger.isDebugActivated) sLogger.error("verify", e)
-            return result.apply {
-                isComplete = false
-            }
-        } finally {
-            byteArrayInputStream.close()
-            bufferedSource.close()
-        }
+        return HttpResponseAssembler().append(byteArray)
     }
 
     fun decode(request: Request?, data: ByteArray) : HttpStackResponse? {
         sLogger.info("decode-data:" + data.size)
-        val byteArrayInputStream = ByteArrayInputStream(data)
-
-        val bufferedSource = byteArrayInputStream.source().buffer()
-
-        val readStatusString = bufferedSource.readUtf8LineStrict()
-        if (sLogger.isDebugActivated) {
-            sLogger.debug("decode-readUtf8LineStrict:$readStatusString")
-        }
+        val assembler = HttpResponseAssembler()
+        assembler.append(data)
+        return decode(request, assembler)
+    }
 
-        val statusLineParse = parse(readStatusString)
-        if (sLogger.isDebugActivated) {
-            sLogger.debug("decode-statusLineParse:$statusLineParse")
+    fun decode(request: Request?, assembler: HttpResponseAssembler) : HttpStackResponse? {
+        sLogger.info("decode-assembler:$assembler")
+        val statusLine = assembler.statusLine
+        val headers = assembler.headers
+        if (statusLine == null || headers == null) {
+            if (sLogger.isDebugActivated) {
+                sLogger.debug("decode header not parsed")
+            }
+            return null
         }
 
         val respBuilder = HttpStackResponse.Builder()
-        respBuilder.protocol(statusLineParse.protocol)
-        respBuilder.code(statusLineParse.code)
-        respBuilder.message(statusLineParse.message)
+        respBuilder.protocol(statusLine.protocol)
+        respBuilder.code(statusLine.code)
+        respBuilder.message(statusLine.message)
         respBuilder.builderRequest = request
+        respBuilder.builderHeaderBuild = headers.newBuilder()
+        var httpStackResponse = respBuilder.build()
 
-        val headsBuilder = HttpStackHeaders.Builder()
-        try {
-            while (true) {
-                val headerLine = bufferedSource.readUtf8LineStrict()
-                if (headerLine.isEmpty()) {
-                    respBuilder.builderHeaderBuild = HttpStackHeaders(headsBuilder).newBuilder()
-                    var httpStackResponse = respBuilder.build()
-
-                    val newBuilder = httpStackResponse.newBuilder()
-                    newBuilder.builderResponseBody =
-                        HttpResponseDecoder.getResponseBody(httpStackResponse, bufferedSource)
-                    httpStackResponse = newBuilder.build()
-                    if (sLogger.isDebugActivated) {
-                        sLogger.debug("decode HttpStackResponse：$httpStackResponse")
-                    }
-                    return httpStackResponse
-                }
-                headsBuilder.addLenient(headerLine)
-                if (sLogger.isDebugActivated) {
-                    sLogger.debug("decode headerLine：$headerLine")
-                }
-            }
-        } catch (e : IOException) {
-            if (sLogger.isDebugActivated) {
-                sLogger.error("decode", e)
-            }
+        val newBuilder = httpStackResponse.newBuilder()
+        newBuilder.builderResponseBody =
+            HttpResponseDecoder.getResponseBody(httpStackResponse, assembler.body)
+        httpStackResponse = newBuilder.build()
+        if (sLogger.isDebugActivated) {
+            sLogger.debug("decode HttpStackResponse：$httpStackResponse")
         }
-        return null
+        return httpStackResponse
     }
 
     fun getRequestData(request:Request) : ByteArray {
@@ -50,6 +50,11 @@ public class AndroidAppender extends Appender {
             return;
         }
 
+        /*
+         * String having '\' characters are not printed out in locat console !
+         */
+        trace = trace.replace("\r", "");
+
         if (level == Logger.INFO_LEVEL) {
             Log.i(classname, trace);
         } else if (level == Logger.WARN_LEVEL) {
@@ -0,0 +1,261 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous appender
+ *
+ * 多个线程无锁写入预分配的环形缓冲区，由一个后台线程依次交给各appender输出。
+ * 缓冲区满时丢弃新日志并计数，不阻塞调用线程。
+ */
+public class AsyncAppender extends Appender {
+
+    /**
+     * Default ring capacity, must be a power of two
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final String THREAD_NAME = "SDKLogWriter";
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int mMask;
+    private final String[] mClassnames;
+    private final String[] mTraces;
+    private final int[] mLevels;
+    private final long[] mTimes;
+
+    /**
+     * Sequence + 1 of the trace published in each slot
+     */
+    private final AtomicLongArray mPublished;
+
+    /**
+     * Next sequence to claim by producers
+     */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * Next sequence to write by the writer thread
+     */
+    private final AtomicLong mHead = new AtomicLong();
+
+    private final AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * Dropped count already reported, accessed only by the writer thread
+     */
+    private long mReportedDropped;
+
+    private volatile Appender[] mAppenders;
+    private volatile boolean mWriterParked;
+    private Thread mWriter;
+
+    /**
+     * Constructor
+     *
+     * @param appenders Appenders called on the writer thread
+     */
+    public AsyncAppender(Appender... appenders) {
+        this(DEFAULT_CAPACITY, appenders);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity Ring capacity, rounded up to a power of two
+     * @param appenders Appenders called on the writer thread
+     */
+    public AsyncAppender(int capacity, Appender... appenders) {
+        super();
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mMask = size - 1;
+        mClassnames = new String[size];
+        mTraces = new String[size];
+        mLevels = new int[size];
+        mTimes = new long[size];
+        mPublished = new AtomicLongArray(size);
+        mAppenders = appenders;
+    }
+
+    /**
+     * Add an appender
+     *
+     * @param appender Appender
+     */
+    public synchronized void addAppender(Appender appender) {
+        Appender[] appenders = mAppenders;
+        Appender[] newAppenders = new Appender[appenders.length + 1];
+        System.arraycopy(appenders, 0, newAppenders, 0, appenders.length);
+        newAppenders[appenders.length] = appender;
+        mAppenders = newAppenders;
+    }
+
+    /**
+     * Number of traces dropped because the ring was full
+     *
+     * @return count
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    @Override
+    public void printTrace(String classname, int level, String trace) {
+        ensureWriter();
+        long sequence;
+        do {
+            sequence = mTail.get();
+            if (sequence - mHead.get() > mMask) {
+                mDropped.incrementAndGet();
+                return;
+            }
+        } while (!mTail.compareAndSet(sequence, sequence + 1));
+        int index = (int) (sequence & mMask);
+        mClassnames[index] = classname;
+        mTraces[index] = trace;
+        mLevels[index] = level;
+        mTimes[index] = System.currentTimeMillis();
+        // 发布之后写线程才会读取该槽位
+        mPublished.set(index, sequence + 1);
+        if (mWriterParked) {
+            LockSupport.unpark(mWriter);
+        }
+    }
+
+    /**
+     * Wait until all traces published before this call are written
+     */
+    public void flush() {
+        long target = mTail.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (mHead.get() < target && System.nanoTime() < deadline) {
+            Thread writer = mWriter;
+            if (writer == null || writer == Thread.currentThread()) {
+                return;
+            }
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+    }
+
+    private void ensureWriter() {
+        if (mWriter != null) {
+            return;
+        }
+        synchronized (this) {
+            if (mWriter == null) {
+                Thread writer = new Thread(this::drainLoop, THREAD_NAME);
+                writer.setDaemon(true);
+                writer.setPriority(Thread.MIN_PRIORITY);
+                mWriter = writer;
+                writer.start();
+            }
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            if (!drain()) {
+                mWriterParked = true;
+                // 挂起前再检查一次，避免错过生产者的唤醒；空闲时一直挂起，由生产者或flush唤醒
+                if (!isNextPublished()) {
+                    LockSupport.park(this);
+                }
+                mWriterParked = false;
+            }
+        }
+    }
+
+    private boolean isNextPublished() {
+        long head = mHead.get();
+        return mPublished.get((int) (head & mMask)) == head + 1;
+    }
+
+    /**
+     * Write all published traces
+     *
+     * @return whether something was written
+     */
+    private boolean drain() {
+        boolean written = false;
+        long head = mHead.get();
+        while (true) {
+            int index = (int) (head & mMask);
+            if (mPublished.get(index) != head + 1) {
+                break;
+            }
+            String classname = mClassnames[index];
+            String trace = mTraces[index];
+            int level = mLevels[index];
+            long time = mTimes[index];
+            mClassnames[index] = null;
+            mTraces[index] = null;
+            head++;
+            // 先释放槽位再输出，缩短生产者看到缓冲区满的时间
+            mHead.set(head);
+            write(classname, level, trace, time);
+            written = true;
+        }
+        long dropped = mDropped.get();
+        if (dropped > mReportedDropped) {
+            write(THREAD_NAME, Logger.WARN_LEVEL, "ring buffer full, dropped " + (dropped - mReportedDropped)
+                    + " traces", System.currentTimeMillis());
+            mReportedDropped = dropped;
+        }
+        return written;
+    }
+
+    private void write(String classname, int level, String trace, long time) {
+        for (Appender appender : mAppenders) {
+            try {
+                if (appender instanceof TimedAppender) {
+                    ((TimedAppender) appender).printTrace(classname, level, trace, time);
+                } else {
+                    appender.printTrace(classname, level, trace);
+                }
+            } catch (RuntimeException e) {
+                // 写线程不能因为单个appender异常退出
+            }
+        }
+    }
+
+    /**
+     * Appender that records the time a trace was created rather than written
+     */
+    public abstract static class TimedAppender extends Appender {
+
+        @Override
+        public void printTrace(String classname, int level, String trace) {
+            printTrace(classname, level, trace, System.currentTimeMillis());
+        }
+
+        /**
+         * Print a trace
+         *
+         * @param classname Classname
+         * @param level Trace level
+         * @param trace Trace
+         * @param time Creation time in milliseconds
+         */
+        public abstract void printTrace(String classname, int level, String trace, long time);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * File appender
+ *
+ * 按大小滚动的日志文件，当前文件为name.log，历史文件为name.1.log ~ name.N.log，序号越大越旧。
+ * 通过{@link Logger#addAppender(Appender)}挂在异步写线程之后使用。
+ */
+public class FileAppender extends AsyncAppender.TimedAppender {
+
+    private static final String SUFFIX = ".log";
+    private static final String[] LEVEL_NAMES = {"D", "I", "W", "E", "F"};
+
+    private final File mDir;
+    private final String mName;
+    private final long mMaxFileSize;
+    private final int mMaxBackupCount;
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.ROOT);
+    private final Date mDate = new Date();
+
+    private Writer mWriter;
+    private long mFileSize;
+
+    /**
+     * Constructor
+     *
+     * @param dir Directory of the log files
+     * @param name File name without suffix
+     * @param maxFileSize Rotate when the current file exceeds this size in bytes
+     * @param maxBackupCount Number of rotated files to keep
+     */
+    public FileAppender(File dir, String name, long maxFileSize, int maxBackupCount) {
+        super();
+        mDir = dir;
+        mName = name;
+        mMaxFileSize = maxFileSize;
+        mMaxBackupCount = maxBackupCount;
+    }
+
+    @Override
+    public synchronized void printTrace(String classname, int level, String trace, long time) {
+        if (!LogConfig.INSTANCE.isLogEnabled()) {
+            return;
+        }
+        mDate.setTime(time);
+        StringBuilder sb = new StringBuilder(trace.length() + classname.length() + 32);
+        sb.append(mDateFormat.format(mDate)).append(' ')
+                .append(level >= 0 && level < LEVEL_NAMES.length ? LEVEL_NAMES[level] : "?").append(' ')
+                .append(classname).append(": ")
+                .append(trace).append('\n');
+        String line = sb.toString();
+        try {
+            Writer writer = openWriter();
+            writer.write(line);
+            writer.flush();
+            // 按字符数估算，中文日志的实际大小会略大
+            mFileSize += line.length();
+            if (mFileSize >= mMaxFileSize) {
+                rotate();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Close the current file
+     */
+    public synchronized void close() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mWriter = null;
+        }
+    }
+
+    private Writer openWriter() throws IOException {
+        if (mWriter == null) {
+            if (!mDir.exists() && !mDir.mkdirs()) {
+                throw new IOException("can not create " + mDir);
+            }
+            File file = getFile(0);
+            mFileSize = file.length();
+            mWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        }
+        return mWriter;
+    }
+
+    private void rotate() {
+        close();
+        File oldest = getFile(mMaxBackupCount);
+        if (oldest.exists()) {
+            oldest.delete();
+        }
+        for (int i = mMaxBackupCount - 1; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.exists()) {
+                file.renameTo(getFile(i + 1));
+            }
+        }
+        mFileSize = 0;
+    }
+
+    private File getFile(int index) {
+        return new File(mDir, index == 0 ? mName + SUFFIX : mName + "." + index + SUFFIX);
+    }
+}
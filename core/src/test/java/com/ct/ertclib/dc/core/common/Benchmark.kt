@@ -0,0 +1,47 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.common
+
+import org.junit.Assume
+import java.io.File
+
+/**
+ * JVM基准测试的开关和结果输出。基准默认跳过，gradle加-Pbenchmark=true时运行，
+ * 结果按类追加到benchmark.dir目录下的文本文件，不输出到标准输出。
+ */
+object Benchmark {
+
+    private const val PROPERTY_ENABLED = "benchmark"
+    private const val PROPERTY_DIR = "benchmark.dir"
+    private const val DEFAULT_DIR = "build/reports/benchmarks"
+
+    val isEnabled: Boolean
+        get() = System.getProperty(PROPERTY_ENABLED).toBoolean()
+
+    /**
+     * 未开启基准时跳过当前测试，在@BeforeClass中调用时跳过整个类
+     */
+    fun assumeEnabled() {
+        Assume.assumeTrue("benchmark disabled, run with -P$PROPERTY_ENABLED=true", isEnabled)
+    }
+
+    fun report(tag: String, result: String) {
+        val dir = File(System.getProperty(PROPERTY_DIR) ?: DEFAULT_DIR)
+        dir.mkdirs()
+        File(dir, "$tag.txt").appendText("$result\n")
+    }
+}
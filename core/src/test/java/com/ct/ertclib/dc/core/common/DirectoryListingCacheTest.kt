@@ -0,0 +1,153 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.common
+
+import com.ct.ertclib.dc.core.common.DirectoryListingCache.Companion.FILE_TYPE_ALL
+import com.ct.ertclib.dc.core.common.DirectoryListingCache.Companion.FILE_TYPE_FILE
+import com.ct.ertclib.dc.core.common.DirectoryListingCache.Companion.FOLDER_POSITION_AFTER
+import com.ct.ertclib.dc.core.common.DirectoryListingCache.Companion.FOLDER_POSITION_BEFORE
+import com.ct.ertclib.dc.core.common.DirectoryListingCache.Companion.SORT_ORDER_ASC
+import com.ct.ertclib.dc.core.common.DirectoryListingCache.Companion.SORT_ORDER_DESC
+import com.ct.ertclib.dc.core.common.DirectoryListingCache.Companion.SORT_TYPE_SIZE
+import com.ct.ertclib.dc.core.common.DirectoryListingCache.Companion.SORT_TYPE_TIME
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_LIST_CACHE_TTL_MILLIS
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+
+/**
+ * 目录列举缓存的JVM测试，覆盖大数值排序、过滤、快照复用和目录变化后的刷新。
+ */
+class DirectoryListingCacheTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private var now = System.currentTimeMillis()
+    private val cache = DirectoryListingCache { now }
+
+    private fun createFile(dir: File, name: String, size: Long, lastModified: Long): File {
+        val file = File(dir, name)
+        RandomAccessFile(file, "rw").use { it.setLength(size) }
+        file.setLastModified(lastModified)
+        return file
+    }
+
+    /**
+     * 把目录修改时间设到过去，避开修改时间精度的容差，列举结果才会被复用
+     */
+    private fun settle(dir: File) {
+        dir.setLastModified(now - 60_000)
+    }
+
+    @Test
+    fun sortsLargeSizesAndTimestampsWithoutOverflow() {
+        val dir = folder.newFolder("dcim")
+        // 相差超过Int范围的大小和时间，相减后转Int会得到错误的符号
+        createFile(dir, "small", 1, 1_000L)
+        createFile(dir, "huge", 3L * 1024 * 1024 * 1024, 1_700_000_000_000L)
+        createFile(dir, "medium", 4096, 1_600_000_000_000L)
+        File(dir, "sub").mkdir()
+        File(dir, "sub").setLastModified(1_650_000_000_000L)
+
+        val bySizeDesc = cache.getSnapshot(dir.path, DirectoryListingCache.Query(FILE_TYPE_FILE, emptyList(), SORT_TYPE_SIZE, SORT_ORDER_DESC, 0))
+        assertEquals(listOf("huge", "medium", "small"), bySizeDesc.files.map { it.name })
+
+        val byTimeAsc = cache.getSnapshot(dir.path, DirectoryListingCache.Query(FILE_TYPE_ALL, emptyList(), SORT_TYPE_TIME, SORT_ORDER_ASC, 0))
+        assertEquals(listOf("small", "medium", "sub", "huge"), byTimeAsc.files.map { it.name })
+
+        val foldersBefore = cache.getSnapshot(dir.path, DirectoryListingCache.Query(FILE_TYPE_ALL, emptyList(), SORT_TYPE_TIME, SORT_ORDER_DESC, FOLDER_POSITION_BEFORE))
+        assertEquals(listOf("sub", "huge", "medium", "small"), foldersBefore.files.map { it.name })
+
+        val foldersAfter = cache.getSnapshot(dir.path, DirectoryListingCache.Query(FILE_TYPE_ALL, emptyList(), SORT_TYPE_TIME, SORT_ORDER_DESC, FOLDER_POSITION_AFTER))
+        assertEquals(listOf("huge", "medium", "small", "sub"), foldersAfter.files.map { it.name })
+    }
+
+    @Test
+    fun suffixFilterOnlyAppliesToFiles() {
+        val dir = folder.newFolder("docs")
+        createFile(dir, "a.jpg", 1, 1_000L)
+        createFile(dir, "b.png", 1, 2_000L)
+        createFile(dir, "c.txt", 1, 3_000L)
+        File(dir, "album").mkdir()
+        val snapshot = cache.getSnapshot(dir.path, DirectoryListingCache.Query(FILE_TYPE_ALL, listOf(".jpg", ".png"), "", 0, 0))
+        assertEquals(listOf("a.jpg", "album", "b.png"), snapshot.files.map { it.name })
+    }
+
+    @Test
+    fun snapshotIsReusedUntilDirectoryChanges() {
+        val dir = folder.newFolder("photos")
+        for (i in 0 until 100) {
+            createFile(dir, "img$i.jpg", i.toLong(), 1_000L * i)
+        }
+        settle(dir)
+        val query = DirectoryListingCache.Query(FILE_TYPE_ALL, emptyList(), SORT_TYPE_TIME, SORT_ORDER_DESC, 0)
+        val first = cache.getSnapshot(dir.path, query)
+        assertSame(first, cache.getSnapshot(dir.path, query))
+        assertSame(first, cache.getSnapshot(first.id))
+
+        // 新增文件改变了目录修改时间，重新列举；旧快照仍可按编号取到，用于游标翻页
+        createFile(dir, "new.jpg", 1, 1_000_000L)
+        dir.setLastModified(now - 30_000)
+        val second = cache.getSnapshot(dir.path, query)
+        assertNotEquals(first.id, second.id)
+        assertEquals(101, second.files.size)
+        assertEquals("new.jpg", second.files[0].name)
+        assertEquals(100, cache.getSnapshot(first.id)?.files?.size)
+
+        // 超过TTL后即使目录修改时间未变也重新列举
+        now += FILE_LIST_CACHE_TTL_MILLIS
+        assertNotEquals(second.id, cache.getSnapshot(dir.path, query).id)
+    }
+
+    @Test
+    fun recentlyModifiedDirectoryIsNotReused() {
+        val dir = folder.newFolder("fresh")
+        createFile(dir, "a", 1, 1_000L)
+        dir.setLastModified(now)
+        val query = DirectoryListingCache.Query(FILE_TYPE_ALL, emptyList(), "", 0, 0)
+        val first = cache.getSnapshot(dir.path, query)
+        assertNotEquals(first.id, cache.getSnapshot(dir.path, query).id)
+    }
+
+    @Test
+    fun snapshotOnlyMatchesItsFolderAndQuery() {
+        val music = folder.newFolder("music")
+        createFile(music, "a.mp3", 1, 1_000L)
+        val query = DirectoryListingCache.Query(FILE_TYPE_ALL, emptyList(), SORT_TYPE_SIZE, SORT_ORDER_ASC, 0)
+        val snapshot = cache.getSnapshot(music.path, query)
+
+        // 游标中只有快照编号，按编号取回后需确认目录和条件一致
+        val byId = cache.getSnapshot(snapshot.id)!!
+        assertTrue(byId.matches(music.path, query))
+        assertFalse(byId.matches(folder.newFolder("other").path, query))
+        assertFalse(byId.matches(music.path, query.copy(sortOrder = SORT_ORDER_DESC)))
+    }
+
+    @Test
+    fun missingDirectoryIsEmpty() {
+        val snapshot = cache.getSnapshot(File(folder.root, "missing").path, DirectoryListingCache.Query(FILE_TYPE_ALL, emptyList(), "", 0, 0))
+        assertEquals(0, snapshot.files.size)
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.common
+
+import com.ct.ertclib.dc.core.utils.common.SearchGrams
+import org.junit.AfterClass
+import org.junit.Assert.assertEquals
+import org.junit.BeforeClass
+import org.junit.Test
+import java.sql.Connection
+import java.sql.DriverManager
+import kotlin.random.Random
+
+/**
+ * 消息历史的JVM基准：插入100万条消息，对比OFFSET与keyset分页、旧触发器与增量计数触发器的插入耗时、
+ * LIKE与全文索引搜索的耗时，结果见[Benchmark.report]。建表语句与NewCallDatabase中15-16的迁移一致。
+ * 耗时较长，默认跳过，开启方式见[Benchmark]。
+ */
+class MessageHistoryBenchmarkTest {
+
+    companion object {
+        private const val TAG = "MessageHistoryBenchmarkTest"
+        private const val MESSAGE_COUNT = 1_000_000
+        private const val CONVERSATION_COUNT = 10
+        private const val PAGE_SIZE = 50
+        private const val DEEP_PAGE = 1500
+        private const val INSERT_MEASURE_COUNT = 1000
+        private const val MEASURE_COUNT = 20
+        private val WORDS = listOf("你好", "会议", "明天见", "收到", "hello", "ok", "文件已发送", "晚上吃什么", "图片", "视频通话")
+
+        private const val LEGACY_INSERT_TRIGGER =
+            "CREATE TRIGGER message_update_conversation_on_insert AFTER INSERT ON messages " +
+                    "BEGIN" +
+                    " UPDATE conversations SET date=(strftime('%s','now') * 1000), snippet = new.text, type = new.type" +
+                    " WHERE  conversations._id = new.conversationId ;" +
+                    " UPDATE conversations SET count = (SELECT COUNT(messages._id) FROM messages LEFT JOIN " +
+                    "conversations ON conversations._id = conversationId WHERE conversations._id = new.conversationId) ;" +
+                    " UPDATE conversations SET read = CASE ( SELECT COUNT( * ) FROM messages " +
+                    "WHERE read = 0 AND conversationId = conversations._id ) WHEN 0 THEN 1 ELSE 0 END " +
+                    "WHERE conversations._id = new.conversationId;" +
+                    " END; "
+
+        private lateinit var connection: Connection
+        private val random = Random(1)
+
+        @BeforeClass
+        @JvmStatic
+        fun setUp() {
+            Benchmark.assumeEnabled()
+            connection = DriverManager.getConnection("jdbc:sqlite::memory:")
+            execute(
+                "CREATE TABLE conversations (_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, date TEXT, snippet TEXT, " +
+                        "read INTEGER NOT NULL DEFAULT 0, type TEXT, recipientId INTEGER NOT NULL DEFAULT 0, " +
+                        "count INTEGER NOT NULL DEFAULT 0, unreadCount INTEGER NOT NULL DEFAULT 0)"
+            )
+            execute(
+                "CREATE TABLE messages (_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, conversationId INTEGER NOT NULL, " +
+                        "read INTEGER NOT NULL, type TEXT NOT NULL, message TEXT NOT NULL, receiveTime INTEGER NOT NULL, " +
+                        "text TEXT, searchGrams TEXT NOT NULL DEFAULT '')"
+            )
+            execute("CREATE INDEX index_messages_conversationId_receiveTime__id ON messages (conversationId, receiveTime, _id)")
+            execute("CREATE VIRTUAL TABLE messages_fts USING FTS4(`searchGrams` TEXT NOT NULL, content=`messages`)")
+            execute(
+                "CREATE TRIGGER messages_fts_AFTER_INSERT AFTER INSERT ON `messages` " +
+                        "BEGIN INSERT INTO `messages_fts`(`docid`, `searchGrams`) VALUES (NEW.`rowid`, NEW.`searchGrams`); END"
+            )
+            MessageCounterTriggers.CREATE_TRIGGERS.forEach { execute(it) }
+            for (i in 1..CONVERSATION_COUNT) {
+                execute("INSERT INTO conversations (recipientId) VALUES ($i)")
+            }
+            val start = System.nanoTime()
+            insertMessages(MESSAGE_COUNT)
+            Benchmark.report(TAG, "insert $MESSAGE_COUNT messages: ${(System.nanoTime() - start) / 1_000_000} ms")
+        }
+
+        @AfterClass
+        @JvmStatic
+        fun tearDown() {
+            if (::connection.isInitialized) {
+                connection.close()
+            }
+        }
+
+        private fun insertMessages(count: Int) {
+            connection.autoCommit = false
+            connection.prepareStatement(
+                "INSERT INTO messages (conversationId, read, type, message, receiveTime, text, searchGrams) VALUES (?, ?, ?, ?, ?, ?, ?)"
+            ).use { statement ->
+                for (i in 0 until count) {
+                    val message = WORDS[random.nextInt(WORDS.size)] + " " + WORDS[random.nextInt(WORDS.size)] + " " + i
+                    statement.setInt(1, 1 + random.nextInt(CONVERSATION_COUNT))
+                    statement.setInt(2, if (random.nextInt(10) == 0) 0 else 1)
+                    statement.setString(3, "text")
+                    statement.setString(4, message)
+                    // 约每三条消息同一毫秒，检验(receiveTime, _id)的次序
+                    statement.setLong(5, 1_700_000_000_000L + i / 3)
+                    statement.setString(6, message)
+                    statement.setString(7, SearchGrams.toGrams(message))
+                    statement.addBatch()
+                    if (i % 10_000 == 9_999) {
+                        statement.executeBatch()
+                    }
+                }
+                statement.executeBatch()
+            }
+            connection.commit()
+            connection.autoCommit = true
+        }
+
+        private fun execute(sql: String) {
+            connection.createStatement().use { it.execute(sql) }
+        }
+    }
+
+    @Test
+    fun countersMatchMessages() {
+        connection.createStatement().use { statement ->
+            statement.executeQuery(
+                "SELECT count, unreadCount, (SELECT COUNT(*) FROM messages WHERE conversationId = conversations._id), " +
+                        "(SELECT COUNT(*) FROM messages WHERE conversationId = conversations._id AND read = 0) FROM conversations"
+            ).use { resultSet ->
+                while (resultSet.next()) {
+                    assertEquals(resultSet.getInt(3), resultSet.getInt(1))
+                    assertEquals(resultSet.getInt(4), resultSet.getInt(2))
+                }
+            }
+        }
+    }
+
+    @Test
+    fun benchmarkPaging() {
+        val offsetSql = "SELECT * FROM messages WHERE conversationId = ? ORDER BY receiveTime DESC, _id DESC LIMIT ? OFFSET ?"
+        val keysetSql = "SELECT * FROM messages WHERE conversationId = ? AND receiveTime <= ? " +
+                "AND (receiveTime < ? OR _id < ?) ORDER BY receiveTime DESC, _id DESC LIMIT ?"
+        // 找到第DEEP_PAGE页之前最后一条消息作为keyset游标
+        var beforeTime = Long.MAX_VALUE
+        var beforeId = Int.MAX_VALUE
+        connection.prepareStatement(offsetSql).use { statement ->
+            statement.setInt(1, 1)
+            statement.setInt(2, 1)
+            statement.setInt(3, DEEP_PAGE * PAGE_SIZE - 1)
+            statement.executeQuery().use { resultSet ->
+                resultSet.next()
+                beforeTime = resultSet.getLong("receiveTime")
+                beforeId = resultSet.getInt("_id")
+            }
+        }
+        val offsetIds = queryIds(offsetSql, 1, PAGE_SIZE, DEEP_PAGE * PAGE_SIZE)
+        val keysetIds = queryIds(keysetSql, 1, beforeTime, beforeTime, beforeId, PAGE_SIZE)
+        assertEquals(offsetIds, keysetIds)
+
+        val offsetMillis = measure { queryIds(offsetSql, 1, PAGE_SIZE, DEEP_PAGE * PAGE_SIZE) }
+        val keysetMillis = measure { queryIds(keysetSql, 1, beforeTime, beforeTime, beforeId, PAGE_SIZE) }
+        Benchmark.report(TAG, "page $DEEP_PAGE, offset: ${"%.3f".format(offsetMillis)} ms, keyset: ${"%.3f".format(keysetMillis)} ms")
+    }
+
+    @Test
+    fun benchmarkSearch() {
+        val keyword = "晚上吃"
+        val likeSql = "SELECT _id FROM messages WHERE message LIKE ?"
+        val (ftsSql, ftsArgs) = SearchGrams.buildMessageSearchQuery(keyword)
+        val likeIds = queryIds(likeSql, "%$keyword%").toSet()
+        val ftsIds = queryIds(ftsSql, *ftsArgs).toSet()
+        assertEquals(likeIds, ftsIds)
+
+        val likeMillis = measure { queryIds(likeSql, "%$keyword%") }
+        val ftsMillis = measure { queryIds(ftsSql, *ftsArgs) }
+        Benchmark.report(TAG, "search rows:${ftsIds.size}, like: ${"%.2f".format(likeMillis)} ms, fts: ${"%.2f".format(ftsMillis)} ms")
+    }
+
+    @Test
+    fun benchmarkInsertTrigger() {
+        var start = System.nanoTime()
+        insertMessages(INSERT_MEASURE_COUNT)
+        val counterMillis = (System.nanoTime() - start) / 1_000_000.0 / INSERT_MEASURE_COUNT
+
+        execute("DROP TRIGGER conversation_counter_on_message_insert")
+        execute(LEGACY_INSERT_TRIGGER)
+        start = System.nanoTime()
+        try {
+            insertMessages(INSERT_MEASURE_COUNT)
+        } finally {
+            // 恢复增量计数，其他用例共用同一个数据库
+            execute("DROP TRIGGER message_update_conversation_on_insert")
+            MessageCounterTriggers.CREATE_TRIGGERS.forEach { execute(it) }
+            execute(MessageCounterTriggers.RECOUNT_ALL)
+            execute(MessageCounterTriggers.RECOUNT_READ)
+        }
+        val legacyMillis = (System.nanoTime() - start) / 1_000_000.0 / INSERT_MEASURE_COUNT
+        Benchmark.report(TAG, "insert per message, legacy trigger: ${"%.3f".format(legacyMillis)} ms, " +
+                "counter trigger: ${"%.3f".format(counterMillis)} ms")
+    }
+
+    private fun queryIds(sql: String, vararg args: Any): List<Int> {
+        val ids = ArrayList<Int>()
+        connection.prepareStatement(sql).use { statement ->
+            args.forEachIndexed { index, arg -> statement.setObject(index + 1, arg) }
+            statement.executeQuery().use { resultSet ->
+                while (resultSet.next()) {
+                    ids.add(resultSet.getInt("_id"))
+                }
+            }
+        }
+        return ids
+    }
+
+    private inline fun measure(block: () -> Unit): Double {
+        repeat(3) { block() }
+        val start = System.nanoTime()
+        repeat(MEASURE_COUNT) { block() }
+        return (System.nanoTime() - start) / 1_000_000.0 / MEASURE_COUNT
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.PROPERTIES_FILE_NAME
+import com.ct.ertclib.dc.core.data.miniapp.MiniAppProperties
+import com.ct.ertclib.dc.core.data.model.MiniAppIndexEntity
+import com.google.gson.Gson
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * 小程序元数据索引的JVM测试，覆盖安装更新、重新加载、目录校验和重新扫描。
+ */
+class MiniAppIndexTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private class FakeStorage : MiniAppIndex.Storage {
+        val records = LinkedHashMap<String, MiniAppIndexEntity>()
+
+        override fun loadAll(): List<MiniAppIndexEntity> = records.values.toList()
+
+        override fun save(index: MiniAppIndexEntity) {
+            records[index.appId] = index
+        }
+
+        override fun delete(appId: String) {
+            records.remove(appId)
+        }
+    }
+
+    private lateinit var rootDir: File
+    private val storage = FakeStorage()
+    private var parseCount = 0
+
+    @Before
+    fun setUp() {
+        rootDir = folder.newFolder("miniApps")
+    }
+
+    private fun newIndex(): MiniAppIndex {
+        // 与PathManager.compareVersion一致，按点分隔的数字比较
+        val comparator = Comparator<String> { a, b ->
+            val x = a.split(".").map { it.toInt() }
+            val y = b.split(".").map { it.toInt() }
+            (x.indices).firstOrNull { x[it] != y[it] }?.let { x[it].compareTo(y[it]) } ?: 0
+        }
+        return MiniAppIndex(rootDir, storage, comparator, {
+            parseCount++
+            Gson().fromJson(it, MiniAppProperties::class.java)
+        }) { 1000L }
+    }
+
+    private fun createVersion(appId: String, version: String, permissions: String = "\"camera\""): File {
+        val dir = File(rootDir, "$appId/$version")
+        dir.mkdirs()
+        File(dir, PROPERTIES_FILE_NAME).writeText(
+            """{"appId":"$appId","version":"$version","priority":1,"permissions":[$permissions]}"""
+        )
+        return dir
+    }
+
+    @Test
+    fun installedAppsAreIndexedFromDirectory() {
+        createVersion("a", "1.2")
+        val newest = createVersion("a", "1.10")
+        File(rootDir, "a/2.0${MiniAppPackageStore.INSTALLING_SUFFIX}").mkdirs()
+
+        val index = newIndex()
+        assertEquals(newest.path, index.getInstalledPath("a"))
+        assertEquals("1.10", index.getVersion("a"))
+        assertEquals("1.10", storage.records["a"]!!.version)
+        assertEquals(listOf("camera"), index.getPermissions("a"))
+        index.getProperties("a")
+        assertEquals(1, parseCount)
+        assertNull(index.getInstalledPath("b"))
+    }
+
+    @Test
+    fun reloadedIndexDoesNotReadProperties() {
+        val dir = createVersion("a", "1.0")
+        newIndex().onInstalled("a", dir)
+
+        // 修改内容但保持修改时间，重新加载后仍使用索引中的properties
+        val propertiesFile = File(dir, PROPERTIES_FILE_NAME)
+        val modified = propertiesFile.lastModified()
+        propertiesFile.writeText("{}")
+        propertiesFile.setLastModified(modified)
+        val index = newIndex()
+        assertEquals(listOf("camera"), index.getPermissions("a"))
+        assertEquals("1.0", index.getProperties("a")!!.version)
+    }
+
+    @Test
+    fun staleEntryIsRescanned() {
+        val old = createVersion("a", "1.0")
+        newIndex().onInstalled("a", old)
+        val newer = createVersion("a", "2.0", "\"location\"")
+        old.deleteRecursively()
+
+        val index = newIndex()
+        assertEquals(newer.path, index.getInstalledPath("a"))
+        assertEquals(listOf("location"), index.getPermissions("a"))
+        assertEquals("2.0", storage.records["a"]!!.version)
+
+        newer.deleteRecursively()
+        assertNull(newIndex().getInstalledPath("a"))
+        assertTrue(storage.records.isEmpty())
+    }
+
+    @Test
+    fun uninstalledAppIsNotRescannedUntilInstalled() {
+        val index = newIndex()
+        assertNull(index.getInstalledPath("a"))
+        val dir = createVersion("a", "1.0")
+        assertNull(index.getInstalledPath("a"))
+
+        index.onInstalled("a", dir)
+        assertEquals(dir.path, index.getInstalledPath("a"))
+    }
+
+    @Test
+    fun propertiesOfOtherPathAreReadFromFile() {
+        val installed = createVersion("a", "1.0")
+        val other = createVersion("a", "0.9", "\"contacts\"")
+        val index = newIndex()
+        index.onInstalled("a", installed)
+        assertEquals(listOf("camera"), index.getProperties("a", installed.path)!!.permissions)
+        assertEquals(listOf("contacts"), index.getProperties("a", other.path)!!.permissions)
+        assertEquals(installed.path, index.getInstalledPath("a"))
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_SLOT_START_GRACE_MILLIS
+import com.ct.ertclib.dc.core.miniapp.MiniAppSlotAllocator.State
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 小程序进程槽位分配和淘汰策略的JVM测试。
+ */
+class MiniAppSlotAllocatorTest {
+
+    private var now = 1_000_000L
+    private val allocator = MiniAppSlotAllocator<String>(3) { now }
+
+    private fun claim(appId: String, priority: Int): MiniAppSlotAllocator.Claim<String>? {
+        now += 10
+        return allocator.claim(priority) { appId }
+    }
+
+    @Test
+    fun warmSlotIsPreferredAndRefilled() {
+        assertEquals(listOf(0, 1), allocator.reserveWarm(2))
+        // 已达到目标数时不再预热
+        assertEquals(emptyList<Int>(), allocator.reserveWarm(2))
+
+        val first = claim("a", 0)!!
+        assertEquals(0, first.slot)
+        assertTrue(first.warm)
+        // 补充预热使用剩余的空闲槽位
+        assertEquals(listOf(2), allocator.reserveWarm(2))
+
+        val second = claim("b", 0)!!
+        assertEquals(1, second.slot)
+        assertTrue(second.warm)
+        assertEquals(1, allocator.find { it == "b" })
+    }
+
+    @Test
+    fun freeSlotUsedWithoutWarmPool() {
+        val claim = claim("a", 0)!!
+        assertEquals(0, claim.slot)
+        assertFalse(claim.warm)
+        assertNull(claim.evicted)
+    }
+
+    @Test
+    fun evictsLowestPriorityThenLeastRecentlyUsed() {
+        claim("a", 5)
+        claim("b", 1)
+        claim("c", 1)
+        // b比c更早使用，但切到前台后c成为最久未使用的
+        now += 10
+        allocator.touch(allocator.find { it == "b" })
+
+        val claim = claim("d", 3)!!
+        assertEquals("c", claim.evicted)
+        assertEquals(2, claim.slot)
+        assertEquals("d", allocator.payload(2))
+
+        // 没有优先级不高于启动小程序的槽位时无法启动
+        assertNull(claim("e", 0))
+    }
+
+    @Test
+    fun syncReclaimsDeadProcessesAfterGrace() {
+        claim("a", 0)
+        allocator.reserveWarm(1)
+        // 进程尚未拉起，宽限期内不回收
+        allocator.sync { false }
+        assertEquals(State.BOUND, allocator.state(0))
+        assertEquals(State.WARM, allocator.state(1))
+
+        now += MINI_APP_SLOT_START_GRACE_MILLIS
+        allocator.sync { false }
+        assertEquals(State.FREE, allocator.state(0))
+        assertEquals(State.FREE, allocator.state(1))
+    }
+
+    @Test
+    fun unknownRunningProcessIsNotUsed() {
+        allocator.sync { it == 0 }
+        assertEquals(State.OCCUPIED, allocator.state(0))
+        assertEquals(1, claim("a", 0)!!.slot)
+        assertEquals(listOf(2), allocator.reserveWarm(2))
+
+        // 预热进程回收后，进程退出前视为被占用
+        assertEquals(listOf(2), allocator.releaseWarm())
+        allocator.sync { it == 0 || it == 1 || it == 2 }
+        assertEquals(State.OCCUPIED, allocator.state(2))
+        allocator.sync { it == 1 }
+        assertEquals(State.FREE, allocator.state(0))
+        assertEquals(State.FREE, allocator.state(2))
+    }
+
+    @Test
+    fun warmPoolSizeFollowsMemory() {
+        val gb = 1024L * 1024 * 1024
+        assertEquals(0, MiniAppSlotAllocator.warmPoolSize(512, 8 * gb, true))
+        assertEquals(0, MiniAppSlotAllocator.warmPoolSize(512, gb / 2, false))
+        assertEquals(1, MiniAppSlotAllocator.warmPoolSize(128, 8 * gb, false))
+        assertEquals(1, MiniAppSlotAllocator.warmPoolSize(512, gb + gb / 2, false))
+        assertEquals(2, MiniAppSlotAllocator.warmPoolSize(512, 4 * gb, false))
+    }
+}
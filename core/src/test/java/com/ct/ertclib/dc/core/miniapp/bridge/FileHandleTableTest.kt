@@ -0,0 +1,121 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.bridge
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_HANDLE_MAX_OPEN
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * 文件句柄表的JVM测试，覆盖任意位置读写、多句柄并发、只读句柄和退出时全部关闭。
+ */
+class FileHandleTableTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun openWritable(table: FileHandleTable, file: File): Int {
+        return table.add(FileHandleTable.Handle(file.path, RandomAccessFile(file, "rw").channel, true, null))
+    }
+
+    @Test
+    fun positionalReadWrite() {
+        val table = FileHandleTable()
+        val file = File(folder.root, "a.bin")
+        val handle = openWritable(table, file)
+        table.write(handle, 10, byteArrayOf(1, 2, 3))
+        table.write(handle, 0, byteArrayOf(9))
+        assertEquals(13, table.size(handle))
+        assertArrayEquals(byteArrayOf(9, 0, 0), table.read(handle, 0, 3))
+        // 跨过文件末尾时只返回剩余部分，末尾之后返回空数组
+        assertArrayEquals(byteArrayOf(2, 3), table.read(handle, 11, 100))
+        assertEquals(0, table.read(handle, 13, 100).size)
+        assertTrue(table.close(handle))
+        assertFalse(table.close(handle))
+    }
+
+    @Test
+    fun concurrentHandlesDoNotInterfere() {
+        val table = FileHandleTable()
+        val chunk = 64 * 1024
+        val chunkCount = 32
+        val files = (0 until 4).map { File(folder.root, "f$it.bin") }
+        val handles = files.map { openWritable(table, it) }
+        val executor = Executors.newFixedThreadPool(8)
+        // 每个文件的各块乱序并发写入
+        handles.forEachIndexed { fileIndex, handle ->
+            (0 until chunkCount).shuffled().forEach { chunkIndex ->
+                executor.execute {
+                    val data = ByteArray(chunk) { (fileIndex * 31 + chunkIndex).toByte() }
+                    table.write(handle, chunkIndex.toLong() * chunk, data)
+                }
+            }
+        }
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS))
+        handles.forEachIndexed { fileIndex, handle ->
+            assertEquals(chunk.toLong() * chunkCount, table.size(handle))
+            for (chunkIndex in 0 until chunkCount) {
+                val data = table.read(handle, chunkIndex.toLong() * chunk, chunk)
+                assertTrue(data.all { it == (fileIndex * 31 + chunkIndex).toByte() })
+            }
+        }
+        table.closeAll()
+        assertEquals(0, table.openCount())
+    }
+
+    @Test(expected = IOException::class)
+    fun readOnlyHandleRejectsWrite() {
+        val table = FileHandleTable()
+        val file = File(folder.root, "r.bin")
+        file.writeBytes(byteArrayOf(1, 2, 3))
+        val handle = table.add(FileHandleTable.Handle(file.path, FileInputStream(file).channel, false, null))
+        assertArrayEquals(byteArrayOf(2, 3), table.read(handle, 1, 2))
+        table.write(handle, 0, byteArrayOf(0))
+    }
+
+    @Test
+    fun closeAllReleasesChannelsAndLimitIsEnforced() {
+        val table = FileHandleTable()
+        val channels = (0 until FILE_HANDLE_MAX_OPEN).map {
+            val channel = RandomAccessFile(File(folder.root, "h$it.bin"), "rw").channel
+            table.add(FileHandleTable.Handle("h$it", channel, true, null))
+            channel
+        }
+        val extra = RandomAccessFile(File(folder.root, "extra.bin"), "rw").channel
+        try {
+            table.add(FileHandleTable.Handle("extra", extra, true, null))
+            throw AssertionError("limit not enforced")
+        } catch (e: IOException) {
+            assertFalse(extra.isOpen)
+        }
+        table.closeAll()
+        assertEquals(0, table.openCount())
+        assertTrue(channels.none { it.isOpen })
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.bridge
+
+import com.ct.ertclib.dc.core.constants.CommonConstants.ASSET_CACHE_MAX_FILE_BYTES
+import com.ct.ertclib.dc.core.constants.CommonConstants.ASSET_PRELOAD_FILE_NAME
+import com.ct.ertclib.dc.core.constants.CommonConstants.MINI_APP_ASSET_ORIGIN
+import com.ct.ertclib.dc.core.miniapp.bridge.MiniAppAssetServer.AssetRequest
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * 小程序资源服务的JVM测试，用伪造的请求覆盖路径映射、缓存、Range和预加载清单。
+ */
+class MiniAppAssetServerTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var root: File
+    private lateinit var cache: MiniAppAssetCache
+    private lateinit var server: MiniAppAssetServer
+
+    @Before
+    fun setUp() {
+        root = folder.newFolder("app")
+        File(root, "index.html").writeText(
+            """<html><head><link rel="stylesheet" href="./css/app.css"><script src="js/app.js?v=1"></script>
+              |<script src="https://cdn.example.com/lib.js"></script></head>
+              |<body><img src="img/missing.png"></body></html>""".trimMargin()
+        )
+        File(root, "js").mkdir()
+        File(root, "js/app.js").writeText("console.log('app')")
+        File(root, "css").mkdir()
+        File(root, "css/app.css").writeText("body{}")
+        cache = MiniAppAssetCache()
+        server = MiniAppAssetServer(root, cache)
+    }
+
+    private fun fileUrl(name: String) = "file://${root.absolutePath}/$name"
+
+    @Test
+    fun servesFileAndVirtualOriginUrls() {
+        val response = server.serve(AssetRequest(fileUrl("js/app.js")))!!
+        assertEquals(200, response.status)
+        assertEquals("text/javascript", response.mimeType)
+        assertEquals("utf-8", response.encoding)
+        assertEquals("console.log('app')", response.body.readBytes().decodeToString())
+
+        val index = server.serve(AssetRequest(MINI_APP_ASSET_ORIGIN))!!
+        assertEquals("text/html", index.mimeType)
+        val css = server.serve(AssetRequest("${MINI_APP_ASSET_ORIGIN}css/app.css?t=1#x"))!!
+        assertEquals("body{}", css.body.readBytes().decodeToString())
+    }
+
+    @Test
+    fun foreignAndMissingRequests() {
+        // 其他目录和网络请求交给WebView
+        assertNull(server.serve(AssetRequest("file://${folder.root.absolutePath}/other.js")))
+        assertNull(server.serve(AssetRequest("https://cdn.example.com/lib.js")))
+        assertNull(server.serve(AssetRequest(fileUrl("missing.js"))))
+        // 虚拟源下不存在、越界或非GET请求在本地应答，不发到网络
+        assertEquals(404, server.serve(AssetRequest("${MINI_APP_ASSET_ORIGIN}missing.js"))!!.status)
+        assertEquals(404, server.serve(AssetRequest("${MINI_APP_ASSET_ORIGIN}../../etc/hosts"))!!.status)
+        assertEquals(405, server.serve(AssetRequest("${MINI_APP_ASSET_ORIGIN}js/app.js", "POST"))!!.status)
+    }
+
+    @Test
+    fun cacheIsValidatedByModifiedTime() {
+        val file = File(root, "js/app.js")
+        server.serve(AssetRequest(fileUrl("js/app.js")))!!.body.close()
+        assertNotNull(cache.get(file.path))
+
+        file.writeText("console.log('updated')")
+        file.setLastModified(file.lastModified() + 2000)
+        val response = server.serve(AssetRequest(fileUrl("js/app.js")))!!
+        assertEquals("console.log('updated')", response.body.readBytes().decodeToString())
+    }
+
+    @Test
+    fun rangeRequestsForCachedAndLargeFiles() {
+        val small = Random(1).nextBytes(1000)
+        File(root, "a.mp3").writeBytes(small)
+        val large = Random(2).nextBytes(ASSET_CACHE_MAX_FILE_BYTES + 4096)
+        File(root, "b.mp4").writeBytes(large)
+
+        for ((name, data) in listOf("a.mp3" to small, "b.mp4" to large)) {
+            val length = data.size
+            val partial = server.serve(AssetRequest(fileUrl(name), headers = mapOf("range" to "bytes=100-199")))!!
+            assertEquals(206, partial.status)
+            assertEquals("bytes 100-199/$length", partial.headers["Content-Range"])
+            assertArrayEquals(data.copyOfRange(100, 200), partial.body.readBytes())
+
+            val open = server.serve(AssetRequest(fileUrl(name), headers = mapOf("Range" to "bytes=${length - 10}-")))!!
+            assertArrayEquals(data.copyOfRange(length - 10, length), open.body.readBytes())
+
+            val suffix = server.serve(AssetRequest(fileUrl(name), headers = mapOf("Range" to "bytes=-20")))!!
+            assertEquals("bytes ${length - 20}-${length - 1}/$length", suffix.headers["Content-Range"])
+            assertArrayEquals(data.copyOfRange(length - 20, length), suffix.body.readBytes())
+
+            val beyond = server.serve(AssetRequest(fileUrl(name), headers = mapOf("Range" to "bytes=$length-")))!!
+            assertEquals(416, beyond.status)
+
+            val full = server.serve(AssetRequest(fileUrl(name), headers = mapOf("Range" to "bytes=0-1,5-6")))!!
+            assertEquals(200, full.status)
+            assertArrayEquals(data, full.body.readBytes())
+        }
+        assertNull(cache.get(File(root, "b.mp4").path))
+    }
+
+    @Test
+    fun preloadManifestFromIndexHtml() {
+        assertEquals(listOf("index.html", "css/app.css", "js/app.js"), MiniAppAssetServer.buildPreloadManifest(root))
+        MiniAppAssetServer.writePreloadManifest(root)
+        assertEquals("index.html\ncss/app.css\njs/app.js", File(root, ASSET_PRELOAD_FILE_NAME).readText())
+
+        assertEquals(3, server.preload())
+        assertNotNull(cache.get(File(root, "css/app.css").path))
+    }
+
+    @Test
+    fun cacheEvictsLeastRecentlyUsedByBytes() {
+        val lru = MiniAppAssetCache(100)
+        lru.put("a", MiniAppAssetCache.Asset(ByteArray(40), 0, ""))
+        lru.put("b", MiniAppAssetCache.Asset(ByteArray(40), 0, ""))
+        lru.get("a")
+        lru.put("c", MiniAppAssetCache.Asset(ByteArray(40), 0, ""))
+        assertNotNull(lru.get("a"))
+        assertNull(lru.get("b"))
+        assertEquals(80, lru.size())
+    }
+}
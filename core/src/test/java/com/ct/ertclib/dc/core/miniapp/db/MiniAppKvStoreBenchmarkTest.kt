@@ -0,0 +1,126 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.db
+
+import com.ct.ertclib.dc.core.common.Benchmark
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileOutputStream
+
+/**
+ * 小程序键值存储的JVM基准：已有几千个键时，对比原SPUtils写入路径与内存映射日志的单次写入耗时，结果见[Benchmark.report]。
+ * SP路径按SharedPreferencesImpl的行为模拟：每次写入把整个map序列化为XML重写文件并fsync，
+ * 带过期时间的写入还要重建并写入拼接的过期键字符串。默认跳过，正确性由MiniAppKvStoreTest覆盖。
+ */
+class MiniAppKvStoreBenchmarkTest {
+
+    companion object {
+        private const val TAG = "MiniAppKvStoreBenchmarkTest"
+        private const val KEY_COUNT = 5000
+        private const val MEASURE_COUNT = 200
+        private const val APP_ID = "benchmarkApp"
+        private const val KEYS_KEY = "miniAppSpKeysKey"
+        private const val ITEM_SPLIT = "miniAppSpExpiryItemSplitKeysKey"
+        private const val EXPIRY_SPLIT = "miniAppSpExpirySplitKeysKey"
+        private const val TTL = 3_600_000L
+    }
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Before
+    fun setUp() {
+        Benchmark.assumeEnabled()
+    }
+
+    /**
+     * 模拟SharedPreferences：内存map + 每次写入全量重写XML
+     */
+    private class LegacySpStore(private val file: File) {
+        val map = LinkedHashMap<String, String>()
+
+        fun put(key: String, value: String) {
+            map[key] = value
+            writeToFile()
+        }
+
+        fun getString(key: String): String {
+            return map[key] ?: ""
+        }
+
+        fun writeToFile() {
+            val builder = StringBuilder("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n")
+            map.forEach { (key, value) ->
+                builder.append("    <string name=\"").append(key).append("\">").append(value).append("</string>\n")
+            }
+            builder.append("</map>\n")
+            FileOutputStream(file).use {
+                it.write(builder.toString().toByteArray())
+                it.fd.sync()
+            }
+        }
+    }
+
+    @Test
+    fun benchmarkWriteWithExpiry() {
+        val sp = LegacySpStore(File(folder.root, "sp.xml"))
+        val kv = MiniAppKvStore(File(folder.root, "$APP_ID.kv"))
+        val keys = StringBuilder()
+        val now = System.currentTimeMillis()
+        for (i in 0 until KEY_COUNT) {
+            sp.map["$APP_ID$i"] = "value$i"
+            if (keys.isNotEmpty()) {
+                keys.append(ITEM_SPLIT)
+            }
+            keys.append("$APP_ID$i$EXPIRY_SPLIT${now + TTL}")
+            kv.put("$i", "value$i", now + TTL)
+        }
+        sp.map[KEYS_KEY] = keys.toString()
+        sp.writeToFile()
+
+        var start = System.nanoTime()
+        for (i in 0 until MEASURE_COUNT) {
+            // 与FileMiniUseCase原saveUpdateKeyValueWithExpiry相同的两次写入
+            sp.put("$APP_ID$i", "updated$i")
+            val builder = StringBuilder(sp.getString(KEYS_KEY))
+            builder.append(ITEM_SPLIT).append("$APP_ID$i$EXPIRY_SPLIT${System.currentTimeMillis() + TTL}")
+            sp.put(KEYS_KEY, builder.toString())
+        }
+        val spMillis = (System.nanoTime() - start) / 1_000_000.0 / MEASURE_COUNT
+
+        start = System.nanoTime()
+        for (i in 0 until MEASURE_COUNT) {
+            kv.put("$i", "updated$i", System.currentTimeMillis() + TTL)
+        }
+        val kvMillis = (System.nanoTime() - start) / 1_000_000.0 / MEASURE_COUNT
+        kv.close()
+
+        start = System.nanoTime()
+        val reopened = MiniAppKvStore(File(folder.root, "$APP_ID.kv"))
+        val openMillis = (System.nanoTime() - start) / 1_000_000.0
+        assertEquals(KEY_COUNT, reopened.size())
+        assertEquals("updated0", reopened.get("0"))
+        reopened.close()
+
+        Benchmark.report(TAG, "keys:$KEY_COUNT, write with expiry, sp: ${"%.3f".format(spMillis)} ms, " +
+                "kv: ${"%.4f".format(kvMillis)} ms, kv open: ${"%.2f".format(openMillis)} ms")
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.db
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+
+/**
+ * 小程序键值存储的JVM测试，覆盖重新打开、崩溃后恢复、重写和过期淘汰。
+ */
+class MiniAppKvStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private var now = 1_000_000L
+
+    private fun open(file: File): MiniAppKvStore {
+        return MiniAppKvStore(file) { now }
+    }
+
+    @Test
+    fun putGetRemoveSurviveReopen() {
+        val file = File(folder.root, "app.kv")
+        open(file).use { store ->
+            store.put("a", "1")
+            store.put("b", "中文值")
+            store.put("a", "2")
+            store.put("c", "3")
+            store.remove("c")
+            assertEquals("2", store.get("a"))
+        }
+        open(file).use { store ->
+            assertEquals(2, store.size())
+            assertEquals("2", store.get("a"))
+            assertEquals("中文值", store.get("b"))
+            assertNull(store.get("c"))
+            assertEquals(0, store.recoveredDroppedBytes)
+        }
+    }
+
+    @Test
+    fun truncatedRecordIsDroppedOnRecovery() {
+        val file = File(folder.root, "app.kv")
+        val end = open(file).use { store ->
+            store.put("a", "1")
+            store.put("b", "2")
+            store.put("c", "3")
+            file.length()
+        }
+        // 模拟写最后一条记录时进程被杀：把最后一条记录的后半部分清零
+        val recordOffset = findRecordOffset(file, 2)
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(recordOffset + 10)
+            raf.write(ByteArray(12))
+        }
+        open(file).use { store ->
+            assertEquals("1", store.get("a"))
+            assertEquals("2", store.get("b"))
+            assertNull(store.get("c"))
+            assertTrue(store.recoveredDroppedBytes > 0)
+            // 截断之后可以继续追加
+            store.put("d", "4")
+        }
+        open(file).use { store ->
+            assertEquals(3, store.size())
+            assertEquals("4", store.get("d"))
+            assertEquals(0, store.recoveredDroppedBytes)
+            assertEquals(end, file.length())
+        }
+    }
+
+    @Test
+    fun corruptedRecordStopsRecoveryAndLaterRecordsAreNotResurrected() {
+        val file = File(folder.root, "app.kv")
+        open(file).use { store ->
+            store.put("a", "1")
+            store.put("b", "long value of b")
+            store.put("c", "3")
+        }
+        // 翻转第二条记录value中的一个字节，crc校验失败
+        val recordOffset = findRecordOffset(file, 1)
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(recordOffset + 21 + 1 + 3)
+            val b = raf.read()
+            raf.seek(recordOffset + 21 + 1 + 3)
+            raf.write(b xor 0xFF)
+        }
+        open(file).use { store ->
+            assertEquals(1, store.size())
+            store.put("e", "5")
+        }
+        // 新追加的短记录之后不能读出残留的旧记录c
+        open(file).use { store ->
+            assertEquals(setOf("1", "5"), setOf(store.get("a"), store.get("e")))
+            assertNull(store.get("c"))
+            assertEquals(2, store.size())
+        }
+    }
+
+    @Test
+    fun leftoverTmpFileFromInterruptedCompactionIsIgnored() {
+        val file = File(folder.root, "app.kv")
+        open(file).use { store ->
+            store.put("a", "1")
+        }
+        val tmp = File(file.path + ".tmp")
+        tmp.writeBytes(ByteArray(100) { 7 })
+        open(file).use { store ->
+            assertEquals("1", store.get("a"))
+        }
+        assertFalse(tmp.exists())
+    }
+
+    @Test
+    fun compactionKeepsLatestValuesAndShrinksFile() {
+        val file = File(folder.root, "app.kv")
+        open(file).use { store ->
+            val value = "x".repeat(200)
+            repeat(5000) { i ->
+                store.put("key${i % 50}", "$value$i")
+            }
+            store.remove("key0")
+            assertTrue(store.fileSize() <= MiniAppKvStore.MIN_CAPACITY * 2)
+            store.compact()
+            assertEquals(49, store.size())
+            assertEquals("${value}4999", store.get("key49"))
+        }
+        open(file).use { store ->
+            assertEquals(49, store.size())
+            assertNull(store.get("key0"))
+            assertEquals("x".repeat(200) + "4951", store.get("key1"))
+        }
+    }
+
+    @Test
+    fun growsForLargeValues() {
+        val file = File(folder.root, "app.kv")
+        val value = "v".repeat(MiniAppKvStore.MIN_CAPACITY * 3)
+        open(file).use { store ->
+            store.put("big", value)
+            store.put("small", "1")
+        }
+        open(file).use { store ->
+            assertEquals(value, store.get("big"))
+            assertEquals("1", store.get("small"))
+        }
+    }
+
+    @Test
+    fun expiredKeysAreEvictedLazilyAndOnSchedule() {
+        val file = File(folder.root, "app.kv")
+        open(file).use { store ->
+            store.put("short", "1", now + 100)
+            store.put("long", "2", now + 10_000)
+            store.put("forever", "3")
+            store.put("lazy", "6", now + 100)
+            store.put("overwritten", "4", now + 100)
+            store.put("overwritten", "5", now + 20_000)
+            assertEquals(now + 100, store.nextExpiry())
+
+            now += 200
+            // 读取时惰性淘汰，之后定时淘汰不再重复计数
+            assertNull(store.get("lazy"))
+            assertEquals(1, store.evictExpired())
+            assertNull(store.get("short"))
+            assertEquals(now - 200 + 10_000, store.nextExpiry())
+            assertEquals("5", store.get("overwritten"))
+
+            now += 10_000
+            assertEquals(1, store.evictExpired())
+            assertEquals(2, store.size())
+        }
+        // 重新打开时过期记录直接丢弃
+        now += 100_000
+        open(file).use { store ->
+            assertEquals(1, store.size())
+            assertEquals("3", store.get("forever"))
+            assertNull(store.nextExpiry())
+        }
+    }
+
+    /**
+     * 找到第index条记录的文件偏移，记录格式见MiniAppKvStore
+     */
+    private fun findRecordOffset(file: File, index: Int): Long {
+        RandomAccessFile(file, "r").use { raf ->
+            var offset = 8L
+            repeat(index) {
+                raf.seek(offset + 5)
+                val keyLength = raf.readInt()
+                val valueLength = raf.readInt()
+                offset += 21 + keyLength + valueLength
+            }
+            return offset
+        }
+    }
+}
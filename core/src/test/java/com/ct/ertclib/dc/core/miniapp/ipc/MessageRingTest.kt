@@ -0,0 +1,204 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.miniapp.ipc
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.random.Random
+
+/**
+ * 共享内存消息环的JVM测试，生产者和消费者使用同一块内存的不同视图模拟两个进程。
+ */
+class MessageRingTest {
+
+    private fun newBuffer(capacity: Int): ByteBuffer = ByteBuffer.allocateDirect(MessageRing.HEADER_SIZE + capacity)
+
+    private fun drainAll(ring: MessageRing): List<String> {
+        val result = ArrayList<String>()
+        ring.drain { result.add(it.decodeToString()) }
+        return result
+    }
+
+    @Test
+    fun framesWrapAroundWithPadding() {
+        val buffer = newBuffer(256)
+        val producer = MessageRing.create(buffer)
+        val consumer = MessageRing.attach(buffer.duplicate())
+        val messages = (0 until 50).map { "message-$it-" + "x".repeat(it % 37) }
+        messages.forEach { message ->
+            assertTrue(producer.write(message.toByteArray()))
+            assertEquals(listOf(message), drainAll(consumer))
+        }
+        assertTrue(consumer.isEmpty())
+    }
+
+    @Test
+    fun fullAndOversizedWritesAreRejected() {
+        val buffer = newBuffer(256)
+        val producer = MessageRing.create(buffer)
+        val consumer = MessageRing.attach(buffer.duplicate())
+        assertFalse(producer.write(ByteArray(producer.maxPayloadSize + 1)))
+        assertTrue(producer.write(ByteArray(producer.maxPayloadSize)))
+        assertTrue(producer.write(ByteArray(producer.maxPayloadSize)))
+        assertFalse(producer.write(ByteArray(0)))
+        assertEquals(2, consumer.drain { })
+        // 空消息也能传递
+        assertTrue(producer.write(ByteArray(0)))
+        assertTrue(producer.write(ByteArray(producer.maxPayloadSize)))
+        assertEquals(listOf(0, producer.maxPayloadSize), ArrayList<Int>().also { list -> consumer.drain { list.add(it.size) } })
+
+        consumer.markClosed()
+        assertTrue(producer.isClosed)
+        assertFalse(producer.write(ByteArray(1)))
+    }
+
+    @Test
+    fun wakeupOnlyWhenConsumerIsIdle() {
+        val buffer = newBuffer(1024)
+        val producer = MessageRing.create(buffer)
+        val consumer = MessageRing.attach(buffer.duplicate())
+        producer.write("a".toByteArray())
+        assertTrue(producer.takeWakeup())
+        // 消费者被唤醒但还未处理完，期间写入的消息不再唤醒
+        producer.write("b".toByteArray())
+        assertFalse(producer.takeWakeup())
+        assertEquals(listOf("a", "b"), drainAll(consumer))
+        assertTrue(consumer.prepareToWait())
+        producer.write("c".toByteArray())
+        assertTrue(producer.takeWakeup())
+
+        // 置空闲标记前又有新消息时继续读取
+        producer.write("d".toByteArray())
+        assertFalse(consumer.prepareToWait())
+        assertEquals(listOf("c", "d"), drainAll(consumer))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun attachRejectsUninitializedMemory() {
+        MessageRing.attach(newBuffer(256))
+    }
+
+    @Test
+    fun corruptFrameIsDetected() {
+        val buffer = newBuffer(256)
+        val producer = MessageRing.create(buffer)
+        producer.write("hello".toByteArray())
+        val raw = buffer.duplicate().order(java.nio.ByteOrder.nativeOrder())
+        raw.putInt(MessageRing.HEADER_SIZE, 10_000)
+        val error = runCatching { MessageRing.attach(buffer.duplicate()).drain { } }.exceptionOrNull()
+        assertTrue(error is IllegalStateException)
+    }
+
+    @Test
+    fun capacityIsReadOnlyOnAttach() {
+        val buffer = newBuffer(256)
+        val producer = MessageRing.create(buffer)
+        val consumer = MessageRing.attach(buffer.duplicate())
+        // 打开后另一进程改写头部中的数据区大小，不影响已打开的消息环
+        buffer.duplicate().order(java.nio.ByteOrder.nativeOrder()).putInt(4, 1_000_000)
+        assertTrue(producer.write("hello".toByteArray()))
+        assertEquals(listOf("hello"), drainAll(consumer))
+        assertTrue(runCatching { MessageRing.attach(buffer.duplicate()) }.exceptionOrNull() is IllegalArgumentException)
+    }
+
+    /**
+     * 多个线程加锁写入，消费者线程按唤醒信号批量读取，校验每个生产者的消息完整且有序
+     */
+    @Test
+    fun concurrentProducersAndConsumer() {
+        val producerCount = 4
+        val messageCount = 20_000
+        val buffer = newBuffer(4096)
+        val producer = MessageRing.create(buffer)
+        val consumer = MessageRing.attach(buffer.duplicate())
+        val producerLock = Any()
+        val doorbell = Semaphore(0)
+        val failure = AtomicReference<Throwable>()
+        val expectedSeq = IntArray(producerCount)
+        var received = 0
+        var wakeups = 0
+
+        val consumerThread = Thread {
+            try {
+                while (received < producerCount * messageCount) {
+                    if (!doorbell.tryAcquire(10, TimeUnit.SECONDS)) {
+                        throw AssertionError("lost wakeup, received:$received")
+                    }
+                    wakeups++
+                    do {
+                        consumer.drain { payload ->
+                            val text = payload.decodeToString()
+                            val parts = text.split(':')
+                            val id = parts[0].toInt()
+                            val seq = parts[1].toInt()
+                            assertEquals(expectedSeq[id], seq)
+                            assertEquals(seq % 500, parts[2].length)
+                            expectedSeq[id]++
+                            received++
+                        }
+                    } while (!consumer.prepareToWait())
+                }
+            } catch (e: Throwable) {
+                failure.compareAndSet(null, e)
+            }
+        }
+        val producers = (0 until producerCount).map { id ->
+            Thread {
+                val random = Random(id)
+                for (seq in 0 until messageCount) {
+                    val payload = "$id:$seq:${"z".repeat(seq % 500)}".toByteArray()
+                    while (failure.get() == null) {
+                        val wakeup = synchronized(producerLock) {
+                            if (producer.write(payload)) producer.takeWakeup() else null
+                        }
+                        if (wakeup == null) {
+                            // 消息环已满，实际使用时改走AIDL
+                            Thread.yield()
+                            continue
+                        }
+                        if (wakeup) {
+                            doorbell.release()
+                        }
+                        break
+                    }
+                    if (random.nextInt(1000) == 0) {
+                        Thread.sleep(1)
+                    }
+                }
+            }
+        }
+        consumerThread.start()
+        producers.forEach { it.start() }
+        producers.forEach { it.join() }
+        consumerThread.join(60_000)
+
+        assertNull(failure.get())
+        assertEquals(producerCount * messageCount, received)
+        assertArrayEquals(IntArray(producerCount) { messageCount }, expectedSeq)
+        assertTrue(consumer.isEmpty())
+        // 批量读取，唤醒次数远少于消息数
+        assertTrue(wakeups < received)
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.common
+
+import com.ct.ertclib.dc.core.common.Benchmark
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipInputStream
+import java.util.zip.ZipOutputStream
+import kotlin.random.Random
+
+/**
+ * 解压的JVM基准：对比原FileUtils.unzipFile的顺序解压(ZipInputStream + 1KB缓冲)与ArchiveExtractor，
+ * 分别用大量小文件和少量大文件两种合成压缩包，结果见[Benchmark.report]。默认跳过，正确性由ArchiveExtractorTest覆盖。
+ */
+class ArchiveExtractorBenchmarkTest {
+
+    companion object {
+        private const val TAG = "ArchiveExtractorBenchmarkTest"
+        private const val SMALL_FILE_COUNT = 3000
+        private const val SMALL_FILE_SIZE = 8 * 1024
+        private const val LARGE_FILE_COUNT = 4
+        private const val LARGE_FILE_SIZE = 32 * 1024 * 1024
+        private const val ROUNDS = 3
+    }
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Before
+    fun setUp() {
+        Benchmark.assumeEnabled()
+    }
+
+    /**
+     * 一半随机字节一半重复内容，压缩比接近常见的小程序资源
+     */
+    private fun content(random: Random, size: Int): ByteArray {
+        val data = ByteArray(size)
+        random.nextBytes(data, 0, size / 2)
+        for (i in size / 2 until size) {
+            data[i] = (i % 64).toByte()
+        }
+        return data
+    }
+
+    private fun createZip(name: String, count: Int, size: Int): File {
+        val random = Random(count)
+        val file = File(folder.root, name)
+        ZipOutputStream(FileOutputStream(file)).use { zip ->
+            for (i in 0 until count) {
+                zip.putNextEntry(ZipEntry("res/${i % 50}/file$i.bin"))
+                zip.write(content(random, size))
+                zip.closeEntry()
+            }
+        }
+        return file
+    }
+
+    /**
+     * 原FileUtils.unzipFile的写法
+     */
+    private fun legacyUnzip(zipFile: File, targetDir: File) {
+        ZipInputStream(zipFile.inputStream()).use { input ->
+            while (true) {
+                val entry = input.nextEntry ?: break
+                val file = File(targetDir, entry.name)
+                file.parentFile?.mkdirs()
+                FileOutputStream(file).use { output ->
+                    val buffer = ByteArray(1024)
+                    while (true) {
+                        val read = input.read(buffer)
+                        if (read == -1) {
+                            break
+                        }
+                        output.write(buffer, 0, read)
+                    }
+                }
+                input.closeEntry()
+            }
+        }
+    }
+
+    private fun measure(block: (File) -> Unit): Double {
+        var best = Double.MAX_VALUE
+        repeat(ROUNDS) { round ->
+            val target = File(folder.root, "out${System.nanoTime()}$round")
+            val start = System.nanoTime()
+            block(target)
+            best = minOf(best, (System.nanoTime() - start) / 1_000_000.0)
+            target.deleteRecursively()
+        }
+        return best
+    }
+
+    private fun benchmark(label: String, zipFile: File, fileCount: Int) {
+        val legacyMillis = measure { legacyUnzip(zipFile, it) }
+        var extracted = 0
+        val extractorMillis = measure { extracted = ArchiveExtractor.unzip(zipFile, it).fileCount }
+        assertEquals(fileCount, extracted)
+        Benchmark.report(TAG, "$label, legacy: ${"%.1f".format(legacyMillis)} ms, " +
+                "extractor: ${"%.1f".format(extractorMillis)} ms, cpus:${Runtime.getRuntime().availableProcessors()}")
+    }
+
+    @Test
+    fun benchmarkManySmallFiles() {
+        benchmark("$SMALL_FILE_COUNT x ${SMALL_FILE_SIZE / 1024}KB", createZip("small.zip", SMALL_FILE_COUNT, SMALL_FILE_SIZE), SMALL_FILE_COUNT)
+    }
+
+    @Test
+    fun benchmarkFewLargeFiles() {
+        benchmark("$LARGE_FILE_COUNT x ${LARGE_FILE_SIZE / 1024 / 1024}MB", createZip("large.zip", LARGE_FILE_COUNT, LARGE_FILE_SIZE), LARGE_FILE_COUNT)
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.common
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStream
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipOutputStream
+import kotlin.random.Random
+
+/**
+ * 压缩包解压的JVM测试，覆盖并行解压结果、zip-slip、zip炸弹和tar/tar.gz。
+ */
+class ArchiveExtractorTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun zip(entries: Map<String, ByteArray>): File {
+        val file = folder.newFile()
+        ZipOutputStream(FileOutputStream(file)).use { zip ->
+            entries.forEach { (name, data) ->
+                zip.putNextEntry(ZipEntry(name))
+                zip.write(data)
+                zip.closeEntry()
+            }
+        }
+        return file
+    }
+
+    private fun tar(entries: Map<String, ByteArray>, gzip: Boolean): File {
+        val file = folder.newFile()
+        val output: OutputStream = if (gzip) GZIPOutputStream(FileOutputStream(file)) else FileOutputStream(file)
+        TarArchiveOutputStream(output).use { tar ->
+            entries.forEach { (name, data) ->
+                val entry = TarArchiveEntry(name)
+                entry.size = data.size.toLong()
+                tar.putArchiveEntry(entry)
+                tar.write(data)
+                tar.closeArchiveEntry()
+            }
+        }
+        return file
+    }
+
+    @Test
+    fun unzipManyEntriesInParallel() {
+        val random = Random(1)
+        val entries = LinkedHashMap<String, ByteArray>()
+        for (i in 0 until 300) {
+            entries["dir${i % 7}/sub/file$i.bin"] = random.nextBytes(random.nextInt(0, 20_000))
+        }
+        entries["big.bin"] = ByteArray(3 * 1024 * 1024) { (it % 251).toByte() }
+        val target = File(folder.root, "out")
+        // 旧文件比新内容大，解压后应被截断
+        File(target, "big.bin").apply {
+            parentFile.mkdirs()
+            writeBytes(ByteArray(5 * 1024 * 1024))
+        }
+        val processed = AtomicLong()
+        val result = ArchiveExtractor.unzip(zip(entries), target) { done, _ -> processed.set(done) }
+        assertEquals(entries.size, result.fileCount)
+        assertEquals(entries.values.sumOf { it.size.toLong() }, result.totalBytes)
+        assertEquals(result.totalBytes, processed.get())
+        entries.forEach { (name, data) ->
+            assertArrayEquals(name, data, File(target, name).readBytes())
+        }
+    }
+
+    @Test
+    fun zipSlipIsRejected() {
+        val target = File(folder.root, "out")
+        try {
+            ArchiveExtractor.unzip(zip(mapOf("ok.txt" to byteArrayOf(1), "../evil.txt" to byteArrayOf(2))), target)
+            throw AssertionError("zip-slip not rejected")
+        } catch (e: ZipException) {
+            assertFalse(File(folder.root, "evil.txt").exists())
+            // 在解压任何文件之前就已拒绝
+            assertFalse(File(target, "ok.txt").exists())
+        }
+    }
+
+    @Test(expected = ZipException::class)
+    fun highCompressionRatioIsRejected() {
+        val bomb = zip(mapOf("zeros.bin" to ByteArray(20 * 1024 * 1024)))
+        ArchiveExtractor.unzip(bomb, File(folder.root, "out"), ArchiveExtractor.Limits(maxCompressionRatio = 100))
+    }
+
+    @Test(expected = ZipException::class)
+    fun totalSizeLimitIsEnforced() {
+        val entries = (0 until 10).associate { "f$it" to ByteArray(1024) { i -> i.toByte() } }
+        ArchiveExtractor.unzip(zip(entries), File(folder.root, "out"), ArchiveExtractor.Limits(maxTotalBytes = 5000))
+    }
+
+    @Test
+    fun untarPlainAndGzip() {
+        val entries = mapOf("a/b.txt" to "hello".toByteArray(), "c.bin" to Random(2).nextBytes(300_000))
+        for (gzip in listOf(false, true)) {
+            val target = File(folder.root, "tar$gzip")
+            val result = ArchiveExtractor.untar(tar(entries, gzip), target)
+            assertEquals(2, result.fileCount)
+            entries.forEach { (name, data) ->
+                assertArrayEquals(data, File(target, name).readBytes())
+            }
+        }
+    }
+
+    @Test
+    fun tarSlipIsRejected() {
+        val target = File(folder.root, "out")
+        try {
+            ArchiveExtractor.untar(tar(mapOf("../evil.txt" to byteArrayOf(1)), false), target)
+            throw AssertionError("tar-slip not rejected")
+        } catch (e: ZipException) {
+            assertTrue(target.exists())
+            assertFalse(File(folder.root, "evil.txt").exists())
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.common
+
+import com.ct.ertclib.dc.core.common.Benchmark
+import com.ct.ertclib.dc.core.constants.CommonConstants.FILE_CHECKSUM_PARALLEL_THRESHOLD
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileInputStream
+import java.math.BigInteger
+import java.security.MessageDigest
+import java.util.zip.CRC32
+import kotlin.random.Random
+
+/**
+ * 校验值计算的JVM测试：预读MD5和分段CRC32的结果与顺序计算一致，开启基准时记录计算耗时。
+ */
+class FileChecksumTest {
+
+    companion object {
+        private const val TAG = "FileChecksumTest"
+    }
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun crc32CombineMatchesSequential() {
+        val random = Random(1)
+        val data = random.nextBytes(10_000)
+        val whole = CRC32().apply { update(data) }.value
+        listOf(0, 1, 4999, 9999, 10_000).forEach { split ->
+            val first = CRC32().apply { update(data, 0, split) }.value
+            val second = CRC32().apply { update(data, split, data.size - split) }.value
+            assertEquals(whole, FileChecksum.crc32Combine(first, second, (data.size - split).toLong()))
+        }
+    }
+
+    @Test
+    fun smallFileMatchesSequential() {
+        val file = createFile(1_000_003)
+        assertChecksums(file)
+    }
+
+    @Test
+    fun largeFileMatchesSequential() {
+        val file = createFile(FILE_CHECKSUM_PARALLEL_THRESHOLD + 12_345)
+        assertChecksums(file)
+    }
+
+    private fun assertChecksums(file: File) {
+        val data = file.readBytes()
+        val md5 = BigInteger(1, MessageDigest.getInstance("MD5").digest(data)).toString(16).padStart(32, '0')
+        val crc32 = CRC32().apply { update(data) }.value.toString(16).padStart(8, '0')
+        var lastProgress = 0L
+        var start = System.nanoTime()
+        val actualMd5 = compute(file, FileChecksum.ALGORITHM_MD5) { done, _ -> lastProgress = done }
+        val md5Millis = (System.nanoTime() - start) / 1_000_000
+        assertEquals(md5, actualMd5)
+        assertEquals(file.length(), lastProgress)
+        start = System.nanoTime()
+        assertEquals(crc32, compute(file, FileChecksum.ALGORITHM_CRC32, null))
+        val crc32Millis = (System.nanoTime() - start) / 1_000_000
+        if (Benchmark.isEnabled) {
+            Benchmark.report(TAG, "size:${file.length()}, md5: $md5Millis ms, crc32: $crc32Millis ms")
+        }
+    }
+
+    private fun compute(file: File, algorithm: String, onProgress: ((Long, Long) -> Unit)?): String {
+        return FileInputStream(file).use { stream ->
+            runBlocking { FileChecksum.compute(stream.channel, file.length(), algorithm, onProgress) }
+        }
+    }
+
+    private fun createFile(size: Long): File {
+        val file = folder.newFile()
+        val random = Random(size)
+        file.outputStream().buffered().use { output ->
+            val block = ByteArray(64 * 1024)
+            var written = 0L
+            while (written < size) {
+                random.nextBytes(block)
+                val length = minOf(block.size.toLong(), size - written).toInt()
+                output.write(block, 0, length)
+                written += length
+            }
+        }
+        return file
+    }
+}
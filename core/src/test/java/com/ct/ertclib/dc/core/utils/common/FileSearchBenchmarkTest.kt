@@ -0,0 +1,155 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.common
+
+import com.ct.ertclib.dc.core.common.Benchmark
+import org.junit.AfterClass
+import org.junit.Assert.assertEquals
+import org.junit.BeforeClass
+import org.junit.Test
+import java.sql.Connection
+import java.sql.DriverManager
+import kotlin.random.Random
+
+/**
+ * 文件搜索的JVM基准，在10万条模拟文件名上对比原LIKE查询与全文索引查询的耗时，结果见[Benchmark.report]。
+ * 建表与触发器语句与NewCallDatabase中13-14的迁移一致，表只建一次，各用例共用。默认跳过，开启方式见[Benchmark]。
+ */
+class FileSearchBenchmarkTest {
+
+    companion object {
+        private const val TAG = "FileSearchBenchmarkTest"
+        private const val ROW_COUNT = 100_000
+        private const val WARMUP_COUNT = 3
+        private const val MEASURE_COUNT = 20
+        private val WORDS = listOf(
+            "合同", "会议纪要", "报价单", "report", "invoice", "IMG", "VID",
+            "screenshot", "备份", "简历", "发票", "photo", "scan", "document", "项目计划"
+        )
+        private val SUFFIXES = listOf(".jpg", ".pdf", ".docx", ".mp4")
+        private val QUERIES = listOf(
+            listOf("会议纪要"), listOf("invoice_"), listOf("12345"), listOf("发票", "简历"), listOf("a")
+        )
+
+        private lateinit var connection: Connection
+
+        @BeforeClass
+        @JvmStatic
+        fun setUp() {
+            Benchmark.assumeEnabled()
+            connection = DriverManager.getConnection("jdbc:sqlite::memory:")
+            connection.createStatement().use { statement ->
+                statement.execute(
+                    "CREATE TABLE files (path TEXT PRIMARY KEY NOT NULL, name TEXT NOT NULL, " +
+                            "lastModified INTEGER NOT NULL DEFAULT 0, nameGrams TEXT NOT NULL DEFAULT '')"
+                )
+                statement.execute("CREATE VIRTUAL TABLE files_fts USING FTS4(`nameGrams` TEXT NOT NULL, content=`files`)")
+                statement.execute(
+                    "CREATE TRIGGER files_fts_BEFORE_UPDATE BEFORE UPDATE ON `files` " +
+                            "BEGIN DELETE FROM `files_fts` WHERE `docid`=OLD.`rowid`; END"
+                )
+                statement.execute(
+                    "CREATE TRIGGER files_fts_BEFORE_DELETE BEFORE DELETE ON `files` " +
+                            "BEGIN DELETE FROM `files_fts` WHERE `docid`=OLD.`rowid`; END"
+                )
+                statement.execute(
+                    "CREATE TRIGGER files_fts_AFTER_UPDATE AFTER UPDATE ON `files` " +
+                            "BEGIN INSERT INTO `files_fts`(`docid`, `nameGrams`) VALUES (NEW.`rowid`, NEW.`nameGrams`); END"
+                )
+                statement.execute(
+                    "CREATE TRIGGER files_fts_AFTER_INSERT AFTER INSERT ON `files` " +
+                            "BEGIN INSERT INTO `files_fts`(`docid`, `nameGrams`) VALUES (NEW.`rowid`, NEW.`nameGrams`); END"
+                )
+            }
+            val random = Random(1)
+            connection.autoCommit = false
+            connection.prepareStatement("INSERT OR IGNORE INTO files VALUES (?, ?, ?, ?)").use { statement ->
+                for (i in 0 until ROW_COUNT) {
+                    val cjk = (0 until random.nextInt(5)).map { (0x4E00 + random.nextInt(3000)).toChar() }.joinToString("")
+                    val name = WORDS[random.nextInt(WORDS.size)] + "_" + cjk + random.nextInt(100_000) +
+                            SUFFIXES[random.nextInt(SUFFIXES.size)]
+                    statement.setString(1, "/sdcard/dir${i % 50}/$i/$name")
+                    statement.setString(2, name)
+                    statement.setLong(3, random.nextLong(1_000_000_000_000L))
+                    statement.setString(4, SearchGrams.toGrams(name))
+                    statement.addBatch()
+                }
+                statement.executeBatch()
+            }
+            connection.commit()
+            connection.autoCommit = true
+        }
+
+        @AfterClass
+        @JvmStatic
+        fun tearDown() {
+            if (::connection.isInitialized) {
+                connection.close()
+            }
+        }
+    }
+
+    @Test
+    fun benchmark() {
+        QUERIES.forEach { keywords ->
+            val likeSql = "SELECT * FROM files WHERE ${keywords.joinToString(" OR ") { "name LIKE ?" }}"
+            val likeArgs = keywords.map { "%$it%" }.toTypedArray<Any>()
+            val (ftsSql, ftsArgs) = SearchGrams.buildFileSearchQuery(keywords)
+
+            val likePaths = queryPaths(likeSql, likeArgs)
+            val ftsPaths = queryPaths(ftsSql, ftsArgs)
+            assertEquals(likePaths.toSet(), ftsPaths.toSet())
+
+            val likeMillis = measure { queryPaths(likeSql, likeArgs) }
+            val ftsMillis = measure { queryPaths(ftsSql, ftsArgs) }
+            Benchmark.report(TAG, "keywords:$keywords, rows:${ftsPaths.size}, " +
+                    "like: ${"%.2f".format(likeMillis)} ms, fts: ${"%.2f".format(ftsMillis)} ms")
+        }
+    }
+
+    @Test
+    fun updateKeepsIndexInSync() {
+        val name = "季度总结.pptx"
+        connection.prepareStatement("UPDATE files SET name = ?, nameGrams = ? WHERE rowid = 1").use { statement ->
+            statement.setString(1, name)
+            statement.setString(2, SearchGrams.toGrams(name))
+            statement.executeUpdate()
+        }
+        val (sql, args) = SearchGrams.buildFileSearchQuery(listOf("度总"))
+        assertEquals(1, queryPaths(sql, args).size)
+    }
+
+    private fun queryPaths(sql: String, args: Array<Any>): List<String> {
+        val paths = ArrayList<String>()
+        connection.prepareStatement(sql).use { statement ->
+            args.forEachIndexed { index, arg -> statement.setObject(index + 1, arg) }
+            statement.executeQuery().use { resultSet ->
+                while (resultSet.next()) {
+                    paths.add(resultSet.getString("path"))
+                }
+            }
+        }
+        return paths
+    }
+
+    private inline fun measure(block: () -> Unit): Double {
+        repeat(WARMUP_COUNT) { block() }
+        val start = System.nanoTime()
+        repeat(MEASURE_COUNT) { block() }
+        return (System.nanoTime() - start) / 1_000_000.0 / MEASURE_COUNT
+    }
+}
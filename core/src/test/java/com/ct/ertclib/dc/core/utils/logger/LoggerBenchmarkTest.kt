@@ -0,0 +1,118 @@
+/*
+ *   Copyright 2025-China Telecom Research Institute.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.ct.ertclib.dc.core.utils.logger
+
+import com.ct.ertclib.dc.core.common.Benchmark
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * 日志级别判断的JVM测试，以及单次调用耗时的微基准。基准默认跳过，耗时见[Benchmark.report]，不做断言。
+ */
+class LoggerBenchmarkTest {
+
+    companion object {
+        private const val TAG = "LoggerBenchmarkTest"
+        private const val WARMUP_COUNT = 200_000
+        private const val MEASURE_COUNT = 1_000_000
+    }
+
+    private class CountingAppender : Appender() {
+        @Volatile
+        var count = 0L
+
+        override fun printTrace(classname: String, level: Int, trace: String) {
+            count++
+        }
+    }
+
+    private val appender = CountingAppender()
+    private val asyncAppender = AsyncAppender(appender)
+    private val sLogger: Logger = Logger.getLogger(TAG)
+    private val payload = ByteArray(1024)
+    private lateinit var previousAppenders: Array<Appender>
+
+    @Before
+    fun setUp() {
+        previousAppenders = Logger.getAppenders()
+        Logger.setAppenders(asyncAppender)
+    }
+
+    @After
+    fun tearDown() {
+        // 同一JVM中后续的测试仍使用原来的appender
+        Logger.setAppenders(*previousAppenders)
+        Logger.setTraceLevel(TAG, -1)
+        Logger.setTraceLevel(Logger.traceLevel)
+    }
+
+    @Test
+    fun supplierOnlyCalledWhenLevelEnabled() {
+        var built = 0
+        Logger.setTraceLevel(TAG, Logger.INFO_LEVEL)
+        sLogger.debug { built++; "disabled" }
+        assertEquals(0, built)
+
+        sLogger.info { built++; "enabled" }
+        Logger.setTraceLevel(TAG, Logger.DEBUG_LEVEL)
+        sLogger.debug { built++; "enabled" }
+        asyncAppender.flush()
+        assertEquals(2, built)
+        assertEquals(2L, appender.count)
+    }
+
+    @Test
+    fun benchmark() {
+        Benchmark.assumeEnabled()
+        Logger.setTraceLevel(TAG, Logger.INFO_LEVEL)
+        measure("debug disabled, eager string") { i ->
+            sLogger.debug("handleReceiveMsg index:$i, length:${payload.size}")
+        }
+        measure("debug disabled, isDebugActivated") { i ->
+            if (sLogger.isDebugActivated) {
+                sLogger.debug("handleReceiveMsg index:$i, length:${payload.size}")
+            }
+        }
+        measure("debug disabled, lambda") { i ->
+            sLogger.debug { "handleReceiveMsg index:$i, length:${payload.size}" }
+        }
+        measure("debug disabled, format args") { i ->
+            sLogger.debug("handleReceiveMsg index:%d, length:%d", i, payload.size)
+        }
+
+        Logger.setTraceLevel(TAG, Logger.DEBUG_LEVEL)
+        measure("debug enabled, async appender") { i ->
+            sLogger.debug("handleReceiveMsg index:$i, length:${payload.size}")
+        }
+        asyncAppender.flush()
+        Benchmark.report(TAG, "written:${appender.count}, dropped:${asyncAppender.droppedCount}")
+    }
+
+    private inline fun measure(name: String, block: (Int) -> Unit) {
+        for (i in 0 until WARMUP_COUNT) {
+            block(i)
+        }
+        val start = System.nanoTime()
+        for (i in 0 until MEASURE_COUNT) {
+            block(i)
+        }
+        val nanosPerCall = (System.nanoTime() - start).toDouble() / MEASURE_COUNT
+        Benchmark.report(TAG, "$name: ${"%.1f".format(nanosPerCall)} ns/call")
+    }
+}
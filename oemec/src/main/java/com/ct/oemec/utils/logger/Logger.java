@@ -21,9 +21,13 @@ import com.ct.oemec.utils.logger.AndroidAppender;
 import com.ct.oemec.utils.logger.Appender;
 import com.ct.oemec.utils.logger.ExceptionUtil;
 
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Logger
  *
+ * 日志先按级别过滤再格式化，通过{@link AsyncAppender}写入，调用线程不做IO。
  */
 public class Logger {
 
@@ -68,21 +72,59 @@ public class Logger {
     public static final boolean sActivationFlag = TRACE_ON;
 
     /**
-     * Trace level
+     * Default trace level
      */
     public static final int traceLevel = DEBUG_LEVEL;
 
+    /**
+     * Lazily built trace
+     */
+    public interface TraceSupplier {
+        String get();
+    }
+
+    /**
+     * Current global trace level
+     */
+    private static volatile int sTraceLevel = traceLevel;
+
+    /**
+     * Trace levels per classname, override the global level
+     */
+    private static final ConcurrentHashMap<String, Integer> sTagTraceLevels = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on every level change, loggers re-resolve their level lazily
+     */
+    private static volatile int sLevelVersion = 0;
+
+    /**
+     * Created loggers
+     */
+    private static final ConcurrentHashMap<String, Logger> sLoggers = new ConcurrentHashMap<>();
+
+    /**
+     * Asynchronous appender in front of all appenders
+     */
+    private static final AsyncAppender sAsyncAppender = new AsyncAppender(new AndroidAppender());
+
     /**
      * List of appenders
      */
-    private static Appender[] sAppenders = new Appender[]{
-            new AndroidAppender()
+    private static volatile Appender[] sAppenders = new Appender[]{
+            sAsyncAppender
     };
 
     /**
      * Classname
      */
-    private String mClassname;
+    private final String mClassname;
+
+    /**
+     * Resolved trace level and the level version it was resolved for
+     */
+    private int mTraceLevel = traceLevel;
+    private int mLevelVersion = -1;
 
     /**
      * Constructor
@@ -99,13 +141,88 @@ public class Logger {
     }
 
     /**
-     * Create a static instance
+     * Get the cached instance
      *
      * @param classname Classname
      * @return Instance
      */
-    public static synchronized Logger getLogger(String classname) {
-        return new Logger(classname);
+    public static Logger getLogger(String classname) {
+        Logger logger = sLoggers.get(classname);
+        if (logger == null) {
+            Logger newLogger = new Logger(classname);
+            logger = sLoggers.putIfAbsent(classname, newLogger);
+            if (logger == null) {
+                logger = newLogger;
+            }
+        }
+        return logger;
+    }
+
+    /**
+     * Set the global trace level
+     *
+     * @param level Trace level
+     */
+    public static void setTraceLevel(int level) {
+        sTraceLevel = level;
+        sLevelVersion++;
+    }
+
+    /**
+     * Set the trace level of one classname, a negative level removes the override
+     *
+     * @param classname Classname
+     * @param level Trace level
+     */
+    public static void setTraceLevel(String classname, int level) {
+        if (level < 0) {
+            sTagTraceLevels.remove(classname);
+        } else {
+            sTagTraceLevels.put(classname, level);
+        }
+        sLevelVersion++;
+    }
+
+    /**
+     * Add an appender behind the asynchronous writer, e.g. {@link FileAppender}
+     *
+     * @param appender Appender
+     */
+    public static void addAppender(Appender appender) {
+        sAsyncAppender.addAppender(appender);
+    }
+
+    /**
+     * Replace all appenders, the given appenders are called on the caller's thread
+     *
+     * @param appenders Appenders
+     */
+    public static void setAppenders(Appender... appenders) {
+        sAppenders = appenders;
+    }
+
+    /**
+     * Write all queued traces
+     */
+    public static void flush() {
+        sAsyncAppender.flush();
+    }
+
+    /**
+     * Is the level enabled for this logger
+     *
+     * @param level Trace level
+     * @return boolean
+     */
+    public boolean isLoggable(int level) {
+        if (mLevelVersion != sLevelVersion) {
+            // 先读版本号，级别在读取期间变化时下次会重新计算
+            int version = sLevelVersion;
+            Integer tagLevel = sTagTraceLevels.get(mClassname);
+            mTraceLevel = tagLevel != null ? tagLevel : sTraceLevel;
+            mLevelVersion = version;
+        }
+        return sActivationFlag == TRACE_ON && level >= mTraceLevel;
     }
 
     /**
@@ -114,7 +231,7 @@ public class Logger {
      * @return boolean
      */
     public boolean isDebugActivated() {
-        return sActivationFlag == TRACE_ON && DEBUG_LEVEL >= traceLevel;
+        return isLoggable(DEBUG_LEVEL);
     }
 
     /**
@@ -135,6 +252,25 @@ public class Logger {
         printTrace(trace, DEBUG_LEVEL);
     }
 
+    /**
+     * Debug trace, built only when DEBUG is enabled
+     *
+     * @param supplier Trace supplier
+     */
+    public void debug(TraceSupplier supplier) {
+        printTrace(supplier, DEBUG_LEVEL);
+    }
+
+    /**
+     * Debug trace, formatted only when DEBUG is enabled
+     *
+     * @param format Format
+     * @param args Arguments
+     */
+    public void debug(String format, Object... args) {
+        printTrace(format, args, DEBUG_LEVEL);
+    }
+
     /**
      * Info trace
      *
@@ -144,6 +280,25 @@ public class Logger {
         printTrace(trace, INFO_LEVEL);
     }
 
+    /**
+     * Info trace, built only when INFO is enabled
+     *
+     * @param supplier Trace supplier
+     */
+    public void info(TraceSupplier supplier) {
+        printTrace(supplier, INFO_LEVEL);
+    }
+
+    /**
+     * Info trace, formatted only when INFO is enabled
+     *
+     * @param format Format
+     * @param args Arguments
+     */
+    public void info(String format, Object... args) {
+        printTrace(format, args, INFO_LEVEL);
+    }
+
     /**
      * Warning trace
      *
@@ -160,6 +315,9 @@ public class Logger {
      * @param e Exception
      */
     public void warn(String trace, Throwable e) {
+        if (!isLoggable(WARN_LEVEL)) {
+            return;
+        }
         printTrace(trace, WARN_LEVEL);
         printTrace(ExceptionUtil.getFullStackTrace(e), WARN_LEVEL);
     }
@@ -180,6 +338,9 @@ public class Logger {
      * @param e Exception
      */
     public void error(String trace, Throwable e) {
+        if (!isLoggable(ERROR_LEVEL)) {
+            return;
+        }
         printTrace(trace, ERROR_LEVEL);
         printTrace(ExceptionUtil.getFullStackTrace(e), ERROR_LEVEL);
     }
@@ -202,7 +363,22 @@ public class Logger {
     public void fatal(String trace, Throwable e) {
         printTrace(trace, FATAL_LEVEL);
         printTrace(ExceptionUtil.getFullStackTrace(e), FATAL_LEVEL);
+        // 进程可能马上退出，等待日志写出
+        flush();
+    }
 
+    private void printTrace(TraceSupplier supplier, int level) {
+        if (supplier == null || !isLoggable(level)) {
+            return;
+        }
+        printTrace(supplier.get(), level);
+    }
+
+    private void printTrace(String format, Object[] args, int level) {
+        if (format == null || !isLoggable(level)) {
+            return;
+        }
+        printTrace(String.format(Locale.ROOT, format, args), level);
     }
 
     /**
@@ -212,15 +388,12 @@ public class Logger {
      * @param level Trace level
      */
     private void printTrace(String trace, int level) {
-        if (trace == null) {
+        if (trace == null || !isLoggable(level)) {
             return;
         }
-        if (sAppenders != null && level >= traceLevel) {
-            /*
-             * String having '\' characters are not printed out in locat console !
-             */
-            trace = trace.replace("\r", "");
-            for (Appender appender : sAppenders) {
+        Appender[] appenders = sAppenders;
+        if (appenders != null) {
+            for (Appender appender : appenders) {
                 appender.printTrace(mClassname, level, trace);
             }
         }